@@ -14,6 +14,10 @@ public class DebeziumProperties {
 
     private final Connector connector = new Connector();
     private final Source source = new Source();
+    private final Buffer buffer = new Buffer();
+    private final Dedupe dedupe = new Dedupe();
+    private final Transaction transaction = new Transaction();
+    private final Redelivery redelivery = new Redelivery();
 
     public Connector getConnector() {
         return connector;
@@ -23,6 +27,22 @@ public class DebeziumProperties {
         return source;
     }
 
+    public Buffer getBuffer() {
+        return buffer;
+    }
+
+    public Dedupe getDedupe() {
+        return dedupe;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public Redelivery getRedelivery() {
+        return redelivery;
+    }
+
     public static class Connector {
         private String name;
         private Map<String, String> properties = new HashMap<>();
@@ -117,4 +137,139 @@ public class DebeziumProperties {
             }
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * Debeziumエンジンスレッドとイベント処理パイプライン間の受け渡しバッファ設定
+     */
+    public static class Buffer {
+        // バッファに保持できるバッチ数（1バッチは最大でmax.batch.size件のレコード）
+        private int capacity = 16;
+        // 送信完了待ちにできるレコード数の上限（超えた場合はエンジンスレッドをブロックする）
+        private int ackWindow = 65536;
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getAckWindow() {
+            return ackWindow;
+        }
+
+        public void setAckWindow(int ackWindow) {
+            this.ackWindow = ackWindow;
+        }
+    }
+
+    /**
+     * 再起動後に再取得したレコードのうち、送信済みのイベントを再送しないための重複排除設定
+     */
+    public static class Dedupe {
+        // 重複排除を有効にするかどうか
+        private boolean enabled = true;
+        // 1世代に保持する送信済みイベントID数（再起動時に再取得され得るレコード数以上を指定する）
+        private int window = 131072;
+        // 送信済みイベントIDを保存するファイル（未指定の場合はメモリ上のみに保持する）
+        private String file;
+        // ファイルに保存する間隔
+        private int persistIntervalMs = 5000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = window;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public int getPersistIntervalMs() {
+            return persistIntervalMs;
+        }
+
+        public void setPersistIntervalMs(int persistIntervalMs) {
+            this.persistIntervalMs = persistIntervalMs;
+        }
+    }
+
+    /**
+     * トランザクションのメタデータ（provide.transaction.metadata）を使用して、トランザクション単位で送信する設定
+     */
+    public static class Transaction {
+        // トランザクションのメタデータを取得し、トランザクション単位で送信するかどうか
+        private boolean enabled = true;
+        // 1回の送信にまとめるトランザクション内のイベント数の上限（超えるトランザクションは分割して送信する）
+        private int maxEvents = 500;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEvents() {
+            return maxEvents;
+        }
+
+        public void setMaxEvents(int maxEvents) {
+            this.maxEvents = maxEvents;
+        }
+    }
+
+    /**
+     * 送信に失敗したイベントをエンジンスレッドから再送する設定
+     * 上限回数まで失敗したイベントはデッドレターとして保存する（保存できない場合はエンジンを停止する）
+     */
+    public static class Redelivery {
+        // 初回の再送までの待機時間（再送のたびに2倍にする）
+        private long initialBackoffMs = 1000;
+        // 再送までの待機時間の上限
+        private long maxBackoffMs = 60000;
+        // 送信を試みる回数の上限（最初の送信を含む）
+        private int maxAttempts = 10;
+
+        public long getInitialBackoffMs() {
+            return initialBackoffMs;
+        }
+
+        public void setInitialBackoffMs(long initialBackoffMs) {
+            this.initialBackoffMs = initialBackoffMs;
+        }
+
+        public long getMaxBackoffMs() {
+            return maxBackoffMs;
+        }
+
+        public void setMaxBackoffMs(long maxBackoffMs) {
+            this.maxBackoffMs = maxBackoffMs;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.example.cdcagent.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * HULFT Square設定のプロパティクラス
  */
@@ -11,19 +14,76 @@ import org.springframework.stereotype.Component;
 public class HulftSquareProperties {
 
     private final Api api = new Api();
+    private final Spill spill = new Spill();
+    private final DeadLetter deadLetter = new DeadLetter();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private final Pool pool = new Pool();
+    private final LoadBalancer loadBalancer = new LoadBalancer();
+    private final RetryBudget retryBudget = new RetryBudget();
+    private final Scheduler scheduler = new Scheduler();
+    private final Delta delta = new Delta();
 
     public Api getApi() {
         return api;
     }
 
+    public Spill getSpill() {
+        return spill;
+    }
+
+    public DeadLetter getDeadLetter() {
+        return deadLetter;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Pool getPool() {
+        return pool;
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public Delta getDelta() {
+        return delta;
+    }
+
     public static class Api {
         private String url;
+        // 振り分け先のエンドポイント（未指定の場合はurlのみに送信する）
+        private List<String> endpoints = new ArrayList<>();
         private int connectTimeout;
         private int readTimeout;
         private int writeTimeout;
+        private int minInFlight;
         private int maxInFlight;
+        private int laneCount;
         private int retryCount;
         private int retryBackoffMs;
+        // 再試行の間隔の上限（0以下の場合は制限しない）
+        private int retryMaxBackoffMs = 30000;
+        private int batchMaxEvents;
+        private int batchMaxBytes;
+        private int batchLingerMs;
+        private BatchFormat batchFormat = BatchFormat.JSON_ARRAY;
+        private Compression compression = Compression.NONE;
+        private int compressionMinBytes;
+        private Protocol protocol = Protocol.HTTP11;
+        private ResponseMode responseMode = ResponseMode.STATUS;
+        private RowEncoding rowEncoding = RowEncoding.MAP;
+        // 送信先のエンドポイント（url/endpoints）がすべて受け付ける符号化方式
+        private WireFormat wireFormat = WireFormat.JSON;
 
         public String getUrl() {
             return url;
@@ -33,6 +93,14 @@ public class HulftSquareProperties {
             this.url = url;
         }
 
+        public List<String> getEndpoints() {
+            return endpoints;
+        }
+
+        public void setEndpoints(List<String> endpoints) {
+            this.endpoints = endpoints;
+        }
+
         public int getConnectTimeout() {
             return connectTimeout;
         }
@@ -57,6 +125,20 @@ public class HulftSquareProperties {
             this.writeTimeout = writeTimeout;
         }
 
+        /**
+         * 進行中イベント数の上限の最小値（上限は送信の応答時間と失敗に応じてこの範囲で調整される）
+         */
+        public int getMinInFlight() {
+            return minInFlight;
+        }
+
+        public void setMinInFlight(int minInFlight) {
+            this.minInFlight = minInFlight;
+        }
+
+        /**
+         * 進行中イベント数の上限の最大値（初期値）
+         */
         public int getMaxInFlight() {
             return maxInFlight;
         }
@@ -65,6 +147,17 @@ public class HulftSquareProperties {
             this.maxInFlight = maxInFlight;
         }
 
+        /**
+         * 主キー単位で順序を保証する送信レーン数（0以下の場合はCPUコア数）
+         */
+        public int getLaneCount() {
+            return laneCount;
+        }
+
+        public void setLaneCount(int laneCount) {
+            this.laneCount = laneCount;
+        }
+
         public int getRetryCount() {
             return retryCount;
         }
@@ -80,5 +173,537 @@ public class HulftSquareProperties {
         public void setRetryBackoffMs(int retryBackoffMs) {
             this.retryBackoffMs = retryBackoffMs;
         }
+
+        /**
+         * 1回のリクエストにまとめるイベント数の上限（1以下の場合はイベントごとに送信）
+         */
+        public int getRetryMaxBackoffMs() {
+            return retryMaxBackoffMs;
+        }
+
+        public void setRetryMaxBackoffMs(int retryMaxBackoffMs) {
+            this.retryMaxBackoffMs = retryMaxBackoffMs;
+        }
+
+        public int getBatchMaxEvents() {
+            return batchMaxEvents;
+        }
+
+        public void setBatchMaxEvents(int batchMaxEvents) {
+            this.batchMaxEvents = batchMaxEvents;
+        }
+
+        /**
+         * 1回のリクエストにまとめるイベントの合計バイト数の上限（0以下の場合は無制限）
+         */
+        public int getBatchMaxBytes() {
+            return batchMaxBytes;
+        }
+
+        public void setBatchMaxBytes(int batchMaxBytes) {
+            this.batchMaxBytes = batchMaxBytes;
+        }
+
+        /**
+         * 最初のイベントを受け取ってからリクエストを送信するまでの最大待機時間
+         */
+        public int getBatchLingerMs() {
+            return batchLingerMs;
+        }
+
+        public void setBatchLingerMs(int batchLingerMs) {
+            this.batchLingerMs = batchLingerMs;
+        }
+
+        public BatchFormat getBatchFormat() {
+            return batchFormat;
+        }
+
+        public void setBatchFormat(BatchFormat batchFormat) {
+            this.batchFormat = batchFormat;
+        }
+
+        public Compression getCompression() {
+            return compression;
+        }
+
+        public void setCompression(Compression compression) {
+            this.compression = compression;
+        }
+
+        /**
+         * 圧縮するリクエストボディの最小バイト数（これより小さいボディは圧縮しない）
+         */
+        public int getCompressionMinBytes() {
+            return compressionMinBytes;
+        }
+
+        public void setCompressionMinBytes(int compressionMinBytes) {
+            this.compressionMinBytes = compressionMinBytes;
+        }
+
+        public Protocol getProtocol() {
+            return protocol;
+        }
+
+        public void setProtocol(Protocol protocol) {
+            this.protocol = protocol;
+        }
+
+        public ResponseMode getResponseMode() {
+            return responseMode;
+        }
+
+        public void setResponseMode(ResponseMode responseMode) {
+            this.responseMode = responseMode;
+        }
+
+        public RowEncoding getRowEncoding() {
+            return rowEncoding;
+        }
+
+        public void setRowEncoding(RowEncoding rowEncoding) {
+            this.rowEncoding = rowEncoding;
+        }
+
+        public WireFormat getWireFormat() {
+            return wireFormat;
+        }
+
+        public void setWireFormat(WireFormat wireFormat) {
+            this.wireFormat = wireFormat;
+        }
+    }
+
+    /**
+     * 送信できなかったイベントをディスクに退避する設定
+     */
+    public static class Spill {
+        private boolean enabled;
+        private String directory;
+        // セグメントファイル1つのサイズ
+        private int segmentBytes = 64 * 1024 * 1024;
+        // 退避したイベントの再送で、応答を待たずに並行して送信するリクエスト数の上限
+        private int drainInFlight = 4;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getSegmentBytes() {
+            return segmentBytes;
+        }
+
+        public void setSegmentBytes(int segmentBytes) {
+            this.segmentBytes = segmentBytes;
+        }
+
+        public int getDrainInFlight() {
+            return drainInFlight;
+        }
+
+        public void setDrainInFlight(int drainInFlight) {
+            this.drainInFlight = drainInFlight;
+        }
+    }
+
+    /**
+     * 配信できなかったイベントをデッドレターとして保存する設定
+     */
+    public static class DeadLetter {
+        private boolean enabled;
+        private String directory;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * HULFT Squareへのリクエストを遮断するサーキットブレーカーの設定
+     */
+    public static class CircuitBreaker {
+        // 遮断状態にする連続失敗回数
+        private int failureThreshold = 5;
+        // 遮断状態を維持する時間
+        private int openMs = 10000;
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public int getOpenMs() {
+            return openMs;
+        }
+
+        public void setOpenMs(int openMs) {
+            this.openMs = openMs;
+        }
+    }
+
+    /**
+     * HULFT Squareへの接続プールの設定
+     */
+    public static class Pool {
+        // 最大接続数（HTTP/2の場合は接続ごとに複数のリクエストを多重化する）
+        private int maxConnections = 50;
+        // 接続の空きを待つリクエスト数の上限（-1の場合は無制限）
+        private int pendingAcquireMaxCount = 1000;
+        // 接続の空きを待つ時間の上限
+        private int pendingAcquireTimeoutMs = 45000;
+        // 使用されていない接続を破棄するまでの時間（0以下の場合は破棄しない）
+        private int maxIdleTimeMs = 30000;
+        // 接続を使い続ける時間の上限（0以下の場合は制限しない）
+        private int maxLifeTimeMs;
+        // 期限切れの接続をバックグラウンドで破棄する間隔（0以下の場合は取得時のみ破棄する）
+        private int evictInBackgroundMs = 30000;
+        // TCPキープアライブを有効にするかどうか
+        private boolean keepAlive = true;
+        // 接続プールのメトリクスを記録するかどうか
+        private boolean metricsEnabled = true;
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getPendingAcquireMaxCount() {
+            return pendingAcquireMaxCount;
+        }
+
+        public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+        public int getPendingAcquireTimeoutMs() {
+            return pendingAcquireTimeoutMs;
+        }
+
+        public void setPendingAcquireTimeoutMs(int pendingAcquireTimeoutMs) {
+            this.pendingAcquireTimeoutMs = pendingAcquireTimeoutMs;
+        }
+
+        public int getMaxIdleTimeMs() {
+            return maxIdleTimeMs;
+        }
+
+        public void setMaxIdleTimeMs(int maxIdleTimeMs) {
+            this.maxIdleTimeMs = maxIdleTimeMs;
+        }
+
+        public int getMaxLifeTimeMs() {
+            return maxLifeTimeMs;
+        }
+
+        public void setMaxLifeTimeMs(int maxLifeTimeMs) {
+            this.maxLifeTimeMs = maxLifeTimeMs;
+        }
+
+        public int getEvictInBackgroundMs() {
+            return evictInBackgroundMs;
+        }
+
+        public void setEvictInBackgroundMs(int evictInBackgroundMs) {
+            this.evictInBackgroundMs = evictInBackgroundMs;
+        }
+
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        public boolean isMetricsEnabled() {
+            return metricsEnabled;
+        }
+
+        public void setMetricsEnabled(boolean metricsEnabled) {
+            this.metricsEnabled = metricsEnabled;
+        }
+    }
+
+    /**
+     * 複数のエンドポイントへの振り分けの設定
+     */
+    public static class LoadBalancer {
+        // 振り分け対象から外す連続失敗回数
+        private int ejectFailures = 3;
+        // 振り分け対象から外す時間（経過後に再び振り分けて復旧を確認する）
+        private int ejectMs = 30000;
+        // 応答時間のピークを減衰させる時定数
+        private int decayMs = 10000;
+
+        public int getEjectFailures() {
+            return ejectFailures;
+        }
+
+        public void setEjectFailures(int ejectFailures) {
+            this.ejectFailures = ejectFailures;
+        }
+
+        public int getEjectMs() {
+            return ejectMs;
+        }
+
+        public void setEjectMs(int ejectMs) {
+            this.ejectMs = ejectMs;
+        }
+
+        public int getDecayMs() {
+            return decayMs;
+        }
+
+        public void setDecayMs(int decayMs) {
+            this.decayMs = decayMs;
+        }
+    }
+
+    /**
+     * 再試行の回数を通常のリクエスト数の一定割合に制限するバジェットの設定
+     */
+    public static class RetryBudget {
+        // 通常のリクエスト数に対して許容する再試行の割合（%）
+        private int percent = 20;
+        // 通常のリクエスト数に関わらず許容する1秒あたりの再試行回数
+        private int minRetriesPerSecond = 10;
+
+        public int getPercent() {
+            return percent;
+        }
+
+        public void setPercent(int percent) {
+            this.percent = percent;
+        }
+
+        public int getMinRetriesPerSecond() {
+            return minRetriesPerSecond;
+        }
+
+        public void setMinRetriesPerSecond(int minRetriesPerSecond) {
+            this.minRetriesPerSecond = minRetriesPerSecond;
+        }
+    }
+
+    /**
+     * テーブルごとの送信キューと、送信キュー間のスケジューリングの設定
+     */
+    public static class Scheduler {
+        // 上流から取り出して送信キューに保持するイベント数の上限（全キューの合計）
+        private int queueCapacity = 10000;
+        // テーブルごとの送信キュー（どのキューにも一致しないテーブルはdefaultキューに入る）
+        private List<TableQueue> queues = new ArrayList<>();
+        // defaultキューの優先度
+        private int defaultPriority = 0;
+        // defaultキューの重み
+        private int defaultWeight = 1;
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public List<TableQueue> getQueues() {
+            return queues;
+        }
+
+        public void setQueues(List<TableQueue> queues) {
+            this.queues = queues;
+        }
+
+        public int getDefaultPriority() {
+            return defaultPriority;
+        }
+
+        public void setDefaultPriority(int defaultPriority) {
+            this.defaultPriority = defaultPriority;
+        }
+
+        public int getDefaultWeight() {
+            return defaultWeight;
+        }
+
+        public void setDefaultWeight(int defaultWeight) {
+            this.defaultWeight = defaultWeight;
+        }
+    }
+
+    /**
+     * UPDATEイベントを値が変わった列のみの差分形式で送信する設定
+     */
+    public static class Delta {
+        // 差分形式で送信するテーブル（database.table形式、database.* でデータベース内のすべてのテーブル）
+        private List<String> tables = new ArrayList<>();
+
+        public List<String> getTables() {
+            return tables;
+        }
+
+        public void setTables(List<String> tables) {
+            this.tables = tables;
+        }
+    }
+
+    /**
+     * テーブル（またはテーブルのグループ）の送信キュー
+     */
+    public static class TableQueue {
+        // キュー名（メトリクスのタグに使用する）
+        private String name;
+        // 対象のテーブル（database.table形式、database.* でデータベース内のすべてのテーブル）
+        private List<String> tables = new ArrayList<>();
+        // 優先度（大きいほど優先し、優先度の高いキューに滞留がある間は低いキューから送信しない）
+        private int priority = 0;
+        // 同じ優先度のキュー間で送信するイベント数の比率
+        private int weight = 1;
+        // 同じ行（主キー）の変更をまとめるために送信を保留する時間（0の場合はまとめない）
+        private int coalesceMs = 0;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getTables() {
+            return tables;
+        }
+
+        public void setTables(List<String> tables) {
+            this.tables = tables;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        public int getCoalesceMs() {
+            return coalesceMs;
+        }
+
+        public void setCoalesceMs(int coalesceMs) {
+            this.coalesceMs = coalesceMs;
+        }
+    }
+
+    /**
+     * HULFT Squareとの通信に使用するHTTPのバージョン
+     */
+    public enum Protocol {
+        // HTTP/1.1
+        HTTP11,
+        // 平文のHTTP/2（事前知識方式、同じ接続で複数のリクエストを多重化する）
+        H2C
+    }
+
+    /**
+     * HULFT Squareからの応答の扱い
+     */
+    public enum ResponseMode {
+        // ステータスコードのみを確認し、応答ボディは読み捨てる
+        STATUS,
+        // まとめて送信した場合は、応答ボディのイベントごとのACK配列を逐次解析する
+        ACK
+    }
+
+    /**
+     * イベントの行（before/after）の形式
+     */
+    public enum RowEncoding {
+        // 列名と値のオブジェクト
+        MAP,
+        // スキーマIDと列の並び順の値の配列（スキーマの定義は送信先に届くまでイベントに含める）
+        SCHEMA
+    }
+
+    /**
+     * イベントの符号化方式
+     */
+    public enum WireFormat {
+        // JSON（application/json）
+        JSON,
+        // Jacksonのバイナリ形式のJSON（application/x-jackson-smile）
+        SMILE,
+        // CBOR（application/cbor）
+        CBOR
+    }
+
+    /**
+     * まとめて送信する際のリクエストボディの形式（JSONで送信する場合のみ有効）
+     */
+    public enum BatchFormat {
+        // JSON配列
+        JSON_ARRAY,
+        // 改行区切りJSON（application/x-ndjson）
+        NDJSON
+    }
+
+    /**
+     * リクエストボディの圧縮方式（Content-Encodingの値）
+     */
+    public enum Compression {
+        NONE(null),
+        GZIP("gzip"),
+        DEFLATE("deflate"),
+        ZSTD("zstd");
+
+        private final String encoding;
+
+        Compression(String encoding) {
+            this.encoding = encoding;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
     }
-} 
\ No newline at end of file
+}
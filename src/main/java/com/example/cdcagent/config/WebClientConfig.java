@@ -8,7 +8,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
 import java.util.concurrent.TimeUnit;
@@ -25,10 +27,40 @@ public class WebClientConfig {
         this.hulftSquareProperties = hulftSquareProperties;
     }
 
+    /**
+     * HULFT Square専用の接続プール
+     * 共有のプールとは分けて、接続数・待機数・アイドル接続の破棄を設定できるようにする
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider hulftSquareConnectionProvider() {
+        HulftSquareProperties.Pool pool = hulftSquareProperties.getPool();
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("hulft-square")
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(pool.getPendingAcquireTimeoutMs()))
+                // 古い接続から再利用し、使われなくなった接続をアイドル時間で破棄しやすくする
+                .fifo()
+                // Micrometerのグローバルレジストリに reactor.netty.connection.provider.* を記録する
+                .metrics(pool.isMetricsEnabled());
+        if (pool.getMaxIdleTimeMs() > 0) {
+            builder.maxIdleTime(Duration.ofMillis(pool.getMaxIdleTimeMs()));
+        }
+        if (pool.getMaxLifeTimeMs() > 0) {
+            builder.maxLifeTime(Duration.ofMillis(pool.getMaxLifeTimeMs()));
+        }
+        if (pool.getEvictInBackgroundMs() > 0) {
+            builder.evictInBackground(Duration.ofMillis(pool.getEvictInBackgroundMs()));
+        }
+        return builder.build();
+    }
+
     @Bean
-    public WebClient webClient() {
-        HttpClient httpClient = HttpClient.create()
+    public WebClient webClient(ConnectionProvider hulftSquareConnectionProvider) {
+        HttpClient httpClient = HttpClient.create(hulftSquareConnectionProvider)
+                .protocol(hulftSquareProperties.getApi().getProtocol() == HulftSquareProperties.Protocol.H2C
+                        ? HttpProtocol.H2C : HttpProtocol.HTTP11)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, hulftSquareProperties.getApi().getConnectTimeout())
+                .option(ChannelOption.SO_KEEPALIVE, hulftSquareProperties.getPool().isKeepAlive())
                 .responseTimeout(Duration.ofMillis(hulftSquareProperties.getApi().getReadTimeout()))
                 .doOnConnected(conn -> 
                         conn.addHandlerLast(new ReadTimeoutHandler(hulftSquareProperties.getApi().getReadTimeout(), TimeUnit.MILLISECONDS))
@@ -2,13 +2,18 @@ package com.example.cdcagent.controller;
 
 import com.example.cdcagent.service.AgentStateManager;
 import com.example.cdcagent.service.CdcService;
+import com.example.cdcagent.service.DeadLetterService;
+import com.example.cdcagent.service.DeadLetterStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,11 +27,13 @@ public class AgentController {
     
     private final CdcService cdcService;
     private final AgentStateManager stateManager;
+    private final DeadLetterService deadLetterService;
 
     @Autowired
-    public AgentController(CdcService cdcService, AgentStateManager stateManager) {
+    public AgentController(CdcService cdcService, AgentStateManager stateManager, DeadLetterService deadLetterService) {
         this.cdcService = cdcService;
         this.stateManager = stateManager;
+        this.deadLetterService = deadLetterService;
     }
 
     /**
@@ -138,7 +145,83 @@ public class AgentController {
         
         return ResponseEntity.ok(Map.of(
                 "status", "success",
-                "state", stateManager.getState().toString()
+                "state", stateManager.getState().toString(),
+                "circuitBreaker", cdcService.getCircuitBreakerState().toString()
         ));
     }
-} 
\ No newline at end of file
+
+    /**
+     * デッドレターを保存順に取得
+     * @param table テーブル（database.table形式）
+     * @param from 保存時刻の下限（含む）
+     * @param to 保存時刻の上限（含まない）
+     * @param limit 取得件数の上限
+     */
+    @GetMapping("/dead-letters")
+    public ResponseEntity<Map<String, Object>> deadLetters(
+            @RequestParam(required = false) String table,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "100") int limit) {
+        logger.info("デッドレター取得リクエストを受信");
+
+        List<DeadLetterStore.DeadLetter> deadLetters = deadLetterService.find(table, from, to, limit);
+        return ResponseEntity.ok(Map.of(
+                "status", "success",
+                "deadLetters", deadLetters
+        ));
+    }
+
+    /**
+     * デッドレターの件数を取得
+     */
+    @GetMapping("/dead-letters/count")
+    public ResponseEntity<Map<String, Object>> countDeadLetters(
+            @RequestParam(required = false) String table,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to) {
+        logger.info("デッドレター件数確認リクエストを受信");
+
+        return ResponseEntity.ok(Map.of(
+                "status", "success",
+                "count", deadLetterService.count(table, from, to)
+        ));
+    }
+
+    /**
+     * デッドレターをまとめて再送
+     * 再送は通常の送信経路で行うため、エージェントが実行中の場合のみ受け付ける
+     * 別の再送が実行中の場合は受け付けない
+     */
+    @PostMapping("/dead-letters/replay")
+    public Mono<ResponseEntity<Map<String, Object>>> replayDeadLetters(
+            @RequestParam(required = false) String table,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "10000") int limit) {
+        logger.info("デッドレター再送リクエストを受信");
+
+        if (!stateManager.isRunning()) {
+            return Mono.just(ResponseEntity
+                    .status(HttpStatus.CONFLICT)
+                    .body(Map.of(
+                            "status", "error",
+                            "message", "エージェントは実行中ではないため再送できません",
+                            "state", stateManager.getState().toString()
+                    )));
+        }
+
+        return cdcService.replayDeadLetters(table, from, to, limit)
+                .map(result -> ResponseEntity.ok(Map.<String, Object>of(
+                        "status", "success",
+                        "replayed", result.replayed(),
+                        "failed", result.failed()
+                )))
+                .onErrorResume(CdcService.ReplayInProgressException.class, e -> Mono.just(ResponseEntity
+                        .status(HttpStatus.CONFLICT)
+                        .body(Map.of(
+                                "status", "error",
+                                "message", e.getMessage()
+                        ))));
+    }
+}
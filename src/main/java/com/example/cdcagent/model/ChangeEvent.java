@@ -1,7 +1,9 @@
 package com.example.cdcagent.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -18,6 +20,16 @@ public class ChangeEvent {
     private Instant timestamp;
     private Map<String, Object> before;
     private Map<String, Object> after;
+    private Map<String, Object> key;
+    private String transactionId;
+    private Long transactionOrder;
+    private Long transactionEventCount;
+    private Boolean delta;
+    private List<String> nullColumns;
+    @JsonIgnore
+    private long sequence = -1L;
+    @JsonIgnore
+    private boolean replay;
 
     public enum OperationType {
         INSERT, UPDATE, DELETE
@@ -102,6 +114,96 @@ public class ChangeEvent {
         this.after = after;
     }
 
+    /**
+     * 主キーの列と値（主キーの無いテーブルではnull）
+     */
+    public Map<String, Object> getKey() {
+        return key;
+    }
+
+    public void setKey(Map<String, Object> key) {
+        this.key = key;
+    }
+
+    /**
+     * 変更を行ったトランザクションのID（トランザクションのメタデータが無い場合はnull）
+     */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(String transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    /**
+     * トランザクション内での変更の順序（1から始まる。トランザクションのメタデータが無い場合はnull）
+     */
+    public Long getTransactionOrder() {
+        return transactionOrder;
+    }
+
+    public void setTransactionOrder(Long transactionOrder) {
+        this.transactionOrder = transactionOrder;
+    }
+
+    /**
+     * トランザクションに含まれるイベント数（トランザクション単位で送信する場合に、トランザクションの最後のイベントにのみ設定する）
+     */
+    public Long getTransactionEventCount() {
+        return transactionEventCount;
+    }
+
+    public void setTransactionEventCount(Long transactionEventCount) {
+        this.transactionEventCount = transactionEventCount;
+    }
+
+    /**
+     * 差分形式の場合true（afterには値が変わった列のみを含み、NULLに変わった列はnullColumnsに含む）
+     */
+    public Boolean getDelta() {
+        return delta;
+    }
+
+    public void setDelta(Boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * 差分形式の場合に、NULLに変わった列
+     */
+    public List<String> getNullColumns() {
+        return nullColumns;
+    }
+
+    public void setNullColumns(List<String> nullColumns) {
+        this.nullColumns = nullColumns;
+    }
+
+    /**
+     * 受信順に払い出されたレコードの連番（オフセットのコミット位置の管理に使用し、送信はしない）
+     */
+    @JsonIgnore
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * デッドレターから再送するイベントの場合true（送信に失敗した際にデッドレターへの保存や退避を行わないために使用し、送信はしない）
+     */
+    @JsonIgnore
+    public boolean isReplay() {
+        return replay;
+    }
+
+    public void setReplay(boolean replay) {
+        this.replay = replay;
+    }
+
     @Override
     public String toString() {
         return "ChangeEvent{" +
@@ -0,0 +1,158 @@
+package com.example.cdcagent.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Debeziumの1回のポーリングで取得した変更イベントのバッチ
+ * トランザクション単位で送信する場合は、1つのトランザクション（上限を超える場合はその一部）のイベントのバッチとなる
+ * 全イベントの送信結果が報告された時点で完了となる
+ */
+public class ChangeEventBatch {
+
+    private final List<ChangeEvent> events;
+    private final AtomicInteger remaining;
+    private final Queue<ChangeEvent> failedEvents = new ConcurrentLinkedQueue<>();
+    private final Consumer<ChangeEvent> onDelivered;
+    private final boolean transaction;
+    // 送信を試みた回数（最初の送信を1回目とする）
+    private final int attempt;
+    // 全イベントの送信結果が報告された時刻（System.nanoTime()）
+    private volatile long completedNanos;
+    private final CompletableFuture<ChangeEventBatch> completion = new CompletableFuture<>();
+
+    public ChangeEventBatch(List<ChangeEvent> events) {
+        this(events, event -> { });
+    }
+
+    /**
+     * @param events バッチに含まれるイベント
+     * @param onDelivered イベントの送信に成功するたびに、送信したスレッドで呼び出される
+     */
+    public ChangeEventBatch(List<ChangeEvent> events, Consumer<ChangeEvent> onDelivered) {
+        this(events, onDelivered, false);
+    }
+
+    /**
+     * @param events バッチに含まれるイベント
+     * @param onDelivered イベントの送信に成功するたびに、送信したスレッドで呼び出される
+     * @param transaction 1つのトランザクションのイベントで、分割せずに1回の送信に含める場合true
+     */
+    public ChangeEventBatch(List<ChangeEvent> events, Consumer<ChangeEvent> onDelivered, boolean transaction) {
+        this(events, onDelivered, transaction, 1);
+    }
+
+    private ChangeEventBatch(List<ChangeEvent> events, Consumer<ChangeEvent> onDelivered, boolean transaction,
+                             int attempt) {
+        this.events = List.copyOf(events);
+        this.remaining = new AtomicInteger(this.events.size());
+        this.onDelivered = onDelivered;
+        this.transaction = transaction;
+        this.attempt = attempt;
+        if (this.events.isEmpty()) {
+            complete();
+        }
+    }
+
+    public List<ChangeEvent> getEvents() {
+        return events;
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * 1つのトランザクションのイベントで、分割せずに1回の送信に含める場合true
+     */
+    public boolean isTransaction() {
+        return transaction;
+    }
+
+    /**
+     * イベントの送信結果を報告
+     * @param event 送信したイベント
+     * @param success 送信に成功した場合true
+     */
+    public void markDelivered(ChangeEvent event, boolean success) {
+        if (success) {
+            onDelivered.accept(event);
+        } else {
+            failedEvents.add(event);
+        }
+        if (remaining.decrementAndGet() == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        completedNanos = System.nanoTime();
+        completion.complete(this);
+    }
+
+    /**
+     * 全イベントの送信結果が報告済みかどうかを確認
+     */
+    public boolean isCompleted() {
+        return remaining.get() <= 0;
+    }
+
+    /**
+     * 全イベントの送信結果が報告された時点で完了する
+     */
+    public CompletableFuture<ChangeEventBatch> whenCompleted() {
+        return completion;
+    }
+
+    /**
+     * 全イベントの送信結果が報告された時刻（System.nanoTime()）を取得
+     */
+    public long getCompletedNanos() {
+        return completedNanos;
+    }
+
+    /**
+     * 送信を試みた回数（最初の送信を1回目とする）
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * 全イベントの送信に成功したかどうかを確認
+     */
+    public boolean isSuccessful() {
+        return isCompleted() && failedEvents.isEmpty();
+    }
+
+    /**
+     * 送信に失敗したイベントを取得
+     */
+    public List<ChangeEvent> getFailedEvents() {
+        return new ArrayList<>(failedEvents);
+    }
+
+    /**
+     * 同じ送信完了時の処理を引き継いで、指定したイベントの新しいバッチを作成
+     * 送信に失敗したイベントの再送に使用する（送信を試みた回数を1回増やす）
+     */
+    public ChangeEventBatch retry(List<ChangeEvent> retryEvents) {
+        return new ChangeEventBatch(retryEvents, onDelivered, transaction, attempt + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEventBatch{" +
+                "size=" + events.size() +
+                ", remaining=" + remaining.get() +
+                ", failed=" + failedEvents.size() +
+                ", transaction=" + transaction +
+                ", attempt=" + attempt +
+                '}';
+    }
+}
@@ -0,0 +1,400 @@
+package com.example.cdcagent.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 列名の表と値の配列で行を保持する読み取り専用のMap
+ * 列名の表（Columns）は同じ列構成の行で共有し、行ごとには値の配列のみを持つ
+ * 整数・浮動小数点数の列はボックス化せずにプリミティブの配列に保持し、Mapとして参照された時点でボックス化する
+ * シリアライズ時はボックス化せずに値を書き込む
+ */
+@JsonSerialize(using = CompactRow.Serializer.class)
+public final class CompactRow extends AbstractMap<String, Object> {
+
+    private static final byte REFERENCE = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+
+    private final Columns columns;
+    // 参照型の値（プリミティブの配列に保持する列はnull）
+    private final Object[] values;
+    // 数値の列の値（doubleはビット列で保持する。数値の列が無い場合はnull）
+    private final long[] numbers;
+    // 列ごとの値の種類（数値の列が無い場合はnull）
+    private final byte[] kinds;
+
+    private CompactRow(Columns columns, Object[] values, long[] numbers, byte[] kinds) {
+        this.columns = columns;
+        this.values = values;
+        this.numbers = numbers;
+        this.kinds = kinds;
+    }
+
+    /**
+     * 列名の表
+     */
+    public Columns columns() {
+        return columns;
+    }
+
+    /**
+     * 列の位置を指定して値を取得
+     */
+    public Object get(int index) {
+        return switch (kind(index)) {
+            case INT -> (int) numbers[index];
+            case LONG -> numbers[index];
+            case DOUBLE -> Double.longBitsToDouble(numbers[index]);
+            default -> values[index];
+        };
+    }
+
+    /**
+     * 同じ列名の表を持つ行と、同じ位置の値が等しいかどうかを確認（数値の列はボックス化せずに比較する）
+     */
+    public boolean valueEquals(int index, CompactRow other) {
+        byte kind = kind(index);
+        if (kind != other.kind(index)) {
+            return Objects.equals(get(index), other.get(index));
+        }
+        return kind == REFERENCE
+                ? Objects.equals(values[index], other.values[index])
+                : numbers[index] == other.numbers[index];
+    }
+
+    /**
+     * 列名を含めずに値のみを列の並び順にシリアライズするビュー
+     */
+    public ValueArray valueArray() {
+        return new ValueArray(this);
+    }
+
+    private byte kind(int index) {
+        return kinds == null ? REFERENCE : kinds[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = columns.indexOf(key);
+        return index < 0 ? null : get(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return columns.indexOf(key) >= 0;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return columns.nameSet;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (next >= values.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new SimpleImmutableEntry<>(columns.names[index], get(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    private void writeValue(int index, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        switch (kind(index)) {
+            case INT -> gen.writeNumber((int) numbers[index]);
+            case LONG -> gen.writeNumber(numbers[index]);
+            case DOUBLE -> gen.writeNumber(Double.longBitsToDouble(numbers[index]));
+            default -> provider.defaultSerializeValue(values[index], gen);
+        }
+    }
+
+    /**
+     * 同じ列構成の行で共有する列名の表
+     */
+    public static final class Columns {
+        private final String[] names;
+        private final List<String> nameList;
+        private final Set<String> nameSet;
+        private final int hash;
+
+        public Columns(String[] names) {
+            this.names = names;
+            this.hash = hash(names, names.length);
+            this.nameList = new AbstractList<>() {
+                @Override
+                public String get(int index) {
+                    return Columns.this.names[index];
+                }
+
+                @Override
+                public int size() {
+                    return Columns.this.names.length;
+                }
+            };
+            this.nameSet = new AbstractSet<>() {
+                @Override
+                public Iterator<String> iterator() {
+                    return nameList.iterator();
+                }
+
+                @Override
+                public int size() {
+                    return Columns.this.names.length;
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return indexOf(o) >= 0;
+                }
+            };
+        }
+
+        /**
+         * 列名の並び
+         */
+        public List<String> names() {
+            return nameList;
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public String name(int index) {
+            return names[index];
+        }
+
+        /**
+         * 列の位置を取得（列数は多くても数百のため、列名の参照の比較を優先して線形に探索する）
+         * @return 位置。列が無い場合は-1
+         */
+        public int indexOf(Object name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == name) {
+                    return i;
+                }
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 列名の並びが一致するかどうかを確認
+         */
+        public boolean matches(String[] other, int count) {
+            if (count != names.length) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (names[i] != other[i] && !names[i].equals(other[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 列名の並びのハッシュ値（列名の表を共有するための検索に使用する）
+         */
+        public static int hash(String[] names, int count) {
+            int hash = 1;
+            for (int i = 0; i < count; i++) {
+                hash = 31 * hash + names[i].hashCode();
+            }
+            return hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Columns other && matches(other.names, other.names.length));
+        }
+    }
+
+    /**
+     * 行を組み立てるビルダー（列を並び順に追加する。buildした後は使用しない）
+     */
+    public static final class Builder {
+        private String[] names;
+        private Object[] values;
+        private long[] numbers;
+        private byte[] kinds;
+        private int size;
+
+        /**
+         * @param expectedColumns 想定する列数（一致した場合は配列を複製せずに行に渡す）
+         */
+        public Builder(int expectedColumns) {
+            int capacity = Math.max(1, expectedColumns);
+            this.names = new String[capacity];
+            this.values = new Object[capacity];
+        }
+
+        public Builder add(String name, Object value) {
+            int index = next(name);
+            values[index] = value;
+            return this;
+        }
+
+        public Builder addInt(String name, int value) {
+            return addNumber(name, value, INT);
+        }
+
+        public Builder addLong(String name, long value) {
+            return addNumber(name, value, LONG);
+        }
+
+        public Builder addDouble(String name, double value) {
+            return addNumber(name, Double.doubleToRawLongBits(value), DOUBLE);
+        }
+
+        private Builder addNumber(String name, long bits, byte kind) {
+            int index = next(name);
+            if (numbers == null) {
+                numbers = new long[names.length];
+                kinds = new byte[names.length];
+            }
+            numbers[index] = bits;
+            kinds[index] = kind;
+            return this;
+        }
+
+        private int next(String name) {
+            if (size == names.length) {
+                int capacity = names.length * 2;
+                names = Arrays.copyOf(names, capacity);
+                values = Arrays.copyOf(values, capacity);
+                if (numbers != null) {
+                    numbers = Arrays.copyOf(numbers, capacity);
+                    kinds = Arrays.copyOf(kinds, capacity);
+                }
+            }
+            names[size] = name;
+            return size++;
+        }
+
+        /**
+         * 追加した列名の並び（列名の表を共有するための検索に使用する）
+         */
+        public String[] names() {
+            return names;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 行を作成
+         * @param columns 追加した列と同じ並びの列名の表（nullの場合は新たに作成する）
+         */
+        public CompactRow build(Columns columns) {
+            if (columns == null) {
+                columns = new Columns(Arrays.copyOf(names, size));
+            } else if (!columns.matches(names, size)) {
+                throw new IllegalArgumentException("列名の並びが一致しません");
+            }
+            if (values.length != size) {
+                values = Arrays.copyOf(values, size);
+                if (numbers != null) {
+                    numbers = Arrays.copyOf(numbers, size);
+                    kinds = Arrays.copyOf(kinds, size);
+                }
+            }
+            return new CompactRow(columns, values, numbers, kinds);
+        }
+    }
+
+    /**
+     * 値のみを列の並び順に保持するビュー（JSON配列としてシリアライズする）
+     */
+    @JsonSerialize(using = ValueArraySerializer.class)
+    public static final class ValueArray {
+        private final CompactRow row;
+
+        private ValueArray(CompactRow row) {
+            this.row = row;
+        }
+    }
+
+    static final class Serializer extends StdSerializer<CompactRow> {
+        Serializer() {
+            super(CompactRow.class);
+        }
+
+        @Override
+        public void serialize(CompactRow row, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(row, row.values.length);
+            for (int i = 0; i < row.values.length; i++) {
+                gen.writeFieldName(row.columns.names[i]);
+                row.writeValue(i, gen, provider);
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    static final class ValueArraySerializer extends StdSerializer<ValueArray> {
+        ValueArraySerializer() {
+            super(ValueArray.class);
+        }
+
+        @Override
+        public void serialize(ValueArray array, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            CompactRow row = array.row;
+            gen.writeStartArray(array, row.values.length);
+            for (int i = 0; i < row.values.length; i++) {
+                row.writeValue(i, gen, provider);
+            }
+            gen.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.cdcagent.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 順不同に完了する送信の確認応答から、コミット可能な位置（ウォーターマーク）を求めるトラッカー
+ * レコードごとに連番を払い出し、完了フラグのリングで「この番号未満は全て応答済み」となる位置を進める
+ * 番号の払い出しは単一スレッド（エンジンスレッド）から、応答は任意のスレッドからロックなしで行う
+ */
+public class AckWatermark {
+
+    // 未使用のスロットを表す値（払い出される連番は0以上）
+    private static final long EMPTY = -1L;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    // この番号未満の連番は全て応答済み
+    private final AtomicLong watermark = new AtomicLong();
+
+    // 次に払い出す連番
+    private volatile long nextSequence;
+
+    /**
+     * @param window 応答待ちにできる連番の最大数（2のべき乗に切り上げる）
+     */
+    public AckWatermark(int window) {
+        int size = Integer.highestOneBit(Math.max(1, window - 1)) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * 連番を払い出す
+     * @return 払い出した連番。応答待ちが上限に達している場合は-1
+     */
+    public long tryRegister() {
+        long sequence = nextSequence;
+        if (sequence - watermark.get() >= slots.length() && sequence - advance() >= slots.length()) {
+            return -1L;
+        }
+        nextSequence = sequence + 1;
+        return sequence;
+    }
+
+    /**
+     * 連番の処理完了を記録する
+     * 同じスロットに古い番号が後から書き込まれても、新しい番号の記録を上書きしない
+     */
+    public void acknowledge(long sequence) {
+        if (sequence >= 0) {
+            slots.accumulateAndGet(index(sequence), sequence, Math::max);
+        }
+    }
+
+    /**
+     * 連続して応答済みとなった範囲だけウォーターマークを進める
+     * @return 進めた後のウォーターマーク
+     */
+    public long advance() {
+        long current = watermark.get();
+        long next = current;
+        while (slots.get(index(next)) == next) {
+            next++;
+        }
+        if (next > current) {
+            watermark.compareAndSet(current, next);
+        }
+        return watermark.get();
+    }
+
+    /**
+     * 応答待ちの連番を全て破棄し、次に払い出す番号までウォーターマークを進める
+     * 破棄した番号に対する応答が後から届いても無視される
+     * @return 新しいウォーターマーク
+     */
+    public long skip() {
+        long sequence = nextSequence;
+        watermark.set(sequence);
+        return sequence;
+    }
+
+    /**
+     * 現在のウォーターマークを取得
+     */
+    public long watermark() {
+        return watermark.get();
+    }
+
+    /**
+     * 応答待ちの連番の数を取得
+     */
+    public long pending() {
+        return Math.max(0L, nextSequence - watermark.get());
+    }
+
+    /**
+     * 応答待ちにできる連番の最大数を取得
+     */
+    public int window() {
+        return slots.length();
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+}
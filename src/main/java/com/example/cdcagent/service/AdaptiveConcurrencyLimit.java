@@ -0,0 +1,132 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 送信の応答時間と失敗から同時実行数の上限を調整するリミッター
+ * 平常時の応答時間（長期の移動平均）と直近の応答時間の比から上限を増減させ（勾配方式）、
+ * 送信に失敗した場合は上限を一定の割合で減少させる（乗算的減少）
+ */
+public class AdaptiveConcurrencyLimit {
+
+    // 送信失敗時に上限に乗じる割合
+    private static final double BACKOFF_RATIO = 0.9;
+
+    // 新しい上限を反映する割合
+    private static final double SMOOTHING = 0.2;
+
+    // 平常時の応答時間の移動平均に直近の値を反映する割合
+    private static final double LONG_RTT_ALPHA = 0.05;
+
+    // 応答時間の悪化として扱う比率の下限（これ以上の悪化では上限を半分より小さくしない）
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    // 調整中の上限（thisで保護する）
+    private double estimatedLimit;
+    private double longRttNanos;
+
+    // 公開する上限
+    private volatile int limit;
+
+    // メトリクス
+    private final Timer rttTimer;
+    private final Counter increaseCounter;
+    private final Counter decreaseCounter;
+
+    /**
+     * @param minLimit 上限の最小値
+     * @param maxLimit 上限の最大値（初期値）
+     */
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit, MeterRegistry meterRegistry) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.estimatedLimit = this.maxLimit;
+        this.limit = this.maxLimit;
+
+        Gauge.builder("cdc.flow.limit", this, AdaptiveConcurrencyLimit::getLimit)
+                .description("現在の同時実行数の上限")
+                .register(meterRegistry);
+        this.rttTimer = Timer.builder("cdc.flow.rtt")
+                .description("上限の調整に使用した送信の応答時間")
+                .register(meterRegistry);
+        this.increaseCounter = Counter.builder("cdc.flow.limit.changes")
+                .description("同時実行数の上限を変更した回数")
+                .tag("direction", "increase")
+                .register(meterRegistry);
+        this.decreaseCounter = Counter.builder("cdc.flow.limit.changes")
+                .description("同時実行数の上限を変更した回数")
+                .tag("direction", "decrease")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 現在の上限を取得
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * 送信結果を反映して上限を調整
+     * @param rttNanos 送信の応答時間
+     * @param inFlight 送信開始時点で進行中だった数
+     * @param dropped 送信に失敗した場合true
+     */
+    public void onSample(long rttNanos, int inFlight, boolean dropped) {
+        rttTimer.record(rttNanos, TimeUnit.NANOSECONDS);
+
+        int previous;
+        int current;
+        synchronized (this) {
+            previous = limit;
+
+            if (dropped) {
+                estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+            } else if (rttNanos > 0) {
+                if (longRttNanos == 0) {
+                    longRttNanos = rttNanos;
+                } else {
+                    longRttNanos = longRttNanos * (1 - LONG_RTT_ALPHA) + rttNanos * LONG_RTT_ALPHA;
+                }
+                // 応答時間が大きく改善した場合は平常時の応答時間を速やかに追従させる
+                if (longRttNanos / rttNanos > 2) {
+                    longRttNanos *= 0.95;
+                }
+
+                // 上限まで使い切っていない場合は、応答時間から上限の妥当性を判断できないため増加させない
+                if (inFlight * 2 >= estimatedLimit || rttNanos > longRttNanos) {
+                    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRttNanos / rttNanos));
+                    double queueSize = Math.sqrt(estimatedLimit);
+                    double newLimit = estimatedLimit * gradient + queueSize;
+                    newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+                    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+                }
+            }
+
+            current = (int) estimatedLimit;
+            limit = current;
+        }
+
+        if (current > previous) {
+            increaseCounter.increment();
+        } else if (current < previous) {
+            decreaseCounter.increment();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.cdcagent.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * まとめて送信したリクエストに対するイベントごとの応答（ACK配列）を逐次解析するパーサー
+ * 応答ボディを受信した順に非同期パーサーへ渡して解放するため、ボディ全体をメモリに集約しない
+ * ACK配列の要素はtrue/false、または "success" フィールドを持つオブジェクト（その他のフィールドは無視する）
+ */
+public class BatchAckParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String SUCCESS_FIELD = "success";
+
+    private final JsonParser parser;
+    private final int expected;
+    private final List<Boolean> acks;
+
+    // 解析中の位置（0: 配列の開始前、1: 配列の要素、2以上: 要素のオブジェクト内）
+    private int depth;
+    private boolean successField;
+    private boolean success;
+    private boolean completed;
+
+    /**
+     * @param expected 想定する要素数
+     */
+    public BatchAckParser(int expected) throws IOException {
+        this.parser = JSON_FACTORY.createNonBlockingByteBufferParser();
+        this.expected = expected;
+        this.acks = new ArrayList<>(expected);
+    }
+
+    /**
+     * 応答ボディを逐次解析し、イベントごとの処理結果を返す
+     * 要素数が想定に満たない場合、不足分は失敗として扱う
+     * @param body 応答ボディ（受け取ったバッファは解析後に解放する）
+     * @param expected 送信したイベント数
+     */
+    public static Mono<List<Boolean>> parse(Flux<DataBuffer> body, int expected) {
+        return Mono.using(
+                () -> new BatchAckParser(expected),
+                parser -> body.doOnNext(buffer -> {
+                            try {
+                                parser.feed(buffer);
+                            } catch (IOException e) {
+                                throw new AckParseException(e);
+                            } finally {
+                                DataBufferUtils.release(buffer);
+                            }
+                        })
+                        .then(Mono.fromCallable(() -> parser.finish()))
+                        .onErrorMap(AckParseException.class, Throwable::getCause),
+                BatchAckParser::close);
+    }
+
+    /**
+     * 受信したバッファを解析する
+     * 非同期パーサーは次の入力を渡す前に現在の入力をすべて読み切るため、呼び出し後はバッファを解放できる
+     */
+    public void feed(DataBuffer buffer) throws IOException {
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            while (iterator.hasNext()) {
+                ((ByteBufferFeeder) parser.getNonBlockingInputFeeder()).feedInput(iterator.next());
+                drain();
+            }
+        }
+    }
+
+    /**
+     * 入力の終端を通知し、解析結果を返す
+     */
+    public List<Boolean> finish() throws IOException {
+        parser.getNonBlockingInputFeeder().endOfInput();
+        drain();
+        if (!completed) {
+            throw new JsonParseException(parser, "ACK配列が終了していません");
+        }
+        List<Boolean> results = new ArrayList<>(expected);
+        for (int i = 0; i < expected; i++) {
+            results.add(i < acks.size() && acks.get(i));
+        }
+        return results;
+    }
+
+    public void close() {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            // 入力はメモリ上のため発生しない
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (completed) {
+                throw new JsonParseException(parser, "ACK配列の後に不要なデータがあります");
+            }
+            switch (depth) {
+                case 0 -> {
+                    if (token != JsonToken.START_ARRAY) {
+                        throw new JsonParseException(parser, "ACKは配列である必要があります");
+                    }
+                    depth = 1;
+                }
+                case 1 -> element(token);
+                default -> field(token);
+            }
+        }
+    }
+
+    private void element(JsonToken token) {
+        switch (token) {
+            case END_ARRAY -> {
+                depth = 0;
+                completed = true;
+            }
+            case START_OBJECT, START_ARRAY -> {
+                depth = 2;
+                success = false;
+                successField = false;
+            }
+            default -> acks.add(token == JsonToken.VALUE_TRUE);
+        }
+    }
+
+    private void field(JsonToken token) throws IOException {
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            depth++;
+            successField = false;
+        } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+            if (--depth == 1) {
+                // 配列の要素は成功を判定できないため失敗として扱う
+                acks.add(token == JsonToken.END_OBJECT && success);
+            }
+        } else if (depth == 2 && token == JsonToken.FIELD_NAME) {
+            successField = SUCCESS_FIELD.equals(parser.currentName());
+        } else if (successField) {
+            success = token == JsonToken.VALUE_TRUE;
+            successField = false;
+        }
+    }
+
+    /**
+     * 解析エラーをリアクティブストリームに伝えるための非検査例外
+     */
+    private static class AckParseException extends RuntimeException {
+        AckParseException(IOException cause) {
+            super(cause);
+        }
+    }
+}
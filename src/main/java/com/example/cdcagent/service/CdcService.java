@@ -2,17 +2,37 @@ package com.example.cdcagent.service;
 
 import com.example.cdcagent.config.HulftSquareProperties;
 import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.ChangeEventBatch;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.reactivestreams.Subscription;
 import org.springframework.stereotype.Service;
-import reactor.core.publisher.ParallelFlux;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import jakarta.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * CDCエージェントのメインサービス
@@ -21,32 +41,111 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class CdcService {
     private static final Logger logger = LoggerFactory.getLogger(CdcService.class);
 
+    private static final String DEFAULT_TABLE_QUEUE = "default";
+
     private final DebeziumEngineService debeziumEngineService;
     private final HulftSquareService hulftSquareService;
+    private final DeadLetterService deadLetterService;
     private final AgentStateManager stateManager;
     private final HulftSquareProperties hulftSquareProperties;
     private final MeterRegistry meterRegistry;
 
     // 進行中の処理数を追跡
     private final AtomicInteger inFlightRequests = new AtomicInteger(0);
+
+    // 上流から取り出し、送信が完了していないイベント数（消費中のクレジット）
+    private final AtomicInteger outstandingEvents = new AtomicInteger(0);
+
+    // クレジットを使い切った時刻（nanoTime、使い切っていない場合は0）
+    private final AtomicLong creditExhaustedSince = new AtomicLong(0L);
+
+    // 送信結果に応じて調整される進行中イベント数の上限
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+    // 主キー単位で順序を保証する送信レーン
+    private final LaneDispatcher<PendingEvent> laneDispatcher;
+
+    // テーブルごとの送信キュー（優先度と重みに従って送信レーンに投入する）
+    private final DeficitRoundRobinQueue<PendingEvent> tableQueues;
+    // 送信キューごとの同じ行の変更をまとめるコアレッサー（まとめない場合はnull、tableQueuesで排他する）
+    private final UpdateCoalescer[] coalescers;
+    private final List<String> tableQueueNames;
+    private final Map<String, Integer> tableQueueIndex;
+    private final int tableQueueCapacity;
+
+    // HULFT Squareへのリクエストを保護するサーキットブレーカー（遮断中は上流からの取り出しを止める）
+    private final CircuitBreaker circuitBreaker;
+
+    // 送信キューへの投入とクレジットの範囲での取り出しを行うサブスクライバー
+    private CreditSubscriber creditSubscriber;
+
+    // デッドレターの再送が実行中かどうか
+    private final AtomicBoolean replaying = new AtomicBoolean();
     
     // メトリクス
     private Counter eventsProcessedCounter;
     private Counter eventsSuccessCounter;
     private Counter eventsFailedCounter;
+    private Timer creditWaitTimer;
+    private final List<Timer> tableQueueLatencyTimers = new ArrayList<>();
 
     @Autowired
     public CdcService(
             DebeziumEngineService debeziumEngineService,
             HulftSquareService hulftSquareService,
+            DeadLetterService deadLetterService,
             AgentStateManager stateManager,
             HulftSquareProperties hulftSquareProperties,
             MeterRegistry meterRegistry) {
         this.debeziumEngineService = debeziumEngineService;
         this.hulftSquareService = hulftSquareService;
+        this.deadLetterService = deadLetterService;
         this.stateManager = stateManager;
         this.hulftSquareProperties = hulftSquareProperties;
         this.meterRegistry = meterRegistry;
+
+        this.concurrencyLimit = new AdaptiveConcurrencyLimit(
+                hulftSquareProperties.getApi().getMinInFlight(),
+                hulftSquareProperties.getApi().getMaxInFlight(),
+                meterRegistry);
+
+        int laneCount = hulftSquareProperties.getApi().getLaneCount();
+        this.laneDispatcher = new LaneDispatcher<>(
+                laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors(),
+                hulftSquareProperties.getApi().getBatchMaxEvents(),
+                pending -> pending.events().size(),
+                this::processAndSendEvents);
+        this.circuitBreaker = hulftSquareService.getCircuitBreaker();
+
+        HulftSquareProperties.Scheduler scheduler = hulftSquareProperties.getScheduler();
+        List<HulftSquareProperties.TableQueue> queues = scheduler.getQueues();
+        int[] priorities = new int[queues.size() + 1];
+        int[] weights = new int[queues.size() + 1];
+        long[] holdNanos = new long[queues.size() + 1];
+        this.coalescers = new UpdateCoalescer[queues.size() + 1];
+        List<String> names = new ArrayList<>(queues.size() + 1);
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < queues.size(); i++) {
+            HulftSquareProperties.TableQueue queue = queues.get(i);
+            priorities[i] = queue.getPriority();
+            weights[i] = queue.getWeight();
+            names.add(queue.getName() != null ? queue.getName() : "queue-" + i);
+            if (queue.getCoalesceMs() > 0) {
+                holdNanos[i] = TimeUnit.MILLISECONDS.toNanos(queue.getCoalesceMs());
+                coalescers[i] = new UpdateCoalescer(names.get(i), meterRegistry);
+            }
+            for (String table : queue.getTables()) {
+                index.putIfAbsent(table, i);
+            }
+        }
+        // どのキューにも一致しないテーブルは最後のdefaultキューに入れる
+        priorities[queues.size()] = scheduler.getDefaultPriority();
+        weights[queues.size()] = scheduler.getDefaultWeight();
+        names.add(DEFAULT_TABLE_QUEUE);
+        this.tableQueues = new DeficitRoundRobinQueue<>(priorities, weights, holdNanos);
+        this.tableQueueNames = List.copyOf(names);
+        this.tableQueueIndex = Map.copyOf(index);
+        this.tableQueueCapacity = Math.max(1, scheduler.getQueueCapacity());
     }
 
     @PostConstruct
@@ -64,8 +163,33 @@ public class CdcService {
                 .description("処理に失敗したイベントの数")
                 .register(meterRegistry);
         
+        creditWaitTimer = Timer.builder("cdc.flow.credit.wait")
+                .description("クレジットを使い切り、上流からの取り出しを停止していた時間")
+                .register(meterRegistry);
+        
         // inFlightリクエストのゲージ登録
         meterRegistry.gauge("cdc.requests.inflight", inFlightRequests);
+
+        for (int lane = 0; lane < laneDispatcher.laneCount(); lane++) {
+            int index = lane;
+            Gauge.builder("cdc.lane.depth", laneDispatcher, dispatcher -> dispatcher.depth(index))
+                    .description("送信レーンに滞留しているイベント数")
+                    .tag("lane", String.valueOf(lane))
+                    .register(meterRegistry);
+        }
+
+        for (int queue = 0; queue < tableQueues.queueCount(); queue++) {
+            int index = queue;
+            String name = tableQueueNames.get(queue);
+            Gauge.builder("cdc.table.queue.backlog", tableQueues, queues -> queues.size(index))
+                    .description("テーブルごとの送信キューに滞留しているイベント数")
+                    .tag("queue", name)
+                    .register(meterRegistry);
+            tableQueueLatencyTimers.add(Timer.builder("cdc.table.queue.latency")
+                    .description("送信キューに投入してから送信が完了するまでの時間")
+                    .tag("queue", name)
+                    .register(meterRegistry));
+        }
         
         // DebeziumからのイベントストリームのSubscribe
         setupEventProcessor();
@@ -121,65 +245,408 @@ public class CdcService {
         }
     }
 
+    /**
+     * 条件に一致するデッドレターを通常の送信経路で再送する
+     * 進行中イベント数の上限ずつテーブルごとの送信キューに投入するため、CDCのイベントと同じくクレジットとサーキットブレーカーによる制御、
+     * 主キー単位の順序とまとめ送信が適用される（送信待ちの同じ行の変更とはまとめない）
+     * 送信できたデッドレターのみ削除し、失敗したものは保存し直さずにそのまま残す
+     * @param table テーブル（database.table形式、nullの場合はすべて）
+     * @param from 保存時刻の下限（含む）
+     * @param to 保存時刻の上限（含まない）
+     * @param limit 再送する件数の上限
+     * @return 再送の結果
+     */
+    public Mono<ReplayResult> replayDeadLetters(String table, Instant from, Instant to, int limit) {
+        return Mono.defer(() -> {
+            if (!replaying.compareAndSet(false, true)) {
+                // 同じデッドレターを重複して再送しないよう、再送は1つずつ行う
+                return Mono.error(new ReplayInProgressException());
+            }
+            return onDisk(() -> deadLetterService.find(table, from, to, limit))
+                    .flatMapMany(Flux::fromIterable)
+                    .buffer(Math.max(1, concurrencyLimit.getLimit()))
+                    .concatMap(this::replayPage)
+                    .reduce(new ReplayResult(0, 0), ReplayResult::plus)
+                    .doFinally(signal -> replaying.set(false));
+        });
+    }
+
+    private Mono<ReplayResult> replayPage(List<DeadLetterStore.DeadLetter> letters) {
+        return onDisk(() -> deadLetterService.load(letters)).flatMap(replays -> {
+            List<ChangeEvent> events = replays.stream().map(DeadLetterService.Replay::event).toList();
+            events.forEach(event -> event.setReplay(true));
+            ChangeEventBatch batch = new ChangeEventBatch(events);
+            creditSubscriber.offer(batch);
+
+            // 送信を完了したスレッド（通常はNettyのイベントループ）でディスクを操作しないよう、削除はboundedElasticで行う
+            return Mono.fromFuture(batch.whenCompleted())
+                    .flatMap(completed -> {
+                        Set<ChangeEvent> failed = new HashSet<>(completed.getFailedEvents());
+                        List<Long> replayed = new ArrayList<>();
+                        for (DeadLetterService.Replay replay : replays) {
+                            if (!failed.contains(replay.event())) {
+                                replayed.add(replay.id());
+                            }
+                        }
+                        return onDisk(() -> {
+                            deadLetterService.markReplayed(replayed);
+                            return new ReplayResult(replayed.size(), letters.size() - replayed.size());
+                        });
+                    });
+        });
+    }
+
+    /**
+     * デッドレターの読み書きなどディスクの操作（fsync）を伴う処理をboundedElasticスケジューラで実行する
+     */
+    private static <T> Mono<T> onDisk(Callable<T> task) {
+        return Mono.fromCallable(task).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 別のデッドレターの再送が実行中のため、再送を受け付けなかったことを表す例外
+     */
+    public static class ReplayInProgressException extends RuntimeException {
+        public ReplayInProgressException() {
+            super("デッドレターの再送が実行中です");
+        }
+    }
+
+    /**
+     * デッドレターの再送結果
+     * @param replayed 再送に成功した件数
+     * @param failed 再送に失敗した件数
+     */
+    public record ReplayResult(int replayed, int failed) {
+        private ReplayResult plus(ReplayResult other) {
+            return new ReplayResult(replayed + other.replayed, failed + other.failed);
+        }
+    }
+
     /**
      * イベント処理パイプラインのセットアップ
+     * イベントをテーブルごとの送信キューに入れ、優先度と重みに従って取り出したイベントを主キー単位でレーンに振り分ける
+     * レーン内は滞留分をまとめて順序通りに、レーン間は並行して送信する
+     * トランザクション単位のバッチは分割せずに1件として最初のイベントのテーブルの送信キューに入れ、
+     * 他の送信キューのテーブルも変更する場合はそれらの送信キューでも順番を待ち合わせる
+     * すべてのイベントのレーンで先行するイベントの完了を待ってから1回の送信に含める
+     * 送信キューの空き分だけ上流から取り出し、進行中イベント数の上限をクレジットとして送信キューから取り出す
      */
     private void setupEventProcessor() {
-        // 並列処理でイベントを処理
-        int maxParallelism = Runtime.getRuntime().availableProcessors();
-        
+        creditSubscriber = new CreditSubscriber();
+        // 遮断が解除された時点で送信と上流からの取り出しを再開する
+        circuitBreaker.addListener(state -> creditSubscriber.drain());
+
         debeziumEngineService.getChangeEventFlux()
-                .parallel(maxParallelism)
-                .runOn(Schedulers.boundedElastic())
-                .doOnNext(event -> {
-                    eventsProcessedCounter.increment();
-                    logger.debug("イベントの処理を開始: {}", event.getId());
+                // バッチは1件ずつ取り出し、待機中のバッチは受け渡しバッファ側に留める
+                // トランザクション単位のバッチは最初のイベントで代表させ、分割せずに送信キューに入れる
+                .flatMapIterable(batch -> batch.isTransaction()
+                        ? List.of(Tuples.of(batch, batch.getEvents().get(0)))
+                        : batch.getEvents().stream()
+                        .map(event -> Tuples.of(batch, event))
+                        .toList(), 1)
+                .doOnNext(delivery -> {
+                    eventsProcessedCounter.increment(
+                            delivery.getT1().isTransaction() ? delivery.getT1().size() : 1);
+                    logger.debug("イベントの処理を開始: {}", delivery.getT2().getId());
                 })
-                .filter(this::canProcessEvent)
-                .flatMap(this::processAndSendEvent)
-                .sequential()
-                .subscribe(
-                    success -> {
+                .subscribe(creditSubscriber);
+    }
+
+    /**
+     * 上流から取り出したイベントを送信キューに入れ、進行中イベント数の上限をクレジットとして送信キューから取り出すサブスクライバー
+     * 上限は送信結果に応じて変化し、縮小した場合は進行中のイベントが新しい上限を下回るまで取り出さない
+     * サーキットブレーカーの遮断中は送信も上流からの取り出しも行わず、試行中は試行リクエスト分の1件のみ送信する
+     */
+    private final class CreditSubscriber extends BaseSubscriber<Tuple2<ChangeEventBatch, ChangeEvent>> {
+
+        // 要求済みで未受信のイベント数と、送信キューに滞留しているイベント数の合計
+        private final AtomicInteger window = new AtomicInteger();
+
+        // 送信キューから取り出す処理の実行要求数（複数のスレッドから同時に取り出さない）
+        private final AtomicInteger wip = new AtomicInteger();
+
+        // 保留中のイベントを取り出すために予約した再実行の時刻（nanoTime、予約していない場合はLong.MAX_VALUE）
+        private final AtomicLong wakeupNanos = new AtomicLong(Long.MAX_VALUE);
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            replenish();
+        }
+
+        @Override
+        protected void hookOnNext(Tuple2<ChangeEventBatch, ChangeEvent> delivery) {
+            int queue = tableQueueOf(delivery.getT2());
+            UpdateCoalescer coalescer = coalescers[queue];
+            if (coalescer == null) {
+                if (delivery.getT1().isTransaction()) {
+                    offerTransaction(queue, PendingEvent.transaction(delivery.getT1()));
+                } else {
+                    tableQueues.offer(queue, new PendingEvent(delivery.getT1(), delivery.getT2()));
+                }
+            } else {
+                synchronized (tableQueues) {
+                    PendingEvent pending = delivery.getT1().isTransaction()
+                            ? coalescer.offerTransaction(delivery.getT1(), event -> coalescers[tableQueueOf(event)] != null)
+                            : coalescer.offer(delivery.getT1(), delivery.getT2());
+                    if (pending == null) {
+                        // 送信待ちのイベントにまとめた分は送信キューの空きとして扱う
+                        window.decrementAndGet();
+                    } else if (delivery.getT1().isTransaction()) {
+                        offerTransaction(queue, pending);
+                    } else {
+                        tableQueues.offer(queue, pending);
+                    }
+                }
+            }
+            drain();
+        }
+
+        /**
+         * トランザクション単位の送信待ちを送信キューに入れる
+         * 複数の送信キューのテーブルを変更するトランザクションは、それらのすべての送信キューで先に投入されたイベントを取り出した後、
+         * 後続のイベントより先に取り出す。送信レーンへは取り出した順に投入するため、キューをまたいでも主キー単位の順序が保たれる
+         * @param queue 最初のイベントのテーブルの送信キュー
+         */
+        private void offerTransaction(int queue, PendingEvent pending) {
+            List<ChangeEvent> events = pending.events();
+            int[] queues = new int[events.size() + 1];
+            queues[0] = queue;
+            for (int i = 0; i < events.size(); i++) {
+                queues[i + 1] = tableQueueOf(events.get(i));
+            }
+            tableQueues.offer(queues, pending);
+        }
+
+        /**
+         * デッドレターから再送するイベントを送信キューに入れる
+         * 上流から取り出したイベントと同じくクレジットの範囲で送信するが、送信待ちのイベントとはまとめない
+         */
+        private void offer(ChangeEventBatch batch) {
+            for (ChangeEvent event : batch.getEvents()) {
+                window.incrementAndGet();
+                tableQueues.offer(tableQueueOf(event), new PendingEvent(batch, event));
+            }
+            drain();
+        }
+
+        /**
+         * クレジットの範囲で送信キューからイベントを取り出して送信レーンに投入し、送信キューの空き分を上流に要求する
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                DeficitRoundRobinQueue.Entry<PendingEvent> entry;
+                while (outstandingEvents.get() < creditLimit() && (entry = poll()) != null) {
+                    window.decrementAndGet();
+                    if (entry.item().isCancelled()) {
+                        // 打ち消し合った変更は送信せずに完了とする
+                        entry.item().markDelivered(true);
+                        recordLatency(entry);
+                    } else {
+                        send(entry);
+                    }
+                }
+                scheduleWakeup();
+                replenish();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 送信キューからイベントを取り出し、以降の変更をまとめる対象から外す
+         */
+        private DeficitRoundRobinQueue.Entry<PendingEvent> poll() {
+            synchronized (tableQueues) {
+                DeficitRoundRobinQueue.Entry<PendingEvent> entry = tableQueues.poll();
+                if (entry != null && coalescers[entry.queue()] != null) {
+                    coalescers[entry.queue()].remove(entry.item());
+                }
+                return entry;
+            }
+        }
+
+        /**
+         * 保留中のイベントがあれば、取り出せるようになる時刻に再実行を予約する
+         * クレジットを使い切っている場合は、送信の完了時に再実行されるため予約しない
+         */
+        private void scheduleWakeup() {
+            if (outstandingEvents.get() >= creditLimit()) {
+                return;
+            }
+            long next = tableQueues.nextReadyNanos();
+            if (next == Long.MAX_VALUE || wakeupNanos.get() <= next) {
+                return;
+            }
+            wakeupNanos.set(next);
+            Schedulers.parallel().schedule(() -> {
+                wakeupNanos.compareAndSet(next, Long.MAX_VALUE);
+                drain();
+            }, Math.max(0, next - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        private void send(DeficitRoundRobinQueue.Entry<PendingEvent> entry) {
+            PendingEvent pending = entry.item();
+            int events = pending.events().size();
+            acquireCredit(events, concurrencyLimit.getLimit());
+            laneDispatcher.dispatch(lanesOf(pending), pending)
+                    .doFinally(signal -> {
+                        releaseCredit(events, concurrencyLimit.getLimit());
+                        recordLatency(entry);
+                        drain();
+                    })
+                    .subscribe(success -> {
                         if (success) {
                             eventsSuccessCounter.increment();
                         } else {
                             eventsFailedCounter.increment();
                         }
-                    },
-                    error -> logger.error("イベント処理中にエラーが発生しました", error),
-                    () -> logger.info("イベント処理ストリームが終了しました")
-                );
+                    });
+        }
+
+        private void recordLatency(DeficitRoundRobinQueue.Entry<PendingEvent> entry) {
+            tableQueueLatencyTimers.get(entry.queue())
+                    .record(System.nanoTime() - entry.enqueuedNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        protected void hookOnError(Throwable error) {
+            logger.error("イベント処理中にエラーが発生しました", error);
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            logger.info("イベント処理ストリームが終了しました");
+        }
+
+        /**
+         * 送信キューの空きに対する不足分を上流に要求する
+         * 遮断中は送信キューに滞留させないよう要求しない
+         */
+        private void replenish() {
+            while (true) {
+                int current = window.get();
+                int limit = circuitBreaker.getState() == CircuitBreaker.State.OPEN ? 0 : tableQueueCapacity;
+                if (current >= limit) {
+                    return;
+                }
+                if (window.compareAndSet(current, limit)) {
+                    request(limit - current);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 送信キューから取り出すクレジットの上限を取得
+     */
+    private int creditLimit() {
+        return switch (circuitBreaker.getState()) {
+            case CLOSED -> concurrencyLimit.getLimit();
+            case HALF_OPEN -> 1;
+            case OPEN -> 0;
+        };
     }
 
     /**
-     * イベントを処理できるか確認（バックプレッシャー制御）
+     * サーキットブレーカーの状態を取得
      */
-    private boolean canProcessEvent(ChangeEvent event) {
-        if (!stateManager.isRunning()) {
-            logger.debug("エージェントが実行中ではないため、イベントをスキップします: {}", event.getId());
-            return false;
+    public CircuitBreaker.State getCircuitBreakerState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * イベントの送信キューを決定する
+     * テーブル名（database.table）に一致するキュー、データベース名（database.*）に一致するキュー、defaultキューの順に探す
+     */
+    private int tableQueueOf(ChangeEvent event) {
+        String database = event.getDatabase();
+        Integer queue = tableQueueIndex.get(database + "." + event.getTable());
+        if (queue == null) {
+            queue = tableQueueIndex.get(database + ".*");
         }
+        return queue != null ? queue : tableQueueNames.size() - 1;
+    }
 
-        // 進行中のリクエスト数を制限（バックプレッシャー）
-        int currentInFlight = inFlightRequests.get();
-        int maxInFlight = hulftSquareProperties.getApi().getMaxInFlight();
-        
-        if (currentInFlight >= maxInFlight) {
-            logger.warn("バックプレッシャー制御: 進行中リクエスト数の上限に達したためイベントをスキップします (現在: {}, 上限: {})",
-                    currentInFlight, maxInFlight);
-            return false;
+    /**
+     * イベントの送信レーンを決定する
+     * 同じテーブルの同じ主キーを持つイベントは常に同じレーンに割り当てられる
+     */
+    private int laneOf(ChangeEvent event) {
+        int hash = Objects.hash(event.getDatabase(), event.getTable(), event.getKey());
+        return Math.floorMod(hash ^ (hash >>> 16), laneDispatcher.laneCount());
+    }
+
+    /**
+     * 送信待ちのすべてのイベントの送信レーンを決定する
+     */
+    private int[] lanesOf(PendingEvent pending) {
+        List<ChangeEvent> events = pending.events();
+        int[] lanes = new int[events.size()];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = laneOf(events.get(i));
         }
-        
-        return true;
+        return lanes;
     }
 
     /**
-     * イベントを処理してHULFT Squareに送信
+     * レーンに滞留していたイベントをまとめてHULFT Squareに送信し、結果をバッチに報告する
+     * 失敗したイベントはオフセットがコミットされず、Debezium側から再送される
      */
-    private ParallelFlux<Boolean> processAndSendEvent(ChangeEvent event) {
+    private Mono<List<Boolean>> processAndSendEvents(List<PendingEvent> deliveries) {
+        List<ChangeEvent> events = deliveries.stream().flatMap(delivery -> delivery.events().stream()).toList();
+
         inFlightRequests.incrementAndGet();
+        int inFlightAtStart = outstandingEvents.get();
+        long start = System.nanoTime();
         
-        return ParallelFlux.from(hulftSquareService.sendEvent(event)
-                .doFinally(signal -> inFlightRequests.decrementAndGet()));
+        return hulftSquareService.sendEvents(events)
+                .onErrorReturn(List.of())
+                .defaultIfEmpty(List.of())
+                .doOnNext(results -> {
+                    // 停止中にスキップされた送信は上限の調整に使用しない
+                    if (stateManager.isRunning()) {
+                        boolean dropped = results.size() < events.size() || results.contains(Boolean.FALSE);
+                        concurrencyLimit.onSample(System.nanoTime() - start, inFlightAtStart, dropped);
+                    }
+                })
+                .map(results -> {
+                    List<Boolean> outcomes = new ArrayList<>(deliveries.size());
+                    int offset = 0;
+                    for (PendingEvent delivery : deliveries) {
+                        outcomes.add(delivery.markDelivered(results, offset));
+                        offset += delivery.events().size();
+                    }
+                    return outcomes;
+                })
+                .doFinally(signal -> inFlightRequests.decrementAndGet());
+    }
+
+    /**
+     * クレジットを消費し、使い切った時点を記録する
+     */
+    private void acquireCredit(int events, int limit) {
+        if (outstandingEvents.addAndGet(events) >= limit) {
+            creditExhaustedSince.compareAndSet(0L, System.nanoTime());
+        }
+    }
+
+    /**
+     * クレジットを返却し、上限を下回った時点でクレジット待ちだった時間を記録する
+     */
+    private void releaseCredit(int events, int limit) {
+        if (outstandingEvents.addAndGet(-events) < limit) {
+            long since = creditExhaustedSince.getAndSet(0L);
+            if (since != 0L) {
+                creditWaitTimer.record(System.nanoTime() - since, TimeUnit.NANOSECONDS);
+            }
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,502 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.CompactRow;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Debeziumが出力するJSON形式の変更レコードをChangeEventに変換するデコーダー
+ * JsonParserでトークン単位に読み進め、schema部はツリーを構築せずに読み飛ばす
+ * 行（before/after）はCompactRowに変換し、同じ列構成の行で列名の表を共有する
+ */
+public class ChangeEventDecoder {
+
+    private static final String EVENT_TYPE = "mysql";
+
+    private final JsonFactory jsonFactory;
+
+    // 列名の並びのハッシュ値→列名の表（ハッシュ値が衝突した場合は後の表で置き換える）
+    private final Map<Integer, CompactRow.Columns> columnsByHash = new ConcurrentHashMap<>();
+    // 直前に読み取った行の列名の表（同じテーブルの行が続く場合は検索せずに共有する）
+    private volatile CompactRow.Columns lastColumns;
+
+    public ChangeEventDecoder() {
+        this(new JsonFactory());
+    }
+
+    public ChangeEventDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * JSONレコードをChangeEventに変換
+     * バイナリログから読み取った行にはバイナリログ上の位置から求めたIDを設定し、スナップショットの行にはIDを設定しない
+     * @param json Debeziumの変更レコード（schema/payloadエンベロープ、またはpayloadのみ）
+     * @return 変換結果。行の変更を表さないレコード（スキーマ変更、ハートビート等）の場合はnull
+     */
+    public ChangeEvent decode(String json) throws IOException {
+        if (json == null) {
+            return null;
+        }
+
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            Envelope envelope = new Envelope();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if ("schema".equals(fieldName)) {
+                    // スキーマ定義は使用しないため読み飛ばす
+                    parser.skipChildren();
+                } else if ("payload".equals(fieldName)) {
+                    if (token == JsonToken.START_OBJECT) {
+                        readPayload(parser, envelope);
+                    }
+                } else {
+                    // schemas.enable=false の場合はpayloadの内容がトップレベルに展開される
+                    readPayloadField(parser, fieldName, envelope);
+                }
+            }
+
+            return envelope.toChangeEvent();
+        }
+    }
+
+    /**
+     * Debeziumのキー（主キー）のJSONを列名と値のMapに変換
+     * @param json キーのJSON（schema/payloadエンベロープ、またはpayloadのみ）
+     * @return 主キーの列と値。キーが無い場合はnull
+     */
+    public Map<String, Object> decodeKey(String json) throws IOException {
+        if (json == null) {
+            return null;
+        }
+
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            Map<String, Object> payload = null;
+            Map<String, Object> columns = new LinkedHashMap<>();
+            boolean envelope = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                parser.nextToken();
+
+                if ("schema".equals(fieldName)) {
+                    envelope = true;
+                    parser.skipChildren();
+                } else if ("payload".equals(fieldName)) {
+                    envelope = true;
+                    payload = readObject(parser);
+                } else {
+                    // schemas.enable=false の場合は主キーの列がトップレベルに展開される
+                    columns.put(fieldName, readValue(parser));
+                }
+            }
+
+            return envelope ? payload : columns;
+        }
+    }
+
+    /**
+     * スキーマ変更レコード（include.schema.changes）から、DDLの対象のデータベースとテーブルを取得
+     * @param json Debeziumのスキーマ変更レコード（schema/payloadエンベロープ、またはpayloadのみ）
+     * @return DDLの対象。スキーマ変更レコードではない場合はnull
+     */
+    public SchemaChange decodeSchemaChange(String json) throws IOException {
+        if (json == null) {
+            return null;
+        }
+
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            SchemaChangeEnvelope envelope = new SchemaChangeEnvelope();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if ("schema".equals(fieldName)) {
+                    parser.skipChildren();
+                } else if ("payload".equals(fieldName)) {
+                    if (token == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String payloadField = parser.currentName();
+                            parser.nextToken();
+                            readSchemaChangeField(parser, payloadField, envelope);
+                        }
+                    }
+                } else {
+                    readSchemaChangeField(parser, fieldName, envelope);
+                }
+            }
+
+            if (envelope.ddl == null || envelope.database == null || envelope.database.isEmpty()) {
+                return null;
+            }
+            return new SchemaChange(envelope.database, envelope.tables);
+        }
+    }
+
+    /**
+     * トランザクションのメタデータレコード（provide.transaction.metadata）から、トランザクションの開始・終了を取得
+     * @param json Debeziumのトランザクションのメタデータレコード（schema/payloadエンベロープ、またはpayloadのみ）
+     * @return トランザクションの開始・終了。メタデータレコードではない場合はnull
+     */
+    public TransactionMarker decodeTransaction(String json) throws IOException {
+        if (json == null) {
+            return null;
+        }
+
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            TransactionEnvelope envelope = new TransactionEnvelope();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if ("schema".equals(fieldName)) {
+                    parser.skipChildren();
+                } else if ("payload".equals(fieldName)) {
+                    if (token == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String payloadField = parser.currentName();
+                            parser.nextToken();
+                            readTransactionMarkerField(parser, payloadField, envelope);
+                        }
+                    }
+                } else {
+                    readTransactionMarkerField(parser, fieldName, envelope);
+                }
+            }
+
+            if (envelope.id == null || !("BEGIN".equals(envelope.status) || "END".equals(envelope.status))) {
+                return null;
+            }
+            return new TransactionMarker(envelope.id, "END".equals(envelope.status), envelope.eventCount);
+        }
+    }
+
+    private void readTransactionMarkerField(JsonParser parser, String fieldName, TransactionEnvelope envelope)
+            throws IOException {
+        switch (fieldName) {
+            case "status" -> envelope.status = parser.getValueAsString();
+            case "id" -> envelope.id = parser.getValueAsString();
+            case "event_count" -> envelope.eventCount = parser.currentToken() == JsonToken.VALUE_NUMBER_INT
+                    ? parser.getLongValue() : -1L;
+            default -> parser.skipChildren();
+        }
+    }
+
+    private void readSchemaChangeField(JsonParser parser, String fieldName, SchemaChangeEnvelope envelope)
+            throws IOException {
+        switch (fieldName) {
+            case "databaseName" -> envelope.database = parser.getValueAsString();
+            case "ddl" -> envelope.ddl = parser.getValueAsString();
+            case "tableChanges" -> readTableChanges(parser, envelope);
+            default -> parser.skipChildren();
+        }
+    }
+
+    private void readTableChanges(JsonParser parser, SchemaChangeEnvelope envelope) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                parser.nextToken();
+                if ("id".equals(fieldName)) {
+                    // "database"."table" 形式のテーブルID
+                    String id = parser.getValueAsString();
+                    if (id != null) {
+                        int separator = id.lastIndexOf('.');
+                        envelope.tables.add(id.substring(separator + 1).replace("\"", ""));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void readPayload(JsonParser parser, Envelope envelope) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            parser.nextToken();
+            readPayloadField(parser, fieldName, envelope);
+        }
+    }
+
+    private void readPayloadField(JsonParser parser, String fieldName, Envelope envelope) throws IOException {
+        switch (fieldName) {
+            case "before" -> envelope.before = readRow(parser);
+            case "after" -> envelope.after = readRow(parser);
+            case "source" -> readSource(parser, envelope);
+            case "transaction" -> readTransaction(parser, envelope);
+            case "op" -> envelope.op = parser.getValueAsString();
+            case "ts_ms" -> envelope.eventTsMs = parser.getValueAsLong(-1L);
+            default -> parser.skipChildren();
+        }
+    }
+
+    private void readSource(JsonParser parser, Envelope envelope) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case "db" -> envelope.database = parser.getValueAsString();
+                case "table" -> envelope.table = parser.getValueAsString();
+                case "ts_ms" -> envelope.sourceTsMs = parser.getValueAsLong(-1L);
+                case "server_id" -> envelope.serverId = parser.getValueAsLong(0L);
+                case "file" -> envelope.file = parser.getValueAsString();
+                case "pos" -> envelope.pos = parser.getValueAsLong(-1L);
+                case "row" -> envelope.row = parser.getValueAsInt(0);
+                case "snapshot" -> envelope.snapshot = parser.getValueAsString();
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private void readTransaction(JsonParser parser, Envelope envelope) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            parser.nextToken();
+            if ("id".equals(fieldName)) {
+                envelope.transactionId = parser.getValueAsString();
+            } else if ("total_order".equals(fieldName)) {
+                envelope.transactionOrder = parser.getValueAsLong(-1L);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * 行を読み取る
+     * 数値の列はボックス化せずに保持し、列名の表は同じ列構成の行と共有する
+     */
+    private Map<String, Object> readRow(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        CompactRow.Columns hint = lastColumns;
+        CompactRow.Builder row = new CompactRow.Builder(hint != null ? hint.size() : 16);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String column = parser.currentName();
+            switch (parser.nextToken()) {
+                case VALUE_NUMBER_INT -> {
+                    switch (parser.getNumberType()) {
+                        case INT -> row.addInt(column, parser.getIntValue());
+                        case LONG -> row.addLong(column, parser.getLongValue());
+                        default -> row.add(column, parser.getNumberValue());
+                    }
+                }
+                case VALUE_NUMBER_FLOAT -> {
+                    if (parser.getNumberType() == JsonParser.NumberType.DOUBLE) {
+                        row.addDouble(column, parser.getDoubleValue());
+                    } else {
+                        row.add(column, parser.getNumberValue());
+                    }
+                }
+                default -> row.add(column, readValue(parser));
+            }
+        }
+        return row.build(columnsOf(row, hint));
+    }
+
+    /**
+     * 読み取った行と同じ列構成の列名の表を取得（無い場合は登録する）
+     */
+    private CompactRow.Columns columnsOf(CompactRow.Builder row, CompactRow.Columns hint) {
+        String[] names = row.names();
+        int size = row.size();
+        if (hint != null && hint.matches(names, size)) {
+            return hint;
+        }
+        int hash = CompactRow.Columns.hash(names, size);
+        CompactRow.Columns columns = columnsByHash.get(hash);
+        if (columns == null || !columns.matches(names, size)) {
+            columns = new CompactRow.Columns(Arrays.copyOf(names, size));
+            columnsByHash.put(hash, columns);
+        }
+        lastColumns = columns;
+        return columns;
+    }
+
+    /**
+     * 行以外のオブジェクト（主キーや構造化された列の値）を読み取る
+     */
+    private Map<String, Object> readObject(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String column = parser.currentName();
+            parser.nextToken();
+            row.put(column, readValue(parser));
+        }
+        return row;
+    }
+
+    private Object readValue(JsonParser parser) throws IOException {
+        return switch (parser.currentToken()) {
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getNumberValue();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case START_OBJECT -> readObject(parser);
+            case START_ARRAY -> readArray(parser);
+            default -> null;
+        };
+    }
+
+    private List<Object> readArray(JsonParser parser) throws IOException {
+        List<Object> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(readValue(parser));
+        }
+        return values;
+    }
+
+    /**
+     * DDLの対象
+     * @param database データベース名
+     * @param tables 対象のテーブル名（空の場合はデータベース全体が対象）
+     */
+    public record SchemaChange(String database, List<String> tables) {
+    }
+
+    private static final class SchemaChangeEnvelope {
+        private String database;
+        private String ddl;
+        private final List<String> tables = new ArrayList<>();
+    }
+
+    /**
+     * トランザクションの開始・終了
+     * @param id トランザクションID（変更レコードのtransaction.idと同じ値）
+     * @param end 終了の場合true
+     * @param eventCount トランザクションに含まれる変更レコード数（開始の場合は-1）
+     */
+    public record TransactionMarker(String id, boolean end, long eventCount) {
+    }
+
+    private static final class TransactionEnvelope {
+        private String status;
+        private String id;
+        private long eventCount = -1L;
+    }
+
+    /**
+     * デコード途中の値を保持する
+     */
+    private static final class Envelope {
+        private String op;
+        private String database;
+        private String table;
+        private long sourceTsMs = -1L;
+        private long eventTsMs = -1L;
+        private Map<String, Object> before;
+        private Map<String, Object> after;
+        private long serverId;
+        private String file;
+        private long pos = -1L;
+        private int row;
+        private String snapshot;
+        private String transactionId;
+        private long transactionOrder = -1L;
+
+        private ChangeEvent toChangeEvent() {
+            ChangeEvent.OperationType operation = toOperationType(op);
+            if (operation == null) {
+                return null;
+            }
+
+            long tsMs = sourceTsMs >= 0 ? sourceTsMs : eventTsMs;
+
+            ChangeEvent event = new ChangeEvent();
+            event.setId(eventId());
+            event.setType(EVENT_TYPE);
+            event.setDatabase(database);
+            event.setTable(table);
+            event.setOperation(operation);
+            event.setTimestamp(tsMs >= 0 ? Instant.ofEpochMilli(tsMs) : Instant.now());
+            event.setBefore(before);
+            event.setAfter(after);
+            event.setTransactionId(transactionId);
+            event.setTransactionOrder(transactionOrder > 0 ? transactionOrder : null);
+            return event;
+        }
+
+        /**
+         * バイナリログ上の位置からイベントIDを求める（サーバーID-ファイル名-位置-イベント内の行番号）
+         * 再取得したレコードも同じIDになるため、送信先や重複排除フィルターで再送を判別できる
+         * スナップショットの行はすべて同じ位置を持つため一意にならず、nullを返す
+         */
+        private String eventId() {
+            boolean snapshotRow = "r".equals(op) || (snapshot != null && !"false".equals(snapshot));
+            if (file == null || pos < 0 || snapshotRow) {
+                return null;
+            }
+            return new StringBuilder(file.length() + 32)
+                    .append(serverId).append('-')
+                    .append(file).append('-')
+                    .append(pos).append('-')
+                    .append(row)
+                    .toString();
+        }
+
+        private static ChangeEvent.OperationType toOperationType(String op) {
+            if (op == null) {
+                return null;
+            }
+            return switch (op) {
+                // スナップショット読み取り(r)は挿入として扱う
+                case "c", "r" -> ChangeEvent.OperationType.INSERT;
+                case "u" -> ChangeEvent.OperationType.UPDATE;
+                case "d" -> ChangeEvent.OperationType.DELETE;
+                default -> null;
+            };
+        }
+    }
+}
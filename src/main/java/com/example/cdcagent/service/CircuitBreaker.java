@@ -0,0 +1,198 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * HULFT Squareへのリクエストを保護するサーキットブレーカー
+ * 連続した失敗が閾値に達すると遮断状態（OPEN）になり、一定時間リクエストを即座に失敗させる
+ * 遮断時間の経過後は試行状態（HALF_OPEN）になり、1件だけ試行リクエストを許可して結果に応じて復旧または再遮断する
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * サーキットブレーカーの状態
+     */
+    public enum State {
+        // 通常状態（すべてのリクエストを許可する）
+        CLOSED,
+        // 遮断状態（すべてのリクエストを即座に失敗させる）
+        OPEN,
+        // 試行状態（1件の試行リクエストのみ許可する）
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Scheduler scheduler;
+
+    // 状態（thisで保護する）
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private boolean probeInFlight;
+    private long openGeneration;
+
+    // 状態が変化した際に呼び出す処理
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+
+    // メトリクス
+    private final Map<State, Counter> transitionCounters = new EnumMap<>(State.class);
+    private final Counter rejectedCounter;
+
+    /**
+     * @param failureThreshold 遮断状態にする連続失敗回数
+     * @param openDuration 遮断状態を維持する時間
+     * @param scheduler 試行状態への移行に使用するスケジューラー
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration, Scheduler scheduler, MeterRegistry meterRegistry) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+        this.scheduler = scheduler;
+
+        for (State value : State.values()) {
+            String name = value.name().toLowerCase();
+            Gauge.builder("hulft.square.circuit.state", this, breaker -> breaker.getState() == value ? 1 : 0)
+                    .description("サーキットブレーカーの現在の状態（該当する状態のみ1）")
+                    .tag("state", name)
+                    .register(meterRegistry);
+            transitionCounters.put(value, Counter.builder("hulft.square.circuit.transitions")
+                    .description("サーキットブレーカーの状態が変化した回数")
+                    .tag("to", name)
+                    .register(meterRegistry));
+        }
+        this.rejectedCounter = Counter.builder("hulft.square.circuit.rejected")
+                .description("遮断中のため送信せずに失敗させたリクエスト数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 現在の状態を取得
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 状態が変化した際に呼び出す処理を登録
+     */
+    public void addListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * リクエストの実行許可を取得
+     * 許可された場合は、結果をonSuccess・onFailure・onCancelのいずれかで必ず報告する
+     * @return 許可された場合true
+     */
+    public boolean tryAcquire() {
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                return true;
+            }
+        }
+        rejectedCounter.increment();
+        return false;
+    }
+
+    /**
+     * リクエストの成功を報告
+     */
+    public void onSuccess() {
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                probeInFlight = false;
+                changed = transition(State.CLOSED);
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    /**
+     * リクエストの失敗を報告
+     */
+    public void onFailure() {
+        State changed = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                probeInFlight = false;
+                changed = open();
+            } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+                changed = open();
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    /**
+     * 結果を待たずに取り消されたリクエストを報告
+     * 試行リクエストが取り消された場合は、次のリクエストを試行として許可する
+     */
+    public synchronized void onCancel() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * 遮断状態にし、遮断時間の経過後に試行状態に移行する
+     */
+    private State open() {
+        consecutiveFailures = 0;
+        long generation = ++openGeneration;
+        scheduler.schedule(() -> halfOpen(generation), openDuration.toMillis(), TimeUnit.MILLISECONDS);
+        return transition(State.OPEN);
+    }
+
+    private void halfOpen(long generation) {
+        State changed;
+        synchronized (this) {
+            // 遮断後に再度遮断された場合は、後の遮断のタイマーに任せる
+            if (state != State.OPEN || generation != openGeneration) {
+                return;
+            }
+            changed = transition(State.HALF_OPEN);
+        }
+        notifyListeners(changed);
+    }
+
+    private State transition(State next) {
+        logger.info("サーキットブレーカーの状態が変化しました: {} -> {}", state, next);
+        state = next;
+        transitionCounters.get(next).increment();
+        return next;
+    }
+
+    private void notifyListeners(State changed) {
+        if (changed != null) {
+            listeners.forEach(listener -> listener.accept(changed));
+        }
+    }
+
+    /**
+     * 遮断中のため実行を許可しなかったことを表す例外
+     */
+    public static class OpenException extends RuntimeException {
+        public OpenException() {
+            super("サーキットブレーカーが遮断中のため、HULFT Squareへのリクエストを送信しません");
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.config.HulftSquareProperties;
+import com.example.cdcagent.model.ChangeEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 配信できなかったイベントをデッドレターとして保存し、検索・再送用に読み出すサービス
+ */
+@Service
+public class DeadLetterService {
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterService.class);
+
+    // 保存する理由の最大文字数
+    private static final int MAX_REASON_LENGTH = 1000;
+
+    // 保存したイベントの符号化方式に合わせて読み出す
+    private final WireCodec wireCodec;
+
+    // デッドレターの保存先（保存しない設定の場合はnull）
+    private final DeadLetterStore store;
+
+    // メトリクス
+    private final Counter storedCounter;
+    private final Counter replayedCounter;
+
+    public DeadLetterService(HulftSquareProperties hulftSquareProperties, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.wireCodec = new WireCodec(hulftSquareProperties.getApi().getWireFormat(), objectMapper);
+
+        HulftSquareProperties.DeadLetter deadLetter = hulftSquareProperties.getDeadLetter();
+        this.store = deadLetter.isEnabled() ? openStore(deadLetter) : null;
+
+        this.storedCounter = Counter.builder("hulft.square.deadletter.stored")
+                .description("デッドレターとして保存したイベント数")
+                .register(meterRegistry);
+        this.replayedCounter = Counter.builder("hulft.square.deadletter.replayed")
+                .description("デッドレターから再送したイベント数")
+                .register(meterRegistry);
+        if (store != null) {
+            Gauge.builder("hulft.square.deadletter.size", store, DeadLetterStore::size)
+                    .description("保存中のデッドレター数")
+                    .register(meterRegistry);
+            Gauge.builder("hulft.square.deadletter.disk", store, DeadLetterStore::diskBytes)
+                    .description("デッドレターのログファイルのサイズ")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                logger.error("デッドレターストアのクローズ中にエラーが発生しました", e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * シリアライズ済みのイベントをデッドレターとして保存
+     * @param payloads シリアライズ済みのイベント
+     * @param reason 配信できなかった理由
+     * @return 保存できた場合true
+     */
+    public boolean store(List<byte[]> payloads, String reason) {
+        if (store == null) {
+            return false;
+        }
+
+        String trimmed = reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) : reason;
+        List<DeadLetterStore.Record> records = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            records.add(new DeadLetterStore.Record(tableOf(payload), trimmed, payload));
+        }
+
+        try {
+            store.append(records);
+        } catch (IOException | RuntimeException e) {
+            logger.error("デッドレターの保存に失敗しました: {}", e.getMessage());
+            return false;
+        }
+        storedCounter.increment(payloads.size());
+        logger.warn("{}件のイベントをデッドレターとして保存しました: {}", payloads.size(), trimmed);
+        return true;
+    }
+
+    /**
+     * 変更イベントをシリアライズしてデッドレターとして保存
+     * @param events 配信できなかったイベント
+     * @param reason 配信できなかった理由
+     * @return 保存できた場合true
+     */
+    public boolean storeEvents(List<ChangeEvent> events, String reason) {
+        if (store == null) {
+            return false;
+        }
+        List<byte[]> payloads = new ArrayList<>(events.size());
+        for (ChangeEvent event : events) {
+            try {
+                payloads.add(wireCodec.mapper().writeValueAsBytes(event));
+            } catch (IOException e) {
+                logger.error("デッドレターにするイベントをシリアライズできませんでした: {} ({})", event.getId(), e.getMessage());
+                return false;
+            }
+        }
+        return store(payloads, reason);
+    }
+
+    /**
+     * 条件に一致するデッドレターを保存順に検索
+     * @param table テーブル（database.table形式、nullの場合はすべて）
+     * @param from 保存時刻の下限（含む）
+     * @param to 保存時刻の上限（含まない）
+     * @param limit 取得件数の上限
+     */
+    public List<DeadLetterStore.DeadLetter> find(String table, Instant from, Instant to, int limit) {
+        return store != null ? store.find(table, from, to, limit) : List.of();
+    }
+
+    /**
+     * 条件に一致するデッドレターの件数を取得
+     */
+    public long count(String table, Instant from, Instant to) {
+        return store != null ? store.count(table, from, to) : 0;
+    }
+
+    /**
+     * デッドレターとして保存したイベントを読み出す
+     * 読み出せなかったイベントは結果に含めない
+     * @return 再送するイベント
+     */
+    public List<Replay> load(List<DeadLetterStore.DeadLetter> letters) {
+        List<Replay> replays = new ArrayList<>(letters.size());
+        for (DeadLetterStore.DeadLetter letter : letters) {
+            try {
+                byte[] payload = store.read(letter.id());
+                if (payload == null) {
+                    continue;
+                }
+                ObjectMapper reader = wireCodec.readerFor(payload);
+                JsonNode event = reader.readTree(payload);
+                if (!event.has("operation")) {
+                    // 変更イベントに変換できずにDebeziumのレコードのまま保存したもの
+                    logger.error("変更イベントの形式ではないため、デッドレターを再送できません: {}", letter.id());
+                    continue;
+                }
+                if (event instanceof ObjectNode row && !SchemaEncoder.restoreRows(row)) {
+                    logger.error("列の並びが分からないため、デッドレターを読み出せませんでした: {}", letter.id());
+                    continue;
+                }
+                replays.add(new Replay(letter.id(), reader.treeToValue(event, ChangeEvent.class)));
+            } catch (IOException e) {
+                logger.error("デッドレターを読み出せませんでした: {} ({})", letter.id(), e.getMessage());
+            }
+        }
+        return replays;
+    }
+
+    /**
+     * 再送に成功したデッドレターを削除
+     */
+    public void markReplayed(Collection<Long> ids) {
+        if (store == null || ids.isEmpty()) {
+            return;
+        }
+        try {
+            store.remove(ids);
+            replayedCounter.increment(ids.size());
+        } catch (IOException e) {
+            logger.error("再送済みのデッドレターを削除できませんでした", e);
+        }
+    }
+
+    /**
+     * イベントのテーブル（database.table形式）を取得
+     */
+    private String tableOf(byte[] payload) {
+        try {
+            JsonNode event = wireCodec.readerFor(payload).readTree(payload);
+            if (!event.has("database")) {
+                // Debeziumのレコードのまま保存したものは、ソースの情報からテーブルを取得する
+                JsonNode source = event.path("payload").path("source");
+                source = source.isMissingNode() ? event.path("source") : source;
+                return source.path("db").asText("") + "." + source.path("table").asText("");
+            }
+            return event.path("database").asText("") + "." + event.path("table").asText("");
+        } catch (IOException e) {
+            return ".";
+        }
+    }
+
+    private static DeadLetterStore openStore(HulftSquareProperties.DeadLetter deadLetter) {
+        try {
+            return new DeadLetterStore(Path.of(deadLetter.getDirectory()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("デッドレターストアを開けませんでした: " + deadLetter.getDirectory(), e);
+        }
+    }
+
+    /**
+     * 再送するデッドレター
+     * @param id デッドレターのID
+     * @param event 保存したイベント
+     */
+    public record Replay(long id, ChangeEvent event) {
+    }
+}
@@ -0,0 +1,396 @@
+package com.example.cdcagent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * 配信できなかったイベントを保存するデッドレターストア
+ * 追記専用のバイナリログに保存し、テーブル別・時刻別の索引をメモリ上に保持する
+ * 各レコードは [長さ(int)][CRC32C(int)][種別(byte)][本体] の形式で、再送済みのレコードは削除レコードを追記して取り消す
+ * 起動時に削除済みのレコードを取り除いたログに書き直す
+ */
+public class DeadLetterStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterStore.class);
+
+    private static final String FILE_NAME = "dead-letters.log";
+    private static final int HEADER_BYTES = 8;
+    private static final byte TYPE_ENTRY = 1;
+    private static final byte TYPE_REMOVED = 2;
+
+    private final Path file;
+    private FileChannel channel;
+    private long writePosition;
+
+    // 索引（IDは保存順に採番し、保存時刻もIDの順に単調増加させる）
+    private final NavigableMap<Long, Slot> byId = new TreeMap<>();
+    private final Map<String, NavigableMap<Long, Slot>> byTable = new HashMap<>();
+    // 保存時刻（ミリ秒）からその時刻に最初に保存したIDへの索引
+    private final NavigableMap<Long, Long> byTime = new TreeMap<>();
+
+    private long nextId = 1;
+    private long lastTimestamp;
+
+    /**
+     * @param directory ログファイルを配置するディレクトリ
+     */
+    public DeadLetterStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve(FILE_NAME);
+        this.channel = open(file);
+
+        int removed = load();
+        if (removed > 0) {
+            compact();
+        }
+        if (!byId.isEmpty()) {
+            logger.info("デッドレターを読み込みました: {}件", byId.size());
+        }
+    }
+
+    /**
+     * イベントを保存し、ディスクに書き出す
+     * @param records 保存するイベント
+     * @return 保存したデッドレター（recordsと同じ順序）
+     */
+    public synchronized List<DeadLetter> append(List<Record> records) throws IOException {
+        List<DeadLetter> letters = new ArrayList<>(records.size());
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        List<Long> payloadOffsets = new ArrayList<>(records.size());
+
+        for (Record record : records) {
+            DeadLetter letter = new DeadLetter(nextId++, Instant.ofEpochMilli(timestamp),
+                    record.table(), record.reason(), record.payload().length);
+            byte[] frame = frame(encodeEntry(letter, record.payload()));
+            payloadOffsets.add(writePosition + buffer.size() + frame.length - record.payload().length);
+            buffer.writeBytes(frame);
+            letters.add(letter);
+        }
+
+        write(buffer.toByteArray());
+        channel.force(false);
+
+        for (int i = 0; i < letters.size(); i++) {
+            index(new Slot(letters.get(i), payloadOffsets.get(i)));
+        }
+        return letters;
+    }
+
+    /**
+     * 条件に一致するデッドレターを保存順に検索
+     * @param table テーブル（database.table形式、nullの場合はすべて）
+     * @param from 保存時刻の下限（含む、nullの場合は制限なし）
+     * @param to 保存時刻の上限（含まない、nullの場合は制限なし）
+     * @param limit 取得件数の上限
+     */
+    public synchronized List<DeadLetter> find(String table, Instant from, Instant to, int limit) {
+        List<DeadLetter> letters = new ArrayList<>();
+        for (Slot slot : range(table, from)) {
+            if (letters.size() >= limit || isAfter(slot, to)) {
+                break;
+            }
+            letters.add(slot.letter());
+        }
+        return letters;
+    }
+
+    /**
+     * 条件に一致するデッドレターの件数を取得
+     */
+    public synchronized long count(String table, Instant from, Instant to) {
+        if (from == null && to == null) {
+            return table == null ? byId.size() : byTable.getOrDefault(table, new TreeMap<>()).size();
+        }
+        long count = 0;
+        for (Slot slot : range(table, from)) {
+            if (isAfter(slot, to)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * デッドレターとして保存したイベントを読み出す
+     * @return 保存したイベント（削除済みの場合はnull）
+     */
+    public synchronized byte[] read(long id) throws IOException {
+        Slot slot = byId.get(id);
+        if (slot == null) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(slot.letter().size());
+        long position = slot.payloadOffset();
+        while (payload.hasRemaining()) {
+            int read = channel.read(payload, position);
+            if (read < 0) {
+                throw new IOException("デッドレターのログが途中で終了しています: " + file);
+            }
+            position += read;
+        }
+        return payload.array();
+    }
+
+    /**
+     * デッドレターを削除
+     * すべて削除された場合はログファイルを空にする
+     */
+    public synchronized void remove(Collection<Long> ids) throws IOException {
+        List<Long> removed = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Slot slot = byId.remove(id);
+            if (slot != null) {
+                NavigableMap<Long, Slot> table = byTable.get(slot.letter().table());
+                table.remove(id);
+                if (table.isEmpty()) {
+                    byTable.remove(slot.letter().table());
+                }
+                removed.add(id);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        if (byId.isEmpty()) {
+            channel.truncate(0);
+            writePosition = 0;
+            byTime.clear();
+        } else {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(5 + removed.size() * 8);
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeByte(TYPE_REMOVED);
+            out.writeInt(removed.size());
+            for (Long id : removed) {
+                out.writeLong(id);
+            }
+            write(frame(body.toByteArray()));
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 保存中のデッドレター数を取得
+     */
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * ログファイルのサイズを取得
+     */
+    public synchronized long diskBytes() {
+        return writePosition;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private Iterable<Slot> range(String table, Instant from) {
+        NavigableMap<Long, Slot> source = table == null ? byId : byTable.getOrDefault(table, new TreeMap<>());
+        if (from == null) {
+            return source.values();
+        }
+        Map.Entry<Long, Long> start = byTime.ceilingEntry(from.toEpochMilli());
+        return start == null ? List.of() : source.tailMap(start.getValue(), true).values();
+    }
+
+    private static boolean isAfter(Slot slot, Instant to) {
+        return to != null && !slot.letter().timestamp().isBefore(to);
+    }
+
+    private void index(Slot slot) {
+        DeadLetter letter = slot.letter();
+        byId.put(letter.id(), slot);
+        byTable.computeIfAbsent(letter.table(), key -> new TreeMap<>()).put(letter.id(), slot);
+        byTime.putIfAbsent(letter.timestamp().toEpochMilli(), letter.id());
+        lastTimestamp = Math.max(lastTimestamp, letter.timestamp().toEpochMilli());
+        nextId = Math.max(nextId, letter.id() + 1);
+    }
+
+    /**
+     * ログを先頭から読み込んで索引を再構築する
+     * 壊れたレコードを検出した場合は、書き込み途中のデータとしてそれ以降を切り捨てる
+     * @return 削除レコードで取り消されたデッドレター数
+     */
+    private int load() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        long position = 0;
+        int removed = 0;
+
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            int crc = header.getInt(4);
+            if (length <= 0 || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            channel.read(body, position + HEADER_BYTES);
+            if (crc(body.array()) != crc) {
+                break;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+            byte type = in.readByte();
+            if (type == TYPE_ENTRY) {
+                long id = in.readLong();
+                Instant timestamp = Instant.ofEpochMilli(in.readLong());
+                String table = in.readUTF();
+                String reason = in.readUTF();
+                int payloadBytes = in.available();
+                DeadLetter letter = new DeadLetter(id, timestamp, table, reason, payloadBytes);
+                index(new Slot(letter, position + HEADER_BYTES + length - payloadBytes));
+            } else if (type == TYPE_REMOVED) {
+                int count = in.readInt();
+                List<Long> ids = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ids.add(in.readLong());
+                }
+                for (Long id : ids) {
+                    Slot slot = byId.remove(id);
+                    if (slot != null) {
+                        byTable.get(slot.letter().table()).remove(id);
+                        removed++;
+                    }
+                }
+            }
+            position += HEADER_BYTES + length;
+        }
+
+        if (position < size) {
+            logger.warn("デッドレターのログに壊れたレコードを検出したため、以降を破棄します: {} (位置: {})", file, position);
+            channel.truncate(position);
+        }
+        byTable.values().removeIf(Map::isEmpty);
+        writePosition = position;
+        return removed;
+    }
+
+    /**
+     * 削除済みのレコードを取り除いたログに書き直す
+     */
+    private void compact() throws IOException {
+        Path temporary = file.resolveSibling(FILE_NAME + ".tmp");
+        List<Slot> live = new ArrayList<>(byId.values());
+        List<Slot> moved = new ArrayList<>(live.size());
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (Slot slot : live) {
+                byte[] payload = read(slot.letter().id());
+                byte[] frame = frame(encodeEntry(slot.letter(), payload));
+                ByteBuffer buffer = ByteBuffer.wrap(frame);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                position += frame.length;
+                moved.add(new Slot(slot.letter(), position - payload.length));
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(file);
+        writePosition = channel.size();
+
+        byId.clear();
+        byTable.clear();
+        byTime.clear();
+        moved.forEach(this::index);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    private static byte[] encodeEntry(DeadLetter letter, byte[] payload) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(payload.length + 64);
+        DataOutputStream out = new DataOutputStream(body);
+        try {
+            out.writeByte(TYPE_ENTRY);
+            out.writeLong(letter.id());
+            out.writeLong(letter.timestamp().toEpochMilli());
+            out.writeUTF(letter.table());
+            out.writeUTF(letter.reason());
+            out.write(payload);
+        } catch (IOException e) {
+            // メモリ上の書き込みのため発生しない
+            throw new UncheckedIOException(e);
+        }
+        return body.toByteArray();
+    }
+
+    private static byte[] frame(byte[] body) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        frame.putInt(body.length);
+        frame.putInt(crc(body));
+        frame.put(body);
+        return frame.array();
+    }
+
+    private static int crc(byte[] body) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 保存するイベント
+     * @param table テーブル（database.table形式）
+     * @param reason 配信できなかった理由
+     * @param payload シリアライズ済みのイベント
+     */
+    public record Record(String table, String reason, byte[] payload) {
+    }
+
+    /**
+     * 保存したデッドレターの情報
+     * @param id 保存順に採番したID
+     * @param timestamp 保存した時刻
+     * @param table テーブル（database.table形式）
+     * @param reason 配信できなかった理由
+     * @param size シリアライズ済みのイベントのバイト数
+     */
+    public record DeadLetter(long id, Instant timestamp, String table, String reason, int size) {
+    }
+
+    private record Slot(DeadLetter letter, long payloadOffset) {
+    }
+}
@@ -2,50 +2,169 @@ package com.example.cdcagent.service;
 
 import com.example.cdcagent.config.DebeziumProperties;
 import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.ChangeEventBatch;
 import io.debezium.config.Configuration;
 import io.debezium.engine.DebeziumEngine;
 import io.debezium.engine.format.Json;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Debeziumエンジンを管理するサービス
+ * ポーリング単位のバッチでレコードを受け取り、HULFT Squareへの送信完了後にオフセットをコミットする
+ * 送信は順不同に完了するため、受信順で連続して完了した位置までをレコード単位でコミットする
+ * トランザクションのメタデータを取得する場合は、1つのトランザクションのイベントを1つのバッチとしてパイプラインに渡す
  */
 @Service
-public class DebeziumEngineService {
+public class DebeziumEngineService implements DebeziumEngine.ChangeConsumer<io.debezium.engine.ChangeEvent<String, String>> {
     private static final Logger logger = LoggerFactory.getLogger(DebeziumEngineService.class);
 
+    // 一時停止中に状態を確認する間隔
+    private static final long PAUSE_CHECK_INTERVAL_MS = 100;
+
+    // バッファが満杯の間にエンジンの停止を確認する間隔
+    private static final long BUFFER_OFFER_TIMEOUT_MS = 100;
+
     private final DebeziumProperties debeziumProperties;
     private final AgentStateManager stateManager;
     private final ExecutorService executorService;
     private DebeziumEngine<io.debezium.engine.ChangeEvent<String, String>> engine;
     private final AtomicBoolean engineRunning = new AtomicBoolean(false);
-    
-    // 変更イベントを非同期に処理するためのSink
-    private final Sinks.Many<ChangeEvent> changeEventSink = Sinks.many().multicast().onBackpressureBuffer();
-    private final Flux<ChangeEvent> changeEventFlux = changeEventSink.asFlux();
+    private final ChangeEventDecoder decoder = new ChangeEventDecoder();
+
+    // DDLを受信したテーブルのスキーマを無効にするスキーマキャッシュ（無い場合はnull）
+    private final SchemaCache schemaCache;
+
+    // 変換できなかったレコードの保存先（未設定の場合は変換に失敗した時点でエンジンを停止する）
+    private final DeadLetterService deadLetterService;
+
+    // イベントをトランザクション単位の送信単位にまとめるアセンブラー（エンジンスレッドからのみアクセスする）
+    private final TransactionAssembler transactionAssembler;
+
+    // 送信完了の確認応答からコミット可能な位置を求めるトラッカー
+    private final AckWatermark ackWatermark;
+
+    // オフセット未コミットのレコード（受信順、エンジンスレッドからのみアクセスする）
+    private final Deque<io.debezium.engine.ChangeEvent<String, String>> uncommittedRecords = new ArrayDeque<>();
+
+    // uncommittedRecordsの先頭レコードの連番
+    private long firstUncommittedSequence;
+
+    // 送信完了待ちのバッチ（エンジンスレッドからのみアクセスする）
+    private final Deque<ChangeEventBatch> pendingDeliveries = new ArrayDeque<>();
+
+    // 送信済みのイベントIDを記録する重複排除フィルター（無効の場合はnull）
+    private final DedupeFilter dedupeFilter;
+    private final Path dedupeFile;
+    private long lastDedupePersistNanos = System.nanoTime();
+    // フィルターをファイルに書き出すスケジューラー（エンジンスレッドを書き込みで止めないようにする）
+    private final Scheduler dedupePersistScheduler = Schedulers.newSingle("cdc-dedupe-persist", true);
+    private final AtomicBoolean dedupePersisting = new AtomicBoolean();
+    private final Counter dedupeSuppressedCounter;
+
+    // エンジンスレッドとイベント処理パイプライン間の受け渡しバッファ（事前確保したリングバッファ）
+    // 満杯の間はエンジンスレッドをブロックし、バイナリログの読み取り自体を止める
+    private final BlockingQueue<ChangeEventBatch> buffer;
+    private final Flux<ChangeEventBatch> changeEventFlux;
+
+    public DebeziumEngineService(DebeziumProperties debeziumProperties, AgentStateManager stateManager,
+                                 MeterRegistry meterRegistry) {
+        this(debeziumProperties, stateManager, meterRegistry, null);
+    }
+
+    public DebeziumEngineService(DebeziumProperties debeziumProperties, AgentStateManager stateManager,
+                                 MeterRegistry meterRegistry, SchemaCache schemaCache) {
+        this(debeziumProperties, stateManager, meterRegistry, schemaCache, null);
+    }
 
     @Autowired
-    public DebeziumEngineService(DebeziumProperties debeziumProperties, AgentStateManager stateManager) {
+    public DebeziumEngineService(DebeziumProperties debeziumProperties, AgentStateManager stateManager,
+                                 MeterRegistry meterRegistry, SchemaCache schemaCache,
+                                 DeadLetterService deadLetterService) {
         this.debeziumProperties = debeziumProperties;
+        this.schemaCache = schemaCache;
+        this.deadLetterService = deadLetterService;
         this.stateManager = stateManager;
         this.executorService = Executors.newSingleThreadExecutor(runnable -> {
             Thread thread = new Thread(runnable, "debezium-engine-thread");
             thread.setDaemon(true);
             return thread;
         });
+
+        int capacity = debeziumProperties.getBuffer().getCapacity();
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.ackWatermark = new AckWatermark(debeziumProperties.getBuffer().getAckWindow());
+        // ENDを待つイベントで応答待ちの上限を使い切らないよう、分割の上限を応答待ちの上限の半分までに抑える
+        this.transactionAssembler = new TransactionAssembler(Math.min(
+                debeziumProperties.getTransaction().getMaxEvents(), ackWatermark.window() / 2));
+
+        DebeziumProperties.Dedupe dedupe = debeziumProperties.getDedupe();
+        this.dedupeFile = dedupe.isEnabled() && dedupe.getFile() != null ? Path.of(dedupe.getFile()) : null;
+        this.dedupeFilter = !dedupe.isEnabled() ? null
+                : dedupeFile != null ? DedupeFilter.load(dedupeFile, dedupe.getWindow())
+                : new DedupeFilter(dedupe.getWindow());
+
+        // 下流からの要求があった分だけバッファから取り出す
+        this.changeEventFlux = Flux.<ChangeEventBatch>generate(sink -> {
+                    try {
+                        sink.next(buffer.take());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        sink.complete();
+                    }
+                })
+                .subscribeOn(Schedulers.newSingle("cdc-buffer-drain", true));
+
+        Gauge.builder("cdc.buffer.capacity", () -> capacity)
+                .description("受け渡しバッファの容量（バッチ数）")
+                .register(meterRegistry);
+        Gauge.builder("cdc.buffer.occupancy", buffer, BlockingQueue::size)
+                .description("受け渡しバッファに滞留しているバッチ数")
+                .register(meterRegistry);
+        Gauge.builder("cdc.buffer.events", buffer, queue -> queue.stream().mapToInt(ChangeEventBatch::size).sum())
+                .description("受け渡しバッファに滞留しているイベント数")
+                .register(meterRegistry);
+        Gauge.builder("cdc.transaction.pending", transactionAssembler, TransactionAssembler::pending)
+                .description("トランザクションの終了を待っているイベント数")
+                .register(meterRegistry);
+        Gauge.builder("cdc.offset.uncommitted", ackWatermark, AckWatermark::pending)
+                .description("送信完了待ちのためオフセットをコミットできないレコード数")
+                .register(meterRegistry);
+        this.dedupeSuppressedCounter = Counter.builder("cdc.dedupe.suppressed")
+                .description("送信済みのため再送しなかったイベント数")
+                .register(meterRegistry);
+        if (dedupeFilter != null) {
+            Gauge.builder("cdc.dedupe.size", dedupeFilter, DedupeFilter::size)
+                    .description("重複排除のために保持している送信済みイベントID数")
+                    .register(meterRegistry);
+        }
     }
 
     /**
@@ -55,17 +174,13 @@ public class DebeziumEngineService {
     public void init() {
         logger.info("Debeziumエンジンを初期化中...");
         Configuration config = createDebeziumConfiguration();
-        
+
         engine = DebeziumEngine.create(Json.class)
                 .using(config.asProperties())
-                .notifying(record -> {
-                    if (stateManager.isRunning()) {
-                        processRecord(record);
-                    }
-                })
+                .notifying(this)
                 .using(this.getClass().getClassLoader())
                 .build();
-        
+
         logger.info("Debeziumエンジンが初期化されました");
     }
 
@@ -75,6 +190,8 @@ public class DebeziumEngineService {
     public void start() {
         if (engineRunning.compareAndSet(false, true)) {
             logger.info("Debeziumエンジンを起動中...");
+            // 前回の未コミット分はコミット済みオフセットから再取得されるため破棄する
+            discardPendingRecords();
             executorService.submit(() -> {
                 try {
                     engine.run();
@@ -100,6 +217,7 @@ public class DebeziumEngineService {
             try {
                 engine.close();
                 executorService.shutdown();
+                persistDedupeFilter(true);
                 logger.info("Debeziumエンジンが停止しました");
             } catch (IOException e) {
                 logger.error("Debeziumエンジンの停止中にエラーが発生しました", e);
@@ -108,18 +226,243 @@ public class DebeziumEngineService {
     }
 
     /**
-     * 変更イベントのFluxを取得
+     * 変更イベントのバッチのFluxを取得
      */
-    public Flux<ChangeEvent> getChangeEventFlux() {
+    public Flux<ChangeEventBatch> getChangeEventFlux() {
         return changeEventFlux;
     }
 
+    /**
+     * Debeziumからポーリング1回分のレコードを受け取る（エンジンスレッドで呼び出される）
+     * 新しいバッチをパイプラインに渡し、送信が完了した位置までのオフセットをコミットする
+     */
+    @Override
+    public void handleBatch(List<io.debezium.engine.ChangeEvent<String, String>> records,
+                            DebeziumEngine.RecordCommitter<io.debezium.engine.ChangeEvent<String, String>> committer)
+            throws InterruptedException {
+        // 一時停止中はバイナリログの読み取り自体を止める
+        while (!stateManager.isRunning() && !stateManager.isStopping() && engineRunning.get()) {
+            Thread.sleep(PAUSE_CHECK_INTERVAL_MS);
+        }
+
+        if (!stateManager.isRunning()) {
+            // 停止中はコミットせずに破棄し、次回起動時に再取得させる
+            logger.debug("エージェントが実行中ではないため、{}件のレコードをコミットせずに破棄します", records.size());
+            commitAcknowledgedRecords(committer);
+            return;
+        }
+
+        for (io.debezium.engine.ChangeEvent<String, String> record : records) {
+            long sequence = register(committer);
+            if (sequence < 0) {
+                // エンジン停止中のため、残りのレコードは次回起動時に再取得させる
+                return;
+            }
+            uncommittedRecords.addLast(record);
+
+            ChangeEvent changeEvent;
+            try {
+                changeEvent = processRecord(record);
+            } catch (Exception e) {
+                // 保存できた場合は処理済みとしてコミットし、後続のレコードの処理を続ける
+                deadLetterRecord(record, e);
+                changeEvent = null;
+            }
+            if (changeEvent != null) {
+                changeEvent.setSequence(sequence);
+                transactionAssembler.add(changeEvent);
+            } else {
+                // 送信対象ではないレコード（ハートビートやトランザクションの開始・終了等）は即座にコミット可能とする
+                ackWatermark.acknowledge(sequence);
+            }
+        }
+
+        emitAssembled();
+        redeliverFailedEvents();
+        commitAcknowledgedRecords(committer);
+    }
+
+    /**
+     * レコードに連番を払い出す
+     * 応答待ちが上限に達している間は、失敗分の再送とコミットを進めながらエンジンスレッドをブロックする
+     * 1回のポーリングのレコード数が上限を超える場合に備え、待機する前にそれまでのイベントをパイプラインに渡す
+     * @return 払い出した連番。エンジンが停止した場合は-1
+     */
+    private long register(DebeziumEngine.RecordCommitter<io.debezium.engine.ChangeEvent<String, String>> committer)
+            throws InterruptedException {
+        long sequence;
+        while ((sequence = ackWatermark.tryRegister()) < 0) {
+            if (!engineRunning.get()) {
+                return -1L;
+            }
+            logger.debug("送信完了待ちのレコードが上限に達したため待機します (上限: {})", ackWatermark.window());
+            emitAssembled();
+            redeliverFailedEvents();
+            commitAcknowledgedRecords(committer);
+            Thread.sleep(BUFFER_OFFER_TIMEOUT_MS);
+        }
+        return sequence;
+    }
+
+    /**
+     * 送信単位にまとまったイベントをバッチとしてパイプラインに渡す
+     * 終了を待っているトランザクションのイベントは、オフセットをコミットせずに次のポーリング以降まで保持する
+     */
+    private void emitAssembled() throws InterruptedException {
+        for (TransactionAssembler.Unit unit : transactionAssembler.poll()) {
+            ChangeEventBatch delivery = new ChangeEventBatch(unit.events(), this::acknowledge, unit.transaction());
+            pendingDeliveries.addLast(delivery);
+            emit(delivery);
+        }
+    }
+
+    /**
+     * イベントの送信完了を記録する（送信したスレッドから呼び出される）
+     */
+    private void acknowledge(ChangeEvent event) {
+        if (dedupeFilter != null) {
+            dedupeFilter.add(event.getId());
+        }
+        ackWatermark.acknowledge(event.getSequence());
+    }
+
+    /**
+     * 送信が完了したバッチのうち、一部のイベントの送信に失敗したものは失敗分を再送する
+     * 失敗したイベントは応答済みにならないため、再送が成功するまでその位置以降はコミットされない
+     * 再送までの待機時間は再送のたびに2倍にし、上限回数まで失敗したイベントはデッドレターとして保存する
+     */
+    private void redeliverFailedEvents() throws InterruptedException {
+        DebeziumProperties.Redelivery redelivery = debeziumProperties.getRedelivery();
+        long now = System.nanoTime();
+        for (int i = pendingDeliveries.size(); i > 0; i--) {
+            ChangeEventBatch delivery = pendingDeliveries.pollFirst();
+            if (!delivery.isCompleted()) {
+                pendingDeliveries.addLast(delivery);
+            } else if (!delivery.isSuccessful()) {
+                List<ChangeEvent> failedEvents = delivery.getFailedEvents();
+                if (delivery.getAttempt() >= redelivery.getMaxAttempts()) {
+                    giveUp(failedEvents, delivery.getAttempt());
+                } else if (now - delivery.getCompletedNanos() < backoffNanos(redelivery, delivery.getAttempt())) {
+                    pendingDeliveries.addLast(delivery);
+                } else {
+                    logger.warn("送信に失敗したイベントを再送します: {}件 ({}回目)", failedEvents.size(),
+                            delivery.getAttempt() + 1);
+                    ChangeEventBatch retry = delivery.retry(failedEvents);
+                    pendingDeliveries.addLast(retry);
+                    emit(retry);
+                }
+            }
+        }
+    }
+
+    /**
+     * attempt回目の送信に失敗してから再送するまでの待機時間
+     */
+    private static long backoffNanos(DebeziumProperties.Redelivery redelivery, int attempt) {
+        long backoffMs = redelivery.getInitialBackoffMs() << Math.min(attempt - 1, 20);
+        return TimeUnit.MILLISECONDS.toNanos(Math.min(backoffMs, redelivery.getMaxBackoffMs()));
+    }
+
+    /**
+     * 上限回数まで送信に失敗したイベントをデッドレターとして保存し、処理済みとしてコミットできるようにする
+     * 保存できない場合は、オフセットをコミットせずにエンジンを停止する
+     */
+    private void giveUp(List<ChangeEvent> failedEvents, int attempts) {
+        String reason = "Redelivery failed " + attempts + " times";
+        if (deadLetterService == null || !deadLetterService.storeEvents(failedEvents, reason)) {
+            stopWithoutCommit(new IllegalStateException(
+                    attempts + "回送信に失敗したイベントを保存できないため、オフセットをコミットせずに停止します"));
+        }
+        failedEvents.forEach(this::acknowledge);
+    }
+
+    /**
+     * 受信順で連続して送信が完了した位置までのレコードのオフセットをコミットする
+     */
+    private void commitAcknowledgedRecords(
+            DebeziumEngine.RecordCommitter<io.debezium.engine.ChangeEvent<String, String>> committer)
+            throws InterruptedException {
+        long watermark = ackWatermark.advance();
+        if (firstUncommittedSequence >= watermark) {
+            return;
+        }
+
+        while (firstUncommittedSequence < watermark) {
+            committer.markProcessed(uncommittedRecords.pollFirst());
+            firstUncommittedSequence++;
+        }
+        committer.markBatchFinished();
+        persistDedupeFilter(false);
+    }
+
+    /**
+     * 重複排除フィルターをファイルに保存する
+     * エンジンスレッドではスナップショットの取得のみ行い、書き込みは専用のスケジューラーで行う
+     * 異常終了した場合は、最後に保存した時点以降に送信したイベントが再送されることがある
+     * @param force 保存間隔に関わらず保存する場合true（書き込みの完了まで待機する）
+     */
+    private void persistDedupeFilter(boolean force) {
+        if (dedupeFile == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long interval = TimeUnit.MILLISECONDS.toNanos(debeziumProperties.getDedupe().getPersistIntervalMs());
+        if (!force && (now - lastDedupePersistNanos < interval || !dedupePersisting.compareAndSet(false, true))) {
+            // 前回の書き込みが終わっていない場合は次の機会に保存する
+            return;
+        }
+        lastDedupePersistNanos = now;
+        long[] snapshot = dedupeFilter.snapshot();
+        Mono<Void> write = Mono.<Void>fromRunnable(() -> writeDedupeFilter(snapshot))
+                .subscribeOn(dedupePersistScheduler);
+        if (force) {
+            // 同じスケジューラーで書き込むため、先に始まった書き込みが後から上書きすることはない
+            write.block();
+        } else {
+            write.doFinally(signal -> dedupePersisting.set(false)).subscribe();
+        }
+    }
+
+    private void writeDedupeFilter(long[] snapshot) {
+        try {
+            DedupeFilter.write(dedupeFile, snapshot);
+        } catch (IOException e) {
+            logger.warn("送信済みのイベントIDを保存できませんでした: {} ({})", dedupeFile, e.getMessage());
+        }
+    }
+
+    /**
+     * 未コミットのレコードと送信完了待ちのバッチ、バッファ内のバッチ、終了を待っているトランザクションのイベントを破棄する
+     */
+    private void discardPendingRecords() {
+        uncommittedRecords.clear();
+        pendingDeliveries.clear();
+        transactionAssembler.clear();
+        buffer.clear();
+        firstUncommittedSequence = ackWatermark.skip();
+    }
+
+    /**
+     * バッチを受け渡しバッファに格納する
+     * バッファが満杯の場合は空きができるまでエンジンスレッドをブロックする
+     */
+    private void emit(ChangeEventBatch batch) throws InterruptedException {
+        while (!buffer.offer(batch, BUFFER_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            if (!engineRunning.get()) {
+                // コミットされないため、次回起動時にDebeziumから再取得される
+                logger.warn("エンジン停止のため、バッファに格納できなかったバッチを破棄します: {}", batch);
+                return;
+            }
+            logger.debug("受け渡しバッファが満杯のため、空きができるまで待機します (容量: {})", debeziumProperties.getBuffer().getCapacity());
+        }
+    }
+
     /**
      * Debeziumの設定を作成
      */
     private Configuration createDebeziumConfiguration() {
         DebeziumProperties.Source.Database db = debeziumProperties.getSource().getDatabase();
-        
+
         Properties props = new Properties();
         props.setProperty("connector.class", "io.debezium.connector.mysql.MySqlConnector");
         props.setProperty("name", debeziumProperties.getConnector().getName());
@@ -132,37 +475,123 @@ public class DebeziumEngineService {
         props.setProperty("database.include.list", ".*");
         props.setProperty("table.include.list", ".*");
         props.setProperty("include.schema.changes", String.valueOf(db.isIncludeSchemaChanges()));
+        // トランザクションの開始・終了のレコードと、変更レコードのトランザクション内の順序を出力させる
+        props.setProperty("provide.transaction.metadata",
+                String.valueOf(debeziumProperties.getTransaction().isEnabled()));
         props.setProperty("offset.storage", debeziumProperties.getConnector().getProperties().getOrDefault(
                 "offset.storage", "org.apache.kafka.connect.storage.FileOffsetBackingStore"));
         props.setProperty("offset.storage.file.filename", debeziumProperties.getConnector().getProperties().getOrDefault(
                 "offset.storage.file.filename", "${user.home}/offsets.dat"));
         props.setProperty("offset.flush.interval.ms", debeziumProperties.getConnector().getProperties().getOrDefault(
-                "offset.flush.interval.ms", "60000"));
-        
+                "offset.flush.interval.ms", "1000"));
+        // 変更が無い間もハートビートでhandleBatchを呼び出させ、送信済みオフセットをコミットする
+        props.setProperty("heartbeat.interval.ms", debeziumProperties.getConnector().getProperties().getOrDefault(
+                "heartbeat.interval.ms", "10000"));
+
         return Configuration.from(props);
     }
 
     /**
-     * Debeziumから受け取ったレコードを処理する
+     * Debeziumから受け取ったレコードを変更イベントに変換する
+     * @return 変換結果。行の変更ではないレコードの場合はnull
+     * @throws IOException レコードを変換できなかった場合
      */
-    private void processRecord(io.debezium.engine.ChangeEvent<String, String> record) {
-        try {
-            if (record.value() != null) {
-                // JSONをChangeEventに変換する処理を実装
-                // 実際の実装ではJacksonなどを使ってJSON解析を行う
-                logger.debug("変更イベントを受信: {}", record.value());
-                
-                // ここではサンプルとしてダミーのChangeEventを作成
-                ChangeEvent changeEvent = new ChangeEvent();
-                changeEvent.setId(java.util.UUID.randomUUID().toString());
-                changeEvent.setType("mysql");
-                changeEvent.setTimestamp(java.time.Instant.now());
-                
-                // 変更イベントをSinkに送信
-                changeEventSink.tryEmitNext(changeEvent);
+    private ChangeEvent processRecord(io.debezium.engine.ChangeEvent<String, String> record) throws IOException {
+        if (record.value() == null) {
+            return null;
+        }
+        logger.debug("変更イベントを受信: {}", record.value());
+
+        ChangeEvent changeEvent = decoder.decode(record.value());
+        if (changeEvent == null) {
+            // スキーマ変更やハートビート、トランザクションの開始・終了など行の変更ではないレコード
+            if (schemaCache != null) {
+                invalidateSchema(record.value());
             }
-        } catch (Exception e) {
-            logger.error("レコード処理中にエラーが発生しました", e);
+            markTransaction(record.value());
+            return null;
+        }
+        if (changeEvent.getId() == null) {
+            // スナップショットの行など位置から一意に決まらないイベントには重複しないIDを払い出す
+            changeEvent.setId(randomId());
+        } else if (dedupeFilter != null && dedupeFilter.contains(changeEvent.getId())) {
+            // 再起動前に送信済みでオフセットをコミットできなかったイベント
+            logger.debug("送信済みのイベントのため再送しません: {}", changeEvent.getId());
+            dedupeSuppressedCounter.increment();
+            return null;
+        }
+        changeEvent.setKey(decoder.decodeKey(record.key()));
+        return changeEvent;
+    }
+
+    /**
+     * 変換できなかったレコードを、受け取った内容のままデッドレターとして保存する
+     * 保存できない場合はオフセットをコミットせずにエンジンを停止し、次回起動時に同じレコードから再取得させる
+     */
+    private void deadLetterRecord(io.debezium.engine.ChangeEvent<String, String> record, Exception error) {
+        logger.error("レコードを変換できませんでした", error);
+        String reason = "Decode failed: " + error.getClass().getSimpleName() + ": " + error.getMessage();
+        if (deadLetterService != null
+                && deadLetterService.store(List.of(record.value().getBytes(StandardCharsets.UTF_8)), reason)) {
+            return;
+        }
+        stopWithoutCommit(new IllegalStateException(
+                "変換できなかったレコードを保存できないため、オフセットをコミットせずに停止します", error));
+    }
+
+    /**
+     * 処理できないイベントがあるため、オフセットをコミットせずにエンジンを停止する
+     * 例外をDebeziumに返してエンジンを終了させ、次回起動時にコミット済みの位置から再取得させる
+     */
+    private void stopWithoutCommit(IllegalStateException error) {
+        logger.error(error.getMessage());
+        engineRunning.set(false);
+        stateManager.setState(AgentStateManager.AgentState.STOPPING);
+        throw error;
+    }
+
+    /**
+     * トランザクションのメタデータレコードの場合、トランザクションの開始・終了をアセンブラーに渡す
+     */
+    private void markTransaction(String json) throws IOException {
+        if (!debeziumProperties.getTransaction().isEnabled()) {
+            return;
         }
+        ChangeEventDecoder.TransactionMarker marker = decoder.decodeTransaction(json);
+        if (marker == null) {
+            return;
+        }
+        if (marker.end()) {
+            transactionAssembler.end(marker.id(), marker.eventCount());
+        } else {
+            transactionAssembler.begin(marker.id());
+        }
+    }
+
+    /**
+     * スキーマ変更レコードの場合、DDLの対象のテーブルのスキーマを無効にする
+     */
+    private void invalidateSchema(String json) throws IOException {
+        ChangeEventDecoder.SchemaChange change = decoder.decodeSchemaChange(json);
+        if (change == null) {
+            return;
+        }
+        logger.debug("スキーマ変更を受信しました: {} {}", change.database(), change.tables());
+        if (change.tables().isEmpty()) {
+            schemaCache.invalidate(change.database(), null);
+        } else {
+            change.tables().forEach(table -> schemaCache.invalidate(change.database(), table));
+        }
+    }
+
+    /**
+     * ランダムなUUID（バージョン4）を生成する
+     * IDは推測されても問題ないため、SecureRandomを使用するUUID.randomUUIDより軽量なThreadLocalRandomを使用する
+     */
+    private static String randomId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
     }
-} 
\ No newline at end of file
+}
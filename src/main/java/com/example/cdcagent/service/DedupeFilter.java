@@ -0,0 +1,217 @@
+package com.example.cdcagent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * 送信済みのイベントIDを記録し、再起動後の再送を抑止する重複排除フィルター
+ * IDを64ビットのフィンガープリントに変換して2世代のハッシュセットに保持し、
+ * 新しい世代がwindow件に達したら古い世代を破棄する（直近window件から2×window件を保持する）
+ * フィンガープリントの衝突確率は保持件数の2乗/2^64程度のため、誤って抑止することは実質的にない
+ */
+public class DedupeFilter {
+    private static final Logger logger = LoggerFactory.getLogger(DedupeFilter.class);
+
+    private static final int MAGIC = 0x44445550;
+
+    private final int window;
+
+    // 新しい世代と古い世代（thisで保護する）
+    private LongSet current;
+    private LongSet previous;
+
+    /**
+     * @param window 1世代に保持するID数（再起動時に再取得され得るレコード数以上を指定する）
+     */
+    public DedupeFilter(int window) {
+        this.window = Math.max(1, window);
+        this.current = new LongSet(this.window);
+        this.previous = new LongSet(this.window);
+    }
+
+    /**
+     * 保存したファイルからフィルターを復元する
+     * ファイルが無い場合や読み込めない場合は空のフィルターを返す
+     */
+    public static DedupeFilter load(Path file, int window) {
+        DedupeFilter filter = new DedupeFilter(window);
+        if (!Files.exists(file)) {
+            return filter;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不正なファイル形式です");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                filter.addFingerprint(in.readLong());
+            }
+            logger.info("送信済みのイベントIDを読み込みました: {}件", filter.size());
+        } catch (IOException e) {
+            logger.warn("送信済みのイベントIDを読み込めなかったため、空の状態から開始します: {} ({})", file, e.getMessage());
+            return new DedupeFilter(window);
+        }
+        return filter;
+    }
+
+    /**
+     * 送信済みのIDかどうかを判定
+     */
+    public synchronized boolean contains(String id) {
+        long fingerprint = fingerprint(id);
+        return current.contains(fingerprint) || previous.contains(fingerprint);
+    }
+
+    /**
+     * 送信済みのIDを記録
+     */
+    public synchronized void add(String id) {
+        addFingerprint(fingerprint(id));
+    }
+
+    /**
+     * 保持しているID数を取得
+     */
+    public synchronized int size() {
+        return current.size + previous.size;
+    }
+
+    /**
+     * フィルターをファイルに保存する
+     * 一時ファイルに書き出してから置き換えるため、書き込み途中で停止しても前回の内容が残る
+     */
+    public void save(Path file) throws IOException {
+        write(file, snapshot());
+    }
+
+    /**
+     * 保存する内容のスナップショットを取得する
+     * ロックを保持するのはコピーの間だけのため、ファイルへの書き込みは別スレッドで行える
+     */
+    public synchronized long[] snapshot() {
+        // 復元時に同じ世代に振り分けられるよう古い順に並べる
+        long[] fingerprints = new long[current.size + previous.size];
+        int length = previous.copyTo(fingerprints, 0);
+        current.copyTo(fingerprints, length);
+        return fingerprints;
+    }
+
+    /**
+     * snapshot()で取得した内容をファイルに書き出す
+     */
+    public static void write(Path file, long[] fingerprints) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(fingerprints.length);
+                for (long fingerprint : fingerprints) {
+                    out.writeLong(fingerprint);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void addFingerprint(long fingerprint) {
+        if (current.contains(fingerprint) || previous.contains(fingerprint)) {
+            return;
+        }
+        if (current.size >= window) {
+            // 古い世代の領域を再利用して新しい世代にする
+            LongSet recycled = previous;
+            recycled.clear();
+            previous = current;
+            current = recycled;
+        }
+        current.add(fingerprint);
+    }
+
+    /**
+     * IDの64ビットのフィンガープリント（FNV-1aの結果をSplitMix64の最終化関数で攪拌する）
+     * 0は空きスロットを表すため使用しない
+     */
+    static long fingerprint(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 30;
+        hash *= 0xbf58476d1ce4e5b9L;
+        hash ^= hash >>> 27;
+        hash *= 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * 0以外のlong値を格納するオープンアドレス法のハッシュセット（線形探索）
+     */
+    private static final class LongSet {
+        private final long[] table;
+        private final int mask;
+        private int size;
+
+        private LongSet(int capacity) {
+            // 負荷率を0.5以下に保つ
+            int length = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            this.table = new long[length];
+            this.mask = length - 1;
+        }
+
+        private boolean contains(long value) {
+            for (int i = (int) value & mask; ; i = (i + 1) & mask) {
+                long slot = table[i];
+                if (slot == value) {
+                    return true;
+                }
+                if (slot == 0) {
+                    return false;
+                }
+            }
+        }
+
+        private void add(long value) {
+            int i = (int) value & mask;
+            while (table[i] != 0) {
+                if (table[i] == value) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            size++;
+        }
+
+        private int copyTo(long[] target, int offset) {
+            int position = offset;
+            for (long value : table) {
+                if (value != 0) {
+                    target[position++] = value;
+                }
+            }
+            return position;
+        }
+
+        private void clear() {
+            Arrays.fill(table, 0L);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.cdcagent.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * 優先度と重みを持つ複数のキューから要素を取り出すキュー
+ * 優先度の高いキューに要素がある間は低いキューから取り出さず、同じ優先度のキュー間は重みに比例して取り出す（Deficit Round Robin）
+ * 各キューは巡回の順番が来るたびに重み分の取り出し枠を受け取り、枠を使い切るかキューが空になると次のキューに順番を譲る
+ * 同じキュー内の要素は投入順に取り出す
+ * 保留時間を指定したキューは、投入から保留時間が経過した要素のみ取り出す
+ * 複数のキューにまたがる要素は、すべてのキューで先に投入された要素を取り出すまで取り出さず、取り出すまで各キューの後続の要素を取り出さない
+ */
+public class DeficitRoundRobinQueue<T> {
+
+    private final List<SubQueue<T>> queues;
+    // 優先度の高い順に並べた優先度ごとの巡回対象
+    private final List<Level<T>> levels;
+
+    private int size;
+
+    /**
+     * @param priorities キューごとの優先度（大きいほど優先する）
+     * @param weights キューごとの重み（1以上）
+     */
+    public DeficitRoundRobinQueue(int[] priorities, int[] weights) {
+        this(priorities, weights, new long[priorities.length]);
+    }
+
+    /**
+     * @param priorities キューごとの優先度（大きいほど優先する）
+     * @param weights キューごとの重み（1以上）
+     * @param holdNanos キューごとの保留時間（0の場合は保留しない）
+     */
+    public DeficitRoundRobinQueue(int[] priorities, int[] weights, long[] holdNanos) {
+        if (priorities.length != weights.length || priorities.length != holdNanos.length) {
+            throw new IllegalArgumentException("優先度と重みの数が一致しません");
+        }
+        TreeMap<Integer, Level<T>> byPriority = new TreeMap<>(Comparator.reverseOrder());
+        this.queues = new ArrayList<>(priorities.length);
+        for (int i = 0; i < priorities.length; i++) {
+            Level<T> level = byPriority.computeIfAbsent(priorities[i], priority -> new Level<>());
+            queues.add(new SubQueue<>(level, Math.max(1, weights[i]), Math.max(0, holdNanos[i])));
+        }
+        this.levels = List.copyOf(byPriority.values());
+    }
+
+    /**
+     * 要素をキューに投入
+     * @param queue キュー番号
+     */
+    public synchronized void offer(int queue, T item) {
+        SubQueue<T> target = queues.get(queue);
+        if (target.items.isEmpty()) {
+            target.level.active.addLast(target);
+        }
+        target.items.addLast(new Node<>(new Entry<>(queue, item, System.nanoTime()), null));
+        size++;
+    }
+
+    /**
+     * 複数のキューにまたがる要素を投入
+     * 要素は最初のキューの優先度と重みに従って取り出し、取り出した要素のキュー番号は最初のキューとする
+     * @param queueNumbers キュー番号（重複してもよい）
+     */
+    public synchronized void offer(int[] queueNumbers, T item) {
+        int[] targets = IntStream.of(queueNumbers).distinct().toArray();
+        if (targets.length == 1) {
+            offer(targets[0], item);
+            return;
+        }
+
+        List<SubQueue<T>> involved = IntStream.of(targets).mapToObj(queues::get).toList();
+        Barrier<T> barrier = new Barrier<>(involved);
+        Node<T> node = new Node<>(new Entry<>(targets[0], item, System.nanoTime()), barrier);
+        for (SubQueue<T> target : involved) {
+            boolean empty = target.items.isEmpty();
+            if (empty) {
+                target.level.active.addLast(target);
+            }
+            target.items.addLast(node);
+            if (empty) {
+                arrive(target);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * 次に送信する要素を取り出す
+     * @return 取り出した要素。すべてのキューが空の場合はnull
+     */
+    public synchronized Entry<T> poll() {
+        long now = System.nanoTime();
+        for (Level<T> level : levels) {
+            SubQueue<T> head = nextReady(level, now);
+            if (head == null) {
+                continue;
+            }
+            if (head.deficit <= 0) {
+                // 巡回の順番が来たキューに重み分の枠を与える
+                head.deficit += head.weight;
+            }
+            Node<T> node = head.items.pollFirst();
+            if (node.barrier() != null) {
+                // 他のキューで待ち合わせていた要素を取り除き、後続の要素を取り出せるようにする
+                for (SubQueue<T> other : node.barrier().queues) {
+                    if (other != head) {
+                        other.items.pollFirst();
+                        if (other.items.isEmpty()) {
+                            other.level.active.remove(other);
+                            other.deficit = 0;
+                        } else {
+                            arrive(other);
+                        }
+                    }
+                }
+            }
+            head.deficit--;
+            size--;
+            if (head.items.isEmpty()) {
+                // 空になったキューは枠を持ち越さない
+                level.active.pollFirst();
+                head.deficit = 0;
+            } else {
+                arrive(head);
+                if (head.deficit <= 0) {
+                    level.active.addLast(level.active.pollFirst());
+                }
+            }
+            return node.entry();
+        }
+        return null;
+    }
+
+    /**
+     * キューの先頭が複数のキューにまたがる要素になった場合、そのキューが要素に到達したことを記録する
+     */
+    private static <T> void arrive(SubQueue<T> queue) {
+        Node<T> head = queue.items.peekFirst();
+        if (head != null && head.barrier() != null) {
+            head.barrier().remaining--;
+        }
+    }
+
+    /**
+     * 巡回の順番に従い、取り出せる要素を持つキューを先頭にする
+     * 保留中のキューは空のキューと同様に順番を譲る
+     */
+    private SubQueue<T> nextReady(Level<T> level, long now) {
+        for (int i = level.active.size(); i > 0; i--) {
+            SubQueue<T> head = level.active.peekFirst();
+            if (head.isReady(now)) {
+                return head;
+            }
+            head.deficit = 0;
+            level.active.addLast(level.active.pollFirst());
+        }
+        return null;
+    }
+
+    /**
+     * 保留中の要素が取り出せるようになる最も早い時刻（nanoTime）を取得
+     * @return 時刻。保留中の要素が無い場合はLong.MAX_VALUE
+     */
+    public synchronized long nextReadyNanos() {
+        long next = Long.MAX_VALUE;
+        for (SubQueue<T> queue : queues) {
+            Node<T> head = queue.items.peekFirst();
+            if (head != null && queue.holdNanos > 0 && !queue.isWaiting()) {
+                next = Math.min(next, head.entry().enqueuedNanos() + queue.holdNanos);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * キューに滞留している要素数（複数のキューにまたがる要素を含む）を取得
+     */
+    public synchronized int size(int queue) {
+        return queues.get(queue).items.size();
+    }
+
+    /**
+     * すべてのキューに滞留している要素数を取得
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * キュー数を取得
+     */
+    public int queueCount() {
+        return queues.size();
+    }
+
+    /**
+     * 取り出した要素
+     * @param queue 投入したキュー番号
+     * @param item 要素
+     * @param enqueuedNanos 投入した時刻（nanoTime）
+     */
+    public record Entry<T>(int queue, T item, long enqueuedNanos) {
+    }
+
+    private static final class SubQueue<T> {
+        private final Level<T> level;
+        private final int weight;
+        private final long holdNanos;
+        private final ArrayDeque<Node<T>> items = new ArrayDeque<>();
+        // 今回の順番で残っている取り出し枠
+        private int deficit;
+
+        private SubQueue(Level<T> level, int weight, long holdNanos) {
+            this.level = level;
+            this.weight = weight;
+            this.holdNanos = holdNanos;
+        }
+
+        private boolean isReady(long now) {
+            return !isWaiting() && (holdNanos == 0 || now - items.peekFirst().entry().enqueuedNanos() >= holdNanos);
+        }
+
+        /**
+         * 先頭の複数のキューにまたがる要素が、他のキューの到達か最初のキューからの取り出しを待っている場合true
+         */
+        private boolean isWaiting() {
+            Barrier<T> barrier = items.peekFirst().barrier();
+            return barrier != null && (barrier.remaining > 0 || barrier.queues.get(0) != this);
+        }
+    }
+
+    /**
+     * キューに滞留している要素
+     * @param barrier 複数のキューにまたがる要素の待ち合わせ（1つのキューの要素はnull）
+     */
+    private record Node<T>(Entry<T> entry, Barrier<T> barrier) {
+    }
+
+    private static final class Barrier<T> {
+        // 要素を投入したキュー（最初のキューから取り出す）
+        private final List<SubQueue<T>> queues;
+        // 要素にまだ到達していないキュー数
+        private int remaining;
+
+        private Barrier(List<SubQueue<T>> queues) {
+            this.queues = queues;
+            this.remaining = queues.size();
+        }
+    }
+
+    private static final class Level<T> {
+        // 要素を持つキュー（先頭が巡回の順番が来ているキュー）
+        private final ArrayDeque<SubQueue<T>> active = new ArrayDeque<>();
+    }
+}
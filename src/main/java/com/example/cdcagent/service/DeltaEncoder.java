@@ -0,0 +1,175 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.CompactRow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UPDATEイベントを、主キーと値が変わった列のみを含む差分形式に変換するエンコーダー
+ * NULLに変わった列は値を省略した列と区別できるよう、列名をnullColumnsに含める
+ * テーブルごとに列の並びを記録しておき、before/afterを列の並び順に同時に走査して比較するため、列ごとのMapの検索を行わない
+ * （デコーダーが列名を正規化するため、列名の照合はほとんどの場合参照の比較で済む）
+ */
+public class DeltaEncoder {
+
+    private final Set<String> tables;
+    private final Set<String> databases;
+
+    // データベース名→テーブル名→列の並び
+    private final Map<String, Map<String, Layout>> layouts = new ConcurrentHashMap<>();
+
+    /**
+     * @param tables 差分形式で送信するテーブル（database.table形式、database.* でデータベース内のすべてのテーブル）
+     */
+    public DeltaEncoder(List<String> tables) {
+        Set<String> exact = ConcurrentHashMap.newKeySet();
+        Set<String> wildcard = ConcurrentHashMap.newKeySet();
+        for (String table : tables) {
+            if (table.endsWith(".*")) {
+                wildcard.add(table.substring(0, table.length() - 2));
+            } else {
+                exact.add(table);
+            }
+        }
+        this.tables = exact;
+        this.databases = wildcard;
+    }
+
+    /**
+     * 対象のテーブルのUPDATEイベントを差分形式に変換する
+     * @return 差分形式のイベント。対象外のイベントの場合は引数のイベント
+     */
+    public ChangeEvent encode(ChangeEvent event) {
+        if (event.getOperation() != ChangeEvent.OperationType.UPDATE || event.getKey() == null
+                || event.getBefore() == null || event.getAfter() == null
+                || event.getDatabase() == null || event.getTable() == null) {
+            return event;
+        }
+        Layout layout = layoutOf(event.getDatabase(), event.getTable());
+        if (!layout.enabled) {
+            return event;
+        }
+
+        Map<String, Object> changed = new LinkedHashMap<>();
+        List<String> nullColumns = new ArrayList<>();
+        if (event.getBefore() instanceof CompactRow before && event.getAfter() instanceof CompactRow after
+                && before.columns() == after.columns()) {
+            // 列名の表を共有する行は位置ごとに比較し、値が変わった列のみボックス化する
+            diffCompact(before, after, changed, nullColumns);
+        } else if (!diffInOrder(layout, event.getBefore(), event.getAfter(), changed, nullColumns)) {
+            // 列の並びが変わった場合（スキーマ変更後など）は並びを記録し直す
+            layout.columns = event.getAfter().keySet().toArray(new String[0]);
+            changed.clear();
+            nullColumns.clear();
+            if (!diffInOrder(layout, event.getBefore(), event.getAfter(), changed, nullColumns)) {
+                // before/afterで列が異なる場合は列名で比較する
+                diffByName(event.getBefore(), event.getAfter(), changed, nullColumns);
+            }
+        }
+
+        ChangeEvent delta = new ChangeEvent(event.getId(), event.getType(), event.getDatabase(), event.getTable(),
+                event.getOperation(), event.getTimestamp(), null, changed);
+        delta.setKey(event.getKey());
+        delta.setTransactionId(event.getTransactionId());
+        delta.setTransactionOrder(event.getTransactionOrder());
+        delta.setTransactionEventCount(event.getTransactionEventCount());
+        delta.setSequence(event.getSequence());
+        delta.setDelta(Boolean.TRUE);
+        delta.setNullColumns(nullColumns.isEmpty() ? null : nullColumns);
+        return delta;
+    }
+
+    private Layout layoutOf(String database, String table) {
+        Map<String, Layout> byTable = layouts.computeIfAbsent(database, name -> new ConcurrentHashMap<>());
+        Layout layout = byTable.get(table);
+        if (layout == null) {
+            boolean enabled = databases.contains(database) || tables.contains(database + "." + table);
+            layout = byTable.computeIfAbsent(table, name -> new Layout(enabled));
+        }
+        return layout;
+    }
+
+    /**
+     * 記録した列の並びに従ってbefore/afterを同時に走査し、値が変わった列を求める
+     * @return 列の並びが記録と一致した場合true
+     */
+    private static boolean diffInOrder(Layout layout, Map<String, Object> before, Map<String, Object> after,
+                                       Map<String, Object> changed, List<String> nullColumns) {
+        String[] columns = layout.columns;
+        if (columns == null || columns.length != before.size() || columns.length != after.size()) {
+            return false;
+        }
+
+        Iterator<Map.Entry<String, Object>> beforeIterator = before.entrySet().iterator();
+        Iterator<Map.Entry<String, Object>> afterIterator = after.entrySet().iterator();
+        for (String column : columns) {
+            Map.Entry<String, Object> oldValue = beforeIterator.next();
+            Map.Entry<String, Object> newValue = afterIterator.next();
+            if (!column.equals(oldValue.getKey()) || !column.equals(newValue.getKey())) {
+                return false;
+            }
+            addIfChanged(column, oldValue.getValue(), newValue.getValue(), changed, nullColumns);
+        }
+        return true;
+    }
+
+    private static void diffCompact(CompactRow before, CompactRow after,
+                                    Map<String, Object> changed, List<String> nullColumns) {
+        CompactRow.Columns columns = after.columns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (!before.valueEquals(i, after)) {
+                Object newValue = after.get(i);
+                if (newValue == null) {
+                    nullColumns.add(columns.name(i));
+                } else {
+                    changed.put(columns.name(i), newValue);
+                }
+            }
+        }
+    }
+
+    private static void diffByName(Map<String, Object> before, Map<String, Object> after,
+                                   Map<String, Object> changed, List<String> nullColumns) {
+        for (Map.Entry<String, Object> entry : after.entrySet()) {
+            Object oldValue = before.get(entry.getKey());
+            if (oldValue == null && !before.containsKey(entry.getKey()) && entry.getValue() == null) {
+                // 追加された列がNULLの場合も変更として扱う
+                nullColumns.add(entry.getKey());
+            } else {
+                addIfChanged(entry.getKey(), oldValue, entry.getValue(), changed, nullColumns);
+            }
+        }
+    }
+
+    private static void addIfChanged(String column, Object oldValue, Object newValue,
+                                     Map<String, Object> changed, List<String> nullColumns) {
+        if (Objects.equals(oldValue, newValue)) {
+            return;
+        }
+        if (newValue == null) {
+            nullColumns.add(column);
+        } else {
+            changed.put(column, newValue);
+        }
+    }
+
+    /**
+     * テーブルごとの差分形式の要否と列の並び
+     */
+    private static final class Layout {
+        private final boolean enabled;
+        private volatile String[] columns;
+
+        private Layout(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+}
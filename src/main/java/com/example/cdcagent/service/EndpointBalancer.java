@@ -0,0 +1,287 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * 複数のHULFT Squareエンドポイントにリクエストを振り分けるロードバランサー
+ * 無作為に選んだ2つのエンドポイントのうち、応答時間のピークEWMAと進行中のリクエスト数から求めたコストが低い方を選ぶ（P2C）
+ * 連続して失敗したエンドポイントは一定時間振り分け対象から外し、時間の経過後に再び振り分けて復旧を確認する
+ */
+public class EndpointBalancer {
+    private static final Logger logger = LoggerFactory.getLogger(EndpointBalancer.class);
+
+    // 応答時間を計測していないエンドポイントに仮定する応答時間
+    private static final long DEFAULT_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<Endpoint> endpoints;
+    private final int ejectFailures;
+    private final long ejectNanos;
+    private final double decayNanos;
+    private final LongSupplier clock;
+
+    /**
+     * @param uris エンドポイント
+     * @param ejectFailures 振り分け対象から外す連続失敗回数
+     * @param ejectDuration 振り分け対象から外す時間
+     * @param decay 応答時間のピークを減衰させる時定数
+     */
+    public EndpointBalancer(List<URI> uris, int ejectFailures, Duration ejectDuration, Duration decay, MeterRegistry meterRegistry) {
+        this(uris, ejectFailures, ejectDuration, decay, meterRegistry, System::nanoTime);
+    }
+
+    EndpointBalancer(List<URI> uris, int ejectFailures, Duration ejectDuration, Duration decay, MeterRegistry meterRegistry,
+                     LongSupplier clock) {
+        if (uris.isEmpty()) {
+            throw new IllegalArgumentException("HULFT Squareのエンドポイントが設定されていません");
+        }
+        this.ejectFailures = Math.max(1, ejectFailures);
+        this.ejectNanos = ejectDuration.toNanos();
+        this.decayNanos = Math.max(1, decay.toNanos());
+        this.clock = clock;
+
+        List<Endpoint> list = new ArrayList<>(uris.size());
+        for (URI uri : uris) {
+            list.add(new Endpoint(uri, meterRegistry));
+        }
+        this.endpoints = List.copyOf(list);
+    }
+
+    /**
+     * エンドポイントを取得
+     */
+    public List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * リクエストを送信するエンドポイントを選ぶ
+     * すべてのエンドポイントが振り分け対象から外れている場合は、すべてを対象として選ぶ
+     * @return 選んだエンドポイントの使用権（結果を必ず報告する）
+     */
+    public Lease acquire() {
+        long now = clock.getAsLong();
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.isEjected(now)) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = endpoints;
+        }
+
+        Endpoint selected;
+        if (candidates.size() == 1) {
+            selected = candidates.get(0);
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(candidates.size());
+            int second = random.nextInt(candidates.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            Endpoint a = candidates.get(first);
+            Endpoint b = candidates.get(second);
+            selected = a.cost(now) <= b.cost(now) ? a : b;
+        }
+
+        selected.inFlight.incrementAndGet();
+        return new Lease(selected, now);
+    }
+
+    /**
+     * HULFT Squareのエンドポイント
+     */
+    public final class Endpoint {
+        private final URI uri;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // 応答時間の統計と振り分け状態（thisで保護する）
+        private double peakEwmaNanos;
+        private long lastSampleNanos;
+        private int consecutiveFailures;
+        private long ejectedUntilNanos;
+        private boolean ejected;
+
+        // メトリクス
+        private final Timer latencyTimer;
+        private final Counter errorCounter;
+        private final Counter ejectionCounter;
+
+        private Endpoint(URI uri, MeterRegistry meterRegistry) {
+            this.uri = uri;
+            String tag = uri.toString();
+            this.latencyTimer = Timer.builder("hulft.square.endpoint.latency")
+                    .description("エンドポイントごとのリクエストの応答時間")
+                    .tag("endpoint", tag)
+                    .register(meterRegistry);
+            this.errorCounter = Counter.builder("hulft.square.endpoint.errors")
+                    .description("エンドポイントごとの失敗したリクエスト数")
+                    .tag("endpoint", tag)
+                    .register(meterRegistry);
+            this.ejectionCounter = Counter.builder("hulft.square.endpoint.ejections")
+                    .description("エンドポイントを振り分け対象から外した回数")
+                    .tag("endpoint", tag)
+                    .register(meterRegistry);
+            Gauge.builder("hulft.square.endpoint.inflight", inFlight, AtomicInteger::get)
+                    .description("エンドポイントごとの進行中のリクエスト数")
+                    .tag("endpoint", tag)
+                    .register(meterRegistry);
+            Gauge.builder("hulft.square.endpoint.ejected", this, endpoint -> endpoint.isEjected(clock.getAsLong()) ? 1 : 0)
+                    .description("エンドポイントが振り分け対象から外れている場合は1")
+                    .tag("endpoint", tag)
+                    .register(meterRegistry);
+            Gauge.builder("hulft.square.endpoint.peak.ewma", this, Endpoint::peakEwmaMillis)
+                    .description("エンドポイントごとの応答時間のピークEWMA（ミリ秒）")
+                    .tag("endpoint", tag)
+                    .register(meterRegistry);
+        }
+
+        public URI uri() {
+            return uri;
+        }
+
+        public int inFlight() {
+            return inFlight.get();
+        }
+
+        public synchronized boolean isEjected(long now) {
+            return ejected && now - ejectedUntilNanos < 0;
+        }
+
+        private synchronized double peakEwmaMillis() {
+            return peakEwmaNanos / 1_000_000.0;
+        }
+
+        /**
+         * 振り分けのコスト（応答時間のピークEWMA×(進行中のリクエスト数+1)）
+         */
+        private synchronized double cost(long now) {
+            double rtt = peakEwmaNanos > 0 ? decayed(now) : DEFAULT_RTT_NANOS;
+            return rtt * (inFlight.get() + 1);
+        }
+
+        private double decayed(long now) {
+            double weight = Math.exp(-(now - lastSampleNanos) / decayNanos);
+            return peakEwmaNanos * weight;
+        }
+
+        /**
+         * 応答時間を反映する
+         * 直近の値がピークを上回る場合は即座に追従し、下回る場合は経過時間に応じて緩やかに減衰させる
+         */
+        private synchronized void sample(long now, long rttNanos) {
+            if (rttNanos >= peakEwmaNanos) {
+                peakEwmaNanos = rttNanos;
+            } else {
+                double weight = Math.exp(-(now - lastSampleNanos) / decayNanos);
+                peakEwmaNanos = peakEwmaNanos * weight + rttNanos * (1 - weight);
+            }
+            lastSampleNanos = now;
+        }
+
+        private void onSuccess(long now, long rttNanos) {
+            sample(now, rttNanos);
+            boolean recovered;
+            synchronized (this) {
+                consecutiveFailures = 0;
+                recovered = ejected;
+                ejected = false;
+            }
+            if (recovered) {
+                logger.info("エンドポイントが復旧したため振り分けを再開しました: {}", uri);
+            }
+        }
+
+        private void onFailure(long now, long rttNanos) {
+            sample(now, rttNanos);
+            errorCounter.increment();
+            boolean eject = false;
+            synchronized (this) {
+                // 外していたエンドポイントは、復帰後の最初の失敗で再び外す
+                if (++consecutiveFailures >= ejectFailures || ejected) {
+                    consecutiveFailures = 0;
+                    ejected = true;
+                    ejectedUntilNanos = now + ejectNanos;
+                    eject = true;
+                }
+            }
+            if (eject) {
+                ejectionCounter.increment();
+                logger.warn("連続して失敗したため、エンドポイントを一時的に振り分け対象から外します: {}", uri);
+            }
+        }
+    }
+
+    /**
+     * 選んだエンドポイントの使用権
+     * 結果の報告は最初の1回のみ反映する
+     */
+    public final class Lease {
+        private final Endpoint endpoint;
+        private final long startNanos;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        private Lease(Endpoint endpoint, long startNanos) {
+            this.endpoint = endpoint;
+            this.startNanos = startNanos;
+        }
+
+        public Endpoint endpoint() {
+            return endpoint;
+        }
+
+        /**
+         * リクエストの成功を報告
+         */
+        public void success() {
+            complete(true);
+        }
+
+        /**
+         * リクエストの失敗を報告
+         */
+        public void failure() {
+            complete(false);
+        }
+
+        /**
+         * 結果を待たずに取り消されたリクエストを報告
+         */
+        public void cancel() {
+            if (completed.compareAndSet(false, true)) {
+                endpoint.inFlight.decrementAndGet();
+            }
+        }
+
+        private void complete(boolean success) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            long now = clock.getAsLong();
+            long rtt = now - startNanos;
+            endpoint.inFlight.decrementAndGet();
+            endpoint.latencyTimer.record(rtt, TimeUnit.NANOSECONDS);
+            if (success) {
+                endpoint.onSuccess(now, rtt);
+            } else {
+                endpoint.onFailure(now, rtt);
+            }
+        }
+    }
+}
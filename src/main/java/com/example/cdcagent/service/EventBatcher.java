@@ -0,0 +1,202 @@
+package com.example.cdcagent.service;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * シリアライズ済みのイベントを件数・バイト数・待機時間のいずれかの上限に達するまで束ねて送信するバッチャー
+ * 1回のsubmitで渡されたイベント群は分割せず、投入順のまま同じ送信に含める
+ * デッドレターから再送するイベントかどうかは、イベントごとのフラグとしてバッチに引き継ぐ
+ */
+public class EventBatcher {
+
+    private final int maxEvents;
+    private final long maxBytes;
+    private final Duration linger;
+    private final Scheduler scheduler;
+    private final Function<Batch, Mono<List<Boolean>>> sender;
+
+    // 蓄積中のバッチ（thisで保護する）
+    private Batch current;
+
+    /**
+     * @param maxEvents 1回の送信に含めるイベント数の上限
+     * @param maxBytes 1回の送信に含めるイベントの合計バイト数の上限
+     * @param linger 最初のイベントを受け取ってから送信するまでの最大待機時間
+     * @param scheduler 待機時間経過後の送信に使用するスケジューラー
+     * @param sender バッチを送信し、イベントごとの結果を同じ順序で返す
+     */
+    public EventBatcher(int maxEvents, long maxBytes, Duration linger, Scheduler scheduler,
+                        Function<Batch, Mono<List<Boolean>>> sender) {
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.linger = linger;
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    /**
+     * イベント群を送信待ちのバッチに追加
+     * @param payloads シリアライズ済みのイベント
+     * @return イベントごとの送信結果
+     */
+    public Mono<List<Boolean>> submit(List<byte[]> payloads) {
+        return submit(payloads, Collections.nCopies(payloads.size(), false));
+    }
+
+    /**
+     * イベント群を送信待ちのバッチに追加
+     * @param payloads シリアライズ済みのイベント
+     * @param replays イベントごとの、デッドレターから再送するイベントかどうか（payloadsと同じ順序）
+     * @return イベントごとの送信結果
+     */
+    public Mono<List<Boolean>> submit(List<byte[]> payloads, List<Boolean> replays) {
+        Group group = new Group(payloads, replays);
+        Batch overflow = null;
+        Batch full = null;
+
+        synchronized (this) {
+            // 追加すると上限を超える場合は、蓄積中のバッチを先に送信する
+            if (current != null && (current.events + group.size() > maxEvents || current.bytes + group.bytes > maxBytes)) {
+                overflow = detach();
+            }
+            if (current == null) {
+                current = new Batch();
+            }
+            current.add(group);
+
+            if (current.events >= maxEvents || current.bytes >= maxBytes) {
+                full = detach();
+            } else if (current.lingerTask == null) {
+                Batch lingering = current;
+                current.lingerTask = scheduler.schedule(() -> flushExpired(lingering), linger.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (overflow != null) {
+            send(overflow);
+        }
+        if (full != null) {
+            send(full);
+        }
+        return group.result.asMono();
+    }
+
+    private void flushExpired(Batch batch) {
+        synchronized (this) {
+            if (current != batch) {
+                return;
+            }
+            current = null;
+        }
+        send(batch);
+    }
+
+    private Batch detach() {
+        Batch batch = current;
+        current = null;
+        if (batch.lingerTask != null) {
+            batch.lingerTask.dispose();
+        }
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        Mono.defer(() -> sender.apply(batch))
+                .onErrorReturn(List.of())
+                .defaultIfEmpty(List.of())
+                .subscribe(results -> {
+                    int offset = 0;
+                    for (Group group : batch.groups) {
+                        List<Boolean> groupResults = new ArrayList<>(group.size());
+                        for (int i = 0; i < group.size(); i++) {
+                            // 結果が返されなかったイベントは失敗として扱う
+                            int index = offset + i;
+                            groupResults.add(index < results.size() && Boolean.TRUE.equals(results.get(index)));
+                        }
+                        offset += group.size();
+                        group.result.tryEmitValue(groupResults);
+                    }
+                });
+    }
+
+    /**
+     * 1回の送信にまとめられたイベント
+     */
+    public static final class Batch {
+        private final List<Group> groups = new ArrayList<>();
+        private final long createdAt = System.nanoTime();
+        private int events;
+        private long bytes;
+        private Disposable lingerTask;
+
+        private void add(Group group) {
+            groups.add(group);
+            events += group.size();
+            bytes += group.bytes;
+        }
+
+        /**
+         * シリアライズ済みのイベントを投入順に取得
+         */
+        public List<byte[]> payloads() {
+            List<byte[]> payloads = new ArrayList<>(events);
+            for (Group group : groups) {
+                payloads.addAll(group.payloads);
+            }
+            return payloads;
+        }
+
+        /**
+         * デッドレターから再送するイベントかどうかを、payloads()と同じ順序で取得
+         */
+        public List<Boolean> replays() {
+            List<Boolean> replays = new ArrayList<>(events);
+            for (Group group : groups) {
+                replays.addAll(group.replays);
+            }
+            return replays;
+        }
+
+        public int size() {
+            return events;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * 最初のイベントを受け取った時刻（nanoTime）
+         */
+        public long createdAt() {
+            return createdAt;
+        }
+    }
+
+    private static final class Group {
+        private final List<byte[]> payloads;
+        private final List<Boolean> replays;
+        private final long bytes;
+        private final Sinks.One<List<Boolean>> result = Sinks.one();
+
+        private Group(List<byte[]> payloads, List<Boolean> replays) {
+            this.payloads = payloads;
+            this.replays = replays;
+            this.bytes = payloads.stream().mapToLong(payload -> payload.length).sum();
+        }
+
+        private int size() {
+            return payloads.size();
+        }
+    }
+}
@@ -2,16 +2,54 @@ package com.example.cdcagent.service;
 
 import com.example.cdcagent.config.HulftSquareProperties;
 import com.example.cdcagent.model.ChangeEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 import reactor.util.retry.Retry;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * HULFT Squareとの通信を担当するサービス
@@ -20,14 +58,191 @@ import java.time.Duration;
 public class HulftSquareService {
     private static final Logger logger = LoggerFactory.getLogger(HulftSquareService.class);
 
+    // 再試行待ちのリクエストをまとめて管理するタイミングホイール（タイマーごとにスレッドやタスクを生成しない）
+    private static final HashedWheelTimer RETRY_TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("hulft-retry-timer", true), 10, TimeUnit.MILLISECONDS, 512, false, -1);
+
+    // 再試行の間隔を前後にばらつかせる割合
+    private static final double RETRY_JITTER = 0.5;
+
     private final WebClient webClient;
     private final HulftSquareProperties hulftSquareProperties;
     private final AgentStateManager stateManager;
+    private final ObjectMapper objectMapper;
+    // イベントの符号化方式（JSON / Smile / CBOR）
+    private final WireCodec wireCodec;
+    private final DeadLetterService deadLetterService;
+
+    // リクエストボディを組み立てるバッファのアロケーター（Nettyの書き込みで追加のコピーが発生しないようにする）
+    private final ByteBufAllocator allocator;
+    private final NettyDataBufferFactory bufferFactory;
+
+    // イベントをまとめて送信するバッチャー（まとめて送信しない設定の場合はnull）
+    private final EventBatcher batcher;
+
+    // リクエストボディのコンプレッサー
+    private final RequestCompressor compressor;
+
+    // 障害時にリクエストを遮断するサーキットブレーカー
+    private final CircuitBreaker circuitBreaker;
+
+    // 再試行の回数を通常のリクエスト数の一定割合に制限するバジェット
+    private final RetryBudget retryBudget;
+
+    // UPDATEイベントを差分形式に変換するエンコーダー（対象のテーブルが無い場合はnull）
+    private final DeltaEncoder deltaEncoder;
+
+    // 行を値の配列で送信する際のスキーマの管理とエンコーダー（配列で送信しない場合はエンコーダーがnull）
+    private final SchemaCache schemaCache;
+    private final SchemaEncoder schemaEncoder;
+
+    // 送信先のエンドポイントの振り分け
+    private final EndpointBalancer balancer;
+
+    // 送信できなかったイベントの退避先（退避しない設定の場合はnull）
+    private final SpillQueue spillQueue;
+    // 退避中のイベントの行（退避しない設定の場合はnull、退避キューへの追記・削除と合わせてspillQueueで保護する）
+    private final SpilledKeys spilledKeys;
+    private Scheduler drainScheduler;
+    // 退避キューから再送中のリクエスト（読み出した順、drainSchedulerのスレッドからのみアクセスする）
+    private final Deque<DrainRequest> drainRequests = new ArrayDeque<>();
+    // 再送中のリクエストに含めたイベント数（次に読み出す位置）
+    private long drainOffset;
+    // 再送に失敗したため、再送中のリクエストがすべて完了してから先頭から読み直す場合true
+    private boolean drainFailed;
+
+    // メトリクス
+    private final DistributionSummary batchSizeSummary;
+    private final DistributionSummary batchBytesSummary;
+    private final Timer batchLatencyTimer;
+    private final Counter spilledCounter;
+    private final Counter drainedCounter;
+    private final Counter retriedCounter;
 
-    public HulftSquareService(WebClient webClient, HulftSquareProperties hulftSquareProperties, AgentStateManager stateManager) {
+    public HulftSquareService(WebClient webClient, HulftSquareProperties hulftSquareProperties, AgentStateManager stateManager,
+                              ObjectMapper objectMapper, DeadLetterService deadLetterService, MeterRegistry meterRegistry) {
+        this(webClient, hulftSquareProperties, stateManager, objectMapper, deadLetterService, meterRegistry,
+                new SchemaCache(meterRegistry));
+    }
+
+    @Autowired
+    public HulftSquareService(WebClient webClient, HulftSquareProperties hulftSquareProperties, AgentStateManager stateManager,
+                              ObjectMapper objectMapper, DeadLetterService deadLetterService, MeterRegistry meterRegistry,
+                              SchemaCache schemaCache) {
+        this(webClient, hulftSquareProperties, stateManager, objectMapper, deadLetterService, meterRegistry,
+                schemaCache, PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * @param allocator リクエストボディを組み立てるバッファのアロケーター
+     */
+    HulftSquareService(WebClient webClient, HulftSquareProperties hulftSquareProperties, AgentStateManager stateManager,
+                       ObjectMapper objectMapper, DeadLetterService deadLetterService, MeterRegistry meterRegistry,
+                       SchemaCache schemaCache, ByteBufAllocator allocator) {
         this.webClient = webClient;
         this.hulftSquareProperties = hulftSquareProperties;
         this.stateManager = stateManager;
+        this.objectMapper = objectMapper;
+        this.deadLetterService = deadLetterService;
+        this.allocator = allocator;
+        this.bufferFactory = new NettyDataBufferFactory(allocator);
+
+        HulftSquareProperties.Api api = hulftSquareProperties.getApi();
+        this.wireCodec = new WireCodec(api.getWireFormat(), objectMapper);
+        this.batcher = api.getBatchMaxEvents() > 1
+                ? new EventBatcher(api.getBatchMaxEvents(), api.getBatchMaxBytes(),
+                        Duration.ofMillis(Math.max(0, api.getBatchLingerMs())), Schedulers.parallel(), this::sendBatch)
+                : null;
+        this.compressor = new RequestCompressor(api.getCompression(), api.getCompressionMinBytes(), meterRegistry);
+        this.circuitBreaker = new CircuitBreaker(
+                hulftSquareProperties.getCircuitBreaker().getFailureThreshold(),
+                Duration.ofMillis(hulftSquareProperties.getCircuitBreaker().getOpenMs()),
+                Schedulers.parallel(), meterRegistry);
+        this.retryBudget = new RetryBudget(hulftSquareProperties.getRetryBudget().getPercent(),
+                hulftSquareProperties.getRetryBudget().getMinRetriesPerSecond(), meterRegistry);
+        List<String> deltaTables = hulftSquareProperties.getDelta().getTables();
+        this.deltaEncoder = deltaTables == null || deltaTables.isEmpty() ? null : new DeltaEncoder(deltaTables);
+        this.schemaCache = schemaCache;
+        this.schemaEncoder = api.getRowEncoding() == HulftSquareProperties.RowEncoding.SCHEMA
+                ? new SchemaEncoder(schemaCache)
+                : null;
+        HulftSquareProperties.LoadBalancer loadBalancer = hulftSquareProperties.getLoadBalancer();
+        List<String> endpoints = api.getEndpoints() == null || api.getEndpoints().isEmpty()
+                ? List.of(api.getUrl())
+                : api.getEndpoints();
+        this.balancer = new EndpointBalancer(endpoints.stream().map(URI::create).toList(),
+                loadBalancer.getEjectFailures(), Duration.ofMillis(loadBalancer.getEjectMs()),
+                Duration.ofMillis(loadBalancer.getDecayMs()), meterRegistry);
+        this.spillQueue = hulftSquareProperties.getSpill().isEnabled() ? openSpillQueue(hulftSquareProperties.getSpill()) : null;
+        this.spilledKeys = spillQueue != null ? new SpilledKeys(spillQueue.size()) : null;
+
+        this.batchSizeSummary = DistributionSummary.builder("hulft.square.batch.size")
+                .description("1回のリクエストで送信したイベント数")
+                .baseUnit("events")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchBytesSummary = DistributionSummary.builder("hulft.square.batch.bytes")
+                .description("1回のリクエストで送信したイベントの合計バイト数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.batchLatencyTimer = Timer.builder("hulft.square.batch.latency")
+                .description("バッチに最初のイベントを受け取ってから送信結果が確定するまでの時間")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.spilledCounter = Counter.builder("hulft.square.spill.appended")
+                .description("送信できずにディスクに退避したイベント数")
+                .register(meterRegistry);
+        this.drainedCounter = Counter.builder("hulft.square.spill.drained")
+                .description("ディスクから再送したイベント数")
+                .register(meterRegistry);
+        this.retriedCounter = Counter.builder("hulft.square.retry.scheduled")
+                .description("再試行を予約したリクエスト数")
+                .register(meterRegistry);
+        Gauge.builder("hulft.square.retry.pending", RETRY_TIMER, HashedWheelTimer::pendingTimeouts)
+                .description("再試行の待機中のリクエスト数")
+                .register(meterRegistry);
+        if (spillQueue != null) {
+            Gauge.builder("hulft.square.spill.backlog", spillQueue, SpillQueue::size)
+                    .description("ディスクに退避中のイベント数")
+                    .register(meterRegistry);
+            Gauge.builder("hulft.square.spill.disk", spillQueue, SpillQueue::diskBytes)
+                    .description("退避用のセグメントファイルが使用しているディスク容量")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 退避したイベントを再送するバックグラウンド処理を開始
+     * 再送は退避や再送の完了を契機に行い、失敗した場合のみ再試行の間隔を空けて再開する
+     */
+    @PostConstruct
+    public void init() {
+        if (spillQueue != null) {
+            drainScheduler = Schedulers.newSingle("hulft-spill-drainer", true);
+            drainScheduler.schedule(this::drainSpill);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (drainScheduler != null) {
+            drainScheduler.dispose();
+        }
+        if (spillQueue != null) {
+            try {
+                spillQueue.close();
+            } catch (IOException e) {
+                logger.error("退避キューのクローズ中にエラーが発生しました", e);
+            }
+        }
+    }
+
+    /**
+     * HULFT Squareへのリクエストを保護するサーキットブレーカーを取得
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     /**
@@ -41,29 +256,583 @@ public class HulftSquareService {
             return Mono.just(false);
         }
 
-        logger.debug("HULFT Squareにイベントを送信: {}", event.getId());
+        SchemaCache.Schema[] announced = new SchemaCache.Schema[1];
+        long epoch = schemaCache.epoch();
+        byte[] body;
+        try {
+            body = serialize(event, announced, 0);
+        } catch (JsonProcessingException e) {
+            logger.error("イベントのシリアライズに失敗しました: {}", e.getMessage());
+            return Mono.just(false);
+        }
+        return sendPayload(body, event.isReplay(), event.getId())
+                .doOnNext(sent -> confirmSchemas(announced, List.of(sent), epoch));
+    }
+
+    /**
+     * シリアライズ済みのイベント1件を送信
+     * @param replay デッドレターから再送するイベントの場合true
+     */
+    private Mono<Boolean> sendPayload(byte[] body, boolean replay, String eventId) {
+        logger.debug("HULFT Squareにイベントを送信: {}", eventId);
         
-        return webClient.post()
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(event)
-                .retrieve()
-                .bodyToMono(String.class)
-                .map(response -> {
-                    logger.debug("HULFT Squareからの応答: {}", response);
-                    return true;
+        return usingBody(() -> {
+                    // 符号化方式を変更する前に退避したイベントは現在の方式に変換する
+                    byte[] payload = wireCodec.convert(body);
+                    return allocator.buffer(payload.length).writeBytes(payload);
+                }, request -> {
+                    retryBudget.deposit();
+                    return post(wireCodec.contentType(), request, WebClient.ResponseSpec::toBodilessEntity)
+                            .map(response -> {
+                                logger.debug("HULFT Squareからの応答: {}", response.getStatusCode());
+                                return true;
+                            })
+                            .retryWhen(retry());
                 })
                 .onErrorResume(e -> {
-                    logger.error("HULFT Squareへのイベント送信中にエラーが発生しました: {}", e.getMessage());
-                    return Mono.just(false);
+                    logger.error("HULFT Squareへのイベント送信中にエラーが発生しました: {} ({})", e.getMessage(), eventId);
+                    return onDisk(() -> deadLetter(List.of(body), List.of(replay), e).get(0));
                 })
-                .retryWhen(Retry.backoff(
-                        hulftSquareProperties.getApi().getRetryCount(),
-                        Duration.ofMillis(hulftSquareProperties.getApi().getRetryBackoffMs()))
-                        .filter(throwable -> stateManager.isRunning())
-                        .onRetryExhaustedThrow((retryBackoffSpec, retrySignal) -> {
-                            logger.error("再試行回数を超過しました: {}", event.getId());
-                            return retrySignal.failure();
-                        }))
                 .subscribeOn(Schedulers.boundedElastic());
     }
-} 
\ No newline at end of file
+
+    /**
+     * 複数の変更イベントをHULFT SquareのREST APIに送信
+     * イベントは分割されずに投入順のまま同じリクエストに含まれ、他の呼び出しのイベントとまとめて送信される
+     * デッドレターから再送するイベントは、送信に失敗した場合にデッドレターへの保存や退避を行わずに失敗として報告する
+     * @param events 送信する変更イベント
+     * @return イベントごとの処理結果（eventsと同じ順序）
+     */
+    public Mono<List<Boolean>> sendEvents(List<ChangeEvent> events) {
+        if (!stateManager.isRunning()) {
+            logger.debug("エージェントは実行中ではないため、{}件のイベント送信をスキップします", events.size());
+            return Mono.just(Collections.nCopies(events.size(), false));
+        }
+
+        return Mono.defer(() -> {
+            List<byte[]> payloads = new ArrayList<>(events.size());
+            SchemaCache.Schema[] announced = new SchemaCache.Schema[events.size()];
+            long epoch = schemaCache.epoch();
+            try {
+                for (int i = 0; i < events.size(); i++) {
+                    payloads.add(serialize(events.get(i), announced, i));
+                }
+            } catch (JsonProcessingException e) {
+                logger.error("イベントのシリアライズに失敗しました: {}", e.getMessage());
+                return Mono.just(Collections.nCopies(events.size(), false));
+            }
+
+            // シリアライズ結果を変換したりまとめ直したりしても失われないよう、再送するイベントかどうかを並べて渡す
+            List<Boolean> replays = events.stream().map(ChangeEvent::isReplay).toList();
+
+            // 退避中のイベントと同じ行のイベントは、順序を保つため退避して後ろに並べる
+            // 関係のない行のイベントは、退避キューを経由せずにそのまま送信する
+            if (spilledKeys != null && !spilledKeys.isEmpty() && spilledKeys.blocks(rowsOf(payloads))) {
+                return onDisk(() -> spill(payloads, replays, Collections.nCopies(payloads.size(), false)));
+            }
+
+            Mono<List<Boolean>> results;
+            if (batcher == null) {
+                // まとめて送信しない設定の場合はイベントごとに順番に送信
+                results = Flux.range(0, events.size())
+                        .concatMap(i -> sendPayload(payloads.get(i), replays.get(i), events.get(i).getId()))
+                        .collectList();
+            } else {
+                results = batcher.submit(payloads, replays);
+            }
+            results = results.doOnNext(sent -> confirmSchemas(announced, sent, epoch));
+            if (spillQueue != null) {
+                results = results.flatMap(sent -> sent.contains(Boolean.FALSE)
+                        ? onDisk(() -> spill(payloads, replays, sent))
+                        : Mono.just(sent));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * イベントをシリアライズする（差分形式の対象のテーブルのUPDATEイベントは差分形式に変換する）
+     * 行を値の配列で送信する設定の場合は配列形式に変換し、定義をイベントに含めたスキーマをannouncedに記録する
+     */
+    private byte[] serialize(ChangeEvent event, SchemaCache.Schema[] announced, int index)
+            throws JsonProcessingException {
+        ChangeEvent encoded = deltaEncoder != null ? deltaEncoder.encode(event) : event;
+        if (schemaEncoder == null) {
+            return wireCodec.mapper().writeValueAsBytes(encoded);
+        }
+        SchemaEncoder.Encoded positional = schemaEncoder.encode(encoded);
+        announced[index] = positional.announced();
+        return wireCodec.mapper().writeValueAsBytes(positional.value());
+    }
+
+    /**
+     * 送信できたイベントに含めたスキーマの定義を、送信先に届いたものとして記録する
+     * @param epoch シリアライズした時点の接続の世代
+     */
+    private void confirmSchemas(SchemaCache.Schema[] announced, List<Boolean> sent, long epoch) {
+        for (int i = 0; i < announced.length; i++) {
+            if (announced[i] != null && Boolean.TRUE.equals(sent.get(i))) {
+                schemaCache.confirm(announced[i], epoch);
+            }
+        }
+    }
+
+    /**
+     * 送信に失敗したイベントをディスクに退避する
+     * 退避できたイベントは処理済みとして扱い、送信は退避キューから再送する
+     * デッドレターから再送中のイベントは退避せず、失敗のまま報告する
+     * @param payloads シリアライズ済みのイベント
+     * @param replays イベントごとの、デッドレターから再送するイベントかどうか
+     * @param results 送信結果
+     * @return 退避を反映した処理結果
+     */
+    private List<Boolean> spill(List<byte[]> payloads, List<Boolean> replays, List<Boolean> results) {
+        if (!stateManager.isRunning() || !results.contains(Boolean.FALSE)) {
+            // 停止に伴う失敗は退避せず、Debeziumからの再取得に任せる
+            return results;
+        }
+
+        List<Boolean> spilled = new ArrayList<>(payloads.size());
+        List<byte[]> failed = new ArrayList<>();
+        for (int i = 0; i < payloads.size(); i++) {
+            boolean sent = i < results.size() && Boolean.TRUE.equals(results.get(i));
+            if (!sent && !replays.get(i)) {
+                failed.add(payloads.get(i));
+                sent = true;
+            }
+            spilled.add(sent);
+        }
+        if (failed.isEmpty()) {
+            return results;
+        }
+
+        try {
+            synchronized (spillQueue) {
+                spillQueue.append(failed);
+                spilledKeys.add(rowsOf(failed));
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("送信できなかったイベントの退避に失敗しました: {}", e.getMessage());
+            return results;
+        }
+        spilledCounter.increment(failed.size());
+        logger.debug("送信できなかった{}件のイベントをディスクに退避しました (退避中: {}件)", failed.size(), spillQueue.size());
+        if (drainScheduler != null) {
+            drainScheduler.schedule(this::drainSpill);
+        }
+        return spilled;
+    }
+
+    /**
+     * イベントの行（テーブルと主キー）を取得
+     * 退避時と再送時で同じ表現になるよう、シリアライズ済みのイベントから読み取る
+     */
+    private List<SpilledKeys.Row> rowsOf(List<byte[]> payloads) {
+        List<SpilledKeys.Row> rows = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            try {
+                JsonNode event = wireCodec.readerFor(payload).readTree(payload);
+                JsonNode key = event.get("key");
+                rows.add(new SpilledKeys.Row(event.path("database").asText("") + "." + event.path("table").asText(""),
+                        key == null || key.isNull() ? null : key.toString()));
+            } catch (IOException e) {
+                // 行が分からないイベントは、テーブルが不明な主キーの無いイベントとして扱う
+                rows.add(new SpilledKeys.Row(".", null));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 退避したイベントを先頭から順番に再送する（drainSchedulerのスレッドで呼び出す）
+     * 応答を待たずに続きのイベントを読み出し、上限のリクエスト数まで並行して送信する
+     * 送信が完了したリクエストは、先頭から連続して成功した分だけ退避キューから取り除き、続きを読み出す
+     * 失敗した場合は再送中のリクエストの完了を待ち、再試行の間隔を空けて取り除いていない先頭から再送する
+     * （失敗したリクエストより後の成功したイベントは再送されることがある）
+     */
+    private void drainSpill() {
+        if (drainFailed) {
+            return;
+        }
+        if (!stateManager.isRunning()) {
+            // 一時停止中は再開するまで再試行の間隔で確認する
+            if (drainRequests.isEmpty() && !spillQueue.isEmpty()) {
+                scheduleDrainRetry();
+            }
+            return;
+        }
+
+        int batchSize = batcher != null ? hulftSquareProperties.getApi().getBatchMaxEvents() : 1;
+        int maxInFlight = Math.max(1, hulftSquareProperties.getSpill().getDrainInFlight());
+        while (drainRequests.size() < maxInFlight) {
+            List<byte[]> payloads = spillQueue.peek(drainOffset, batchSize);
+            if (payloads.isEmpty()) {
+                return;
+            }
+            DrainRequest request = new DrainRequest(payloads.size());
+            drainRequests.addLast(request);
+            drainOffset += payloads.size();
+
+            Mono<Boolean> sent = batcher != null
+                    ? postPayloads(payloads, Collections.nCopies(payloads.size(), false))
+                            .map(results -> !results.contains(Boolean.FALSE))
+                    : sendPayload(payloads.get(0), false, "spilled");
+            // 退避キューからの削除はディスクへの書き込みを伴うため、応答を受け取ったスレッドではなく再送用のスレッドで行う
+            sent.onErrorReturn(false)
+                    .publishOn(drainScheduler)
+                    .subscribe(success -> onDrained(request, success, payloads));
+        }
+    }
+
+    /**
+     * 退避キューからの再送の完了を反映し、続きを再送する（drainSchedulerのスレッドで呼び出す）
+     */
+    private void onDrained(DrainRequest request, boolean success, List<byte[]> payloads) {
+        request.completed = true;
+        request.success = success;
+        request.rows = success ? rowsOf(payloads) : List.of();
+        if (!success) {
+            drainFailed = true;
+        }
+
+        while (!drainRequests.isEmpty() && drainRequests.peekFirst().completed && drainRequests.peekFirst().success) {
+            DrainRequest head = drainRequests.pollFirst();
+            try {
+                synchronized (spillQueue) {
+                    spillQueue.remove(head.size);
+                    spilledKeys.remove(head.rows);
+                }
+                drainedCounter.increment(head.size);
+                drainOffset -= head.size;
+            } catch (IOException e) {
+                logger.error("再送済みのイベントを退避キューから削除できませんでした", e);
+                head.success = false;
+                drainRequests.addFirst(head);
+                drainFailed = true;
+                break;
+            }
+        }
+
+        if (!drainFailed) {
+            drainSpill();
+        } else if (drainRequests.stream().allMatch(pending -> pending.completed)) {
+            // 取り除いていない先頭から読み直す
+            drainRequests.clear();
+            drainOffset = 0;
+            drainFailed = false;
+            scheduleDrainRetry();
+        }
+    }
+
+    private void scheduleDrainRetry() {
+        long interval = Math.max(100, hulftSquareProperties.getApi().getRetryBackoffMs());
+        drainScheduler.schedule(this::drainSpill, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 退避キューから再送中のリクエスト
+     */
+    private static final class DrainRequest {
+        private final int size;
+        private boolean completed;
+        private boolean success;
+        // 送信したイベントの行（成功した場合のみ）
+        private List<SpilledKeys.Row> rows;
+
+        private DrainRequest(int size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * まとめたイベントを1回のリクエストで送信
+     * @return イベントごとの処理結果
+     */
+    private Mono<List<Boolean>> sendBatch(EventBatcher.Batch batch) {
+        if (!stateManager.isRunning()) {
+            logger.debug("エージェントは実行中ではないため、{}件のイベント送信をスキップします", batch.size());
+            return Mono.just(Collections.nCopies(batch.size(), false));
+        }
+
+        batchSizeSummary.record(batch.size());
+        batchBytesSummary.record(batch.bytes());
+        logger.debug("HULFT Squareに{}件のイベントをまとめて送信 ({}バイト)", batch.size(), batch.bytes());
+
+        return postPayloads(batch.payloads(), batch.replays())
+                .doFinally(signal -> batchLatencyTimer.record(System.nanoTime() - batch.createdAt(), TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * シリアライズ済みのイベントを1回のリクエストで送信し、失敗した場合は再試行する
+     * @param replays イベントごとの、デッドレターから再送するイベントかどうか
+     * @return イベントごとの処理結果
+     */
+    private Mono<List<Boolean>> postPayloads(List<byte[]> payloads, List<Boolean> replays) {
+        HulftSquareProperties.Api api = hulftSquareProperties.getApi();
+        HulftSquareProperties.BatchFormat format = api.getBatchFormat();
+        MediaType contentType = wireCodec.batchContentType(format);
+        Function<WebClient.ResponseSpec, Mono<List<Boolean>>> reader = api.getResponseMode() == HulftSquareProperties.ResponseMode.ACK
+                ? response -> readAcks(response, payloads.size())
+                : response -> response.toBodilessEntity().map(entity -> Collections.nCopies(payloads.size(), true));
+        return usingBody(() -> wireCodec.encodeBatch(payloads, format, allocator), request -> {
+                    retryBudget.deposit();
+                    return post(contentType, request, reader).retryWhen(retry());
+                })
+                .flatMap(acks -> acks.contains(Boolean.FALSE)
+                        ? onDisk(() -> rejected(payloads, replays, acks))
+                        : Mono.just(acks))
+                .onErrorResume(e -> {
+                    logger.error("HULFT Squareへの{}件のイベント送信中にエラーが発生しました: {}", payloads.size(), e.getMessage());
+                    return onDisk(() -> deadLetter(payloads, replays, e));
+                });
+    }
+
+    /**
+     * 応答ボディのACK配列を集約せずに逐次解析する
+     * 2xx応答でACKを解析できない場合は、HULFT Squareが受け付けたものとしてすべて成功として扱う
+     */
+    private static Mono<List<Boolean>> readAcks(WebClient.ResponseSpec response, int size) {
+        return BatchAckParser.parse(response.bodyToFlux(DataBuffer.class), size)
+                .onErrorResume(JsonProcessingException.class, e -> {
+                    logger.warn("HULFT SquareからのACKを解析できませんでした: {}", e.getOriginalMessage());
+                    return Mono.just(Collections.nCopies(size, true));
+                });
+    }
+
+    /**
+     * ACKで拒否されたイベントをデッドレターとして保存する
+     * 拒否されたイベントは再送しても成功しないため、保存できた場合は処理済みとして扱う
+     * デッドレターから再送中のイベントは保存し直さず、失敗のまま報告する
+     */
+    private List<Boolean> rejected(List<byte[]> payloads, List<Boolean> replays, List<Boolean> acks) {
+        if (!acks.contains(Boolean.FALSE)) {
+            return acks;
+        }
+
+        List<Boolean> stored = new ArrayList<>(payloads.size());
+        List<byte[]> rejected = new ArrayList<>();
+        for (int i = 0; i < payloads.size(); i++) {
+            boolean accepted = acks.get(i);
+            if (!accepted && !replays.get(i)) {
+                rejected.add(payloads.get(i));
+                accepted = true;
+            }
+            stored.add(accepted);
+        }
+        logger.warn("HULFT Squareが{}件中{}件のイベントを拒否しました", payloads.size(), Collections.frequency(acks, false));
+        if (rejected.isEmpty() || !stateManager.isRunning() || !storeDeadLetters(rejected, "Rejected by HULFT Square")) {
+            return acks;
+        }
+        return stored;
+    }
+
+    /**
+     * 配信できなかったイベントをデッドレターとして保存する
+     * 再送しても成功しない失敗と、退避しない設定で再試行回数を超過した失敗が対象
+     * 退避する設定での一時的な失敗は、退避キューからの再送に任せる
+     * デッドレターから再送中のイベントは保存し直さず、失敗のまま報告する
+     * @return イベントごとの処理結果（保存できた場合true、処理済みとして扱う）
+     */
+    private List<Boolean> deadLetter(List<byte[]> payloads, List<Boolean> replays, Throwable error) {
+        List<Boolean> failed = Collections.nCopies(payloads.size(), false);
+        if (!stateManager.isRunning() || error instanceof CircuitBreaker.OpenException
+                || (spillQueue != null && !isPermanentFailure(error))) {
+            // 遮断中の失敗は復旧後にDebeziumまたは退避キューから再送する
+            return failed;
+        }
+        String reason = error instanceof WebClientResponseException response
+                ? "HTTP " + response.getStatusCode().value() + " " + response.getStatusText()
+                : error.getClass().getSimpleName() + ": " + error.getMessage();
+        List<byte[]> stored = new ArrayList<>(payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            if (!replays.get(i)) {
+                stored.add(payloads.get(i));
+            }
+        }
+        if (stored.isEmpty()) {
+            return failed;
+        }
+        // 処理済みとして報告すると定義を届けたものとして記録されるため、先に記録を破棄する
+        revokeSchemas(stored);
+        if (!storeDeadLetters(stored, reason)) {
+            return failed;
+        }
+        return replays.stream().map(replay -> !replay).toList();
+    }
+
+    /**
+     * 退避やデッドレターの保存などディスクへの書き込み（msync/fsync）を伴う処理を、
+     * 応答や再試行のタイマーを処理するスレッドを塞がないようboundedElasticスケジューラで実行する
+     */
+    private static <T> Mono<T> onDisk(Callable<T> task) {
+        return Mono.fromCallable(task).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * イベントをデッドレターとして保存する
+     * 配列形式のイベントにはスキーマの定義を追加し、デッドレターから再送できるようにする
+     */
+    private boolean storeDeadLetters(List<byte[]> payloads, String reason) {
+        return deadLetterService.store(schemaEncoder != null ? describeSchemas(payloads) : payloads, reason);
+    }
+
+    /**
+     * デッドレターにするイベントが参照するスキーマのみ、定義を届けた記録を破棄する
+     */
+    private void revokeSchemas(List<byte[]> payloads) {
+        if (schemaEncoder == null) {
+            return;
+        }
+        for (byte[] payload : payloads) {
+            try {
+                schemaEncoder.revoke(payload, wireCodec.readerFor(payload));
+            } catch (IOException e) {
+                // 参照しているスキーマが分からないため、すべての記録を破棄する
+                schemaCache.reset();
+            }
+        }
+    }
+
+    private List<byte[]> describeSchemas(List<byte[]> payloads) {
+        List<byte[]> described = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            try {
+                described.add(schemaEncoder.describe(payload, wireCodec.readerFor(payload)));
+            } catch (IOException e) {
+                described.add(payload);
+            }
+        }
+        return described;
+    }
+
+    /**
+     * 失敗したリクエストの再試行方針
+     * 再試行の待機は共有のタイミングホイールに登録し、間隔は指数的に伸ばしながら前後にばらつかせる
+     * 再試行回数の上限内でも、バジェットが不足している場合は再試行せずに失敗させる
+     */
+    private Retry retry() {
+        HulftSquareProperties.Api api = hulftSquareProperties.getApi();
+        int maxRetries = api.getRetryCount();
+        long backoffNanos = TimeUnit.MILLISECONDS.toNanos(api.getRetryBackoffMs());
+        long maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(api.getRetryMaxBackoffMs());
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable failure = signal.failure();
+            if (signal.totalRetries() >= maxRetries || !isRetryable(failure) || !retryBudget.tryWithdraw()) {
+                return Mono.error(failure);
+            }
+            retriedCounter.increment();
+            return delay(backoff(signal.totalRetries(), backoffNanos, maxBackoffNanos));
+        }));
+    }
+
+    /**
+     * n回目の再試行までの待機時間（基準の間隔×2^n、上限あり）を前後にばらつかせて求める
+     */
+    static long backoff(long attempt, long backoffNanos, long maxBackoffNanos) {
+        double exponential = backoffNanos * Math.pow(2, Math.min(attempt, 62));
+        double capped = maxBackoffNanos > 0 ? Math.min(maxBackoffNanos, exponential) : exponential;
+        double jitter = 1 + RETRY_JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return (long) Math.min(Long.MAX_VALUE, capped * jitter);
+    }
+
+    /**
+     * タイミングホイールで待機する
+     * 待機後の再送はタイマースレッドで購読されるが、WebClientの送信はブロックしないためタイマーを妨げない
+     */
+    private static Mono<Long> delay(long nanos) {
+        return Mono.create(sink -> {
+            Timeout timeout = RETRY_TIMER.newTimeout(t -> sink.success(0L), nanos, TimeUnit.NANOSECONDS);
+            sink.onCancel(timeout::cancel);
+        });
+    }
+
+    /**
+     * 再試行する失敗かどうかを判定
+     * 遮断中は再試行しても即座に失敗するため、遮断の解除は上流の一時停止と試行リクエストに任せる
+     */
+    private boolean isRetryable(Throwable error) {
+        return stateManager.isRunning() && !isPermanentFailure(error) && !(error instanceof CircuitBreaker.OpenException);
+    }
+
+    /**
+     * 再送しても成功しない失敗かどうかを判定
+     * 408と429以外の4xx応答はリクエスト内容に起因するため再送しない
+     */
+    private static boolean isPermanentFailure(Throwable error) {
+        if (error instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError()) {
+            int status = response.getStatusCode().value();
+            return status != 408 && status != 429;
+        }
+        return false;
+    }
+
+    /**
+     * リクエストボディをプールしたバッファに1回だけ組み立てて圧縮し、再試行を含む送信が完了した時点で解放する
+     * @param encoder リクエストボディを組み立てる
+     * @param sender 組み立てたボディを送信する（再試行時も同じボディを使用する）
+     */
+    private <T> Mono<T> usingBody(Supplier<ByteBuf> encoder, Function<RequestCompressor.Compressed, Mono<T>> sender) {
+        return Mono.using(
+                () -> compressor.compress(encoder.get()),
+                sender,
+                compressed -> compressed.body().release());
+    }
+
+    /**
+     * 組み立て済みのリクエストボディをPOSTする
+     * 送信のたびにボディの参照を1つ増やして書き込みに渡し、書き込み完了時にNetty側で解放させる
+     * 送信のたびにサーキットブレーカーの許可を取得し、遮断中は送信せずにOpenExceptionで失敗させる
+     * 送信先は送信のたびに選び直すため、再送は別のエンドポイントに振り分けられることがある
+     * @param reader 応答を読み取る（応答ボディは集約せずに読み捨てるか逐次解析する）
+     */
+    private <T> Mono<T> post(MediaType contentType, RequestCompressor.Compressed compressed,
+                             Function<WebClient.ResponseSpec, Mono<T>> reader) {
+        ByteBuf body = compressed.body();
+
+        return Mono.defer(() -> {
+            if (!circuitBreaker.tryAcquire()) {
+                return Mono.error(new CircuitBreaker.OpenException());
+            }
+
+            EndpointBalancer.Lease lease = balancer.acquire();
+            WebClient.RequestBodySpec request = webClient.post().uri(lease.endpoint().uri()).contentType(contentType);
+            if (compressed.encoding() != null) {
+                request = request.header(HttpHeaders.CONTENT_ENCODING, compressed.encoding());
+            }
+            return reader.apply(request.contentLength(body.readableBytes())
+                            .body(Mono.fromSupplier(() -> bufferFactory.wrap(body.retainedDuplicate())), DataBuffer.class)
+                            .retrieve())
+                    .doOnEach(signal -> {
+                        if (signal.isOnComplete()) {
+                            lease.success();
+                            circuitBreaker.onSuccess();
+                        } else if (signal.isOnError()) {
+                            // 4xx応答はHULFT Squareが応答できているため失敗に数えない
+                            if (isPermanentFailure(signal.getThrowable())) {
+                                lease.success();
+                                circuitBreaker.onSuccess();
+                            } else {
+                                lease.failure();
+                                circuitBreaker.onFailure();
+                                if (signal.getThrowable() instanceof WebClientRequestException) {
+                                    // 接続し直した送信先にはスキーマの定義を送り直す
+                                    schemaCache.reset();
+                                }
+                            }
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        lease.cancel();
+                        circuitBreaker.onCancel();
+                    });
+        });
+    }
+
+    private static SpillQueue openSpillQueue(HulftSquareProperties.Spill spill) {
+        try {
+            return new SpillQueue(Path.of(spill.getDirectory()), spill.getSegmentBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("退避キューを開けませんでした: " + spill.getDirectory(), e);
+        }
+    }
+}
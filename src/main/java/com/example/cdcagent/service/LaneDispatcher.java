@@ -0,0 +1,208 @@
+package com.example.cdcagent.service;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * 要素をレーンに振り分けて実行するディスパッチャー
+ * 同じレーンの要素は投入順に処理し、異なるレーンは並行して処理する
+ * レーンに滞留している要素は最大maxChunk件ずつまとめて処理し、前のまとまりが完了するまで次を処理しない
+ * 複数のレーンにまたがる要素は、すべてのレーンで先に投入された要素の処理が完了するのを待ってから単独で処理する
+ */
+public class LaneDispatcher<T> {
+
+    private final Function<List<T>, Mono<List<Boolean>>> handler;
+    private final int maxChunk;
+    private final ToIntFunction<T> weigher;
+    private final List<Lane<T>> lanes;
+
+    /**
+     * @param laneCount レーン数
+     * @param maxChunk 1回の処理にまとめる要素数の上限
+     * @param handler 要素のまとまりを処理し、要素ごとの結果を同じ順序で返す
+     */
+    public LaneDispatcher(int laneCount, int maxChunk, Function<List<T>, Mono<List<Boolean>>> handler) {
+        this(laneCount, maxChunk, item -> 1, handler);
+    }
+
+    /**
+     * @param laneCount レーン数
+     * @param maxChunk 1回の処理にまとめる要素の大きさの合計の上限（上限を超える要素は単独で処理する）
+     * @param weigher 要素の大きさ
+     * @param handler 要素のまとまりを処理し、要素ごとの結果を同じ順序で返す
+     */
+    public LaneDispatcher(int laneCount, int maxChunk, ToIntFunction<T> weigher,
+                          Function<List<T>, Mono<List<Boolean>>> handler) {
+        this.handler = handler;
+        this.maxChunk = Math.max(1, maxChunk);
+        this.weigher = weigher;
+        this.lanes = new ArrayList<>(laneCount);
+        for (int lane = 0; lane < laneCount; lane++) {
+            lanes.add(new Lane<>());
+        }
+    }
+
+    /**
+     * 要素をレーンに投入
+     * @param lane レーン番号
+     * @param item 処理する要素
+     * @return 処理結果
+     */
+    public Mono<Boolean> dispatch(int lane, T item) {
+        Lane<T> target = lanes.get(lane);
+        Sinks.One<Boolean> result = Sinks.one();
+        target.depth.incrementAndGet();
+        target.queue.offer(new Task<>(item, result, null));
+        drain(target);
+        return result.asMono();
+    }
+
+    /**
+     * 複数のレーンにまたがる要素を投入
+     * 指定したすべてのレーンで先に投入された要素の処理が完了してから処理し、完了するまで各レーンの後続の要素を処理しない
+     * @param laneNumbers レーン番号（重複してもよい）
+     * @param item 処理する要素
+     * @return 処理結果
+     */
+    public Mono<Boolean> dispatch(int[] laneNumbers, T item) {
+        int[] targets = IntStream.of(laneNumbers).distinct().toArray();
+        if (targets.length == 1) {
+            return dispatch(targets[0], item);
+        }
+
+        Task<T> task = new Task<>(item, Sinks.one(), targets);
+        // 複数のレーンにまたがる要素同士の順序をすべてのレーンでそろえ、待ち合わせが循環しないようにする
+        synchronized (this) {
+            for (int lane : targets) {
+                Lane<T> target = lanes.get(lane);
+                target.depth.incrementAndGet();
+                target.queue.offer(task);
+            }
+        }
+        for (int lane : targets) {
+            drain(lanes.get(lane));
+        }
+        return task.result.asMono();
+    }
+
+    /**
+     * レーン数を取得
+     */
+    public int laneCount() {
+        return lanes.size();
+    }
+
+    /**
+     * レーンに滞留している要素数（処理中を含む）を取得
+     */
+    public int depth(int lane) {
+        return lanes.get(lane).depth.get();
+    }
+
+    /**
+     * レーンが処理中でなければ、滞留している要素をまとめて処理する
+     */
+    private void drain(Lane<T> lane) {
+        if (!lane.busy.compareAndSet(false, true)) {
+            return;
+        }
+
+        List<Task<T>> chunk = new ArrayList<>();
+        int weight = 0;
+        Task<T> task;
+        // 取り出すのは処理中フラグを持つスレッドのみのため、先頭を確認してから取り出してよい
+        while ((task = lane.queue.peek()) != null) {
+            if (task.lanes() != null) {
+                if (chunk.isEmpty()) {
+                    // 複数のレーンにまたがる要素に到達したレーンは、その要素の処理が完了するまで処理中のままとする
+                    lane.queue.poll();
+                    arrive(task);
+                    return;
+                }
+                break;
+            }
+            int itemWeight = weigher.applyAsInt(task.item());
+            if (!chunk.isEmpty() && weight + itemWeight > maxChunk) {
+                break;
+            }
+            lane.queue.poll();
+            chunk.add(task);
+            weight += itemWeight;
+            if (weight >= maxChunk) {
+                break;
+            }
+        }
+
+        if (chunk.isEmpty()) {
+            lane.busy.set(false);
+            // 処理中フラグを解除する間に投入された要素を取りこぼさない
+            if (!lane.queue.isEmpty()) {
+                drain(lane);
+            }
+            return;
+        }
+
+        process(chunk, () -> {
+            lane.depth.addAndGet(-chunk.size());
+            lane.busy.set(false);
+            drain(lane);
+        });
+    }
+
+    /**
+     * 複数のレーンにまたがる要素に到達したことを記録し、すべてのレーンが到達した時点で処理する
+     */
+    private void arrive(Task<T> task) {
+        if (task.arrivals().decrementAndGet() > 0) {
+            return;
+        }
+        process(List.of(task), () -> {
+            for (int lane : task.lanes()) {
+                Lane<T> target = lanes.get(lane);
+                target.depth.decrementAndGet();
+                target.busy.set(false);
+                drain(target);
+            }
+        });
+    }
+
+    private void process(List<Task<T>> chunk, Runnable onComplete) {
+        List<T> items = chunk.stream().map(Task::item).toList();
+        Mono.defer(() -> handler.apply(items))
+                .onErrorReturn(List.of())
+                .defaultIfEmpty(List.of())
+                .subscribe(results -> {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        // 結果が返されなかった要素は失敗として扱う
+                        chunk.get(i).result().tryEmitValue(i < results.size() && Boolean.TRUE.equals(results.get(i)));
+                    }
+                    onComplete.run();
+                });
+    }
+
+    private static final class Lane<T> {
+        private final Queue<Task<T>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean busy = new AtomicBoolean();
+    }
+
+    /**
+     * @param lanes 複数のレーンにまたがる要素の場合は投入したレーン（1つのレーンの要素はnull）
+     * @param arrivals 要素にまだ到達していないレーン数
+     */
+    private record Task<T>(T item, Sinks.One<Boolean> result, int[] lanes, AtomicInteger arrivals) {
+        private Task(T item, Sinks.One<Boolean> result, int[] lanes) {
+            this(item, result, lanes, new AtomicInteger(lanes != null ? lanes.length : 1));
+        }
+    }
+}
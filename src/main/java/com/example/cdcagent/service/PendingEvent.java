@@ -0,0 +1,174 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.ChangeEventBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 送信を待つイベントと、送信結果を報告するバッチ
+ * 同じ行の変更をまとめた場合は、まとめたイベントを送信し、元のイベントそれぞれのバッチに同じ結果を報告する
+ * トランザクション単位のバッチは、バッチのすべてのイベントを1件の送信待ちとして扱う
+ */
+public final class PendingEvent {
+
+    // 送信するイベント（変更が打ち消し合った場合は空）
+    private List<ChangeEvent> events;
+    // 元のイベントとそのバッチ
+    private final List<Source> sources = new ArrayList<>(1);
+    // 1つ以上のコミット済みのトランザクション全体を表す場合true（他のコミット済みのトランザクションとまとめられる）
+    private final boolean committed;
+    // 変更をまとめる際に使用する行のフィンガープリント
+    long rowKey;
+
+    public PendingEvent(ChangeEventBatch batch, ChangeEvent event) {
+        this.events = List.of(event);
+        this.sources.add(new Source(batch, event, 0));
+        this.committed = false;
+    }
+
+    private PendingEvent(ChangeEventBatch batch, List<ChangeEvent> events, int[] targets, boolean committed) {
+        this.events = events;
+        List<ChangeEvent> originals = batch.getEvents();
+        for (int i = 0; i < originals.size(); i++) {
+            sources.add(new Source(batch, originals.get(i), targets[i]));
+        }
+        this.committed = committed;
+    }
+
+    /**
+     * トランザクション単位のバッチのすべてのイベントを、分割せずに送信する送信待ちを作成
+     */
+    public static PendingEvent transaction(ChangeEventBatch batch) {
+        int[] targets = new int[batch.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = i;
+        }
+        return new PendingEvent(batch, batch.getEvents(), targets, false);
+    }
+
+    /**
+     * トランザクション内の変更をまとめたイベントを送信する送信待ちを作成
+     * @param events 送信するイベント
+     * @param targets バッチのイベントごとの、送信するイベントでの位置（打ち消し合って送信しない場合は-1）
+     * @param committed トランザクション全体のイベントの場合true
+     */
+    static PendingEvent transaction(ChangeEventBatch batch, List<ChangeEvent> events, int[] targets, boolean committed) {
+        return new PendingEvent(batch, events, targets, committed);
+    }
+
+    /**
+     * 送信するイベント（複数のイベントを送信する場合は最初のイベント）
+     */
+    public ChangeEvent event() {
+        return events.isEmpty() ? sources.get(0).event() : events.get(0);
+    }
+
+    /**
+     * 送信するイベント（トランザクション単位の場合はトランザクションのすべてのイベント）
+     */
+    public List<ChangeEvent> events() {
+        return events;
+    }
+
+    /**
+     * 変更が打ち消し合い、送信が不要になった場合true
+     */
+    public boolean isCancelled() {
+        return events.isEmpty();
+    }
+
+    /**
+     * コミット済みのトランザクション全体を表す場合true
+     */
+    boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * まとめられた元のイベント数
+     */
+    public int sourceCount() {
+        return sources.size();
+    }
+
+    /**
+     * 元のイベントそれぞれのバッチに送信結果を報告
+     */
+    public void markDelivered(boolean success) {
+        for (Source source : sources) {
+            source.batch().markDelivered(source.event(), success);
+        }
+    }
+
+    /**
+     * イベントごとの送信結果を報告する
+     * 打ち消し合って送信しなかったイベントには、送信したすべてのイベントの結果を報告する
+     * @param results 送信結果（events()と同じ順序のものをoffsetの位置から使用する。結果が無いイベントは失敗として扱う）
+     * @return すべてのイベントの送信に成功した場合true
+     */
+    public boolean markDelivered(List<Boolean> results, int offset) {
+        boolean allSucceeded = true;
+        for (int i = 0; i < events.size(); i++) {
+            int index = offset + i;
+            allSucceeded &= index < results.size() && Boolean.TRUE.equals(results.get(index));
+        }
+        for (Source source : sources) {
+            int index = offset + source.target();
+            boolean success = source.target() < 0
+                    ? allSucceeded
+                    : index < results.size() && Boolean.TRUE.equals(results.get(index));
+            source.batch().markDelivered(source.event(), success);
+        }
+        return allSucceeded;
+    }
+
+    /**
+     * 後続のイベントをまとめ、送信するイベントを置き換える
+     */
+    void absorb(ChangeEventBatch nextBatch, ChangeEvent next, ChangeEvent merged) {
+        sources.add(new Source(nextBatch, next, 0));
+        events = List.of(merged);
+    }
+
+    /**
+     * 後続の送信待ちのすべての元のイベントをまとめ、送信するイベントを置き換える
+     */
+    void absorb(PendingEvent next, ChangeEvent merged) {
+        for (Source source : next.sources) {
+            sources.add(new Source(source.batch(), source.event(), source.target() < 0 ? -1 : 0));
+        }
+        events = List.of(merged);
+    }
+
+    /**
+     * 打ち消し合う後続のイベントをまとめ、送信を取り消す
+     */
+    void cancel(ChangeEventBatch nextBatch, ChangeEvent next) {
+        sources.add(new Source(nextBatch, next, -1));
+        cancel();
+    }
+
+    /**
+     * 打ち消し合う後続の送信待ちのすべての元のイベントをまとめ、送信を取り消す
+     */
+    void cancel(PendingEvent next) {
+        for (Source source : next.sources) {
+            sources.add(new Source(source.batch(), source.event(), -1));
+        }
+        cancel();
+    }
+
+    private void cancel() {
+        events = List.of();
+        sources.replaceAll(source -> new Source(source.batch(), source.event(), -1));
+    }
+
+    /**
+     * 元のイベント
+     * @param target 送信するイベントでの位置（送信しない場合は-1）
+     */
+    private record Source(ChangeEventBatch batch, ChangeEvent event, int target) {
+    }
+}
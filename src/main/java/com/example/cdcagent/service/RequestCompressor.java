@@ -0,0 +1,141 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.config.HulftSquareProperties;
+import com.github.luben.zstd.Zstd;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HULFT Squareへのリクエストボディを圧縮するコンプレッサー
+ * 閾値より小さいボディと、圧縮してもサイズが小さくならないボディは圧縮せずにそのまま送信する
+ * 圧縮後のボディは圧縮前のボディと同じアロケーターから確保し、使用しなくなった方のバッファは解放する
+ */
+public class RequestCompressor {
+
+    // zstdの圧縮レベル（速度と圧縮率のバランスが良い既定値）
+    private static final int ZSTD_LEVEL = 3;
+
+    private final HulftSquareProperties.Compression compression;
+    private final int minBytes;
+
+    // メトリクス
+    private final DistributionSummary inputBytes;
+    private final DistributionSummary outputBytes;
+    private final Timer compressionTimer;
+    private final Counter skippedSmall;
+    private final Counter skippedIncompressible;
+
+    public RequestCompressor(HulftSquareProperties.Compression compression, int minBytes, MeterRegistry meterRegistry) {
+        this.compression = compression != null ? compression : HulftSquareProperties.Compression.NONE;
+        this.minBytes = Math.max(0, minBytes);
+
+        String algorithm = this.compression.name().toLowerCase();
+        this.inputBytes = DistributionSummary.builder("hulft.square.compression.input")
+                .description("圧縮前のリクエストボディのバイト数")
+                .baseUnit("bytes")
+                .tag("algorithm", algorithm)
+                .register(meterRegistry);
+        this.outputBytes = DistributionSummary.builder("hulft.square.compression.output")
+                .description("圧縮後のリクエストボディのバイト数")
+                .baseUnit("bytes")
+                .tag("algorithm", algorithm)
+                .register(meterRegistry);
+        this.compressionTimer = Timer.builder("hulft.square.compression.time")
+                .description("リクエストボディの圧縮にかかった時間")
+                .tag("algorithm", algorithm)
+                .register(meterRegistry);
+        this.skippedSmall = Counter.builder("hulft.square.compression.skipped")
+                .description("圧縮せずに送信したリクエスト数")
+                .tag("reason", "small")
+                .register(meterRegistry);
+        this.skippedIncompressible = Counter.builder("hulft.square.compression.skipped")
+                .description("圧縮せずに送信したリクエスト数")
+                .tag("reason", "incompressible")
+                .register(meterRegistry);
+    }
+
+    /**
+     * リクエストボディを圧縮
+     * 圧縮した場合は圧縮前のボディを解放する（例外が発生した場合も解放する）
+     * @param body 圧縮前のボディ（所有権を引き取る）
+     * @return 送信するボディとContent-Encoding（圧縮しなかった場合はnull）
+     */
+    public Compressed compress(ByteBuf body) {
+        if (compression == HulftSquareProperties.Compression.NONE) {
+            return new Compressed(body, null);
+        }
+        int length = body.readableBytes();
+        if (length < minBytes) {
+            skippedSmall.increment();
+            return new Compressed(body, null);
+        }
+
+        long start = System.nanoTime();
+        ByteBuf compressed;
+        try {
+            compressed = switch (compression) {
+                case GZIP -> stream(body, out -> new GZIPOutputStream(out, 8192));
+                // Content-Encoding: deflate はzlib形式（RFC 1950）
+                case DEFLATE -> stream(body, DeflaterOutputStream::new);
+                case ZSTD -> Unpooled.wrappedBuffer(Zstd.compress(ByteBufUtil.getBytes(body), ZSTD_LEVEL));
+                case NONE -> body.retain();
+            };
+        } catch (RuntimeException e) {
+            body.release();
+            throw e;
+        }
+        compressionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        if (compressed.readableBytes() >= length) {
+            compressed.release();
+            skippedIncompressible.increment();
+            return new Compressed(body, null);
+        }
+
+        inputBytes.record(length);
+        outputBytes.record(compressed.readableBytes());
+        body.release();
+        return new Compressed(compressed, compression.getEncoding());
+    }
+
+    /**
+     * 圧縮ストリームを通してボディを同じアロケーターのバッファに書き込む
+     */
+    private static ByteBuf stream(ByteBuf body, StreamFactory factory) {
+        ByteBuf out = body.alloc().buffer(body.readableBytes() / 4 + 64);
+        try (OutputStream stream = factory.create(new ByteBufOutputStream(out))) {
+            body.getBytes(body.readerIndex(), stream, body.readableBytes());
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            // メモリ上の書き込みのためIOExceptionは発生しない
+            throw e instanceof RuntimeException runtime ? runtime : new UncheckedIOException((IOException) e);
+        }
+        return out;
+    }
+
+    @FunctionalInterface
+    private interface StreamFactory {
+        OutputStream create(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 送信するリクエストボディ
+     * @param body ボディ（参照カウントを持ち、送信結果が確定した時点で解放する）
+     * @param encoding Content-Encodingの値（圧縮していない場合はnull）
+     */
+    public record Compressed(ByteBuf body, String encoding) {
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 再試行の回数を通常のリクエスト数の一定割合に制限するバジェット
+ * リクエストのたびに割合分のトークンを積み立て、再試行のたびに1トークンを消費する
+ * 通常のリクエストが少ない間も再試行できるよう、1秒あたり最低限のトークンを補充する
+ * 障害時に再試行が負荷を増幅させること（リトライストーム）を防ぐ
+ */
+public class RetryBudget {
+
+    // 積み立てられるトークンの上限（最低補充数の何秒分か。最低補充数が0の場合は10トークン）
+    private static final int BURST_SECONDS = 10;
+
+    // 1トークンの単位数（経過時間（ナノ秒）×1秒あたりの補充数を端数なく積み立てるため整数で管理する）
+    private static final long UNIT = 1_000_000_000L;
+
+    private final long depositPerRequest;
+    private final long minRetriesPerSecond;
+    private final long maxUnits;
+    private final LongSupplier clock;
+
+    // 残りのトークン（単位数、thisで保護する）
+    private long units;
+    private long lastRefillNanos;
+
+    // メトリクス
+    private final Counter exhaustedCounter;
+
+    /**
+     * @param percent 通常のリクエスト数に対して許容する再試行の割合（%）
+     * @param minRetriesPerSecond 通常のリクエスト数に関わらず許容する1秒あたりの再試行回数
+     */
+    public RetryBudget(int percent, int minRetriesPerSecond, MeterRegistry meterRegistry) {
+        this(percent, minRetriesPerSecond, meterRegistry, System::nanoTime);
+    }
+
+    RetryBudget(int percent, int minRetriesPerSecond, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.depositPerRequest = Math.max(0, percent) * UNIT / 100;
+        this.minRetriesPerSecond = Math.max(0, minRetriesPerSecond);
+        this.maxUnits = Math.max(1, this.minRetriesPerSecond) * BURST_SECONDS * UNIT;
+        this.clock = clock;
+        // 起動直後も最低補充数の10秒分は再試行できるようにする
+        this.units = this.minRetriesPerSecond * BURST_SECONDS * UNIT;
+        this.lastRefillNanos = clock.getAsLong();
+
+        Gauge.builder("hulft.square.retry.budget", this, RetryBudget::available)
+                .description("再試行に使用できる残りのトークン数")
+                .register(meterRegistry);
+        this.exhaustedCounter = Counter.builder("hulft.square.retry.budget.exhausted")
+                .description("再試行のバジェットが不足したため再試行しなかった回数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 通常のリクエストを記録し、再試行用のトークンを積み立てる
+     */
+    public synchronized void deposit() {
+        refill();
+        units = Math.min(maxUnits, units + depositPerRequest);
+    }
+
+    /**
+     * 再試行用のトークンを1つ消費する
+     * @return 再試行してよい場合true
+     */
+    public boolean tryWithdraw() {
+        synchronized (this) {
+            refill();
+            if (units >= UNIT) {
+                units -= UNIT;
+                return true;
+            }
+        }
+        exhaustedCounter.increment();
+        return false;
+    }
+
+    /**
+     * 残りのトークン数を取得
+     */
+    public synchronized double available() {
+        refill();
+        return (double) units / UNIT;
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        // 上限まで補充できる時間を超えた分は切り捨て、乗算の桁あふれを防ぐ
+        long elapsed = Math.min(now - lastRefillNanos, TimeUnit.SECONDS.toNanos(BURST_SECONDS));
+        units = Math.min(maxUnits, units + elapsed * minRetriesPerSecond);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.CompactRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * テーブルごとの列の並び（スキーマ）をIDで管理するキャッシュ
+ * 行を列名なしの値の配列として送信する際に、配列の各要素がどの列かを送信先に伝えるために使用する
+ * スキーマのバージョンはDDLの受信時、または列の並びが変わった行を受け取った時点で上がり、新しいIDが払い出される
+ * 送信先に定義を届けたスキーマを記録し、再接続時は記録を破棄してすべてのスキーマの定義を送り直す
+ * 配信できなかったイベントが参照するスキーマは、そのスキーマの記録のみを破棄する
+ */
+@Component
+public class SchemaCache {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaCache.class);
+
+    // データベース名→テーブル名→テーブルのスキーマ
+    private final Map<String, Map<String, TableSchemas>> tables = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    // スキーマID→スキーマ（無効にしたスキーマも、送信済みのイベントを列名に戻すために保持する）
+    private final Map<Integer, Schema> byId = new ConcurrentHashMap<>();
+
+    // 定義を届けた記録の世代（再接続やスキーマの記録の破棄のたびに増やす）
+    private final AtomicLong epoch = new AtomicLong();
+    // 最後に再接続した時点の世代（それより前に届けた定義はすべて無効）
+    private volatile long resetEpoch;
+
+    // メトリクス
+    private final Counter invalidationCounter;
+
+    public SchemaCache(MeterRegistry meterRegistry) {
+        Gauge.builder("cdc.schema.cached", this, SchemaCache::size)
+                .description("キャッシュしているテーブルのスキーマ数")
+                .register(meterRegistry);
+        this.invalidationCounter = Counter.builder("cdc.schema.invalidations")
+                .description("DDLを受信してスキーマを無効にしたテーブル数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 行の列の並びに一致するスキーマを取得する
+     * キャッシュしているスキーマと並びが異なる場合は、バージョンを上げた新しいスキーマを登録する
+     * @param row 列名と値（列は定義順に並んでいること）
+     */
+    public Schema resolve(String database, String table, Map<String, Object> row) {
+        TableSchemas schemas = tables.computeIfAbsent(database, name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(table, name -> new TableSchemas());
+        Schema current = schemas.current;
+        if (current != null && current.matches(row)) {
+            return current;
+        }
+
+        synchronized (schemas) {
+            current = schemas.current;
+            if (current == null || !current.matches(row)) {
+                schemas.version++;
+                current = new Schema(nextId.incrementAndGet(), database, table, schemas.version,
+                        List.copyOf(row.keySet()));
+                schemas.current = current;
+                byId.put(current.id, current);
+                logger.debug("スキーマを登録しました: {}.{} version={} id={}", database, table, current.version, current.id);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * IDを指定してスキーマを取得
+     * @return スキーマ。このプロセスで払い出したIDではない場合はnull
+     */
+    public Schema get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * DDLを受信したテーブルのスキーマを無効にする
+     * 次に受け取った行で、列の並びが同じでもバージョンを上げた新しいスキーマを登録する
+     * @param table テーブル名（nullの場合はデータベース内のすべてのテーブル）
+     */
+    public void invalidate(String database, String table) {
+        Map<String, TableSchemas> byTable = tables.get(database);
+        if (byTable == null) {
+            return;
+        }
+        if (table == null) {
+            byTable.values().forEach(this::invalidate);
+        } else {
+            TableSchemas schemas = byTable.get(table);
+            if (schemas != null) {
+                invalidate(schemas);
+            }
+        }
+    }
+
+    private void invalidate(TableSchemas schemas) {
+        synchronized (schemas) {
+            if (schemas.current != null) {
+                schemas.current = null;
+                invalidationCounter.increment();
+            }
+        }
+    }
+
+    /**
+     * 定義を届けた記録の現在の世代を取得（シリアライズした時点を記録に使用する）
+     */
+    public long epoch() {
+        return epoch.get();
+    }
+
+    /**
+     * 再接続に伴い、送信先に定義を届けた記録を破棄する
+     */
+    public void reset() {
+        resetEpoch = epoch.incrementAndGet();
+    }
+
+    /**
+     * 配信できなかったイベントが参照するスキーマについて、送信先に定義を届けた記録を破棄する
+     * 破棄する前にシリアライズしたイベントの送信が後から完了しても、定義を届けたものとして記録しない
+     * @param id スキーマID（このプロセスで払い出したIDではない場合は何もしない）
+     */
+    public void revoke(int id) {
+        Schema schema = byId.get(id);
+        if (schema == null) {
+            return;
+        }
+        synchronized (schema) {
+            schema.revokedEpoch = epoch.incrementAndGet();
+            schema.announcedEpoch = -1L;
+        }
+    }
+
+    /**
+     * スキーマの定義を送信先に届けたかどうかを確認
+     */
+    public boolean isAnnounced(Schema schema) {
+        return schema.announcedEpoch >= resetEpoch;
+    }
+
+    /**
+     * スキーマの定義を送信先に届けたことを記録する
+     * @param sentEpoch 定義を含めてシリアライズした時点の世代（その後に再接続したり記録を破棄したりしていた場合は記録しない）
+     */
+    public void confirm(Schema schema, long sentEpoch) {
+        synchronized (schema) {
+            if (sentEpoch >= resetEpoch && sentEpoch >= schema.revokedEpoch) {
+                schema.announcedEpoch = Math.max(schema.announcedEpoch, sentEpoch);
+            }
+        }
+    }
+
+    private int size() {
+        return tables.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * テーブルの列の並び
+     */
+    public static final class Schema {
+        private final int id;
+        private final String database;
+        private final String table;
+        private final int version;
+        private final List<String> columns;
+        // 直前に一致したCompactRowの列名の表（同じ表を持つ行は列名を比較せずに一致と判定する）
+        private volatile CompactRow.Columns matchedColumns;
+        // 定義を届けた世代（届けていない場合は-1）
+        private volatile long announcedEpoch = -1L;
+        // 定義を届けた記録を最後に破棄した世代
+        private long revokedEpoch;
+
+        private Schema(int id, String database, String table, int version, List<String> columns) {
+            this.id = id;
+            this.database = database;
+            this.table = table;
+            this.version = version;
+            this.columns = columns;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public String database() {
+            return database;
+        }
+
+        public String table() {
+            return table;
+        }
+
+        public int version() {
+            return version;
+        }
+
+        public List<String> columns() {
+            return columns;
+        }
+
+        /**
+         * 行の列が、このスキーマと同じ並びかどうかを確認
+         */
+        public boolean matches(Map<String, Object> row) {
+            CompactRow.Columns compact = row instanceof CompactRow compactRow ? compactRow.columns() : null;
+            if (compact != null && compact == matchedColumns) {
+                return true;
+            }
+            if (row.size() != columns.size()) {
+                return false;
+            }
+            Iterator<String> names = row.keySet().iterator();
+            for (String column : columns) {
+                if (!column.equals(names.next())) {
+                    return false;
+                }
+            }
+            if (compact != null) {
+                matchedColumns = compact;
+            }
+            return true;
+        }
+    }
+
+    private static final class TableSchemas {
+        private int version;
+        private volatile Schema current;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.CompactRow;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * イベントの行（before/after）を列名なしの値の配列に変換するエンコーダー
+ * 配列の各要素は、イベントのschemaIdが指すスキーマの列の並び順に並ぶ
+ * スキーマの定義は、送信先に届いたことを確認するまでイベントのschemaに含める
+ * 差分形式のイベントや、before/afterで列の並びが異なるイベントは変換しない
+ */
+public class SchemaEncoder {
+
+    private final SchemaCache schemaCache;
+
+    public SchemaEncoder(SchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * イベントを配列形式に変換する
+     * @return 変換結果。変換しない場合は引数のイベントをそのまま持つ
+     */
+    public Encoded encode(ChangeEvent event) {
+        Map<String, Object> row = event.getAfter() != null ? event.getAfter() : event.getBefore();
+        if (row == null || Boolean.TRUE.equals(event.getDelta())
+                || event.getDatabase() == null || event.getTable() == null) {
+            return new Encoded(event, null);
+        }
+        SchemaCache.Schema schema = schemaCache.resolve(event.getDatabase(), event.getTable(), row);
+        if (event.getBefore() != null && event.getAfter() != null && !schema.matches(event.getBefore())) {
+            return new Encoded(event, null);
+        }
+
+        boolean announce = !schemaCache.isAnnounced(schema);
+        SchemaDefinition definition = announce
+                ? new SchemaDefinition(schema.id(), schema.version(), schema.columns())
+                : null;
+        return new Encoded(new PositionalEvent(event.getId(), event.getType(), event.getDatabase(), event.getTable(),
+                event.getOperation(), event.getTimestamp(), event.getKey(), event.getTransactionId(),
+                event.getTransactionOrder(), event.getTransactionEventCount(), schema.id(), definition, values(event.getBefore()), values(event.getAfter())),
+                announce ? schema : null);
+    }
+
+    /**
+     * スキーマの定義を含めていない配列形式のイベントに定義を追加する
+     * デッドレターとして保存するイベントを、再起動後も列名と値の形式に戻せるようにするために使用する
+     * @return 定義を追加したイベント。追加しない場合は引数のイベント
+     */
+    public byte[] describe(byte[] payload, ObjectMapper objectMapper) throws IOException {
+        if (!(objectMapper.readTree(payload) instanceof ObjectNode event)
+                || !event.has("schemaId") || event.has("schema")) {
+            return payload;
+        }
+        SchemaCache.Schema schema = schemaCache.get(event.get("schemaId").asInt());
+        if (schema == null) {
+            return payload;
+        }
+        event.putPOJO("schema", new SchemaDefinition(schema.id(), schema.version(), schema.columns()));
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    /**
+     * 配信できなかったイベントが参照するスキーマについて、送信先に定義を届けた記録を破棄する
+     * イベントに含めた定義は届いていないため、以降のイベントで送り直す
+     */
+    public void revoke(byte[] payload, ObjectMapper objectMapper) throws IOException {
+        JsonNode schemaId = objectMapper.readTree(payload).get("schemaId");
+        if (schemaId != null) {
+            schemaCache.revoke(schemaId.asInt());
+        }
+    }
+
+    /**
+     * 配列形式のイベントを、列名と値のオブジェクトの形式に戻す
+     * @return 戻せた場合、または配列形式ではないイベントの場合true。スキーマの定義を含まない場合false
+     */
+    public static boolean restoreRows(ObjectNode event) {
+        if (!event.has("schemaId")) {
+            return true;
+        }
+        JsonNode columns = event.path("schema").path("columns");
+        if (!columns.isArray()) {
+            return false;
+        }
+        for (String field : List.of("before", "after")) {
+            if (event.get(field) instanceof ArrayNode values) {
+                ObjectNode row = event.objectNode();
+                for (int i = 0; i < values.size() && i < columns.size(); i++) {
+                    row.set(columns.get(i).asText(), values.get(i));
+                }
+                event.set(field, row);
+            }
+        }
+        event.remove(List.of("schemaId", "schema"));
+        return true;
+    }
+
+    private static Object values(Map<String, Object> row) {
+        if (row instanceof CompactRow compact) {
+            // 数値の列をボックス化せずに書き込む
+            return compact.valueArray();
+        }
+        return row == null ? null : row.values().toArray();
+    }
+
+    /**
+     * 変換結果
+     * @param value シリアライズするイベント
+     * @param announced 定義をイベントに含めたスキーマ（含めていない場合はnull）
+     */
+    public record Encoded(Object value, SchemaCache.Schema announced) {
+    }
+
+    /**
+     * 行を値の配列で表したイベント
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record PositionalEvent(String id, String type, String database, String table,
+                           ChangeEvent.OperationType operation, Instant timestamp, Map<String, Object> key,
+                           String transactionId, Long transactionOrder, Long transactionEventCount, int schemaId, SchemaDefinition schema,
+                           Object before, Object after) {
+    }
+
+    /**
+     * イベントに含めるスキーマの定義
+     */
+    record SchemaDefinition(int id, int version, List<String> columns) {
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.cdcagent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 送信できなかったイベントをディスクに退避する永続キュー
+ * 固定サイズのセグメントファイルをメモリマップして追記し、読み出しが完了したセグメントは削除する
+ * 各レコードは [長さ(int)][CRC32C(int)][ペイロード] の形式で、長さ0はセグメントの終端を表す
+ * 再起動時は残っているセグメントを先頭から読み直すため、送信済みのレコードが再送されることがある
+ */
+public class SpillQueue implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpillQueue.class);
+
+    private static final String SUFFIX = ".spill";
+    private static final int HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+
+    // 先頭が読み出し中、末尾が追記中のセグメント
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId;
+    private long size;
+    private long corruptedRecords;
+
+    /**
+     * @param directory セグメントファイルを配置するディレクトリ
+     * @param segmentBytes セグメントファイルのサイズ
+     */
+    public SpillQueue(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.max(HEADER_BYTES * 2, segmentBytes);
+        Files.createDirectories(directory);
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file, Files.size(file));
+            corruptedRecords += segment.scan();
+            segments.addLast(segment);
+            size += segment.count;
+            nextSegmentId = Math.max(nextSegmentId, segmentId(file) + 1);
+        }
+        if (!segments.isEmpty()) {
+            logger.info("退避済みのイベントを読み込みました: {}件 ({}セグメント)", size, segments.size());
+        }
+    }
+
+    /**
+     * レコードを末尾に追記し、ディスクに書き出す
+     */
+    public synchronized void append(List<byte[]> payloads) throws IOException {
+        Segment tail = segments.peekLast();
+        int flushFrom = tail != null ? tail.writePosition : 0;
+
+        for (byte[] payload : payloads) {
+            if (payload.length == 0) {
+                // 長さ0は終端を表すため格納できない
+                throw new IllegalArgumentException("空のレコードは退避できません");
+            }
+            int recordBytes = HEADER_BYTES + payload.length;
+            if (tail == null || tail.remaining() < recordBytes) {
+                if (tail != null) {
+                    tail.force(flushFrom);
+                }
+                tail = createSegment(Math.max(segmentBytes, recordBytes));
+                flushFrom = 0;
+            }
+            tail.write(payload);
+            size++;
+        }
+
+        if (tail != null) {
+            tail.force(flushFrom);
+        }
+    }
+
+    /**
+     * 先頭から最大max件のレコードを読み出す（キューからは取り除かない）
+     */
+    public synchronized List<byte[]> peek(int max) {
+        return peek(0, max);
+    }
+
+    /**
+     * 先頭からskip件を読み飛ばした位置から、最大max件のレコードを読み出す（キューからは取り除かない）
+     * 読み出したレコードの送信完了を待たずに、続きのレコードを読み出すために使用する
+     */
+    public synchronized List<byte[]> peek(long skip, int max) {
+        List<byte[]> payloads = new ArrayList<>((int) Math.max(0, Math.min(max, size - skip)));
+        long skipped = 0;
+        for (Segment segment : segments) {
+            int position = segment.readPosition;
+            int read = segment.read;
+            while (skipped < skip && read < segment.count) {
+                position += HEADER_BYTES + segment.buffer.getInt(position);
+                read++;
+                skipped++;
+            }
+            while (payloads.size() < max && read < segment.count) {
+                byte[] payload = segment.payloadAt(position);
+                payloads.add(payload);
+                position += HEADER_BYTES + payload.length;
+                read++;
+            }
+            if (payloads.size() >= max) {
+                break;
+            }
+        }
+        return payloads;
+    }
+
+    /**
+     * 先頭からcount件のレコードを取り除き、読み終えたセグメントを削除する
+     */
+    public synchronized void remove(int count) throws IOException {
+        int remaining = count;
+        while (remaining > 0 && !segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            while (remaining > 0 && head.read < head.count) {
+                head.readPosition += HEADER_BYTES + head.buffer.getInt(head.readPosition);
+                head.read++;
+                remaining--;
+                size--;
+            }
+            if (head.read < head.count) {
+                break;
+            }
+            // 追記中のセグメントはキューが空になった場合のみ削除する
+            if (segments.size() > 1 || size == 0) {
+                segments.pollFirst();
+                head.delete();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 退避中のレコード数を取得
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * セグメントファイルが使用しているディスク容量を取得
+     */
+    public synchronized long diskBytes() {
+        return segments.stream().mapToLong(segment -> segment.buffer.capacity()).sum();
+    }
+
+    /**
+     * 読み込み時にCRCの不一致等で破棄したレコード数を取得
+     */
+    public synchronized long corruptedRecords() {
+        return corruptedRecords;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+    }
+
+    private Segment createSegment(int capacity) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", nextSegmentId++, SUFFIX));
+        Segment segment = Segment.open(file, capacity);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private static long segmentId(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * メモリマップしたセグメントファイル
+     */
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int readPosition;
+        private int count;
+        private int read;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment open(Path path, long capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(path, channel, buffer);
+        }
+
+        /**
+         * 既存のレコードを検証して件数と追記位置を求める
+         * 途中で壊れたレコードを検出した場合は、それ以降を書き込み途中のデータとして破棄する
+         * @return 破棄したレコード数（壊れたレコードを検出した場合は1）
+         */
+        private int scan() {
+            int position = 0;
+            while (position + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                if (length < 0 || position + HEADER_BYTES + length > buffer.capacity()
+                        || crc(position + HEADER_BYTES, length) != buffer.getInt(position + 4)) {
+                    logger.warn("破損したレコードを検出したため、以降を破棄します: {} (位置: {})", path, position);
+                    // 次回の読み込みでもここを終端とし、このセグメントには以降追記しない
+                    buffer.putInt(position, 0);
+                    writePosition = buffer.capacity();
+                    return 1;
+                }
+                position += HEADER_BYTES + length;
+                count++;
+            }
+            writePosition = position;
+            return 0;
+        }
+
+        private int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        private void write(byte[] payload) {
+            int position = writePosition;
+            buffer.put(position + HEADER_BYTES, payload);
+            buffer.putInt(position + 4, crc(position + HEADER_BYTES, payload.length));
+            // 長さは最後に書き込み、書き込み途中のレコードが読まれないようにする
+            buffer.putInt(position, payload.length);
+            writePosition = position + HEADER_BYTES + payload.length;
+            count++;
+        }
+
+        private byte[] payloadAt(int position) {
+            byte[] payload = new byte[buffer.getInt(position)];
+            buffer.get(position + HEADER_BYTES, payload);
+            return payload;
+        }
+
+        private void force(int from) {
+            if (writePosition > from) {
+                buffer.force(from, writePosition - from);
+            }
+        }
+
+        private int crc(int position, int length) {
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(position, length));
+            return (int) crc.getValue();
+        }
+
+        private void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.cdcagent.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 退避キューに残っているイベントの行（テーブルと主キー）を数えるインデックス
+ * 退避中の行の変更がある間は、同じ行の新しいイベントも退避の後ろに並べて順序を保つ
+ * 退避中のイベントと関係のない行のイベントは、退避キューを経由せずにそのまま送信できる
+ * 主キーの無いイベントはテーブル全体の順序を保つため、そのテーブルのすべてのイベントと関係があるものとして扱う
+ */
+public class SpilledKeys {
+
+    // テーブルごとの退避中のイベント数
+    private final Map<String, Integer> tables = new HashMap<>();
+    // テーブルと主キーごとの退避中のイベント数（主キーの無いイベントは主キーを空文字として数える）
+    private final Map<String, Integer> rows = new HashMap<>();
+
+    // 起動時に読み込んだ、行が分からない退避中のイベント数（残っている間はすべてのイベントを退避する）
+    private long unindexed;
+
+    /**
+     * @param restored 起動時に退避キューに残っていたイベント数
+     */
+    public SpilledKeys(long restored) {
+        this.unindexed = restored;
+    }
+
+    /**
+     * 退避したイベントの行を記録する
+     */
+    public synchronized void add(List<Row> spilled) {
+        for (Row row : spilled) {
+            tables.merge(row.table(), 1, Integer::sum);
+            rows.merge(row.id(), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * 退避キューから再送したイベントの行の記録を取り除く（退避した順に渡すこと）
+     */
+    public synchronized void remove(List<Row> drained) {
+        for (Row row : drained) {
+            if (unindexed > 0) {
+                unindexed--;
+                continue;
+            }
+            tables.computeIfPresent(row.table(), (table, count) -> count > 1 ? count - 1 : null);
+            rows.computeIfPresent(row.id(), (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * 退避中のイベントより後に送信する必要がある行を含むかどうかを確認
+     */
+    public synchronized boolean blocks(List<Row> candidates) {
+        if (unindexed > 0) {
+            return true;
+        }
+        if (tables.isEmpty()) {
+            return false;
+        }
+        for (Row row : candidates) {
+            boolean related = row.key() == null
+                    ? tables.containsKey(row.table())
+                    : rows.containsKey(row.id()) || rows.containsKey(new Row(row.table(), null).id());
+            if (related) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean isEmpty() {
+        return unindexed == 0 && tables.isEmpty();
+    }
+
+    /**
+     * イベントの行
+     * @param table テーブル（database.table形式）
+     * @param key 主キーのJSON表現（主キーの無いイベントの場合はnull）
+     */
+    public record Row(String table, String key) {
+        private String id() {
+            return table + '\u0000' + (key != null ? key : "");
+        }
+    }
+}
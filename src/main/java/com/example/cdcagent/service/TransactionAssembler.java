@@ -0,0 +1,132 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * トランザクションのメタデータ（BEGIN/END）に従い、1つのトランザクションのイベントを1つの送信単位にまとめるアセンブラー
+ * BEGINからENDまでに受け取った同じトランザクションIDのイベントを保持し、ENDを受け取った時点で送信単位とする
+ * 上限を超えるトランザクションは上限ごとに分割し、最後の送信単位の最後のイベントにトランザクションのイベント数を設定する
+ * トランザクションに属さないイベントは受信順のまままとめて1つの送信単位とする
+ * エンジンスレッドからのみ呼び出すこと
+ */
+public class TransactionAssembler {
+
+    private final int maxEvents;
+
+    // 送信できるようになった送信単位（受信順）
+    private final List<Unit> ready = new ArrayList<>();
+    // トランザクションに属さないイベント
+    private List<ChangeEvent> loose = new ArrayList<>();
+
+    // ENDを待っているトランザクションのIDと、そのイベント（無い場合はnull）
+    private String openTransaction;
+    private List<ChangeEvent> buffered;
+
+    /**
+     * @param maxEvents 1つの送信単位にまとめるトランザクション内のイベント数の上限
+     */
+    public TransactionAssembler(int maxEvents) {
+        this.maxEvents = Math.max(1, maxEvents);
+    }
+
+    /**
+     * トランザクションの開始を受け取る
+     * ENDを受け取っていないトランザクションがある場合は、それまでのイベントを送信単位とする
+     */
+    public void begin(String transactionId) {
+        if (openTransaction != null) {
+            complete(-1L);
+        }
+        openTransaction = transactionId;
+        buffered = new ArrayList<>();
+    }
+
+    /**
+     * イベントを受け取る
+     * 保持しているイベントが上限に達している場合は、それまでのイベントを送信単位とする
+     */
+    public void add(ChangeEvent event) {
+        if (openTransaction == null || !openTransaction.equals(event.getTransactionId())) {
+            loose.add(event);
+            return;
+        }
+        if (buffered.size() >= maxEvents) {
+            // ENDまでに後続のイベントが無かった場合に最後の送信単位とできるよう、上限を超えた時点で分割する
+            flushLoose();
+            ready.add(new Unit(buffered, true));
+            buffered = new ArrayList<>();
+        }
+        buffered.add(event);
+    }
+
+    /**
+     * トランザクションの終了を受け取り、保持しているイベントを送信単位とする
+     * @param eventCount トランザクションに含まれるイベント数
+     */
+    public void end(String transactionId, long eventCount) {
+        if (openTransaction != null && openTransaction.equals(transactionId)) {
+            complete(eventCount);
+        }
+    }
+
+    private void complete(long eventCount) {
+        if (!buffered.isEmpty()) {
+            if (eventCount >= 0) {
+                buffered.get(buffered.size() - 1).setTransactionEventCount(eventCount);
+            }
+            flushLoose();
+            ready.add(new Unit(buffered, true));
+        }
+        openTransaction = null;
+        buffered = null;
+    }
+
+    private void flushLoose() {
+        if (!loose.isEmpty()) {
+            ready.add(new Unit(loose, false));
+            loose = new ArrayList<>();
+        }
+    }
+
+    /**
+     * 送信できるようになった送信単位を受信順に取り出す（ENDを待っているトランザクションのイベントは保持したままとする）
+     */
+    public List<Unit> poll() {
+        flushLoose();
+        if (ready.isEmpty()) {
+            return List.of();
+        }
+        List<Unit> units = List.copyOf(ready);
+        ready.clear();
+        return units;
+    }
+
+    /**
+     * ENDを待っているトランザクションのイベント数を取得
+     */
+    public int pending() {
+        List<ChangeEvent> events = buffered;
+        return events == null ? 0 : events.size();
+    }
+
+    /**
+     * 保持しているイベントをすべて破棄する（次回起動時にDebeziumから再取得される）
+     */
+    public void clear() {
+        ready.clear();
+        loose = new ArrayList<>();
+        openTransaction = null;
+        buffered = null;
+    }
+
+    /**
+     * 送信単位
+     * @param events イベント（受信順）
+     * @param transaction 1つのトランザクションのイベントの場合true
+     */
+    public record Unit(List<ChangeEvent> events, boolean transaction) {
+    }
+}
@@ -0,0 +1,369 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.ChangeEventBatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * 送信を待っている間に同じ行（主キー）が再び変更された場合、変更を1件のイベントにまとめるコアレッサー
+ * UPDATEの連続は最初のbeforeと最後のafterを持つ1件にまとめ、INSERTの後のDELETEは打ち消し合うため送信しない
+ * まとめたイベントは最初のイベントの位置で送信するため、主キー単位の順序は変わらない
+ * トランザクションの境界をまたがないよう、同じトランザクションIDのイベントのみまとめる（トランザクションIDが分からないイベントはまとめない）
+ * トランザクション単位のバッチは、トランザクション内の同じ行の変更をまとめ、1行の変更のみになったコミット済みのトランザクション同士をまとめる
+ * 呼び出し側で送信キューとの排他を行うこと（送信キューから取り出したイベントは必ずremoveしてからロックを解放する）
+ */
+public class UpdateCoalescer {
+
+    private final PendingIndex index = new PendingIndex();
+
+    // メトリクス
+    private final Counter absorbedCounter;
+
+    /**
+     * @param queue 対象の送信キュー名（メトリクスのタグに使用する）
+     */
+    public UpdateCoalescer(String queue, MeterRegistry meterRegistry) {
+        this.absorbedCounter = Counter.builder("cdc.coalesce.absorbed")
+                .description("同じ行の変更をまとめたため個別に送信しなかったイベント数")
+                .tag("queue", queue)
+                .register(meterRegistry);
+    }
+
+    /**
+     * イベントを送信待ちのイベントにまとめる
+     * @return 新たに送信キューに投入するイベント。送信待ちのイベントにまとめた場合はnull
+     */
+    public PendingEvent offer(ChangeEventBatch batch, ChangeEvent event) {
+        if (event.getKey() == null || event.getTransactionId() == null) {
+            // 主キーの無いテーブルは行を特定できず、トランザクションIDの分からないイベントは境界を判断できないためまとめない
+            return new PendingEvent(batch, event);
+        }
+
+        long rowKey = rowKey(event);
+        PendingEvent pending = index.get(rowKey);
+        if (pending != null && !pending.isCommitted() && sameRow(pending.event(), event)
+                && Objects.equals(pending.event().getTransactionId(), event.getTransactionId())) {
+            ChangeEvent current = pending.event();
+            if (current.getOperation() == ChangeEvent.OperationType.INSERT
+                    && event.getOperation() == ChangeEvent.OperationType.DELETE) {
+                pending.cancel(batch, event);
+                index.remove(rowKey, pending);
+                // 送信待ちのイベントと後続のイベントの両方を送信しない
+                absorbedCounter.increment(2);
+                return null;
+            }
+            ChangeEvent merged = merge(current, event);
+            if (merged != null) {
+                pending.absorb(batch, event, merged);
+                absorbedCounter.increment();
+                return null;
+            }
+        }
+
+        PendingEvent created = new PendingEvent(batch, event);
+        created.rowKey = rowKey;
+        if (pending == null || sameRow(pending.event(), event)) {
+            // フィンガープリントが別の行と衝突した場合は登録せず、まとめる対象にしない
+            index.put(rowKey, created);
+        }
+        return created;
+    }
+
+    /**
+     * トランザクション単位のバッチを送信待ちにする
+     * トランザクション全体のイベントを受け取っている場合は、トランザクション内の同じ行の変更をまとめる
+     * まとめた結果が1行の変更のみになった場合は、送信待ちの同じ行のコミット済みのトランザクションにまとめる
+     * どちらもいずれかのトランザクションのコミット時点の行を送信するため、コミットの境界はまたがない
+     * @param coalescing 変更をまとめるテーブルのイベントかどうか
+     * @return 新たに送信キューに投入する送信待ち。送信待ちのトランザクションにまとめた場合はnull
+     */
+    public PendingEvent offerTransaction(ChangeEventBatch batch, Predicate<ChangeEvent> coalescing) {
+        List<ChangeEvent> events = batch.getEvents();
+        Long eventCount = events.get(events.size() - 1).getTransactionEventCount();
+        if (eventCount == null || eventCount != events.size()) {
+            // 分割されたトランザクションは、受信側がトランザクション全体のイベント数で完了を判断するためまとめない
+            return PendingEvent.transaction(batch);
+        }
+
+        int[] targets = new int[events.size()];
+        List<ChangeEvent> sent = compact(events, targets, coalescing);
+        absorbedCounter.increment(events.size() - sent.size());
+        boolean committed = sent.size() == 1 && sent.get(0).getKey() != null && coalescing.test(sent.get(0));
+        PendingEvent created = PendingEvent.transaction(batch, sent, targets, committed);
+        if (!committed) {
+            return created;
+        }
+
+        ChangeEvent event = sent.get(0);
+        long rowKey = rowKey(event);
+        PendingEvent pending = index.get(rowKey);
+        if (pending != null && pending.isCommitted() && sameRow(pending.event(), event)) {
+            ChangeEvent current = pending.event();
+            if (current.getOperation() == ChangeEvent.OperationType.INSERT
+                    && event.getOperation() == ChangeEvent.OperationType.DELETE) {
+                pending.cancel(created);
+                index.remove(rowKey, pending);
+                absorbedCounter.increment(2);
+                return null;
+            }
+            ChangeEvent merged = merge(current, event);
+            if (merged != null) {
+                // 後のトランザクションのコミット時点の行として送信する
+                merged.setTransactionOrder(event.getTransactionOrder());
+                pending.absorb(created, merged);
+                absorbedCounter.increment();
+                return null;
+            }
+        }
+
+        created.rowKey = rowKey;
+        if (pending == null || sameRow(pending.event(), event)) {
+            index.put(rowKey, created);
+        }
+        return created;
+    }
+
+    /**
+     * トランザクション内の同じ行の変更をまとめる
+     * @param targets イベントごとに、まとめた後のイベントでの位置を設定する（打ち消し合って送信しない場合は-1）
+     * @return まとめた後のイベント（まとめた場合はトランザクション内の順序とイベント数を振り直す）
+     */
+    static List<ChangeEvent> compact(List<ChangeEvent> events, int[] targets, Predicate<ChangeEvent> coalescing) {
+        List<ChangeEvent> compacted = new ArrayList<>(events.size());
+        // 行ごとの最後の変更の位置（トランザクション内のイベント数に比例するため通常のHashMapとする）
+        Map<List<Object>, Integer> latest = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            ChangeEvent event = events.get(i);
+            if (event.getKey() == null || !coalescing.test(event)) {
+                targets[i] = compacted.size();
+                compacted.add(event);
+                continue;
+            }
+            List<Object> row = Arrays.asList(event.getDatabase(), event.getTable(), event.getKey());
+            Integer position = latest.get(row);
+            if (position != null) {
+                ChangeEvent current = compacted.get(position);
+                if (current.getOperation() == ChangeEvent.OperationType.INSERT
+                        && event.getOperation() == ChangeEvent.OperationType.DELETE) {
+                    compacted.set(position, null);
+                    latest.remove(row);
+                    targets[i] = position;
+                    continue;
+                }
+                ChangeEvent merged = merge(current, event);
+                if (merged != null) {
+                    compacted.set(position, merged);
+                    targets[i] = position;
+                    continue;
+                }
+            }
+            latest.put(row, compacted.size());
+            targets[i] = compacted.size();
+            compacted.add(event);
+        }
+        if (compacted.size() == events.size()) {
+            return events;
+        }
+
+        int[] positions = new int[compacted.size()];
+        List<ChangeEvent> sent = new ArrayList<>(compacted.size());
+        for (int i = 0; i < compacted.size(); i++) {
+            positions[i] = compacted.get(i) != null ? sent.size() : -1;
+            if (compacted.get(i) != null) {
+                sent.add(compacted.get(i));
+            }
+        }
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = positions[targets[i]];
+        }
+        // 受信側がトランザクションの完了を判断できるよう、送信するイベントで順序とイベント数を振り直す（元のイベントは変更しない）
+        for (int i = 0; i < sent.size(); i++) {
+            ChangeEvent renumbered = copy(sent.get(i));
+            renumbered.setTransactionOrder(i + 1L);
+            renumbered.setTransactionEventCount(i == sent.size() - 1 ? (long) sent.size() : null);
+            sent.set(i, renumbered);
+        }
+        return sent;
+    }
+
+    /**
+     * 送信キューから取り出したイベントを、以降の変更をまとめる対象から外す
+     */
+    public void remove(PendingEvent pending) {
+        if (pending.rowKey != 0) {
+            index.remove(pending.rowKey, pending);
+        }
+    }
+
+    /**
+     * まとめる対象として保持している行数を取得
+     */
+    public int size() {
+        return index.size;
+    }
+
+    /**
+     * 同じ行の連続する変更をまとめる
+     * @return まとめたイベント。まとめられない組み合わせの場合はnull
+     */
+    static ChangeEvent merge(ChangeEvent current, ChangeEvent next) {
+        ChangeEvent.OperationType operation;
+        switch (current.getOperation()) {
+            case INSERT -> {
+                if (next.getOperation() != ChangeEvent.OperationType.UPDATE) {
+                    return null;
+                }
+                // 挿入した行の更新は、更新後の値での挿入になる
+                operation = ChangeEvent.OperationType.INSERT;
+            }
+            case UPDATE -> {
+                if (next.getOperation() == ChangeEvent.OperationType.INSERT) {
+                    return null;
+                }
+                operation = next.getOperation();
+            }
+            default -> {
+                return null;
+            }
+        }
+
+        ChangeEvent merged = new ChangeEvent(next.getId(), next.getType(), next.getDatabase(), next.getTable(),
+                operation, next.getTimestamp(), current.getBefore(), next.getAfter());
+        merged.setKey(next.getKey());
+        merged.setTransactionId(next.getTransactionId());
+        // 最初のイベントの位置で送信するため、トランザクション内の順序も最初のイベントのものとする
+        merged.setTransactionOrder(current.getTransactionOrder());
+        merged.setTransactionEventCount(next.getTransactionEventCount());
+        return merged;
+    }
+
+    private static ChangeEvent copy(ChangeEvent event) {
+        ChangeEvent copy = new ChangeEvent(event.getId(), event.getType(), event.getDatabase(), event.getTable(),
+                event.getOperation(), event.getTimestamp(), event.getBefore(), event.getAfter());
+        copy.setKey(event.getKey());
+        copy.setTransactionId(event.getTransactionId());
+        copy.setTransactionOrder(event.getTransactionOrder());
+        copy.setTransactionEventCount(event.getTransactionEventCount());
+        copy.setSequence(event.getSequence());
+        copy.setReplay(event.isReplay());
+        return copy;
+    }
+
+    private static boolean sameRow(ChangeEvent a, ChangeEvent b) {
+        return Objects.equals(a.getDatabase(), b.getDatabase())
+                && Objects.equals(a.getTable(), b.getTable())
+                && Objects.equals(a.getKey(), b.getKey());
+    }
+
+    /**
+     * 行の64ビットのフィンガープリント（0は空きスロットを表すため使用しない）
+     */
+    private static long rowKey(ChangeEvent event) {
+        Map<String, Object> key = event.getKey();
+        long hash = Objects.hash(event.getDatabase(), event.getTable()) * 0x9e3779b97f4a7c15L + key.hashCode();
+        hash ^= hash >>> 30;
+        hash *= 0xbf58476d1ce4e5b9L;
+        hash ^= hash >>> 27;
+        hash *= 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * 行のフィンガープリントから送信待ちのイベントを引くオープンアドレス法のハッシュマップ（線形探索）
+     * キーをプリミティブの配列に保持し、エントリのオブジェクトを作らない
+     */
+    private static final class PendingIndex {
+        private long[] keys = new long[64];
+        private PendingEvent[] values = new PendingEvent[64];
+        private int size;
+
+        private PendingEvent get(long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) key & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+                if (keys[i] == 0) {
+                    return null;
+                }
+            }
+        }
+
+        private void put(long key, PendingEvent value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = (int) key & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        /**
+         * 指定したイベントが登録されている場合のみ削除する
+         * 後続のエントリを詰め直し、探索が途切れないようにする
+         */
+        private void remove(long key, PendingEvent value) {
+            int mask = keys.length - 1;
+            int i = (int) key & mask;
+            while (keys[i] != key) {
+                if (keys[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            if (values[i] != value) {
+                return;
+            }
+
+            int hole = i;
+            for (int j = (hole + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = (int) keys[j] & mask;
+                // 本来の位置から穴までの距離が、本来の位置から現在位置までの距離以下なら穴に移せる
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+            size--;
+
+            // 一時的に増えた領域を縮小する
+            if (keys.length > 64 && size * 8 < keys.length) {
+                resize(keys.length / 2);
+            }
+        }
+
+        private void resize(int length) {
+            long[] oldKeys = keys;
+            PendingEvent[] oldValues = values;
+            keys = new long[length];
+            values = new PendingEvent[length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+            Arrays.fill(oldValues, null);
+        }
+    }
+}
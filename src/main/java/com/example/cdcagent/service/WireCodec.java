@@ -0,0 +1,179 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.config.HulftSquareProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HULFT Squareに送信するイベントの符号化方式（JSON / Smile / CBOR）
+ * イベント1件分の符号化結果はそれぞれ単独で復号できる形式とし、退避キューやデッドレターにそのまま保存する
+ * まとめて送信する場合、バイナリ形式では各イベントを1つの配列に連結する
+ * Smileはイベントごとにヘッダーを書き込み、イベント間で参照し合わないよう名前の共有を無効にする（連結時はヘッダーを1つにまとめる）
+ */
+public class WireCodec {
+
+    private static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
+    // Smileのヘッダー（":)\n" と、バージョン0・名前と文字列の共有なし・バイナリは7ビット符号化を表すフラグ）
+    private static final byte[] SMILE_HEADER = {':', ')', '\n', 0x00};
+    private static final int SMILE_HEADER_LENGTH = SMILE_HEADER.length;
+    private static final byte SMILE_START_ARRAY = (byte) 0xF8;
+    private static final byte SMILE_END_ARRAY = (byte) 0xF9;
+    // CBORの長さを指定しない配列の開始と終了
+    private static final byte CBOR_START_ARRAY = (byte) 0x9F;
+    private static final byte CBOR_BREAK = (byte) 0xFF;
+
+    private final HulftSquareProperties.WireFormat format;
+    // 符号化方式ごとのObjectMapper（JSONのObjectMapperと同じ設定・モジュールを持つ）
+    private final Map<HulftSquareProperties.WireFormat, ObjectMapper> mappers =
+            new EnumMap<>(HulftSquareProperties.WireFormat.class);
+
+    public WireCodec(HulftSquareProperties.WireFormat format, ObjectMapper objectMapper) {
+        this.format = format != null ? format : HulftSquareProperties.WireFormat.JSON;
+        mappers.put(HulftSquareProperties.WireFormat.JSON, objectMapper);
+        mappers.put(HulftSquareProperties.WireFormat.SMILE, objectMapper.copyWith(SmileFactory.builder()
+                .enable(SmileGenerator.Feature.WRITE_HEADER)
+                .disable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+                .disable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build()));
+        mappers.put(HulftSquareProperties.WireFormat.CBOR, objectMapper.copyWith(new CBORFactory()));
+    }
+
+    public HulftSquareProperties.WireFormat format() {
+        return format;
+    }
+
+    /**
+     * イベントの符号化に使用するObjectMapper
+     */
+    public ObjectMapper mapper() {
+        return mappers.get(format);
+    }
+
+    /**
+     * 符号化済みのイベントの符号化方式に合わせたObjectMapperを取得
+     * 符号化方式を変更する前に退避・保存したイベントの読み出しに使用する
+     */
+    public ObjectMapper readerFor(byte[] payload) {
+        return mappers.get(detect(payload));
+    }
+
+    /**
+     * イベント1件を送信する際のContent-Type
+     */
+    public MediaType contentType() {
+        return switch (format) {
+            case SMILE -> APPLICATION_SMILE;
+            case CBOR -> MediaType.APPLICATION_CBOR;
+            default -> MediaType.APPLICATION_JSON;
+        };
+    }
+
+    /**
+     * まとめて送信する際のContent-Type
+     */
+    public MediaType batchContentType(HulftSquareProperties.BatchFormat batchFormat) {
+        if (format == HulftSquareProperties.WireFormat.JSON && batchFormat == HulftSquareProperties.BatchFormat.NDJSON) {
+            return MediaType.APPLICATION_NDJSON;
+        }
+        return contentType();
+    }
+
+    /**
+     * 符号化済みのイベントをプールしたバッファ上のリクエストボディに連結する
+     * 現在の符号化方式と異なる方式で符号化されたイベント（符号化方式を変更する前に退避したイベント）は、現在の方式に変換してから連結する
+     * @throws UncheckedIOException 変換できないイベントが含まれる場合
+     */
+    public ByteBuf encodeBatch(List<byte[]> payloads, HulftSquareProperties.BatchFormat batchFormat,
+                               ByteBufAllocator allocator) {
+        List<byte[]> items = payloads;
+        for (int i = 0; i < items.size(); i++) {
+            if (detect(items.get(i)) != format) {
+                if (items == payloads) {
+                    items = new ArrayList<>(payloads);
+                }
+                items.set(i, convert(items.get(i)));
+            }
+        }
+
+        int size = items.stream().mapToInt(payload -> payload.length + 1).sum() + SMILE_HEADER_LENGTH + 1;
+        ByteBuf body = allocator.buffer(size);
+        switch (format) {
+            case SMILE -> {
+                body.writeBytes(SMILE_HEADER);
+                body.writeByte(SMILE_START_ARRAY);
+                for (byte[] item : items) {
+                    body.writeBytes(item, SMILE_HEADER_LENGTH, item.length - SMILE_HEADER_LENGTH);
+                }
+                body.writeByte(SMILE_END_ARRAY);
+            }
+            case CBOR -> {
+                body.writeByte(CBOR_START_ARRAY);
+                for (byte[] item : items) {
+                    body.writeBytes(item);
+                }
+                body.writeByte(CBOR_BREAK);
+            }
+            default -> {
+                if (batchFormat == HulftSquareProperties.BatchFormat.NDJSON) {
+                    for (byte[] item : items) {
+                        body.writeBytes(item);
+                        body.writeByte('\n');
+                    }
+                } else {
+                    body.writeByte('[');
+                    for (int i = 0; i < items.size(); i++) {
+                        if (i > 0) {
+                            body.writeByte(',');
+                        }
+                        body.writeBytes(items.get(i));
+                    }
+                    body.writeByte(']');
+                }
+            }
+        }
+        return body;
+    }
+
+    /**
+     * 符号化済みのイベントを現在の符号化方式に変換する
+     * @throws UncheckedIOException 変換できない場合
+     */
+    public byte[] convert(byte[] payload) {
+        HulftSquareProperties.WireFormat source = detect(payload);
+        if (source == format) {
+            return payload;
+        }
+        try {
+            return mapper().writeValueAsBytes(mappers.get(source).readTree(payload));
+        } catch (IOException e) {
+            throw new UncheckedIOException("イベントを" + format + "に変換できませんでした", e);
+        }
+    }
+
+    /**
+     * 符号化済みのイベントの先頭のバイトから符号化方式を判定する
+     * JSONのイベントは '{' 、Smileのイベントはヘッダー ":)\n" で始まり、それ以外はCBORとして扱う
+     */
+    static HulftSquareProperties.WireFormat detect(byte[] payload) {
+        if (payload.length == 0 || payload[0] == '{' || payload[0] == '[') {
+            return HulftSquareProperties.WireFormat.JSON;
+        }
+        if (payload.length >= SMILE_HEADER_LENGTH && payload[0] == ':' && payload[1] == ')' && payload[2] == '\n') {
+            return HulftSquareProperties.WireFormat.SMILE;
+        }
+        return HulftSquareProperties.WireFormat.CBOR;
+    }
+}
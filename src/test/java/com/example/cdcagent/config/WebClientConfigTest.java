@@ -5,6 +5,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -26,14 +27,52 @@ class WebClientConfigTest {
         lenient().when(api.getReadTimeout()).thenReturn(5000);
         lenient().when(api.getWriteTimeout()).thenReturn(5000);
         lenient().when(api.getUrl()).thenReturn("http://localhost:9000/api/events");
+        lenient().when(api.getProtocol()).thenReturn(HulftSquareProperties.Protocol.HTTP11);
+        lenient().when(hulftSquareProperties.getPool()).thenReturn(new HulftSquareProperties.Pool());
         
         // テスト対象のインスタンスを作成
         WebClientConfig webClientConfig = new WebClientConfig(hulftSquareProperties);
+        ConnectionProvider connectionProvider = webClientConfig.hulftSquareConnectionProvider();
         
         // 実行
-        WebClient webClient = webClientConfig.webClient();
+        WebClient webClient = webClientConfig.webClient(connectionProvider);
         
         // 検証
         assertNotNull(webClient);
+        connectionProvider.dispose();
+    }
+
+    @Test
+    void hulftSquareConnectionProvider_shouldApplyPoolSettings() {
+        // モックの設定
+        HulftSquareProperties.Pool pool = new HulftSquareProperties.Pool();
+        pool.setMaxConnections(8);
+        pool.setMaxLifeTimeMs(60000);
+        when(hulftSquareProperties.getPool()).thenReturn(pool);
+
+        // 実行
+        ConnectionProvider connectionProvider = new WebClientConfig(hulftSquareProperties).hulftSquareConnectionProvider();
+
+        // 検証
+        assertEquals("hulft-square", connectionProvider.name());
+        assertEquals(8, connectionProvider.maxConnections());
+        connectionProvider.dispose();
+    }
+
+    @Test
+    void webClient_shouldCreateWebClient_whenH2cIsEnabled() {
+        // モックの設定
+        lenient().when(hulftSquareProperties.getApi()).thenReturn(api);
+        lenient().when(api.getConnectTimeout()).thenReturn(5000);
+        lenient().when(api.getReadTimeout()).thenReturn(5000);
+        lenient().when(api.getWriteTimeout()).thenReturn(5000);
+        when(api.getProtocol()).thenReturn(HulftSquareProperties.Protocol.H2C);
+        lenient().when(hulftSquareProperties.getPool()).thenReturn(new HulftSquareProperties.Pool());
+        WebClientConfig webClientConfig = new WebClientConfig(hulftSquareProperties);
+        ConnectionProvider connectionProvider = webClientConfig.hulftSquareConnectionProvider();
+
+        // 実行と検証
+        assertNotNull(webClientConfig.webClient(connectionProvider));
+        connectionProvider.dispose();
     }
 } 
\ No newline at end of file
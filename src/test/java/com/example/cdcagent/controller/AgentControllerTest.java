@@ -2,6 +2,8 @@ package com.example.cdcagent.controller;
 
 import com.example.cdcagent.service.AgentStateManager;
 import com.example.cdcagent.service.CdcService;
+import com.example.cdcagent.service.CircuitBreaker;
+import com.example.cdcagent.service.DeadLetterService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -10,6 +12,8 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.util.Map;
 
@@ -25,6 +29,9 @@ class AgentControllerTest {
     @Mock
     private AgentStateManager stateManager;
 
+    @Mock
+    private DeadLetterService deadLetterService;
+
     @InjectMocks
     private AgentController controller;
 
@@ -36,6 +43,7 @@ class AgentControllerTest {
     void status_shouldReturnCurrentState() {
         // モックの設定
         when(stateManager.getState()).thenReturn(AgentStateManager.AgentState.RUNNING);
+        when(cdcService.getCircuitBreakerState()).thenReturn(CircuitBreaker.State.HALF_OPEN);
         
         // 実行
         ResponseEntity<Map<String, Object>> response = controller.status();
@@ -46,6 +54,7 @@ class AgentControllerTest {
         assertNotNull(body);
         assertEquals("success", body.get("status"));
         assertEquals("RUNNING", body.get("state"));
+        assertEquals("HALF_OPEN", body.get("circuitBreaker"));
     }
 
     @Test
@@ -207,4 +216,63 @@ class AgentControllerTest {
         assertEquals("エージェントはすでに停止しているか停止中です", body.get("message"));
         assertEquals("STOPPED", body.get("state"));
     }
-} 
\ No newline at end of file
+
+    @Test
+    void countDeadLetters_shouldReturnCount() {
+        // モックの設定
+        when(deadLetterService.count("db.orders", null, null)).thenReturn(3L);
+
+        // 実行
+        ResponseEntity<Map<String, Object>> response = controller.countDeadLetters("db.orders", null, null);
+
+        // 検証
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(3L, response.getBody().get("count"));
+    }
+
+    @Test
+    void replayDeadLetters_shouldReturnResult() {
+        // モックの設定
+        when(stateManager.isRunning()).thenReturn(true);
+        when(cdcService.replayDeadLetters(null, null, null, 100))
+                .thenReturn(Mono.just(new CdcService.ReplayResult(2, 1)));
+
+        // 実行と検証
+        StepVerifier.create(controller.replayDeadLetters(null, null, null, 100))
+                .assertNext(response -> {
+                    assertEquals(HttpStatus.OK, response.getStatusCode());
+                    assertEquals(2, response.getBody().get("replayed"));
+                    assertEquals(1, response.getBody().get("failed"));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void replayDeadLetters_shouldReturnConflictWhenAgentIsNotRunning() {
+        // モックの設定
+        when(stateManager.isRunning()).thenReturn(false);
+        when(stateManager.getState()).thenReturn(AgentStateManager.AgentState.PAUSED);
+
+        // 実行と検証
+        StepVerifier.create(controller.replayDeadLetters(null, null, null, 100))
+                .assertNext(response -> assertEquals(HttpStatus.CONFLICT, response.getStatusCode()))
+                .verifyComplete();
+        verify(cdcService, never()).replayDeadLetters(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void replayDeadLetters_shouldReturnConflictWhenReplayIsInProgress() {
+        // モックの設定
+        when(stateManager.isRunning()).thenReturn(true);
+        when(cdcService.replayDeadLetters(null, null, null, 100))
+                .thenReturn(Mono.error(new CdcService.ReplayInProgressException()));
+
+        // 実行と検証
+        StepVerifier.create(controller.replayDeadLetters(null, null, null, 100))
+                .assertNext(response -> {
+                    assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+                    assertEquals("error", response.getBody().get("status"));
+                })
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.cdcagent.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeEventBatchTest {
+
+    @Test
+    void emptyBatch_shouldBeCompletedImmediately() {
+        // 実行
+        ChangeEventBatch batch = new ChangeEventBatch(List.of());
+
+        // 検証
+        assertEquals(0, batch.size());
+        assertTrue(batch.isCompleted());
+        assertTrue(batch.isSuccessful());
+        assertTrue(batch.whenCompleted().isDone());
+    }
+
+    @Test
+    void markDelivered_shouldCompleteBatchWhenAllEventsAreReported() {
+        // テストデータ
+        ChangeEvent first = new ChangeEvent();
+        ChangeEvent second = new ChangeEvent();
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second));
+
+        // 実行と検証
+        batch.markDelivered(first, true);
+        assertFalse(batch.isCompleted());
+        assertFalse(batch.whenCompleted().isDone());
+
+        batch.markDelivered(second, true);
+        assertTrue(batch.isCompleted());
+        assertSame(batch, batch.whenCompleted().getNow(null));
+        assertTrue(batch.isSuccessful());
+        assertTrue(batch.getFailedEvents().isEmpty());
+    }
+
+    @Test
+    void markDelivered_shouldKeepFailedEvents() {
+        // テストデータ
+        ChangeEvent first = new ChangeEvent();
+        ChangeEvent second = new ChangeEvent();
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second));
+
+        // 実行
+        batch.markDelivered(first, false);
+        batch.markDelivered(second, true);
+
+        // 検証
+        assertTrue(batch.isCompleted());
+        assertFalse(batch.isSuccessful());
+        assertEquals(List.of(first), batch.getFailedEvents());
+    }
+
+    @Test
+    void markDelivered_shouldNotifyOnlySuccessfulEvents() {
+        // テストデータ
+        ChangeEvent first = new ChangeEvent();
+        ChangeEvent second = new ChangeEvent();
+        List<ChangeEvent> delivered = new ArrayList<>();
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second), delivered::add);
+
+        // 実行
+        batch.markDelivered(first, false);
+        batch.markDelivered(second, true);
+        ChangeEventBatch retry = batch.retry(batch.getFailedEvents());
+        retry.markDelivered(first, true);
+
+        // 検証：再送用のバッチも同じ通知先を引き継ぐ
+        assertEquals(List.of(second, first), delivered);
+        assertTrue(retry.isSuccessful());
+    }
+}
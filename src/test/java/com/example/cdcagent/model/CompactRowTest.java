@@ -0,0 +1,82 @@
+package com.example.cdcagent.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactRowTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void mapView_shouldEqualLinkedHashMapWithSameBoxedValues() {
+        // テストデータ：想定より多い列を追加し、配列を拡張させる
+        CompactRow row = new CompactRow.Builder(2)
+                .addInt("id", 1000)
+                .add("name", "Alice")
+                .addLong("total", 5_000_000_000L)
+                .addDouble("score", 12.5)
+                .add("big", new BigInteger("123456789012345678901234567890"))
+                .add("note", null)
+                .build(null);
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("id", 1000);
+        expected.put("name", "Alice");
+        expected.put("total", 5_000_000_000L);
+        expected.put("score", 12.5);
+        expected.put("big", new BigInteger("123456789012345678901234567890"));
+        expected.put("note", null);
+
+        // 検証：ボックス化した値の型と列の並びが従来のMapと一致する
+        assertEquals(expected, row);
+        assertEquals(row, expected);
+        assertEquals(expected.hashCode(), row.hashCode());
+        assertEquals(List.copyOf(expected.keySet()), List.copyOf(row.keySet()));
+        assertInstanceOf(Integer.class, row.get("id"));
+        assertInstanceOf(Long.class, row.get("total"));
+        assertTrue(row.containsKey("note"));
+        assertFalse(row.containsKey("missing"));
+        assertThrows(UnsupportedOperationException.class, () -> row.put("id", 2));
+    }
+
+    @Test
+    void serialize_shouldWriteSameJsonAsMapAndValueArrayInColumnOrder() throws Exception {
+        // テストデータ
+        CompactRow row = new CompactRow.Builder(4)
+                .addInt("id", 7)
+                .add("tags", List.of("a", "b"))
+                .addDouble("ratio", 0.25)
+                .add("note", null)
+                .build(null);
+
+        // 実行
+        String json = objectMapper.writeValueAsString(row);
+        String values = objectMapper.writeValueAsString(row.valueArray());
+
+        // 検証
+        assertEquals(objectMapper.writeValueAsString(new LinkedHashMap<>(row)), json);
+        assertEquals("[7,[\"a\",\"b\"],0.25,null]", values);
+    }
+
+    @Test
+    void valueEquals_shouldCompareSlotsOfRowsSharingColumns() {
+        // テストデータ：同じ列名の表を共有する2行
+        CompactRow before = new CompactRow.Builder(3).addInt("id", 1).addLong("qty", 10L).add("memo", "x").build(null);
+        CompactRow after = new CompactRow.Builder(3).addInt("id", 1).addLong("qty", 11L).add("memo", "x")
+                .build(before.columns());
+
+        // 検証
+        assertSame(before.columns(), after.columns());
+        assertTrue(before.valueEquals(0, after));
+        assertFalse(before.valueEquals(1, after));
+        assertTrue(before.valueEquals(2, after));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompactRow.Builder(1).addInt("other", 1).build(before.columns()));
+    }
+}
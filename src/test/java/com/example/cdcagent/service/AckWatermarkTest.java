@@ -0,0 +1,106 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AckWatermarkTest {
+
+    @Test
+    void advance_shouldStopAtFirstUnacknowledgedSequence() {
+        // テストデータ
+        AckWatermark tracker = new AckWatermark(8);
+        for (int i = 0; i < 4; i++) {
+            tracker.tryRegister();
+        }
+
+        // 実行：順不同に応答
+        tracker.acknowledge(1);
+        tracker.acknowledge(3);
+
+        // 検証：0が未応答のため進まない
+        assertEquals(0, tracker.advance());
+        assertEquals(4, tracker.pending());
+
+        // 実行
+        tracker.acknowledge(0);
+
+        // 検証：連続した0〜1まで進み、2で止まる
+        assertEquals(2, tracker.advance());
+
+        // 実行
+        tracker.acknowledge(2);
+
+        // 検証
+        assertEquals(4, tracker.advance());
+        assertEquals(0, tracker.pending());
+    }
+
+    @Test
+    void tryRegister_shouldRejectWhenWindowIsFull() {
+        // テストデータ：ウィンドウは2のべき乗に切り上げられる
+        AckWatermark tracker = new AckWatermark(3);
+        assertEquals(4, tracker.window());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, tracker.tryRegister());
+        }
+
+        // 実行と検証
+        assertEquals(-1, tracker.tryRegister());
+
+        // 先頭が応答されるとスロットが再利用される
+        tracker.acknowledge(0);
+        assertEquals(4, tracker.tryRegister());
+        tracker.acknowledge(4);
+        assertEquals(1, tracker.advance());
+    }
+
+    @Test
+    void skip_shouldIgnoreStaleAcknowledgements() {
+        // テストデータ
+        AckWatermark tracker = new AckWatermark(2);
+        tracker.tryRegister();
+        tracker.tryRegister();
+
+        // 実行：未応答の連番を破棄し、新しい連番を払い出す
+        assertEquals(2, tracker.skip());
+        long next = tracker.tryRegister();
+        tracker.acknowledge(next);
+        // 破棄した連番への遅れた応答（同じスロットを使用）
+        tracker.acknowledge(next - 2);
+
+        // 検証：新しい連番の応答は上書きされない
+        assertEquals(3, tracker.advance());
+    }
+
+    @Test
+    void acknowledge_shouldBeSafeFromMultipleThreads() throws InterruptedException {
+        // テストデータ
+        int count = 10000;
+        AckWatermark tracker = new AckWatermark(count);
+        for (int i = 0; i < count; i++) {
+            tracker.tryRegister();
+        }
+
+        // 実行：複数スレッドから逆順を含む順不同で応答
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            int offset = thread;
+            executor.submit(() -> {
+                for (int i = count - 1 - offset; i >= 0; i -= 4) {
+                    tracker.acknowledge(i);
+                    tracker.advance();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // 検証
+        assertEquals(count, tracker.advance());
+    }
+}
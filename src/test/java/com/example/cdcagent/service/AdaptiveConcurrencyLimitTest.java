@@ -0,0 +1,84 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimitTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void onSample_shouldDecreaseLimitOnFailuresDownToMinimum() {
+        // テストデータ
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(5, 100, meterRegistry);
+        assertEquals(100, limit.getLimit());
+
+        // 実行
+        limit.onSample(RTT, 100, true);
+
+        // 検証：失敗すると乗算的に減少する
+        assertEquals(90, limit.getLimit());
+        assertEquals(1.0, meterRegistry.get("cdc.flow.limit.changes").tag("direction", "decrease").counter().count());
+
+        // 実行：失敗が続いても最小値を下回らない
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(RTT, 100, true);
+        }
+
+        // 検証
+        assertEquals(5, limit.getLimit());
+        assertEquals(5.0, meterRegistry.get("cdc.flow.limit").gauge().value());
+    }
+
+    @Test
+    void onSample_shouldDecreaseWhenLatencyRisesAndRecoverWhenItFalls() {
+        // テストデータ：平常時の応答時間を学習させる
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 200, meterRegistry);
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(RTT, 200, false);
+        }
+        assertEquals(200, limit.getLimit());
+
+        // 実行：応答時間が4倍に悪化
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(RTT * 4, limit.getLimit(), false);
+        }
+
+        // 検証
+        int degraded = limit.getLimit();
+        assertTrue(degraded < 120, "上限が縮小していません: " + degraded);
+
+        // 実行：応答時間が回復
+        for (int i = 0; i < 200; i++) {
+            limit.onSample(RTT, limit.getLimit(), false);
+        }
+
+        // 検証：最大値まで回復する
+        assertEquals(200, limit.getLimit());
+        assertTrue(meterRegistry.get("cdc.flow.limit.changes").tag("direction", "increase").counter().count() > 0);
+        assertEquals(230, meterRegistry.get("cdc.flow.rtt").timer().count());
+    }
+
+    @Test
+    void onSample_shouldNotIncrease_whenLimitIsNotUsed() {
+        // テストデータ
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 100, meterRegistry);
+        limit.onSample(RTT, 100, true);
+        assertEquals(90, limit.getLimit());
+
+        // 実行：進行中が上限の半分未満で応答時間も平常
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(RTT, 10, false);
+        }
+
+        // 検証
+        assertEquals(90, limit.getLimit());
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.cdcagent.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchAckParserTest {
+
+    private final NettyDataBufferFactory factory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+
+    @Test
+    void parse_shouldReadAcksSplitAtAnyPosition() {
+        // テストデータ：真偽値とオブジェクトが混在するACKを1バイトずつに分割
+        String body = "[true, {\"id\":\"a\",\"detail\":{\"success\":true},\"success\":false}, false, {\"success\":true}, [true]]";
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (byte b : body.getBytes(StandardCharsets.UTF_8)) {
+            chunks.add(factory.wrap(new byte[]{b}));
+        }
+
+        // 実行と検証：入れ子のsuccessフィールドと配列の要素は成功として扱わない
+        StepVerifier.create(BatchAckParser.parse(Flux.fromIterable(chunks), 5))
+                .expectNext(List.of(true, false, false, true, false))
+                .expectComplete()
+                .verify();
+        assertReleased(chunks);
+    }
+
+    @Test
+    void parse_shouldTreatMissingAcksAsFailures() {
+        // テストデータ：送信した件数より要素が少ないACK
+        List<DataBuffer> chunks = List.of(buffer("[true]"));
+
+        // 実行と検証
+        StepVerifier.create(BatchAckParser.parse(Flux.fromIterable(chunks), 3))
+                .expectNext(List.of(true, false, false))
+                .expectComplete()
+                .verify();
+        assertReleased(chunks);
+    }
+
+    @Test
+    void parse_shouldFail_whenBodyIsNotAckArray() {
+        // テストデータ：配列ではない応答と、途中で終了した配列
+        List<DataBuffer> object = List.of(buffer("{\"status\":\"ok\"}"));
+        List<DataBuffer> truncated = List.of(buffer("[true,"));
+
+        // 実行と検証：解析エラーはJsonProcessingExceptionとして通知され、バッファは解放される
+        StepVerifier.create(BatchAckParser.parse(Flux.fromIterable(object), 1))
+                .expectError(JsonProcessingException.class)
+                .verify();
+        StepVerifier.create(BatchAckParser.parse(Flux.fromIterable(truncated), 1))
+                .expectError(JsonProcessingException.class)
+                .verify();
+        assertReleased(object);
+        assertReleased(truncated);
+    }
+
+    private DataBuffer buffer(String text) {
+        return factory.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertReleased(List<DataBuffer> chunks) {
+        for (DataBuffer chunk : chunks) {
+            assertEquals(0, ((NettyDataBuffer) chunk).getNativeBuffer().refCnt());
+        }
+    }
+}
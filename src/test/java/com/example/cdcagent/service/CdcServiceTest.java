@@ -2,6 +2,7 @@ package com.example.cdcagent.service;
 
 import com.example.cdcagent.config.HulftSquareProperties;
 import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.ChangeEventBatch;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
@@ -13,9 +14,21 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -27,6 +40,9 @@ class CdcServiceTest {
     @Mock
     private HulftSquareService hulftSquareService;
 
+    @Mock
+    private DeadLetterService deadLetterService;
+
     @Mock
     private AgentStateManager stateManager;
 
@@ -36,10 +52,18 @@ class CdcServiceTest {
     @Mock
     private HulftSquareProperties.Api api;
 
+    private final HulftSquareProperties.Scheduler schedulerProperties = new HulftSquareProperties.Scheduler();
+
     // 実際のメトリクスレジストリを使用
     @Spy
     private MeterRegistry meterRegistry = new SimpleMeterRegistry();
 
+    // 遮断時間を短くしたサーキットブレーカー
+    private CircuitBreaker circuitBreaker;
+
+    // テスト用のイベントソース
+    private Sinks.Many<ChangeEventBatch> testSink;
+
     // テスト対象
     private CdcService cdcService;
 
@@ -48,15 +72,20 @@ class CdcServiceTest {
         // HulftSquarePropertiesの設定
         lenient().when(hulftSquareProperties.getApi()).thenReturn(api);
         lenient().when(api.getMaxInFlight()).thenReturn(100);
+        lenient().when(api.getLaneCount()).thenReturn(8);
+        lenient().when(hulftSquareProperties.getScheduler()).thenReturn(schedulerProperties);
         
         // テスト用のFluxを作成
-        Sinks.Many<ChangeEvent> testSink = Sinks.many().unicast().onBackpressureBuffer();
+        testSink = Sinks.many().unicast().onBackpressureBuffer();
         lenient().when(debeziumEngineService.getChangeEventFlux()).thenReturn(testSink.asFlux());
+        circuitBreaker = new CircuitBreaker(1, Duration.ofMillis(200), Schedulers.parallel(), meterRegistry);
+        lenient().when(hulftSquareService.getCircuitBreaker()).thenReturn(circuitBreaker);
         
         // テスト対象のインスタンスを作成
         cdcService = new CdcService(
                 debeziumEngineService,
                 hulftSquareService,
+                deadLetterService,
                 stateManager,
                 hulftSquareProperties,
                 meterRegistry);
@@ -159,4 +188,475 @@ class CdcServiceTest {
         assertEquals(0, successCounter.count());
         assertEquals(0, failedCounter.count());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void batch_shouldBeCompletedWithDeliveryResults() throws InterruptedException {
+        // モックの設定
+        ChangeEvent success = createTestEvent("event-1");
+        ChangeEvent failure = createTestEvent("event-2");
+        when(hulftSquareService.sendEvents(List.of(success))).thenReturn(Mono.just(List.of(true)));
+        when(hulftSquareService.sendEvents(List.of(failure))).thenReturn(Mono.just(List.of(false)));
+        cdcService.init();
+
+        // 実行
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(success, failure));
+        testSink.tryEmitNext(batch);
+
+        // 検証
+        awaitCompletion(batch);
+        assertFalse(batch.isSuccessful());
+        assertEquals(List.of(failure), batch.getFailedEvents());
+    }
+
+    @Test
+    void pipeline_shouldStopPullingEvents_whenCreditsAreExhausted() throws InterruptedException {
+        // モックの設定：同時実行数の上限を2にし、送信は手動で完了させる
+        when(api.getMaxInFlight()).thenReturn(2);
+        cdcService = new CdcService(debeziumEngineService, hulftSquareService, deadLetterService, stateManager, hulftSquareProperties, meterRegistry);
+        List<ChangeEvent> events = createEventsInDistinctLanes(3);
+        ChangeEvent first = events.get(0);
+        ChangeEvent second = events.get(1);
+        ChangeEvent third = events.get(2);
+        Sinks.One<Boolean> firstResponse = Sinks.one();
+        when(hulftSquareService.sendEvents(List.of(first))).thenReturn(firstResponse.asMono().map(List::of));
+        when(hulftSquareService.sendEvents(List.of(second))).thenReturn(Mono.never());
+        when(hulftSquareService.sendEvents(List.of(third))).thenReturn(Mono.just(List.of(true)));
+        cdcService.init();
+
+        // 実行
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second, third));
+        testSink.tryEmitNext(batch);
+
+        // 検証：上限に達している間は3件目を送信せず、破棄もしない
+        verify(hulftSquareService).sendEvents(List.of(first));
+        verify(hulftSquareService).sendEvents(List.of(second));
+        verify(hulftSquareService, never()).sendEvents(List.of(third));
+        assertEquals(0, meterRegistry.get("cdc.events.failed").counter().count());
+
+        // 実行：1件完了するとクレジットが返却される
+        firstResponse.tryEmitValue(true);
+
+        // 検証：3件目の取り出しで再び上限に達し、3件目の完了で解除されるため待機は2回記録される
+        verify(hulftSquareService).sendEvents(List.of(third));
+        assertEquals(2, meterRegistry.get("cdc.flow.credit.wait").timer().count());
+    }
+
+    @Test
+    void pipeline_shouldSendTransactionInOneRequestAfterPrecedingEventsOfItsRows() throws InterruptedException {
+        // モックの設定：異なるレーンの2行を変更するトランザクションと、その前後の同じ行のイベント
+        List<ChangeEvent> rows = createEventsInDistinctLanes(2);
+        ChangeEvent preceding = rows.get(0);
+        ChangeEvent following = rows.get(1);
+        ChangeEvent update1 = createTestEvent("tx-event-1");
+        ChangeEvent update2 = createTestEvent("tx-event-2");
+        update1.setKey(preceding.getKey());
+        update2.setKey(following.getKey());
+        Sinks.One<Boolean> precedingResponse = Sinks.one();
+        when(hulftSquareService.sendEvents(List.of(preceding))).thenReturn(precedingResponse.asMono().map(List::of));
+        when(hulftSquareService.sendEvents(List.of(update1, update2))).thenReturn(Mono.just(List.of(true, true)));
+        when(hulftSquareService.sendEvents(List.of(following))).thenReturn(Mono.just(List.of(true)));
+        cdcService.init();
+
+        // 実行
+        ChangeEventBatch transaction = new ChangeEventBatch(List.of(update1, update2), event -> { }, true);
+        testSink.tryEmitNext(new ChangeEventBatch(List.of(preceding)));
+        testSink.tryEmitNext(transaction);
+        testSink.tryEmitNext(new ChangeEventBatch(List.of(following)));
+
+        // 検証：トランザクションは先行するイベントの完了を待ち、後続のイベントも追い越さない
+        verify(hulftSquareService).sendEvents(List.of(preceding));
+        verify(hulftSquareService, never()).sendEvents(List.of(update1, update2));
+        verify(hulftSquareService, never()).sendEvents(List.of(following));
+
+        // 実行
+        precedingResponse.tryEmitValue(true);
+
+        // 検証：トランザクションのイベントは分割されずに1回の送信に含まれる
+        awaitCompletion(transaction);
+        assertTrue(transaction.isSuccessful());
+        var order = inOrder(hulftSquareService);
+        order.verify(hulftSquareService).sendEvents(List.of(update1, update2));
+        order.verify(hulftSquareService).sendEvents(List.of(following));
+        assertEquals(4, meterRegistry.get("cdc.events.processed").counter().count());
+    }
+
+    @Test
+    void pipeline_shouldDeliverEventsOfSameRowInOrder() throws InterruptedException {
+        // モックの設定：同じ主キーを持つ2件のイベント
+        ChangeEvent first = createTestEvent("event-1");
+        ChangeEvent second = createTestEvent("event-2");
+        first.setKey(Map.of("id", 1));
+        second.setKey(Map.of("id", 1));
+        Sinks.One<Boolean> firstResponse = Sinks.one();
+        when(hulftSquareService.sendEvents(List.of(first))).thenReturn(firstResponse.asMono().map(List::of));
+        when(hulftSquareService.sendEvents(List.of(second))).thenReturn(Mono.just(List.of(true)));
+        cdcService.init();
+
+        // 実行
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second));
+        testSink.tryEmitNext(batch);
+
+        // 検証：1件目の送信が完了するまで2件目は送信されない
+        verify(hulftSquareService).sendEvents(List.of(first));
+        verify(hulftSquareService, never()).sendEvents(List.of(second));
+        double depth = meterRegistry.find("cdc.lane.depth").gauges().stream()
+                .mapToDouble(gauge -> gauge.value())
+                .sum();
+        assertEquals(2.0, depth);
+
+        // 実行
+        firstResponse.tryEmitValue(true);
+
+        // 検証
+        awaitCompletion(batch);
+        assertTrue(batch.isSuccessful());
+        verify(hulftSquareService).sendEvents(List.of(second));
+    }
+
+    @Test
+    void pipeline_shouldSendQueuedEventsOfSameLaneTogether() throws InterruptedException {
+        // モックの設定：まとめて送信する件数の上限を10にする
+        when(api.getBatchMaxEvents()).thenReturn(10);
+        cdcService = new CdcService(debeziumEngineService, hulftSquareService, deadLetterService, stateManager, hulftSquareProperties, meterRegistry);
+        ChangeEvent first = createTestEvent("event-1");
+        ChangeEvent second = createTestEvent("event-2");
+        ChangeEvent third = createTestEvent("event-3");
+        Sinks.One<List<Boolean>> firstResponse = Sinks.one();
+        when(hulftSquareService.sendEvents(List.of(first))).thenReturn(firstResponse.asMono());
+        when(hulftSquareService.sendEvents(List.of(second, third))).thenReturn(Mono.just(List.of(true, false)));
+        cdcService.init();
+
+        // 実行：1件目の送信中に同じレーンへ2件滞留させる
+        testSink.tryEmitNext(new ChangeEventBatch(List.of(first)));
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(second, third));
+        testSink.tryEmitNext(batch);
+        verify(hulftSquareService).sendEvents(List.of(first));
+        firstResponse.tryEmitValue(List.of(true));
+
+        // 検証：滞留していた2件が順序通りに1回でまとめて送信され、結果はイベントごとに報告される
+        awaitCompletion(batch);
+        verify(hulftSquareService).sendEvents(List.of(second, third));
+        assertEquals(List.of(third), batch.getFailedEvents());
+    }
+
+    @Test
+    void replayDeadLetters_shouldSendThroughTableQueuesAndRemoveOnlyDelivered() {
+        // モックの設定：2件のデッドレターのうち1件目のみ再送に成功する
+        List<ChangeEvent> events = createEventsInDistinctLanes(2);
+        List<DeadLetterStore.DeadLetter> letters = List.of(
+                new DeadLetterStore.DeadLetter(1L, Instant.now(), "testdb.testtable", "HTTP 400", 10),
+                new DeadLetterStore.DeadLetter(2L, Instant.now(), "testdb.testtable", "HTTP 400", 10));
+        when(deadLetterService.find("testdb.testtable", null, null, 10)).thenReturn(letters);
+        when(deadLetterService.load(letters)).thenReturn(List.of(
+                new DeadLetterService.Replay(1L, events.get(0)),
+                new DeadLetterService.Replay(2L, events.get(1))));
+        when(hulftSquareService.sendEvents(List.of(events.get(0)))).thenReturn(Mono.just(List.of(true)));
+        when(hulftSquareService.sendEvents(List.of(events.get(1)))).thenReturn(Mono.just(List.of(false)));
+        cdcService.init();
+
+        // 実行と検証：失敗したデッドレターは削除しない
+        StepVerifier.create(cdcService.replayDeadLetters("testdb.testtable", null, null, 10))
+                .expectNext(new CdcService.ReplayResult(1, 1))
+                .verifyComplete();
+        verify(deadLetterService).markReplayed(List.of(1L));
+        // 送信に失敗してもデッドレターとして保存し直さないよう、再送するイベントであることを示す
+        assertTrue(events.get(0).isReplay());
+        assertTrue(events.get(1).isReplay());
+    }
+
+    @Test
+    void replayDeadLetters_shouldWaitForCredit_whileCircuitBreakerIsOpen() throws InterruptedException {
+        // モックの設定：遮断状態で再送する
+        ChangeEvent event = createTestEvent("event-1");
+        List<DeadLetterStore.DeadLetter> letters = List.of(
+                new DeadLetterStore.DeadLetter(1L, Instant.now(), "testdb.testtable", "HTTP 400", 10));
+        when(deadLetterService.find(null, null, null, 10)).thenReturn(letters);
+        when(deadLetterService.load(letters)).thenReturn(List.of(new DeadLetterService.Replay(1L, event)));
+        when(hulftSquareService.sendEvents(List.of(event))).thenReturn(Mono.just(List.of(true)));
+        circuitBreaker.onFailure();
+        cdcService.init();
+
+        // 実行
+        Mono<CdcService.ReplayResult> result = cdcService.replayDeadLetters(null, null, null, 10).cache();
+        result.subscribe();
+        Thread.sleep(100);
+
+        // 検証：遮断中は送信キューに留め、送信しない
+        assertEquals(1.0, meterRegistry.get("cdc.table.queue.backlog").tag("queue", "default").gauge().value());
+        verify(hulftSquareService, never()).sendEvents(any());
+
+        // 検証：試行状態に移行すると送信する
+        StepVerifier.create(result)
+                .expectNext(new CdcService.ReplayResult(1, 0))
+                .verifyComplete();
+        verify(deadLetterService).markReplayed(List.of(1L));
+    }
+
+    @Test
+    void replayDeadLetters_shouldAccessDiskOnBoundedElasticAndRejectConcurrentReplay() throws InterruptedException {
+        // モックの設定：遮断状態にして1回目の再送を送信キューに留める
+        ChangeEvent event = createTestEvent("event-1");
+        List<DeadLetterStore.DeadLetter> letters = List.of(
+                new DeadLetterStore.DeadLetter(1L, Instant.now(), "testdb.testtable", "HTTP 400", 10));
+        List<String> diskThreads = new CopyOnWriteArrayList<>();
+        when(deadLetterService.find(null, null, null, 10)).thenReturn(letters);
+        when(deadLetterService.load(letters)).thenAnswer(invocation -> {
+            diskThreads.add(Thread.currentThread().getName());
+            return List.of(new DeadLetterService.Replay(1L, event));
+        });
+        doAnswer(invocation -> diskThreads.add(Thread.currentThread().getName()))
+                .when(deadLetterService).markReplayed(any());
+        when(hulftSquareService.sendEvents(List.of(event))).thenReturn(Mono.just(List.of(true)));
+        circuitBreaker.onFailure();
+        cdcService.init();
+
+        // 実行：1回目の再送が完了する前に2回目の再送を要求する
+        Mono<CdcService.ReplayResult> first = cdcService.replayDeadLetters(null, null, null, 10).cache();
+        first.subscribe();
+        Thread.sleep(100);
+
+        // 検証：実行中の再送がある間は受け付けない
+        StepVerifier.create(cdcService.replayDeadLetters(null, null, null, 10))
+                .expectError(CdcService.ReplayInProgressException.class)
+                .verify();
+        StepVerifier.create(first)
+                .expectNext(new CdcService.ReplayResult(1, 0))
+                .verifyComplete();
+
+        // 検証：読み出しと削除は送信を完了したスレッドではなくboundedElasticで行う
+        assertEquals(2, diskThreads.size());
+        diskThreads.forEach(thread -> assertTrue(thread.startsWith("boundedElastic"), thread));
+
+        // 検証：完了後は再び受け付ける
+        StepVerifier.create(cdcService.replayDeadLetters(null, null, null, 10))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void pipeline_shouldPauseUpstream_whileCircuitBreakerIsOpen() throws InterruptedException {
+        // モックの設定：遮断状態にしてからパイプラインを開始する
+        ChangeEvent event = createTestEvent("event-1");
+        when(hulftSquareService.sendEvents(List.of(event))).thenReturn(Mono.just(List.of(true)));
+        circuitBreaker.onFailure();
+        cdcService.init();
+
+        // 実行
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(event));
+        testSink.tryEmitNext(batch);
+        Thread.sleep(100);
+
+        // 検証：遮断中は上流から取り出さない
+        assertEquals(CircuitBreaker.State.OPEN, cdcService.getCircuitBreakerState());
+        verify(hulftSquareService, never()).sendEvents(any());
+
+        // 検証：試行状態に移行すると取り出しを再開する
+        awaitCompletion(batch);
+        assertTrue(batch.isSuccessful());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, cdcService.getCircuitBreakerState());
+    }
+
+    @Test
+    void pipeline_shouldSendHigherPriorityTableFirst() throws InterruptedException {
+        // モックの設定：同時実行数の上限を1にし、ordersテーブルを優先度の高いキューに割り当てる
+        HulftSquareProperties.TableQueue critical = new HulftSquareProperties.TableQueue();
+        critical.setName("critical");
+        critical.setTables(List.of("testdb.orders"));
+        critical.setPriority(10);
+        schedulerProperties.setQueues(List.of(critical));
+        when(api.getMaxInFlight()).thenReturn(1);
+        cdcService = new CdcService(debeziumEngineService, hulftSquareService, deadLetterService, stateManager, hulftSquareProperties, meterRegistry);
+        List<ChangeEvent> events = createEventsInDistinctLanes(4);
+        ChangeEvent bulk1 = events.get(0);
+        ChangeEvent bulk2 = events.get(1);
+        ChangeEvent bulk3 = events.get(2);
+        ChangeEvent order = events.get(3);
+        order.setTable("orders");
+        Sinks.One<Boolean> bulkResponse = Sinks.one();
+        Sinks.One<Boolean> orderResponse = Sinks.one();
+        when(hulftSquareService.sendEvents(List.of(bulk1))).thenReturn(bulkResponse.asMono().map(List::of));
+        when(hulftSquareService.sendEvents(List.of(order))).thenReturn(orderResponse.asMono().map(List::of));
+        cdcService.init();
+
+        // 実行：一括更新されたテーブルのイベントの後ろに優先度の高いテーブルのイベントが続く
+        testSink.tryEmitNext(new ChangeEventBatch(List.of(bulk1, bulk2, bulk3, order)));
+
+        // 検証：送信中の1件を除き、送信キューに滞留している
+        verify(hulftSquareService).sendEvents(List.of(bulk1));
+        assertEquals(2.0, meterRegistry.get("cdc.table.queue.backlog").tag("queue", "default").gauge().value());
+        assertEquals(1.0, meterRegistry.get("cdc.table.queue.backlog").tag("queue", "critical").gauge().value());
+
+        // 実行：クレジットが返却される
+        bulkResponse.tryEmitValue(true);
+
+        // 検証：先に滞留していたイベントより優先度の高いテーブルのイベントを先に送信する
+        verify(hulftSquareService).sendEvents(List.of(order));
+        verify(hulftSquareService, never()).sendEvents(List.of(bulk2));
+        assertEquals(1, meterRegistry.get("cdc.table.queue.latency").tag("queue", "default").timer().count());
+    }
+
+    @Test
+    void pipeline_shouldCoalesceUpdatesOfSameRow_whenEnabled() throws InterruptedException {
+        // モックの設定：countersテーブルの同じ行の変更を50ミリ秒保留してまとめる
+        HulftSquareProperties.TableQueue counters = new HulftSquareProperties.TableQueue();
+        counters.setName("counters");
+        counters.setTables(List.of("testdb.counters"));
+        counters.setCoalesceMs(50);
+        schedulerProperties.setQueues(List.of(counters));
+        cdcService = new CdcService(debeziumEngineService, hulftSquareService, deadLetterService, stateManager, hulftSquareProperties, meterRegistry);
+        List<ChangeEvent> events = List.of(createTestEvent("event-1"), createTestEvent("event-2"), createTestEvent("event-3"));
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).setTable("counters");
+            events.get(i).setOperation(ChangeEvent.OperationType.UPDATE);
+            events.get(i).setKey(Map.of("id", 1));
+            events.get(i).setBefore(Map.of("n", i));
+            events.get(i).setAfter(Map.of("n", i + 1));
+            events.get(i).setTransactionId("tx-1");
+        }
+        when(hulftSquareService.sendEvents(any())).thenReturn(Mono.just(List.of(true)));
+        cdcService.init();
+
+        // 実行
+        ChangeEventBatch batch = new ChangeEventBatch(events);
+        testSink.tryEmitNext(batch);
+
+        // 検証：最初のbeforeと最後のafterを持つ1件のみ送信し、元の3件すべてが完了する
+        awaitCompletion(batch);
+        assertTrue(batch.isSuccessful());
+        verify(hulftSquareService).sendEvents(argThat(sent -> sent.size() == 1
+                && sent.get(0).getBefore().equals(Map.of("n", 0))
+                && sent.get(0).getAfter().equals(Map.of("n", 3))));
+        assertEquals(2.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+    }
+
+    @Test
+    void pipeline_shouldCoalesceCommittedTransactionsOfSameRow_whenEnabled() throws InterruptedException {
+        // モックの設定：countersテーブルの変更を200ミリ秒保留してまとめる
+        HulftSquareProperties.TableQueue counters = new HulftSquareProperties.TableQueue();
+        counters.setName("counters");
+        counters.setTables(List.of("testdb.counters"));
+        counters.setCoalesceMs(200);
+        schedulerProperties.setQueues(List.of(counters));
+        cdcService = new CdcService(debeziumEngineService, hulftSquareService, deadLetterService, stateManager, hulftSquareProperties, meterRegistry);
+        List<ChangeEvent> events = List.of(createTestEvent("event-1"), createTestEvent("event-2"), createTestEvent("event-3"));
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).setTable("counters");
+            events.get(i).setOperation(ChangeEvent.OperationType.UPDATE);
+            events.get(i).setKey(Map.of("id", 1));
+            events.get(i).setBefore(Map.of("n", i));
+            events.get(i).setAfter(Map.of("n", i + 1));
+        }
+        // 1つ目のトランザクションは同じ行を2回更新し、2つ目のトランザクションはもう1回更新する
+        events.get(0).setTransactionId("tx-1");
+        events.get(1).setTransactionId("tx-1");
+        events.get(1).setTransactionEventCount(2L);
+        events.get(2).setTransactionId("tx-2");
+        events.get(2).setTransactionEventCount(1L);
+        when(hulftSquareService.sendEvents(any())).thenReturn(Mono.just(List.of(true)));
+        cdcService.init();
+
+        // 実行
+        ChangeEventBatch first = new ChangeEventBatch(events.subList(0, 2), event -> { }, true);
+        ChangeEventBatch second = new ChangeEventBatch(events.subList(2, 3), event -> { }, true);
+        testSink.tryEmitNext(first);
+        testSink.tryEmitNext(second);
+
+        // 検証：両方のトランザクションを後のコミット時点の1件にまとめて送信し、元のイベントすべてが完了する
+        awaitCompletion(first);
+        awaitCompletion(second);
+        assertTrue(first.isSuccessful());
+        assertTrue(second.isSuccessful());
+        verify(hulftSquareService).sendEvents(argThat(sent -> sent.size() == 1
+                && sent.get(0).getBefore().equals(Map.of("n", 0))
+                && sent.get(0).getAfter().equals(Map.of("n", 3))
+                && sent.get(0).getTransactionId().equals("tx-2")));
+        verify(hulftSquareService, times(1)).sendEvents(any());
+        assertEquals(2.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+    }
+
+    @Test
+    void pipeline_shouldKeepRowOrder_whenTransactionsSpanTableQueues() throws InterruptedException {
+        // モックの設定：ordersは100ミリ秒保留するキュー、stockは保留しないキューとし、同じ在庫の行を変更する2つのトランザクション
+        HulftSquareProperties.TableQueue orders = new HulftSquareProperties.TableQueue();
+        orders.setName("orders");
+        orders.setTables(List.of("testdb.orders"));
+        orders.setCoalesceMs(100);
+        HulftSquareProperties.TableQueue stock = new HulftSquareProperties.TableQueue();
+        stock.setName("stock");
+        stock.setTables(List.of("testdb.stock"));
+        schedulerProperties.setQueues(List.of(orders, stock));
+        cdcService = new CdcService(debeziumEngineService, hulftSquareService, deadLetterService, stateManager, hulftSquareProperties, meterRegistry);
+        ChangeEvent order1 = createTableEvent("order-1", "orders", 1);
+        ChangeEvent stock1 = createTableEvent("stock-1", "stock", 7);
+        ChangeEvent stock2 = createTableEvent("stock-2", "stock", 7);
+        ChangeEvent order2 = createTableEvent("order-2", "orders", 2);
+        List<String> sent = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
+        when(hulftSquareService.sendEvents(any())).thenAnswer(invocation -> {
+            List<ChangeEvent> events = invocation.getArgument(0);
+            events.forEach(event -> sent.add(event.getId()));
+            return Mono.just(events.stream().map(event -> true).toList());
+        });
+        cdcService.init();
+
+        // 実行：1つ目はordersのキュー、2つ目はstockのキューに入るトランザクション
+        ChangeEventBatch first = new ChangeEventBatch(List.of(order1, stock1), event -> { }, true);
+        ChangeEventBatch second = new ChangeEventBatch(List.of(stock2, order2), event -> { }, true);
+        testSink.tryEmitNext(first);
+        testSink.tryEmitNext(second);
+
+        // 検証：保留されていない2つ目のトランザクションも、同じ行を先に変更した1つ目を追い越さない
+        awaitCompletion(first);
+        awaitCompletion(second);
+        assertTrue(first.isSuccessful());
+        assertTrue(second.isSuccessful());
+        assertTrue(sent.indexOf("stock-1") < sent.indexOf("stock-2"), "送信順: " + sent);
+        assertEquals(0, meterRegistry.get("cdc.table.queue.backlog").tag("queue", "stock").gauge().value());
+    }
+
+    private ChangeEvent createTableEvent(String id, String table, int key) {
+        ChangeEvent event = createTestEvent(id);
+        event.setTable(table);
+        event.setOperation(ChangeEvent.OperationType.UPDATE);
+        event.setKey(Map.of("id", key));
+        event.setTransactionId(id);
+        return event;
+    }
+
+    private List<ChangeEvent> createEventsInDistinctLanes(int count) {
+        try {
+            java.lang.reflect.Method laneOf = CdcService.class.getDeclaredMethod("laneOf", ChangeEvent.class);
+            laneOf.setAccessible(true);
+
+            List<ChangeEvent> events = new java.util.ArrayList<>();
+            java.util.Set<Object> lanes = new java.util.HashSet<>();
+            for (int id = 0; events.size() < count; id++) {
+                ChangeEvent event = createTestEvent("event-" + id);
+                event.setKey(Map.of("id", id));
+                if (lanes.add(laneOf.invoke(cdcService, event))) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } catch (Exception e) {
+            throw new IllegalStateException("リフレクションによるレーン算出に失敗", e);
+        }
+    }
+
+    private void awaitCompletion(ChangeEventBatch batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!batch.isCompleted() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(batch.isCompleted(), "バッチが完了していません: " + batch);
+    }
+
+    private ChangeEvent createTestEvent(String id) {
+        ChangeEvent event = new ChangeEvent();
+        event.setId(id);
+        event.setType("mysql");
+        event.setDatabase("testdb");
+        event.setTable("testtable");
+        event.setOperation(ChangeEvent.OperationType.INSERT);
+        return event;
+    }
+}
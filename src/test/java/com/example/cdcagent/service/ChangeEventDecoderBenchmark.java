@@ -0,0 +1,110 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ストリーミングデコーダーとツリーモデルによる解析の比較ベンチマーク
+ * 実行: テストクラスパスで main を実行する（-prof gc を付けると割り当て量も比較できる）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeEventDecoderBenchmark {
+
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {
+    };
+
+    @Param({"10", "80"})
+    private int columns;
+
+    private String record;
+    private ChangeEventDecoder decoder;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setUp() {
+        decoder = new ChangeEventDecoder();
+        objectMapper = new ObjectMapper();
+        record = createRecord(columns);
+    }
+
+    @Benchmark
+    public ChangeEvent streaming() throws IOException {
+        return decoder.decode(record);
+    }
+
+    @Benchmark
+    public ChangeEvent treeModel() throws IOException {
+        JsonNode root = objectMapper.readTree(record);
+        JsonNode payload = root.path("payload");
+        JsonNode source = payload.path("source");
+
+        ChangeEvent event = new ChangeEvent();
+        event.setType("mysql");
+        event.setDatabase(source.path("db").asText());
+        event.setTable(source.path("table").asText());
+        event.setOperation(ChangeEvent.OperationType.UPDATE);
+        event.setTimestamp(Instant.ofEpochMilli(source.path("ts_ms").asLong()));
+        event.setBefore(objectMapper.convertValue(payload.path("before"), ROW_TYPE));
+        event.setAfter(objectMapper.convertValue(payload.path("after"), ROW_TYPE));
+        return event;
+    }
+
+    /**
+     * Debeziumが出力するUPDATEイベントと同じ形のレコードを作成
+     */
+    static String createRecord(int columns) {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder before = new StringBuilder();
+        StringBuilder after = new StringBuilder();
+        for (int i = 0; i < columns; i++) {
+            String sep = i == 0 ? "" : ",";
+            if (i % 3 == 0) {
+                fields.append(sep).append("{\"type\":\"int64\",\"optional\":false,\"field\":\"col").append(i).append("\"}");
+                before.append(sep).append("\"col").append(i).append("\":").append(1000000L + i);
+                after.append(sep).append("\"col").append(i).append("\":").append(2000000L + i);
+            } else if (i % 3 == 1) {
+                fields.append(sep).append("{\"type\":\"string\",\"optional\":true,\"field\":\"col").append(i).append("\"}");
+                before.append(sep).append("\"col").append(i).append("\":\"value-").append(i).append("-before\"");
+                after.append(sep).append("\"col").append(i).append("\":\"value-").append(i).append("-after\"");
+            } else {
+                fields.append(sep).append("{\"type\":\"double\",\"optional\":true,\"field\":\"col").append(i).append("\"}");
+                before.append(sep).append("\"col").append(i).append("\":").append(i * 1.25);
+                after.append(sep).append("\"col").append(i).append("\":").append(i * 2.5);
+            }
+        }
+
+        return "{\"schema\":{\"type\":\"struct\",\"fields\":["
+                + "{\"type\":\"struct\",\"fields\":[" + fields + "],\"optional\":true,\"name\":\"mysql.testdb.orders.Value\",\"field\":\"before\"},"
+                + "{\"type\":\"struct\",\"fields\":[" + fields + "],\"optional\":true,\"name\":\"mysql.testdb.orders.Value\",\"field\":\"after\"}"
+                + "],\"optional\":false,\"name\":\"mysql.testdb.orders.Envelope\"},"
+                + "\"payload\":{\"before\":{" + before + "},\"after\":{" + after + "},"
+                + "\"source\":{\"version\":\"2.5.0.Final\",\"connector\":\"mysql\",\"name\":\"mysql-server-1\",\"ts_ms\":1700000000000,"
+                + "\"snapshot\":\"false\",\"db\":\"testdb\",\"sequence\":null,\"table\":\"orders\",\"server_id\":1,"
+                + "\"gtid\":null,\"file\":\"mysql-bin.000003\",\"pos\":154,\"row\":0,\"thread\":7,\"query\":null},"
+                + "\"op\":\"u\",\"ts_ms\":1700000000123,\"transaction\":null}}";
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChangeEventDecoderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
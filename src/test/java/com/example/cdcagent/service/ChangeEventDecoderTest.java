@@ -0,0 +1,175 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.CompactRow;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeEventDecoderTest {
+
+    private final ChangeEventDecoder decoder = new ChangeEventDecoder();
+
+    @Test
+    void decode_shouldReadInsertFromSchemaEnvelope() throws IOException {
+        // テストデータ
+        String json = "{\"schema\":{\"type\":\"struct\",\"fields\":[{\"type\":\"struct\",\"fields\":[{\"type\":\"int32\",\"field\":\"id\"}],\"field\":\"before\"}],\"name\":\"x.Envelope\"},"
+                + "\"payload\":{\"before\":null,"
+                + "\"after\":{\"id\":1,\"name\":\"Alice\",\"score\":12.5,\"active\":true,\"note\":null},"
+                + "\"source\":{\"version\":\"2.5.0.Final\",\"connector\":\"mysql\",\"ts_ms\":1700000000000,\"db\":\"testdb\",\"table\":\"users\",\"file\":\"mysql-bin.000003\",\"pos\":154},"
+                + "\"op\":\"c\",\"ts_ms\":1700000000123,\"transaction\":null}}";
+
+        // 実行
+        ChangeEvent event = decoder.decode(json);
+
+        // 検証
+        assertNotNull(event);
+        assertEquals("mysql", event.getType());
+        assertEquals("testdb", event.getDatabase());
+        assertEquals("users", event.getTable());
+        assertEquals(ChangeEvent.OperationType.INSERT, event.getOperation());
+        assertEquals(Instant.ofEpochMilli(1700000000000L), event.getTimestamp());
+        assertNull(event.getBefore());
+        assertEquals(1, event.getAfter().get("id"));
+        assertEquals("Alice", event.getAfter().get("name"));
+        assertEquals(12.5, event.getAfter().get("score"));
+        assertEquals(true, event.getAfter().get("active"));
+        assertTrue(event.getAfter().containsKey("note"));
+        assertNull(event.getAfter().get("note"));
+    }
+
+    @Test
+    void decode_shouldReadUpdateWithoutSchema() throws IOException {
+        // テストデータ（schemas.enable=false）
+        String json = "{\"before\":{\"id\":1,\"tags\":[\"a\",\"b\"]},\"after\":{\"id\":1,\"tags\":[\"a\"]},"
+                + "\"source\":{\"db\":\"testdb\",\"table\":\"items\"},\"op\":\"u\",\"ts_ms\":1700000000500,"
+                + "\"transaction\":{\"id\":\"tx-1\",\"total_order\":3,\"data_collection_order\":1}}";
+
+        // 実行
+        ChangeEvent event = decoder.decode(json);
+
+        // 検証
+        assertNotNull(event);
+        assertEquals(ChangeEvent.OperationType.UPDATE, event.getOperation());
+        assertEquals(List.of("a", "b"), event.getBefore().get("tags"));
+        assertEquals(List.of("a"), event.getAfter().get("tags"));
+        // sourceにts_msが無い場合はペイロードのts_msを使用
+        assertEquals(Instant.ofEpochMilli(1700000000500L), event.getTimestamp());
+        assertEquals("tx-1", event.getTransactionId());
+        assertEquals(3L, event.getTransactionOrder());
+    }
+
+    @Test
+    void decode_shouldShareColumnTableBetweenRowsOfSameLayout() throws IOException {
+        // テストデータ：同じ列構成のUPDATEイベントを2件
+        String json = "{\"payload\":{\"before\":{\"id\":1,\"qty\":3000000000,\"price\":1.5},"
+                + "\"after\":{\"id\":1,\"qty\":3000000001,\"price\":2.5},\"source\":{\"db\":\"d\",\"table\":\"t\"},\"op\":\"u\"}}";
+
+        // 実行
+        ChangeEvent first = decoder.decode(json);
+        ChangeEvent second = decoder.decode(json);
+
+        // 検証：行は列名の表を共有し、数値はプリミティブで保持したまま従来と同じ型で参照できる
+        CompactRow before = assertInstanceOf(CompactRow.class, first.getBefore());
+        CompactRow after = assertInstanceOf(CompactRow.class, first.getAfter());
+        assertSame(before.columns(), after.columns());
+        assertSame(before.columns(), ((CompactRow) second.getAfter()).columns());
+        assertEquals(3000000001L, after.get("qty"));
+        assertEquals(2.5, after.get("price"));
+        assertFalse(before.valueEquals(1, after));
+        assertTrue(before.valueEquals(0, after));
+    }
+
+    @Test
+    void decode_shouldMapSnapshotReadToInsertAndDeleteToDelete() throws IOException {
+        // 実行
+        ChangeEvent read = decoder.decode("{\"payload\":{\"after\":{\"id\":2},\"source\":{\"db\":\"d\",\"table\":\"t\"},\"op\":\"r\"}}");
+        ChangeEvent delete = decoder.decode("{\"payload\":{\"before\":{\"id\":2},\"after\":null,\"source\":{\"db\":\"d\",\"table\":\"t\"},\"op\":\"d\"}}");
+
+        // 検証
+        assertEquals(ChangeEvent.OperationType.INSERT, read.getOperation());
+        assertEquals(ChangeEvent.OperationType.DELETE, delete.getOperation());
+        assertEquals(Map.of("id", 2), delete.getBefore());
+        assertNull(delete.getAfter());
+    }
+
+    @Test
+    void decode_shouldDeriveIdFromBinlogCoordinates() throws IOException {
+        // テストデータ：同じイベント内の2行目と、スナップショットの行
+        String row = "{\"payload\":{\"after\":{\"id\":1},\"source\":{\"server_id\":223344,\"gtid\":null,"
+                + "\"file\":\"mysql-bin.000003\",\"pos\":484,\"row\":1,\"snapshot\":\"false\",\"db\":\"d\",\"table\":\"t\"},\"op\":\"u\"}}";
+        String snapshot = "{\"payload\":{\"after\":{\"id\":1},\"source\":{\"server_id\":0,"
+                + "\"file\":\"mysql-bin.000003\",\"pos\":154,\"row\":0,\"snapshot\":\"true\",\"db\":\"d\",\"table\":\"t\"},\"op\":\"r\"}}";
+
+        // 実行と検証：再取得しても同じIDになり、位置が一意にならないスナップショットの行にはIDを設定しない
+        assertEquals("223344-mysql-bin.000003-484-1", decoder.decode(row).getId());
+        assertEquals(decoder.decode(row).getId(), decoder.decode(row).getId());
+        assertNull(decoder.decode(snapshot).getId());
+    }
+
+    @Test
+    void decode_shouldReturnNullForNonRowRecords() throws IOException {
+        // スキーマ変更イベント
+        assertNull(decoder.decode("{\"schema\":{},\"payload\":{\"source\":{\"db\":\"d\"},\"databaseName\":\"d\",\"ddl\":\"ALTER TABLE t ADD c INT\",\"tableChanges\":[]}}"));
+        // ハートビート
+        assertNull(decoder.decode("{\"schema\":{},\"payload\":{\"ts_ms\":1700000000000}}"));
+        // トランケート
+        assertNull(decoder.decode("{\"payload\":{\"source\":{\"db\":\"d\",\"table\":\"t\"},\"op\":\"t\"}}"));
+        // 値なし
+        assertNull(decoder.decode(null));
+    }
+
+    @Test
+    void decodeSchemaChange_shouldReadTargetTablesOfDdl() throws IOException {
+        // 実行
+        ChangeEventDecoder.SchemaChange alter = decoder.decodeSchemaChange("{\"schema\":{},\"payload\":{\"source\":{\"db\":\"d\"},"
+                + "\"databaseName\":\"d\",\"ddl\":\"ALTER TABLE t ADD c INT\",\"tableChanges\":[{\"type\":\"ALTER\","
+                + "\"id\":\"\\\"d\\\".\\\"t\\\"\",\"table\":{\"columns\":[{\"name\":\"c\"}]}}]}}");
+        ChangeEventDecoder.SchemaChange create = decoder.decodeSchemaChange(
+                "{\"databaseName\":\"d\",\"ddl\":\"CREATE DATABASE d\",\"tableChanges\":[]}");
+
+        // 検証
+        assertEquals(new ChangeEventDecoder.SchemaChange("d", List.of("t")), alter);
+        assertEquals(new ChangeEventDecoder.SchemaChange("d", List.of()), create);
+        // スキーマ変更ではないレコード
+        assertNull(decoder.decodeSchemaChange("{\"schema\":{},\"payload\":{\"ts_ms\":1700000000000}}"));
+    }
+
+    @Test
+    void decodeTransaction_shouldReadBeginAndEndMarkers() throws IOException {
+        // 実行
+        ChangeEventDecoder.TransactionMarker begin = decoder.decodeTransaction("{\"schema\":{},\"payload\":{\"status\":\"BEGIN\","
+                + "\"id\":\"mysql-bin.000003:1024\",\"event_count\":null,\"data_collections\":null,\"ts_ms\":1700000000000}}");
+        ChangeEventDecoder.TransactionMarker end = decoder.decodeTransaction("{\"status\":\"END\",\"id\":\"mysql-bin.000003:1024\","
+                + "\"event_count\":3,\"data_collections\":[{\"data_collection\":\"d.t\",\"event_count\":3}],\"ts_ms\":1700000000000}");
+
+        // 検証
+        assertEquals(new ChangeEventDecoder.TransactionMarker("mysql-bin.000003:1024", false, -1L), begin);
+        assertEquals(new ChangeEventDecoder.TransactionMarker("mysql-bin.000003:1024", true, 3L), end);
+        // メタデータレコードではないレコード
+        assertNull(decoder.decodeTransaction("{\"payload\":{\"after\":{\"id\":1},\"source\":{\"db\":\"d\",\"table\":\"t\"},\"op\":\"c\"}}"));
+        // トランザクションの開始・終了はイベントに変換しない
+        assertNull(decoder.decode("{\"status\":\"BEGIN\",\"id\":\"mysql-bin.000003:1024\",\"event_count\":null}"));
+    }
+
+    @Test
+    void decodeKey_shouldReadPrimaryKeyColumns() throws IOException {
+        // スキーマ付き
+        assertEquals(Map.of("id", 1, "tenant", "a"), decoder.decodeKey(
+                "{\"schema\":{\"type\":\"struct\",\"fields\":[{\"type\":\"int32\",\"field\":\"id\"}]},\"payload\":{\"id\":1,\"tenant\":\"a\"}}"));
+        // スキーマなし
+        assertEquals(Map.of("id", 2), decoder.decodeKey("{\"id\":2}"));
+        // キーなし
+        assertNull(decoder.decodeKey(null));
+    }
+
+    @Test
+    void decode_shouldThrowOnMalformedJson() {
+        assertThrows(IOException.class, () -> decoder.decode("{\"payload\":{\"op\":"));
+    }
+}
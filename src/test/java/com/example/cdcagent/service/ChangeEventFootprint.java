@@ -0,0 +1,63 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * バッファに滞留するイベント1件あたりのヒープ使用量を、行をCompactRowで保持した場合とLinkedHashMapで保持した場合で比較する
+ * 同じレコードを指定件数デコードして保持し、GC後のヒープ使用量の増分を件数で割って求める（文字列の値は両者とも含む）
+ * 実行: テストクラスパスで main を実行する（引数: 列数 件数、-Xmx を十分に確保すること）
+ */
+public class ChangeEventFootprint {
+
+    public static void main(String[] args) throws IOException {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        String record = ChangeEventDecoderBenchmark.createRecord(columns);
+        ChangeEventDecoder decoder = new ChangeEventDecoder();
+
+        long compact = measure(count, () -> decoder.decode(record));
+        long boxed = measure(count, () -> {
+            ChangeEvent event = decoder.decode(record);
+            event.setBefore(new LinkedHashMap<>(event.getBefore()));
+            event.setAfter(new LinkedHashMap<>(event.getAfter()));
+            return event;
+        });
+        System.out.printf("columns=%d events=%d LinkedHashMap=%d bytes/event CompactRow=%d bytes/event%n",
+                columns, count, boxed, compact);
+    }
+
+    private static long measure(int count, EventSupplier supplier) throws IOException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<ChangeEvent> retained = new ArrayList<>(count);
+        // 列名の表の登録などの初回のみの割り当てを除く
+        supplier.get();
+        long before = usedAfterGc(memory);
+        for (int i = 0; i < count; i++) {
+            retained.add(supplier.get());
+        }
+        long after = usedAfterGc(memory);
+        if (retained.size() != count) {
+            throw new IllegalStateException();
+        }
+        return (after - before) / count;
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @FunctionalInterface
+    private interface EventSupplier {
+        ChangeEvent get() throws IOException;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void onFailure_shouldOpenAfterConsecutiveFailures() {
+        // テストデータ
+        CircuitBreaker breaker = new CircuitBreaker(3, Duration.ofSeconds(10), scheduler, meterRegistry);
+
+        // 実行：成功を挟むと連続失敗回数はリセットされる
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        // 検証
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+
+        // 実行
+        breaker.onFailure();
+
+        // 検証
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1.0, meterRegistry.get("hulft.square.circuit.rejected").counter().count());
+    }
+
+    @Test
+    void halfOpen_shouldAllowSingleProbe() {
+        // テストデータ
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofSeconds(10), scheduler, meterRegistry);
+        List<CircuitBreaker.State> transitions = new CopyOnWriteArrayList<>();
+        breaker.addListener(transitions::add);
+        breaker.onFailure();
+
+        // 実行：遮断時間が経過すると試行状態になる
+        scheduler.advanceTimeBy(Duration.ofSeconds(10));
+
+        // 検証：試行リクエストは1件のみ許可される
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        // 実行：試行リクエストが取り消された場合は次のリクエストを試行として許可する
+        breaker.onCancel();
+
+        // 検証
+        assertTrue(breaker.tryAcquire());
+
+        // 実行：試行リクエストの成功で復旧する
+        breaker.onSuccess();
+
+        // 検証
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(List.of(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED), transitions);
+        assertEquals(1.0, meterRegistry.get("hulft.square.circuit.transitions").tag("to", "closed").counter().count());
+    }
+
+    @Test
+    void halfOpen_shouldReopen_whenProbeFails() {
+        // テストデータ
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofSeconds(10), scheduler, meterRegistry);
+        breaker.onFailure();
+        scheduler.advanceTimeBy(Duration.ofSeconds(10));
+        assertTrue(breaker.tryAcquire());
+
+        // 実行
+        breaker.onFailure();
+
+        // 検証：再度遮断され、遮断時間は再遮断の時点から数える
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        scheduler.advanceTimeBy(Duration.ofSeconds(5));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        scheduler.advanceTimeBy(Duration.ofSeconds(5));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(1.0, meterRegistry.get("hulft.square.circuit.state").tag("state", "half_open").gauge().value());
+    }
+}
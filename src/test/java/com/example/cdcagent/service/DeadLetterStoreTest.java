@@ -0,0 +1,112 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadLetterStoreTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void find_shouldFilterByTableAndTime() throws Exception {
+        try (DeadLetterStore store = new DeadLetterStore(directory)) {
+            // テストデータ：保存時刻が異なる2回に分けて保存する
+            List<DeadLetterStore.DeadLetter> first = store.append(List.of(
+                    record("db.orders", "o-1"), record("db.users", "u-1")));
+            Thread.sleep(5);
+            Instant boundary = Instant.now();
+            Thread.sleep(5);
+            List<DeadLetterStore.DeadLetter> second = store.append(List.of(record("db.orders", "o-2")));
+
+            // 検証：テーブル別
+            assertEquals(List.of(first.get(0), second.get(0)), store.find("db.orders", null, null, 10));
+            assertEquals(2, store.count("db.orders", null, null));
+            assertEquals(0, store.count("db.unknown", null, null));
+
+            // 検証：時刻別
+            assertEquals(List.of(second.get(0)), store.find(null, boundary, null, 10));
+            assertEquals(2, store.count(null, null, boundary));
+            assertEquals(1, store.count("db.orders", boundary, null));
+
+            // 検証：件数の上限と読み出し
+            assertEquals(List.of(first.get(0)), store.find(null, null, null, 1));
+            assertEquals("u-1", new String(store.read(first.get(1).id()), StandardCharsets.UTF_8));
+            assertEquals("HTTP 400", first.get(1).reason());
+        }
+    }
+
+    @Test
+    void remove_shouldPersistAcrossRestart() throws IOException {
+        // テストデータ
+        List<DeadLetterStore.DeadLetter> letters;
+        try (DeadLetterStore store = new DeadLetterStore(directory)) {
+            letters = store.append(List.of(record("db.a", "a"), record("db.b", "b"), record("db.a", "c")));
+
+            // 実行
+            store.remove(List.of(letters.get(0).id()));
+
+            // 検証
+            assertEquals(2, store.size());
+            assertNull(store.read(letters.get(0).id()));
+        }
+
+        // 実行：再起動時に削除済みのレコードを取り除いて書き直す
+        try (DeadLetterStore reopened = new DeadLetterStore(directory)) {
+            // 検証
+            assertEquals(List.of(letters.get(1), letters.get(2)), reopened.find(null, null, null, 10));
+            assertEquals("c", new String(reopened.read(letters.get(2).id()), StandardCharsets.UTF_8));
+
+            // 検証：IDは再起動後も重複しない
+            DeadLetterStore.DeadLetter next = reopened.append(List.of(record("db.a", "d"))).get(0);
+            assertTrue(next.id() > letters.get(2).id());
+
+            // 実行：すべて削除するとログファイルが空になる
+            reopened.remove(List.of(letters.get(1).id(), letters.get(2).id(), next.id()));
+
+            // 検証
+            assertEquals(0, reopened.size());
+            assertEquals(0, reopened.diskBytes());
+        }
+    }
+
+    @Test
+    void constructor_shouldTruncateCorruptedTail() throws IOException {
+        // テストデータ：2件目の末尾を書き換える
+        try (DeadLetterStore store = new DeadLetterStore(directory)) {
+            store.append(List.of(record("db.a", "first")));
+            store.append(List.of(record("db.a", "second")));
+        }
+        Path file = directory.resolve("dead-letters.log");
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(java.nio.ByteBuffer.wrap(new byte[]{'X'}), size - 1);
+        }
+
+        // 実行
+        try (DeadLetterStore reopened = new DeadLetterStore(directory)) {
+            // 検証：壊れたレコード以降は破棄され、追記は正常なレコードの後ろに続く
+            assertEquals(1, reopened.size());
+            reopened.append(List.of(record("db.a", "third")));
+            assertEquals(2, reopened.size());
+        }
+        try (DeadLetterStore reopened = new DeadLetterStore(directory)) {
+            assertEquals(2, reopened.size());
+        }
+    }
+
+    private static DeadLetterStore.Record record(String table, String payload) {
+        return new DeadLetterStore.Record(table, "HTTP 400", payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
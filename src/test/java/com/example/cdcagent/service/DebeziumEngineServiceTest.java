@@ -1,25 +1,36 @@
 package com.example.cdcagent.service;
 
 import com.example.cdcagent.config.DebeziumProperties;
+import com.example.cdcagent.model.ChangeEventBatch;
 import io.debezium.config.Configuration;
 import io.debezium.engine.ChangeEvent;
 import io.debezium.engine.DebeziumEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -46,6 +57,19 @@ class DebeziumEngineServiceTest {
     @Mock
     private ExecutorService executorService;
 
+    private final DebeziumProperties.Buffer buffer = new DebeziumProperties.Buffer();
+
+    private final DebeziumProperties.Dedupe dedupe = new DebeziumProperties.Dedupe();
+
+    private final DebeziumProperties.Transaction transaction = new DebeziumProperties.Transaction();
+
+    private final DebeziumProperties.Redelivery redelivery = new DebeziumProperties.Redelivery();
+
+    @TempDir
+    private Path tempDir;
+
+    private MeterRegistry meterRegistry;
+
     private DebeziumEngineService debeziumEngineService;
 
     @BeforeEach
@@ -54,6 +78,10 @@ class DebeziumEngineServiceTest {
         lenient().when(debeziumProperties.getConnector()).thenReturn(connector);
         lenient().when(debeziumProperties.getSource()).thenReturn(source);
         lenient().when(source.getDatabase()).thenReturn(database);
+        lenient().when(debeziumProperties.getBuffer()).thenReturn(buffer);
+        lenient().when(debeziumProperties.getDedupe()).thenReturn(dedupe);
+        lenient().when(debeziumProperties.getTransaction()).thenReturn(transaction);
+        lenient().when(debeziumProperties.getRedelivery()).thenReturn(redelivery);
         
         lenient().when(connector.getName()).thenReturn("mysql-connector");
         lenient().when(database.getHostname()).thenReturn("localhost");
@@ -71,7 +99,8 @@ class DebeziumEngineServiceTest {
         lenient().when(connector.getProperties()).thenReturn(props);
         
         // テスト用のDebeziumEngineServiceインスタンスを作成
-        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager);
+        meterRegistry = new SimpleMeterRegistry();
+        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager, meterRegistry);
         
         // テスト用のprivateフィールドを設定するため、リフレクションを使用
         java.lang.reflect.Field engineField = DebeziumEngineService.class.getDeclaredField("engine");
@@ -133,7 +162,7 @@ class DebeziumEngineServiceTest {
     @Test
     void init_shouldCreateDebeziumEngineWithCorrectConfiguration() throws Exception {
         // モックの設定
-        DebeziumEngineService spyService = spy(new DebeziumEngineService(debeziumProperties, stateManager));
+        DebeziumEngineService spyService = spy(new DebeziumEngineService(debeziumProperties, stateManager, new SimpleMeterRegistry()));
         
         // テスト準備：createDebeziumConfigurationメソッドをモック化
         java.lang.reflect.Method createConfigMethod = DebeziumEngineService.class.getDeclaredMethod("createDebeziumConfiguration");
@@ -152,6 +181,484 @@ class DebeziumEngineServiceTest {
         assertEquals(".*", props.getProperty("database.include.list"));
         assertEquals(".*", props.getProperty("table.include.list"));
         assertEquals("true", props.getProperty("include.schema.changes"));
+        assertEquals("true", props.getProperty("provide.transaction.metadata"));
         assertEquals("org.apache.kafka.connect.storage.FileOffsetBackingStore", props.getProperty("offset.storage"));
     }
-} 
\ No newline at end of file
+
+    @Test
+    void handleBatch_shouldCommitOffsetsOnlyAfterBatchIsDelivered() throws InterruptedException {
+        // モックの設定
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+        ChangeEvent<String, String> record1 = createRecord(1);
+        ChangeEvent<String, String> record2 = createRecord(2);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+
+        // 実行：送信完了前はコミットされない
+        debeziumEngineService.handleBatch(List.of(record1, record2), committer);
+
+        // 検証
+        awaitSize(emitted, 1);
+        assertEquals(2, emitted.get(0).size());
+        assertEquals("users", emitted.get(0).getEvents().get(0).getTable());
+        verify(committer, never()).markProcessed(any());
+
+        // 実行：送信完了後の次のポーリングでコミットされる
+        emitted.get(0).getEvents().forEach(event -> emitted.get(0).markDelivered(event, true));
+        debeziumEngineService.handleBatch(List.of(), committer);
+
+        // 検証
+        verify(committer).markProcessed(record1);
+        verify(committer).markProcessed(record2);
+        verify(committer).markBatchFinished();
+    }
+
+    @Test
+    void handleBatch_shouldRedeliverFailedEventsWithoutCommitting() throws InterruptedException {
+        // モックの設定
+        redelivery.setInitialBackoffMs(0);
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+        ChangeEvent<String, String> record1 = createRecord(1);
+        ChangeEvent<String, String> record2 = createRecord(2);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        debeziumEngineService.handleBatch(List.of(record1, record2), committer);
+        awaitSize(emitted, 1);
+
+        // 実行：1件のみ失敗
+        ChangeEventBatch first = emitted.get(0);
+        first.markDelivered(first.getEvents().get(0), true);
+        first.markDelivered(first.getEvents().get(1), false);
+        debeziumEngineService.handleBatch(List.of(), committer);
+
+        // 検証：失敗したイベントのみ再送され、失敗したレコードはコミットされない
+        awaitSize(emitted, 2);
+        assertEquals(List.of(first.getEvents().get(1)), emitted.get(1).getEvents());
+        verify(committer).markProcessed(record1);
+        verify(committer, never()).markProcessed(record2);
+
+        // 実行：再送が成功するとコミットされる
+        emitted.get(1).markDelivered(first.getEvents().get(1), true);
+        debeziumEngineService.handleBatch(List.of(), committer);
+
+        // 検証
+        verify(committer).markProcessed(record2);
+    }
+
+    @Test
+    void handleBatch_shouldBackOffBeforeRedelivering() throws InterruptedException {
+        // モックの設定：失敗してから200ミリ秒後に再送する
+        redelivery.setInitialBackoffMs(200);
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        debeziumEngineService.handleBatch(List.of(createRecord(1)), committer);
+        awaitSize(emitted, 1);
+        emitted.get(0).markDelivered(emitted.get(0).getEvents().get(0), false);
+
+        // 実行と検証：待機時間が経過するまでは再送しない
+        debeziumEngineService.handleBatch(List.of(), committer);
+        Thread.sleep(50);
+        assertEquals(1, emitted.size());
+
+        Thread.sleep(200);
+        debeziumEngineService.handleBatch(List.of(), committer);
+        awaitSize(emitted, 2);
+        assertEquals(2, emitted.get(1).getAttempt());
+    }
+
+    @Test
+    void handleBatch_shouldStoreDeadLetterAndCommit_whenRedeliveryAttemptsAreExhausted() throws InterruptedException {
+        // モックの設定：2回まで送信を試みる
+        redelivery.setInitialBackoffMs(0);
+        redelivery.setMaxAttempts(2);
+        DeadLetterService deadLetterService = mock(DeadLetterService.class);
+        when(deadLetterService.storeEvents(any(), any())).thenReturn(true);
+        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager, meterRegistry, null,
+                deadLetterService);
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+        ChangeEvent<String, String> record = createRecord(1);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        debeziumEngineService.handleBatch(List.of(record), committer);
+        awaitSize(emitted, 1);
+        com.example.cdcagent.model.ChangeEvent event = emitted.get(0).getEvents().get(0);
+
+        // 実行：最初の送信と再送の両方に失敗する
+        emitted.get(0).markDelivered(event, false);
+        debeziumEngineService.handleBatch(List.of(), committer);
+        awaitSize(emitted, 2);
+        emitted.get(1).markDelivered(event, false);
+        debeziumEngineService.handleBatch(List.of(), committer);
+
+        // 検証：それ以上は再送せず、デッドレターとして保存したレコードはコミットする
+        verify(deadLetterService).storeEvents(List.of(event), "Redelivery failed 2 times");
+        verify(committer).markProcessed(record);
+        assertEquals(2, emitted.size());
+    }
+
+    @Test
+    void handleBatch_shouldStopWithoutCommit_whenRedeliveryAttemptsAreExhaustedWithoutDeadLetters()
+            throws InterruptedException {
+        // モックの設定：1回で諦め、デッドレターは保存しない
+        redelivery.setMaxAttempts(1);
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        debeziumEngineService.handleBatch(List.of(createRecord(1)), committer);
+        awaitSize(emitted, 1);
+        emitted.get(0).markDelivered(emitted.get(0).getEvents().get(0), false);
+
+        // 実行と検証：無限に再送せず、コミットせずに停止する
+        assertThrows(IllegalStateException.class, () -> debeziumEngineService.handleBatch(List.of(), committer));
+        verify(committer, never()).markProcessed(any());
+        verify(stateManager).setState(AgentStateManager.AgentState.STOPPING);
+    }
+
+    @Test
+    void handleBatch_shouldCommitContiguousPrefix_whenEventsCompleteOutOfOrder() throws InterruptedException {
+        // モックの設定
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+        ChangeEvent<String, String> record1 = createRecord(1);
+        ChangeEvent<String, String> heartbeat = mock(ChangeEvent.class);
+        lenient().when(heartbeat.value()).thenReturn("{\"payload\":{\"ts_ms\":1700000000000}}");
+        ChangeEvent<String, String> record2 = createRecord(2);
+        ChangeEvent<String, String> record3 = createRecord(3);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        debeziumEngineService.handleBatch(List.of(record1, heartbeat, record2, record3), committer);
+        awaitSize(emitted, 1);
+        ChangeEventBatch batch = emitted.get(0);
+        assertEquals(3, batch.size());
+
+        // 実行：3件目、1件目の順に完了
+        batch.markDelivered(batch.getEvents().get(2), true);
+        batch.markDelivered(batch.getEvents().get(0), true);
+        debeziumEngineService.handleBatch(List.of(), committer);
+
+        // 検証：連続して完了した位置（ハートビートまで）のみコミットされる
+        verify(committer).markProcessed(record1);
+        verify(committer).markProcessed(heartbeat);
+        verify(committer, never()).markProcessed(record2);
+        verify(committer, never()).markProcessed(record3);
+        verify(committer).markBatchFinished();
+        assertEquals(2.0, meterRegistry.get("cdc.offset.uncommitted").gauge().value());
+
+        // 実行：残りが完了
+        batch.markDelivered(batch.getEvents().get(1), true);
+        debeziumEngineService.handleBatch(List.of(), committer);
+
+        // 検証
+        verify(committer).markProcessed(record2);
+        verify(committer).markProcessed(record3);
+        verify(committer, times(2)).markBatchFinished();
+        assertEquals(0.0, meterRegistry.get("cdc.offset.uncommitted").gauge().value());
+    }
+
+    @Test
+    void handleBatch_shouldNotEmitOrCommit_whenAgentIsStopping() throws InterruptedException {
+        // モックの設定
+        when(stateManager.isRunning()).thenReturn(false);
+        when(stateManager.isStopping()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+
+        // 実行
+        debeziumEngineService.handleBatch(List.of(createRecord(1)), committer);
+
+        // 検証
+        Thread.sleep(100);
+        assertTrue(emitted.isEmpty());
+        verify(committer, never()).markProcessed(any());
+    }
+
+    @Test
+    void handleBatch_shouldBlockEngineThread_whenBufferIsFull() throws Exception {
+        // モックの設定：容量1のバッファを使用し、下流は購読しない
+        buffer.setCapacity(1);
+        meterRegistry = new SimpleMeterRegistry();
+        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager, meterRegistry);
+        when(stateManager.isRunning()).thenReturn(true);
+        setEngineRunning(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+
+        // 実行：1バッチ目はバッファに格納される
+        debeziumEngineService.handleBatch(List.of(createRecord(1)), committer);
+
+        // 実行：2バッチ目はバッファに空きができるまでブロックされる
+        Thread engineThread = new Thread(() -> {
+            try {
+                debeziumEngineService.handleBatch(List.of(createRecord(2)), committer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        engineThread.start();
+        engineThread.join(300);
+
+        // 検証
+        assertTrue(engineThread.isAlive());
+        assertEquals(1.0, meterRegistry.get("cdc.buffer.capacity").gauge().value());
+        assertEquals(1.0, meterRegistry.get("cdc.buffer.occupancy").gauge().value());
+        assertEquals(1.0, meterRegistry.get("cdc.buffer.events").gauge().value());
+
+        // 実行：下流が取り出すとブロックが解除される
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        engineThread.join(5000);
+
+        // 検証
+        assertFalse(engineThread.isAlive());
+        awaitSize(emitted, 2);
+    }
+
+    @Test
+    void handleBatch_shouldNotBlockForever_whenPollExceedsAckWindow() throws Exception {
+        // モックの設定：送信完了待ちの上限を2件とし、下流は受け取ったイベントをすぐに送信完了とする
+        buffer.setAckWindow(2);
+        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager, new SimpleMeterRegistry());
+        when(stateManager.isRunning()).thenReturn(true);
+        setEngineRunning(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+        List<com.example.cdcagent.model.ChangeEvent> delivered = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(batch -> batch.getEvents().forEach(event -> {
+            delivered.add(event);
+            batch.markDelivered(event, true);
+        }));
+
+        // 実行：上限を超えるレコードを1回のポーリングで受け取る
+        Thread engineThread = new Thread(() -> {
+            try {
+                debeziumEngineService.handleBatch(List.of(createRecord(1), createRecord(2), createRecord(3),
+                        createRecord(4), createRecord(5)), committer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        engineThread.start();
+        engineThread.join(5000);
+
+        // 検証：待機する前にそれまでのイベントを渡すため、送信が完了した分のコミットが進み、ブロックが解除される
+        assertFalse(engineThread.isAlive());
+        awaitSize(delivered, 5);
+        assertEquals(List.of(1, 2, 3, 4, 5), delivered.stream()
+                .map(event -> ((Number) event.getAfter().get("id")).intValue()).toList());
+        verify(committer, atLeast(3)).markProcessed(any());
+    }
+
+    @Test
+    void handleBatch_shouldSuppressEventsDeliveredBeforeRestart() throws Exception {
+        // モックの設定：送信済みのイベントIDをファイルに保存する
+        dedupe.setFile(tempDir.resolve("dedupe.dat").toString());
+        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager, new SimpleMeterRegistry());
+        java.lang.reflect.Field engineField = DebeziumEngineService.class.getDeclaredField("engine");
+        engineField.setAccessible(true);
+        engineField.set(debeziumEngineService, debeziumEngine);
+        when(stateManager.isRunning()).thenReturn(true);
+        setEngineRunning(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        debeziumEngineService.handleBatch(List.of(createBinlogRecord(1, 154), createBinlogRecord(2, 320)), committer);
+        awaitSize(emitted, 1);
+        assertEquals("1-mysql-bin.000003-154-0", emitted.get(0).getEvents().get(0).getId());
+
+        // 実行：1件目のみ送信が完了した状態で停止する
+        emitted.get(0).markDelivered(emitted.get(0).getEvents().get(0), true);
+        debeziumEngineService.stop();
+
+        // 実行：再起動後に同じレコードを再取得する
+        DebeziumEngineService restarted = new DebeziumEngineService(debeziumProperties, stateManager, meterRegistry);
+        List<ChangeEventBatch> replayed = new CopyOnWriteArrayList<>();
+        restarted.getChangeEventFlux().subscribe(replayed::add);
+        ChangeEvent<String, String> delivered = createBinlogRecord(1, 154);
+        restarted.handleBatch(List.of(delivered, createBinlogRecord(2, 320)), committer);
+
+        // 検証：送信済みのイベントは再送されず、そのままコミットされる
+        awaitSize(replayed, 1);
+        assertEquals(List.of("1-mysql-bin.000003-320-0"),
+                replayed.get(0).getEvents().stream().map(com.example.cdcagent.model.ChangeEvent::getId).toList());
+        verify(committer).markProcessed(delivered);
+        assertEquals(1.0, meterRegistry.get("cdc.dedupe.suppressed").counter().count());
+    }
+
+    @Test
+    void handleBatch_shouldStoreUndecodableRecordAsDeadLetterAndCommit() throws InterruptedException {
+        // モックの設定：変換できないレコードをデッドレターとして保存できる
+        DeadLetterService deadLetterService = mock(DeadLetterService.class);
+        when(deadLetterService.store(any(), any())).thenReturn(true);
+        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager, meterRegistry, null,
+                deadLetterService);
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+        @SuppressWarnings("unchecked")
+        ChangeEvent<String, String> broken = mock(ChangeEvent.class);
+        when(broken.value()).thenReturn("{\"payload\":{\"after\":");
+
+        // 実行
+        debeziumEngineService.handleBatch(List.of(broken), committer);
+
+        // 検証：受け取った内容のまま保存し、保存できたレコードはコミットする
+        ArgumentCaptor<List<byte[]>> payloads = ArgumentCaptor.forClass(List.class);
+        verify(deadLetterService).store(payloads.capture(), startsWith("Decode failed: "));
+        assertEquals("{\"payload\":{\"after\":", new String(payloads.getValue().get(0), StandardCharsets.UTF_8));
+        verify(committer).markProcessed(broken);
+    }
+
+    @Test
+    void handleBatch_shouldStopWithoutCommit_whenUndecodableRecordCannotBeStored() throws InterruptedException {
+        // モックの設定：デッドレターを保存しない
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+        @SuppressWarnings("unchecked")
+        ChangeEvent<String, String> broken = mock(ChangeEvent.class);
+        when(broken.value()).thenReturn("not json");
+
+        // 実行と検証：オフセットをコミットせずにエンジンを停止し、次回起動時に再取得させる
+        assertThrows(IllegalStateException.class,
+                () -> debeziumEngineService.handleBatch(List.of(broken), committer));
+        verify(committer, never()).markProcessed(any());
+        verify(stateManager).setState(AgentStateManager.AgentState.STOPPING);
+    }
+
+    @Test
+    void handleBatch_shouldPersistDedupeFilterInBackground() throws Exception {
+        // モックの設定：コミットの度に送信済みのイベントIDを保存する
+        Path file = tempDir.resolve("dedupe.dat");
+        dedupe.setFile(file.toString());
+        dedupe.setPersistIntervalMs(0);
+        debeziumEngineService = new DebeziumEngineService(debeziumProperties, stateManager, new SimpleMeterRegistry());
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+        debeziumEngineService.handleBatch(List.of(createBinlogRecord(1, 154)), committer);
+        awaitSize(emitted, 1);
+        emitted.get(0).markDelivered(emitted.get(0).getEvents().get(0), true);
+
+        // 実行：次のバッチの処理でコミットが進み、フィルターが保存される
+        debeziumEngineService.handleBatch(List.of(createBinlogRecord(2, 320)), committer);
+
+        // 検証：停止しなくても別スレッドで書き込まれる
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!DedupeFilter.load(file, 10).contains("1-mysql-bin.000003-154-0")
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(DedupeFilter.load(file, 10).contains("1-mysql-bin.000003-154-0"));
+    }
+
+    @Test
+    void handleBatch_shouldEmitTransactionAsOneBatchAfterEndMarker() throws InterruptedException {
+        // モックの設定
+        when(stateManager.isRunning()).thenReturn(true);
+        @SuppressWarnings("unchecked")
+        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer = mock(DebeziumEngine.RecordCommitter.class);
+
+        List<ChangeEventBatch> emitted = new CopyOnWriteArrayList<>();
+        debeziumEngineService.getChangeEventFlux().subscribe(emitted::add);
+
+        // 実行：ポーリングをまたぐトランザクションは、ENDを受け取るまでパイプラインに渡さない
+        ChangeEvent<String, String> begin = createTransactionMarker("BEGIN", null);
+        debeziumEngineService.handleBatch(List.of(begin,
+                createTransactionRecord(1, 1), createTransactionRecord(2, 2)), committer);
+
+        // 検証
+        assertEquals(2.0, meterRegistry.get("cdc.transaction.pending").gauge().value());
+
+        // 実行：トランザクションの終了と、トランザクションに属さない後続のイベント
+        debeziumEngineService.handleBatch(List.of(createTransactionMarker("END", 2), createRecord(3)), committer);
+
+        // 検証：トランザクションのイベントは1つのバッチにまとまり、最後のイベントにイベント数が設定される
+        awaitSize(emitted, 2);
+        ChangeEventBatch transactionBatch = emitted.get(0);
+        assertTrue(transactionBatch.isTransaction());
+        assertEquals(List.of(1L, 2L), transactionBatch.getEvents().stream()
+                .map(com.example.cdcagent.model.ChangeEvent::getTransactionOrder).toList());
+        assertNull(transactionBatch.getEvents().get(0).getTransactionEventCount());
+        assertEquals(2L, transactionBatch.getEvents().get(1).getTransactionEventCount());
+        assertFalse(emitted.get(1).isTransaction());
+        assertEquals(1, emitted.get(1).size());
+        assertEquals(0.0, meterRegistry.get("cdc.transaction.pending").gauge().value());
+        // 送信が完了するまでは、トランザクションの開始のレコードまでしかコミットしない
+        verify(committer).markProcessed(begin);
+        verify(committer, times(1)).markProcessed(any());
+    }
+
+    private void setEngineRunning(boolean running) throws Exception {
+        java.lang.reflect.Field engineRunningField = DebeziumEngineService.class.getDeclaredField("engineRunning");
+        engineRunningField.setAccessible(true);
+        ((java.util.concurrent.atomic.AtomicBoolean) engineRunningField.get(debeziumEngineService)).set(running);
+    }
+
+    private void awaitSize(List<?> list, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (list.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, list.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeEvent<String, String> createBinlogRecord(int id, long pos) {
+        ChangeEvent<String, String> record = mock(ChangeEvent.class);
+        lenient().when(record.value()).thenReturn("{\"payload\":{\"before\":null,\"after\":{\"id\":" + id + "},"
+                + "\"source\":{\"server_id\":1,\"file\":\"mysql-bin.000003\",\"pos\":" + pos + ",\"row\":0,"
+                + "\"snapshot\":\"false\",\"db\":\"testdb\",\"table\":\"users\",\"ts_ms\":1700000000000},\"op\":\"c\"}}");
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeEvent<String, String> createTransactionMarker(String status, Integer eventCount) {
+        ChangeEvent<String, String> record = mock(ChangeEvent.class);
+        lenient().when(record.value()).thenReturn("{\"payload\":{\"status\":\"" + status + "\",\"id\":\"tx-1\","
+                + "\"event_count\":" + eventCount + ",\"data_collections\":null,\"ts_ms\":1700000000000}}");
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeEvent<String, String> createTransactionRecord(int id, int order) {
+        ChangeEvent<String, String> record = mock(ChangeEvent.class);
+        lenient().when(record.value()).thenReturn("{\"payload\":{\"before\":null,\"after\":{\"id\":" + id + "},"
+                + "\"source\":{\"db\":\"testdb\",\"table\":\"users\",\"ts_ms\":1700000000000},\"op\":\"c\","
+                + "\"transaction\":{\"id\":\"tx-1\",\"total_order\":" + order + ",\"data_collection_order\":" + order + "}}}");
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeEvent<String, String> createRecord(int id) {
+        ChangeEvent<String, String> record = mock(ChangeEvent.class);
+        lenient().when(record.value()).thenReturn("{\"payload\":{\"before\":null,\"after\":{\"id\":" + id + "},"
+                + "\"source\":{\"db\":\"testdb\",\"table\":\"users\",\"ts_ms\":1700000000000},\"op\":\"c\"}}");
+        return record;
+    }
+}
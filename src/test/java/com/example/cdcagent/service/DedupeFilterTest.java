@@ -0,0 +1,85 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DedupeFilterTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void contains_shouldKeepLastTwoGenerations() {
+        // テストデータ：1世代に2件まで保持する
+        DedupeFilter filter = new DedupeFilter(2);
+
+        // 実行
+        for (int i = 1; i <= 5; i++) {
+            filter.add("1-mysql-bin.000001-" + i + "-0");
+        }
+
+        // 検証：直近の2世代（3〜5件目）のみ保持し、最も古い世代は破棄される
+        assertFalse(filter.contains("1-mysql-bin.000001-1-0"));
+        assertFalse(filter.contains("1-mysql-bin.000001-2-0"));
+        assertTrue(filter.contains("1-mysql-bin.000001-3-0"));
+        assertTrue(filter.contains("1-mysql-bin.000001-5-0"));
+        assertFalse(filter.contains("1-mysql-bin.000001-6-0"));
+        assertEquals(3, filter.size());
+    }
+
+    @Test
+    void load_shouldRestoreSavedIds() throws IOException {
+        // テストデータ
+        Path file = tempDir.resolve("dedupe.dat");
+        DedupeFilter filter = new DedupeFilter(1000);
+        for (int i = 0; i < 1500; i++) {
+            filter.add("1-mysql-bin.000001-" + i + "-0");
+        }
+
+        // 実行
+        filter.save(file);
+        DedupeFilter restored = DedupeFilter.load(file, 1000);
+
+        // 検証
+        assertEquals(1500, restored.size());
+        for (int i = 0; i < 1500; i++) {
+            assertTrue(restored.contains("1-mysql-bin.000001-" + i + "-0"));
+        }
+        assertFalse(restored.contains("1-mysql-bin.000001-1500-0"));
+    }
+
+    @Test
+    void write_shouldSaveSnapshotTakenBeforeLaterAdds() throws IOException {
+        // テストデータ
+        Path file = tempDir.resolve("dedupe.dat");
+        DedupeFilter filter = new DedupeFilter(10);
+        filter.add("1-mysql-bin.000001-1-0");
+
+        // 実行：スナップショットの取得後に追加したIDは書き出されない
+        long[] snapshot = filter.snapshot();
+        filter.add("1-mysql-bin.000001-2-0");
+        DedupeFilter.write(file, snapshot);
+        DedupeFilter restored = DedupeFilter.load(file, 10);
+
+        // 検証
+        assertTrue(restored.contains("1-mysql-bin.000001-1-0"));
+        assertFalse(restored.contains("1-mysql-bin.000001-2-0"));
+    }
+
+    @Test
+    void load_shouldStartEmpty_whenFileIsMissingOrBroken() throws IOException {
+        // テストデータ
+        Path broken = tempDir.resolve("broken.dat");
+        Files.write(broken, new byte[]{1, 2, 3});
+
+        // 実行と検証
+        assertEquals(0, DedupeFilter.load(tempDir.resolve("missing.dat"), 10).size());
+        assertEquals(0, DedupeFilter.load(broken, 10).size());
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeficitRoundRobinQueueTest {
+
+    @Test
+    void poll_shouldShareByWeight_withinSamePriority() {
+        // テストデータ：重み3と重み1のキューにそれぞれ8件
+        DeficitRoundRobinQueue<String> queue = new DeficitRoundRobinQueue<>(new int[] {0, 0}, new int[] {3, 1});
+        for (int i = 0; i < 8; i++) {
+            queue.offer(0, "a" + i);
+            queue.offer(1, "b" + i);
+        }
+
+        // 実行
+        List<String> polled = poll(queue, 8);
+
+        // 検証：3対1の比率で交互に取り出し、キュー内は投入順を保つ
+        assertEquals(List.of("a0", "a1", "a2", "b0", "a3", "a4", "a5", "b1"), polled);
+        assertEquals(2, queue.size(0));
+        assertEquals(6, queue.size(1));
+        assertEquals(8, queue.size());
+    }
+
+    @Test
+    void poll_shouldPreferHigherPriority() {
+        // テストデータ：優先度の低いキューに先に投入する
+        DeficitRoundRobinQueue<String> queue = new DeficitRoundRobinQueue<>(new int[] {0, 10}, new int[] {100, 1});
+        queue.offer(0, "bulk-1");
+        queue.offer(0, "bulk-2");
+        queue.offer(1, "critical-1");
+
+        // 実行と検証：優先度の高いキューが空になるまで低いキューから取り出さない
+        assertEquals("critical-1", queue.poll().item());
+        queue.offer(1, "critical-2");
+        assertEquals("critical-2", queue.poll().item());
+        assertEquals("bulk-1", queue.poll().item());
+        assertEquals("bulk-2", queue.poll().item());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void poll_shouldNotCarryOverDeficit_whenQueueBecomesEmpty() {
+        // テストデータ：重み4のキューに1件のみ投入して取り出す
+        DeficitRoundRobinQueue<String> queue = new DeficitRoundRobinQueue<>(new int[] {0, 0}, new int[] {4, 1});
+        queue.offer(0, "a0");
+        DeficitRoundRobinQueue.Entry<String> entry = queue.poll();
+        assertEquals(0, entry.queue());
+
+        // 実行：空になった後に両方のキューへ投入する
+        for (int i = 1; i <= 5; i++) {
+            queue.offer(0, "a" + i);
+        }
+        queue.offer(1, "b0");
+
+        // 検証：残りの枠を持ち越さず、改めて重み分を取り出してから順番を譲る
+        assertEquals(List.of("a1", "a2", "a3", "a4", "b0", "a5"), poll(queue, 6));
+    }
+
+    @Test
+    void poll_shouldWaitForEarlierItemsOfAllQueues_whenItemSpansMultipleQueues() {
+        // テストデータ：優先度の低いキューの後に、2つのキューにまたがる要素を互いに逆のキューを最初にして投入する
+        DeficitRoundRobinQueue<String> queue = new DeficitRoundRobinQueue<>(new int[] {0, 10}, new int[] {1, 1});
+        queue.offer(0, "a1");
+        queue.offer(new int[] {0, 1}, "tx1");
+        queue.offer(new int[] {1, 0, 1}, "tx2");
+        queue.offer(1, "b1");
+        queue.offer(0, "a2");
+        assertEquals(5, queue.size());
+
+        // 実行と検証：またがる要素は先に投入された要素を追い越さず、後続の要素にも追い越されない
+        assertEquals(List.of("a1", "tx1", "tx2", "b1", "a2"), poll(queue, 5));
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    private static List<String> poll(DeficitRoundRobinQueue<String> queue, int count) {
+        List<String> polled = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            polled.add(queue.poll().item());
+        }
+        return polled;
+    }
+}
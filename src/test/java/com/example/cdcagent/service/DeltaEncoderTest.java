@@ -0,0 +1,86 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaEncoderTest {
+
+    private final DeltaEncoder encoder = new DeltaEncoder(List.of("shop.orders", "warehouse.*"));
+
+    @Test
+    void encode_shouldKeepChangedColumnsAndMarkNulls() {
+        // テストデータ：4列のうち1列の値が変わり、1列がNULLに変わる
+        ChangeEvent event = createUpdate("shop", "orders",
+                row("id", 1, "status", "NEW", "memo", "x", "total", 100),
+                row("id", 1, "status", "PAID", "memo", null, "total", 100));
+
+        // 実行
+        ChangeEvent delta = encoder.encode(event);
+
+        // 検証
+        assertTrue(delta.getDelta());
+        assertEquals(Map.of("id", 1), delta.getKey());
+        assertNull(delta.getBefore());
+        assertEquals(Map.of("status", "PAID"), delta.getAfter());
+        assertEquals(List.of("memo"), delta.getNullColumns());
+        assertEquals(event.getId(), delta.getId());
+    }
+
+    @Test
+    void encode_shouldReturnEventAsIs_whenNotApplicable() {
+        // テストデータ：対象外のテーブル、UPDATE以外、主キーの無いテーブル
+        ChangeEvent otherTable = createUpdate("shop", "customers", row("id", 1, "a", 1), row("id", 1, "a", 2));
+        ChangeEvent insert = createUpdate("warehouse", "stock", null, row("id", 1, "a", 1));
+        insert.setOperation(ChangeEvent.OperationType.INSERT);
+        ChangeEvent keyless = createUpdate("warehouse", "log", row("a", 1), row("a", 2));
+        keyless.setKey(null);
+
+        // 実行と検証
+        assertSame(otherTable, encoder.encode(otherTable));
+        assertSame(insert, encoder.encode(insert));
+        assertSame(keyless, encoder.encode(keyless));
+    }
+
+    @Test
+    void encode_shouldFollowColumnLayoutChanges() {
+        // テストデータ：列の並びを記録した後に列が追加される
+        encoder.encode(createUpdate("warehouse", "stock", row("id", 1, "qty", 1), row("id", 1, "qty", 2)));
+        ChangeEvent added = createUpdate("warehouse", "stock",
+                row("id", 1, "qty", 2, "location", "A"),
+                row("id", 1, "qty", 2, "location", "B"));
+        ChangeEvent reordered = createUpdate("warehouse", "stock",
+                row("qty", 2, "id", 1, "location", "B"),
+                row("id", 1, "location", "C", "qty", 3));
+
+        // 実行と検証：記録と異なる並びでも値が変わった列を求める
+        assertEquals(Map.of("location", "B"), encoder.encode(added).getAfter());
+        assertEquals(Map.of("location", "C", "qty", 3), encoder.encode(reordered).getAfter());
+    }
+
+    private ChangeEvent createUpdate(String database, String table, Map<String, Object> before, Map<String, Object> after) {
+        ChangeEvent event = new ChangeEvent();
+        event.setId(database + "-" + table);
+        event.setType("mysql");
+        event.setDatabase(database);
+        event.setTable(table);
+        event.setOperation(ChangeEvent.OperationType.UPDATE);
+        event.setKey(Map.of("id", 1));
+        event.setBefore(before);
+        event.setAfter(after);
+        return event;
+    }
+
+    private static Map<String, Object> row(Object... columnsAndValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EndpointBalancerTest {
+
+    private static final URI FAST = URI.create("http://hulft-a:9000/api/events");
+    private static final URI SLOW = URI.create("http://hulft-b:9000/api/events");
+
+    private final AtomicLong clock = new AtomicLong();
+    private MeterRegistry meterRegistry;
+    private EndpointBalancer balancer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        balancer = new EndpointBalancer(List.of(FAST, SLOW), 2, Duration.ofSeconds(30), Duration.ofHours(1),
+                meterRegistry, clock::get);
+    }
+
+    @Test
+    void acquire_shouldPreferEndpointWithLowerLatency() {
+        // テストデータ：応答時間が10msと200msのエンドポイント
+        complete(FAST, 10, true);
+        complete(SLOW, 200, true);
+
+        // 実行と検証：2つの候補を比較するため、応答の速いエンドポイントが選ばれ続ける
+        for (int i = 0; i < 20; i++) {
+            EndpointBalancer.Lease lease = balancer.acquire();
+            assertEquals(FAST, lease.endpoint().uri());
+            lease.cancel();
+        }
+        assertEquals(0, balancer.endpoints().get(0).inFlight());
+    }
+
+    @Test
+    void acquire_shouldAvoidEndpointWithManyRequestsInFlight() {
+        // テストデータ：応答の速いエンドポイントに進行中のリクエストが集中している
+        complete(FAST, 10, true);
+        complete(SLOW, 30, true);
+        List<EndpointBalancer.Lease> leases = List.of(acquire(FAST), acquire(FAST), acquire(FAST));
+
+        // 実行と検証：コストは応答時間×(進行中の数+1)のため、空いているエンドポイントが選ばれる
+        assertEquals(SLOW, balancer.acquire().endpoint().uri());
+        leases.forEach(EndpointBalancer.Lease::cancel);
+    }
+
+    @Test
+    void acquire_shouldEjectFailingEndpointAndBringItBackAfterEjectDuration() {
+        // テストデータ：2回連続で失敗したエンドポイント
+        complete(SLOW, 1000, true);
+        complete(FAST, 10, false);
+        complete(FAST, 10, false);
+
+        // 実行と検証：振り分け対象から外れている間は選ばれない
+        for (int i = 0; i < 20; i++) {
+            EndpointBalancer.Lease lease = balancer.acquire();
+            assertEquals(SLOW, lease.endpoint().uri());
+            lease.cancel();
+        }
+        assertEquals(1.0, meterRegistry.get("hulft.square.endpoint.ejected").tag("endpoint", FAST.toString()).gauge().value());
+        assertEquals(2.0, meterRegistry.get("hulft.square.endpoint.errors").tag("endpoint", FAST.toString()).counter().count());
+
+        // 実行と検証：時間の経過後は再び振り分けられ、復帰後の最初の失敗で再度外される
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertFalse(balancer.endpoints().get(0).isEjected(clock.get()));
+        complete(FAST, 10, false);
+        assertTrue(balancer.endpoints().get(0).isEjected(clock.get()));
+        assertEquals(2.0, meterRegistry.get("hulft.square.endpoint.ejections").tag("endpoint", FAST.toString()).counter().count());
+
+        // 実行と検証：復旧後は失敗回数を数え直す
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        complete(FAST, 10, true);
+        complete(FAST, 10, false);
+        assertFalse(balancer.endpoints().get(0).isEjected(clock.get()));
+    }
+
+    @Test
+    void acquire_shouldUseAllEndpoints_whenAllAreEjected() {
+        // テストデータ：すべてのエンドポイントが振り分け対象から外れている
+        for (int i = 0; i < 2; i++) {
+            complete(FAST, 10, false);
+            complete(SLOW, 10, false);
+        }
+
+        // 実行と検証：送信先がなくならないよう、すべてを対象として選ぶ
+        EndpointBalancer.Lease lease = balancer.acquire();
+        assertNotNull(lease.endpoint());
+        lease.cancel();
+    }
+
+    /**
+     * 指定したエンドポイントが選ばれるまで取得し、それ以外は取り消す
+     */
+    private EndpointBalancer.Lease acquire(URI uri) {
+        while (true) {
+            EndpointBalancer.Lease lease = balancer.acquire();
+            if (lease.endpoint().uri().equals(uri)) {
+                return lease;
+            }
+            lease.cancel();
+        }
+    }
+
+    private void complete(URI uri, long rttMillis, boolean success) {
+        EndpointBalancer.Lease lease = acquire(uri);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(rttMillis));
+        if (success) {
+            lease.success();
+        } else {
+            lease.failure();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventBatcherTest {
+
+    @Test
+    void submit_shouldSendPendingBatchFirst_whenGroupDoesNotFit() {
+        // テストデータ：3件または10バイトで満杯
+        List<Integer> sentSizes = new CopyOnWriteArrayList<>();
+        EventBatcher batcher = new EventBatcher(3, 10, Duration.ofMinutes(1), Schedulers.parallel(), batch -> {
+            sentSizes.add(batch.size());
+            return Mono.just(Collections.nCopies(batch.size(), true));
+        });
+
+        // 実行：2件のグループの後に2件のグループを投入すると、1つ目は分割されずに先に送信される
+        Mono<List<Boolean>> first = batcher.submit(List.of(new byte[2], new byte[2]));
+        Mono<List<Boolean>> second = batcher.submit(List.of(new byte[3], new byte[3]));
+
+        // 検証
+        StepVerifier.create(first).expectNext(List.of(true, true)).verifyComplete();
+        assertEquals(List.of(2), sentSizes);
+
+        // 実行：バイト数の上限に達すると送信される
+        Mono<List<Boolean>> third = batcher.submit(List.of(new byte[4]));
+
+        // 検証
+        StepVerifier.create(Mono.zip(second, third))
+                .assertNext(results -> {
+                    assertEquals(List.of(true, true), results.getT1());
+                    assertEquals(List.of(true), results.getT2());
+                })
+                .verifyComplete();
+        assertEquals(List.of(2, 3), sentSizes);
+    }
+
+    @Test
+    void submit_shouldReportFailureForMissingResults() {
+        // テストデータ：送信結果が1件分しか返らない
+        EventBatcher batcher = new EventBatcher(2, 0, Duration.ofMillis(10), Schedulers.parallel(),
+                batch -> Mono.just(List.of(true)));
+
+        // 実行と検証
+        StepVerifier.create(batcher.submit(List.of(new byte[1], new byte[1])))
+                .expectNext(List.of(true, false))
+                .verifyComplete();
+    }
+
+    @Test
+    void submit_shouldCarryReplayFlagsInPayloadOrder() {
+        // テストデータ：内容が同じイベントを、再送するイベントと通常のイベントとして別々に投入する
+        List<List<Boolean>> sentReplays = new CopyOnWriteArrayList<>();
+        EventBatcher batcher = new EventBatcher(3, 0, Duration.ofMinutes(1), Schedulers.parallel(), batch -> {
+            sentReplays.add(batch.replays());
+            return Mono.just(Collections.nCopies(batch.size(), true));
+        });
+
+        // 実行
+        batcher.submit(List.of(new byte[]{1}), List.of(true)).subscribe();
+        batcher.submit(List.of(new byte[]{1}, new byte[]{2})).block(Duration.ofSeconds(5));
+
+        // 検証：まとめ直してもイベントごとのフラグが同じ順序で引き継がれる
+        assertEquals(List.of(List.of(true, false, false)), sentReplays);
+    }
+}
@@ -2,22 +2,57 @@ package com.example.cdcagent.service;
 
 import com.example.cdcagent.config.HulftSquareProperties;
 import com.example.cdcagent.model.ChangeEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledDirectByteBuf;
+import io.netty.buffer.UnpooledHeapByteBuf;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -47,32 +82,101 @@ class HulftSquareServiceTest {
     @Mock
     private AgentStateManager stateManager;
 
+    @Mock
+    private DeadLetterService deadLetterService;
+
+    private final HulftSquareProperties.Spill spill = new HulftSquareProperties.Spill();
+
+    private final HulftSquareProperties.CircuitBreaker circuitBreakerProperties = new HulftSquareProperties.CircuitBreaker();
+
+    private final HulftSquareProperties.LoadBalancer loadBalancerProperties = new HulftSquareProperties.LoadBalancer();
+
+    private final HulftSquareProperties.RetryBudget retryBudgetProperties = new HulftSquareProperties.RetryBudget();
+    private final HulftSquareProperties.Delta deltaProperties = new HulftSquareProperties.Delta();
+
+    @TempDir
+    private Path spillDirectory;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private MeterRegistry meterRegistry;
+
+    // サービスが確保したすべてのバッファ（送信しなかったものも含む）
+    private final TrackingAllocator allocator = new TrackingAllocator();
+
+    // 送信したリクエストボディと、その元になったバッファ
+    private final List<byte[]> sentBodies = new CopyOnWriteArrayList<>();
+    private final List<ByteBuf> sentBuffers = new CopyOnWriteArrayList<>();
+    private final List<URI> sentUris = new CopyOnWriteArrayList<>();
+
     private HulftSquareService hulftSquareService;
     private ChangeEvent testEvent;
 
     @BeforeEach
     void setUp() {
         lenient().when(hulftSquareProperties.getApi()).thenReturn(api);
+        lenient().when(hulftSquareProperties.getSpill()).thenReturn(spill);
+        lenient().when(hulftSquareProperties.getCircuitBreaker()).thenReturn(circuitBreakerProperties);
+        lenient().when(hulftSquareProperties.getLoadBalancer()).thenReturn(loadBalancerProperties);
+        lenient().when(hulftSquareProperties.getRetryBudget()).thenReturn(retryBudgetProperties);
+        lenient().when(hulftSquareProperties.getDelta()).thenReturn(deltaProperties);
+        lenient().when(api.getUrl()).thenReturn("http://localhost:9000/api/events");
         lenient().when(api.getRetryCount()).thenReturn(3);
         lenient().when(api.getRetryBackoffMs()).thenReturn(100);
         
         // WebClientのモックチェーンをセットアップ
         lenient().when(webClient.post()).thenReturn(requestBodyUriSpec);
-        lenient().when(requestBodyUriSpec.contentType(any())).thenReturn(requestBodySpec);
-        lenient().when(requestBodySpec.bodyValue(any())).thenReturn(requestHeadersSpec);
+        lenient().when(requestBodyUriSpec.uri(any(URI.class))).thenAnswer(invocation -> {
+            sentUris.add(invocation.getArgument(0));
+            return requestBodySpec;
+        });
+        lenient().when(requestBodySpec.contentType(any())).thenReturn(requestBodySpec);
+        lenient().when(requestBodySpec.contentLength(anyLong())).thenReturn(requestBodySpec);
+        lenient().when(requestBodySpec.body(any(), eq(DataBuffer.class))).thenAnswer(invocation -> {
+            // Nettyの書き込みと同様に、送信のたびにボディを読み出して解放する
+            DataBuffer buffer = Mono.from(invocation.<Publisher<DataBuffer>>getArgument(0)).block();
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            sentBodies.add(bytes);
+            sentBuffers.add(root(((NettyDataBuffer) buffer).getNativeBuffer()));
+            DataBufferUtils.release(buffer);
+            return requestHeadersSpec;
+        });
         lenient().when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
         
-        hulftSquareService = new HulftSquareService(webClient, hulftSquareProperties, stateManager);
+        meterRegistry = new SimpleMeterRegistry();
+        hulftSquareService = createService();
         
         // テスト用のChangeEventを作成
         testEvent = createTestEvent();
     }
 
+    @AfterEach
+    void assertBuffersReleased() {
+        // 送信結果が確定した後は、再試行を含めて使用したバッファがすべて解放されていること
+        for (ByteBuf buffer : sentBuffers) {
+            assertEquals(0, buffer.refCnt(), "リクエストボディのバッファが解放されていません");
+        }
+        // 送信せずに終わったバッファや圧縮前のバッファも含め、確保したバッファがすべて解放されていること
+        for (ByteBuf buffer : allocator.allocated) {
+            assertEquals(0, buffer.refCnt(), "確保したバッファが解放されていません");
+        }
+    }
+
+    /**
+     * 確保したバッファがすべて解放されていることを確認する
+     * @param expected 確保されたバッファ数の下限
+     */
+    private void assertAllocatedBuffersReleased(int expected) {
+        assertTrue(allocator.allocated.size() >= expected, "確保したバッファ数: " + allocator.allocated.size());
+        allocator.allocated.forEach(buffer -> assertEquals(0, buffer.refCnt()));
+    }
+
     @Test
     void sendEvent_shouldReturnTrue_whenAgentIsRunningAndHulftSquareResponseIsSuccessful() {
         // モックの設定
         when(stateManager.isRunning()).thenReturn(true);
-        when(responseSpec.bodyToMono(String.class)).thenReturn(Mono.just("Success"));
+        when(responseSpec.toBodilessEntity()).thenReturn(ok());
         
         // 実行と検証
         StepVerifier.create(hulftSquareService.sendEvent(testEvent))
@@ -82,10 +186,13 @@ class HulftSquareServiceTest {
         
         // WebClientのメソッドが呼ばれたことを検証
         verify(webClient).post();
-        verify(requestBodyUriSpec).contentType(any());
-        verify(requestBodySpec).bodyValue(any());
+        verify(requestBodySpec).contentType(any());
+        verify(requestBodySpec).body(any(), eq(DataBuffer.class));
         verify(requestHeadersSpec).retrieve();
-        verify(responseSpec).bodyToMono(String.class);
+        // 応答ボディは文字列として集約せずに読み捨てる
+        verify(responseSpec).toBodilessEntity();
+        verify(responseSpec, never()).bodyToMono(String.class);
+        assertAllocatedBuffersReleased(1);
     }
 
     @Test
@@ -106,8 +213,10 @@ class HulftSquareServiceTest {
     @Test
     void sendEvent_shouldReturnFalse_whenHulftSquareResponseFails() {
         // モックの設定
+        when(api.getRetryBackoffMs()).thenReturn(1);
         when(stateManager.isRunning()).thenReturn(true);
-        when(responseSpec.bodyToMono(String.class)).thenReturn(Mono.error(new RuntimeException("API Error")));
+        when(responseSpec.toBodilessEntity()).thenReturn(Mono.error(new RuntimeException("API Error")));
+        hulftSquareService = createService();
         
         // 実行と検証
         StepVerifier.create(hulftSquareService.sendEvent(testEvent))
@@ -115,12 +224,654 @@ class HulftSquareServiceTest {
                 .expectComplete()
                 .verify();
         
-        // WebClientのメソッドが呼ばれたことを検証
-        verify(webClient).post();
-        verify(requestBodyUriSpec).contentType(any());
-        verify(requestBodySpec).bodyValue(any());
-        verify(requestHeadersSpec).retrieve();
-        verify(responseSpec).bodyToMono(String.class);
+        // WebClientのメソッドが呼ばれたことを検証（初回と再試行3回）
+        verify(webClient, times(4)).post();
+        verify(requestBodySpec, times(4)).contentType(any());
+        verify(requestBodySpec, times(4)).body(any(), eq(DataBuffer.class));
+        verify(requestHeadersSpec, times(4)).retrieve();
+        verify(responseSpec, times(4)).toBodilessEntity();
+        // 再試行を含めて1つのバッファを使い回し、最終的な失敗の後に解放する
+        assertAllocatedBuffersReleased(1);
+    }
+
+    @Test
+    void sendEvent_shouldSendChangedColumnsOnly_whenDeltaIsEnabledForTable() throws Exception {
+        // モックの設定：testdbのテーブルを差分形式で送信する
+        deltaProperties.setTables(List.of("testdb.*"));
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(ok());
+        hulftSquareService = createService();
+        Map<String, Object> before = new LinkedHashMap<>();
+        before.put("id", 1);
+        before.put("name", "Test Name");
+        before.put("note", "memo");
+        Map<String, Object> after = new LinkedHashMap<>(before);
+        after.put("name", "Renamed");
+        after.put("note", null);
+        testEvent.setOperation(ChangeEvent.OperationType.UPDATE);
+        testEvent.setKey(Map.of("id", 1));
+        testEvent.setBefore(before);
+        testEvent.setAfter(after);
+
+        // 実行
+        StepVerifier.create(hulftSquareService.sendEvent(testEvent))
+                .expectNext(true)
+                .expectComplete()
+                .verify();
+
+        // 検証：主キーと値が変わった列のみを送信し、NULLに変わった列は列名で示す
+        JsonNode json = objectMapper.readTree(sentBodies.get(0));
+        assertTrue(json.get("delta").asBoolean());
+        assertEquals(1, json.get("key").get("id").asInt());
+        assertEquals(1, json.get("after").size());
+        assertEquals("Renamed", json.get("after").get("name").asText());
+        assertEquals("note", json.get("nullColumns").get(0).asText());
+        assertFalse(json.has("before"));
+    }
+
+    @Test
+    void sendEvent_shouldSendRowsAsArraysWithSchemaDefinitionOnce_whenSchemaEncodingIsEnabled() throws Exception {
+        // モックの設定：行を値の配列で送信する
+        when(api.getRowEncoding()).thenReturn(HulftSquareProperties.RowEncoding.SCHEMA);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(ok());
+        SchemaCache schemaCache = new SchemaCache(meterRegistry);
+        hulftSquareService = createService(schemaCache);
+        ChangeEvent second = createTestEvent();
+
+        // 実行
+        StepVerifier.create(hulftSquareService.sendEvent(testEvent)).expectNext(true).verifyComplete();
+        StepVerifier.create(hulftSquareService.sendEvent(second)).expectNext(true).verifyComplete();
+        schemaCache.reset();
+        StepVerifier.create(hulftSquareService.sendEvent(second)).expectNext(true).verifyComplete();
+
+        // 検証：最初のイベントのみスキーマの定義を含み、行は定義の列順の配列になる
+        JsonNode first = objectMapper.readTree(sentBodies.get(0));
+        JsonNode columns = first.get("schema").get("columns");
+        assertEquals(first.get("schemaId").asInt(), first.get("schema").get("id").asInt());
+        assertEquals(3, columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            assertEquals(String.valueOf(testEvent.getAfter().get(columns.get(i).asText())),
+                    first.get("after").get(i).asText());
+        }
+        JsonNode next = objectMapper.readTree(sentBodies.get(1));
+        assertFalse(next.has("schema"));
+        assertEquals(first.get("schemaId").asInt(), next.get("schemaId").asInt());
+        assertTrue(next.get("after").isArray());
+        // 再接続後は定義を送り直す
+        assertTrue(objectMapper.readTree(sentBodies.get(2)).has("schema"));
+    }
+
+    @Test
+    void sendEvent_shouldResendOnlyDeadLetteredSchemaDefinition_whenRequestIsRejected() throws Exception {
+        // モックの設定：行を値の配列で送信し、3回目のリクエストのみ4xx応答を受け取る
+        when(api.getRowEncoding()).thenReturn(HulftSquareProperties.RowEncoding.SCHEMA);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(ok(), ok(),
+                Mono.error(WebClientResponseException.create(400, "Bad Request", null, null, null)), ok());
+        when(deadLetterService.store(any(), any())).thenReturn(true);
+        SchemaCache schemaCache = new SchemaCache(meterRegistry);
+        hulftSquareService = createService(schemaCache);
+        ChangeEvent customer = createTestEvent();
+        customer.setTable("customers");
+
+        // 実行：両方のテーブルの定義を届けた後、testtableのイベントがデッドレターになる
+        StepVerifier.create(hulftSquareService.sendEvent(testEvent)).expectNext(true).verifyComplete();
+        StepVerifier.create(hulftSquareService.sendEvent(customer)).expectNext(true).verifyComplete();
+        StepVerifier.create(hulftSquareService.sendEvent(createTestEvent())).expectNext(true).verifyComplete();
+        StepVerifier.create(hulftSquareService.sendEvent(createTestEvent())).expectNext(true).verifyComplete();
+        StepVerifier.create(hulftSquareService.sendEvent(customer)).expectNext(true).verifyComplete();
+
+        // 検証：デッドレターにしたイベントのスキーマのみ定義を送り直す
+        assertFalse(objectMapper.readTree(sentBodies.get(2)).has("schema"));
+        assertTrue(objectMapper.readTree(sentBodies.get(3)).has("schema"));
+        assertFalse(objectMapper.readTree(sentBodies.get(4)).has("schema"));
+    }
+
+    @Test
+    void sendEvents_shouldSendEventsAsJsonArray_whenBatchIsFull() {
+        // モックの設定：2件でバッチが満杯になる
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getBatchFormat()).thenReturn(HulftSquareProperties.BatchFormat.JSON_ARRAY);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(ok());
+        hulftSquareService = createService();
+        ChangeEvent second = createTestEvent();
+
+        // 実行と検証
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, second)))
+                .expectNext(List.of(true, true))
+                .expectComplete()
+                .verify();
+
+        // 1回のリクエストでJSON配列として送信されたことを検証
+        verify(webClient, times(1)).post();
+        verify(requestBodySpec).contentType(MediaType.APPLICATION_JSON);
+        String json = new String(sentBodies.get(0), StandardCharsets.UTF_8);
+        verify(requestBodySpec).contentLength(sentBodies.get(0).length);
+        assertTrue(json.startsWith("[{"));
+        assertTrue(json.indexOf(testEvent.getId()) < json.indexOf(second.getId()));
+        assertEquals(1, meterRegistry.get("hulft.square.batch.size").summary().count());
+        assertEquals(2.0, meterRegistry.get("hulft.square.batch.size").summary().totalAmount());
+        assertEquals(1, meterRegistry.get("hulft.square.batch.latency").timer().count());
+    }
+
+    @Test
+    void sendEvents_shouldCombineCallsAsNdjson_whenLingerExpires() {
+        // モックの設定
+        when(api.getBatchMaxEvents()).thenReturn(100);
+        when(api.getBatchLingerMs()).thenReturn(50);
+        when(api.getBatchFormat()).thenReturn(HulftSquareProperties.BatchFormat.NDJSON);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(ok());
+        hulftSquareService = createService();
+        ChangeEvent second = createTestEvent();
+
+        // 実行と検証：別々の呼び出しが待機時間内に1回のリクエストにまとめられる
+        StepVerifier.create(Mono.zip(
+                        hulftSquareService.sendEvents(List.of(testEvent)),
+                        hulftSquareService.sendEvents(List.of(second))))
+                .assertNext(results -> {
+                    assertEquals(List.of(true), results.getT1());
+                    assertEquals(List.of(true), results.getT2());
+                })
+                .expectComplete()
+                .verify();
+
+        verify(webClient, times(1)).post();
+        verify(requestBodySpec).contentType(MediaType.APPLICATION_NDJSON);
+        String ndjson = new String(sentBodies.get(0), StandardCharsets.UTF_8);
+        assertEquals(2, ndjson.lines().count());
+        assertTrue(ndjson.endsWith("\n"));
+    }
+
+    @Test
+    void sendEvents_shouldSendSmileArray_whenWireFormatIsSmile() throws Exception {
+        // モックの設定：2件をまとめてSmileで送信する
+        when(api.getWireFormat()).thenReturn(HulftSquareProperties.WireFormat.SMILE);
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(ok());
+        hulftSquareService = createService();
+        ChangeEvent second = createTestEvent();
+
+        // 実行
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, second)))
+                .expectNext(List.of(true, true))
+                .expectComplete()
+                .verify();
+
+        // 検証：1つのSmileの配列として送信される
+        verify(requestBodySpec).contentType(MediaType.parseMediaType("application/x-jackson-smile"));
+        JsonNode body = objectMapper.copyWith(new SmileFactory()).readTree(sentBodies.get(0));
+        assertEquals(2, body.size());
+        assertEquals(testEvent.getId(), body.get(0).get("id").asText());
+        assertEquals(second.getId(), body.get(1).get("id").asText());
+        assertEquals("Test Name", body.get(1).get("after").get("name").asText());
+    }
+
+    @Test
+    void sendEvents_shouldCompressBatchBody_whenAboveThreshold() throws Exception {
+        // モックの設定
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getCompression()).thenReturn(HulftSquareProperties.Compression.GZIP);
+        when(api.getCompressionMinBytes()).thenReturn(16);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(requestBodySpec.header(any(), any())).thenReturn(requestBodySpec);
+        when(responseSpec.toBodilessEntity()).thenReturn(ok());
+        hulftSquareService = createService();
+
+        // 実行と検証
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                .expectNext(List.of(true, true))
+                .expectComplete()
+                .verify();
+
+        // 圧縮したボディがContent-Encoding付きで送信されたことを検証
+        verify(requestBodySpec).header("Content-Encoding", "gzip");
+        byte[] json = new java.util.zip.GZIPInputStream(new java.io.ByteArrayInputStream(sentBodies.get(0))).readAllBytes();
+        assertTrue(new String(json, StandardCharsets.UTF_8).contains(testEvent.getId()));
+    }
+
+    @Test
+    void sendEvents_shouldReportFailureForEachEvent_whenBatchRequestFails() {
+        // モックの設定
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getRetryCount()).thenReturn(0);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(Mono.error(new RuntimeException("API Error")));
+        hulftSquareService = createService();
+
+        // 実行と検証
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                .expectNext(List.of(false, false))
+                .expectComplete()
+                .verify();
+        assertAllocatedBuffersReleased(1);
+    }
+
+    @Test
+    void sendEvents_shouldSpillAndDrainLater_whenBatchRequestFails() throws Exception {
+        // モックの設定：1回目の送信は失敗し、2回目以降は成功する
+        spill.setEnabled(true);
+        spill.setDirectory(spillDirectory.toString());
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getRetryCount()).thenReturn(0);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity())
+                .thenReturn(Mono.error(new RuntimeException("API Error")), ok());
+        hulftSquareService = createService();
+
+        try {
+            // 実行と検証：失敗したイベントは退避され、処理済みとして扱われる
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                    .expectNext(List.of(true, true))
+                    .expectComplete()
+                    .verify();
+            assertEquals(2.0, meterRegistry.get("hulft.square.spill.appended").counter().count());
+            assertEquals(2.0, meterRegistry.get("hulft.square.spill.backlog").gauge().value());
+
+            // 実行：退避中は新しいイベントも送信せずに退避の後ろに並べる
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(createTestEvent())))
+                    .expectNext(List.of(true))
+                    .expectComplete()
+                    .verify();
+            verify(webClient, times(1)).post();
+
+            // 実行：バックグラウンドの再送を開始
+            hulftSquareService.init();
+
+            // 検証：退避したイベントが投入順に再送される
+            for (int i = 0; i < 100 && meterRegistry.get("hulft.square.spill.backlog").gauge().value() > 0; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(0.0, meterRegistry.get("hulft.square.spill.backlog").gauge().value());
+            assertEquals(3.0, meterRegistry.get("hulft.square.spill.drained").counter().count());
+            String json = new String(sentBodies.get(1), StandardCharsets.UTF_8);
+            assertTrue(json.startsWith("[{"));
+            assertTrue(json.contains(testEvent.getId()));
+        } finally {
+            hulftSquareService.close();
+        }
+    }
+
+    @Test
+    void sendEvents_shouldSpillOnlyRowsWithSpilledEvents() {
+        // モックの設定：1回目の送信は失敗し、2回目以降は成功する
+        spill.setEnabled(true);
+        spill.setDirectory(spillDirectory.toString());
+        when(api.getBatchMaxEvents()).thenReturn(1);
+        when(api.getRetryCount()).thenReturn(0);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity())
+                .thenReturn(Mono.error(new RuntimeException("API Error")), ok());
+        hulftSquareService = createService();
+        ChangeEvent spilled = createKeyedEvent(1);
+
+        try {
+            // 実行：id=1の行のイベントを退避する
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(spilled))).expectNext(List.of(true)).verifyComplete();
+
+            // 実行と検証：退避中の行のイベントは退避の後ろに並べ、関係のない行のイベントはそのまま送信する
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(createKeyedEvent(1))))
+                    .expectNext(List.of(true)).verifyComplete();
+            verify(webClient, times(1)).post();
+            ChangeEvent other = createKeyedEvent(2);
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(other))).expectNext(List.of(true)).verifyComplete();
+            verify(webClient, times(2)).post();
+            assertTrue(new String(sentBodies.get(1), StandardCharsets.UTF_8).contains(other.getId()));
+            assertEquals(2.0, meterRegistry.get("hulft.square.spill.backlog").gauge().value());
+        } finally {
+            hulftSquareService.close();
+        }
+    }
+
+    @Test
+    void init_shouldDrainSpilledEventsWithPipelinedRequests() throws Exception {
+        // モックの設定：退避した3件を1件ずつ、最大3リクエストを並行させて再送する
+        spill.setEnabled(true);
+        spill.setDirectory(spillDirectory.toString());
+        spill.setDrainInFlight(3);
+        when(api.getBatchMaxEvents()).thenReturn(1);
+        when(api.getRetryCount()).thenReturn(0);
+        when(stateManager.isRunning()).thenReturn(true);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Mono<ResponseEntity<Void>> failure = Mono.error(new RuntimeException("API Error"));
+        when(responseSpec.toBodilessEntity()).thenReturn(failure, failure, failure,
+                Mono.defer(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return ok().delayElement(Duration.ofMillis(200))
+                            .doFinally(signal -> inFlight.decrementAndGet());
+                }));
+        hulftSquareService = createService();
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(createTestEvent(), createTestEvent(), createTestEvent())))
+                .expectNext(List.of(true, true, true))
+                .verifyComplete();
+
+        try {
+            // 実行
+            hulftSquareService.init();
+
+            // 検証：応答を待たずに続きを送信し、すべて再送し終える
+            for (int i = 0; i < 100 && meterRegistry.get("hulft.square.spill.backlog").gauge().value() > 0; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(0.0, meterRegistry.get("hulft.square.spill.backlog").gauge().value());
+            assertEquals(3.0, meterRegistry.get("hulft.square.spill.drained").counter().count());
+            assertEquals(3, maxInFlight.get());
+        } finally {
+            hulftSquareService.close();
+        }
+    }
+
+    @Test
+    void sendEvents_shouldNotSpill_whenAgentIsStopping() {
+        // モックの設定：送信中に停止した場合はDebeziumからの再取得に任せる
+        spill.setEnabled(true);
+        spill.setDirectory(spillDirectory.toString());
+        when(api.getBatchMaxEvents()).thenReturn(1);
+        when(api.getRetryCount()).thenReturn(0);
+        AtomicBoolean running = new AtomicBoolean(true);
+        when(stateManager.isRunning()).thenAnswer(invocation -> running.get());
+        when(responseSpec.toBodilessEntity()).thenAnswer(invocation -> {
+            running.set(false);
+            return Mono.error(new RuntimeException("API Error"));
+        });
+        hulftSquareService = createService();
+
+        try {
+            // 実行と検証
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent)))
+                    .expectNext(List.of(false))
+                    .expectComplete()
+                    .verify();
+            assertEquals(0.0, meterRegistry.get("hulft.square.spill.backlog").gauge().value());
+        } finally {
+            hulftSquareService.close();
+        }
+    }
+
+    @Test
+    void sendEvents_shouldReuseSerializedBodyOnRetry() {
+        // モックの設定：1回目の送信は失敗し、再試行で成功する
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getRetryBackoffMs()).thenReturn(1);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity())
+                .thenReturn(Mono.error(new RuntimeException("API Error")), ok());
+        hulftSquareService = createService();
+
+        // 実行と検証
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                .expectNext(List.of(true, true))
+                .expectComplete()
+                .verify();
+
+        // 再試行では同じバッファ上のボディをそのまま再送し、完了後に解放する
+        assertEquals(2, sentBodies.size());
+        assertArrayEquals(sentBodies.get(0), sentBodies.get(1));
+        assertSame(sentBuffers.get(0), sentBuffers.get(1));
+        assertEquals(0, sentBuffers.get(0).refCnt());
+        assertAllocatedBuffersReleased(1);
+    }
+
+    @Test
+    void sendEvents_shouldStoreDeadLetterWithoutRetry_whenRequestIsRejected() {
+        // モックの設定：4xx応答は再送しても成功しない
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(Mono.error(WebClientResponseException.create(
+                400, "Bad Request", null, null, null)));
+        AtomicReference<String> storeThread = new AtomicReference<>();
+        when(deadLetterService.store(any(), any())).thenAnswer(invocation -> {
+            storeThread.set(Thread.currentThread().getName());
+            return true;
+        });
+        hulftSquareService = createService();
+
+        // 実行と検証：デッドレターとして保存したイベントは処理済みとして扱われる
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                .expectNext(List.of(true, true))
+                .expectComplete()
+                .verify();
+
+        verify(webClient, times(1)).post();
+        ArgumentCaptor<List<byte[]>> payloads = ArgumentCaptor.forClass(List.class);
+        verify(deadLetterService).store(payloads.capture(), eq("HTTP 400 Bad Request"));
+        assertEquals(2, payloads.getValue().size());
+        assertTrue(new String(payloads.getValue().get(0), StandardCharsets.UTF_8).contains(testEvent.getId()));
+        // ディスクへの書き込みは応答を受け取ったスレッドではなくboundedElasticで行う
+        assertTrue(storeThread.get().startsWith("boundedElastic"), storeThread.get());
+    }
+
+    @Test
+    void sendEvents_shouldReportReplayAsFailedWithoutStoringAgain_whenRequestIsRejected() {
+        // モックの設定：デッドレターから再送するイベントと通常のイベントをまとめて送信し、4xx応答を受け取る
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(Mono.error(WebClientResponseException.create(
+                400, "Bad Request", null, null, null)));
+        when(deadLetterService.store(any(), any())).thenReturn(true);
+        hulftSquareService = createService();
+        ChangeEvent replay = createTestEvent();
+        replay.setReplay(true);
+
+        // 実行と検証：再送するイベントは保存し直さずに失敗として報告する
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, replay)))
+                .expectNext(List.of(true, false))
+                .expectComplete()
+                .verify();
+
+        ArgumentCaptor<List<byte[]>> payloads = ArgumentCaptor.forClass(List.class);
+        verify(deadLetterService).store(payloads.capture(), eq("HTTP 400 Bad Request"));
+        assertEquals(1, payloads.getValue().size());
+        assertTrue(new String(payloads.getValue().get(0), StandardCharsets.UTF_8).contains(testEvent.getId()));
+    }
+
+    @Test
+    void sendEvents_shouldNotSpillReplay_whenBatchRequestFails() {
+        // モックの設定：デッドレターから再送するイベントの送信に失敗する
+        spill.setEnabled(true);
+        spill.setDirectory(spillDirectory.toString());
+        when(api.getBatchMaxEvents()).thenReturn(1);
+        when(api.getRetryCount()).thenReturn(0);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(Mono.error(new RuntimeException("API Error")));
+        hulftSquareService = createService();
+        testEvent.setReplay(true);
+
+        try {
+            // 実行と検証：退避せずに失敗として報告する
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent)))
+                    .expectNext(List.of(false))
+                    .expectComplete()
+                    .verify();
+            assertEquals(0.0, meterRegistry.get("hulft.square.spill.backlog").gauge().value());
+            verify(deadLetterService, never()).store(any(), any());
+        } finally {
+            hulftSquareService.close();
+        }
+    }
+
+    @Test
+    void sendEvents_shouldFailFastWithoutRetry_whileCircuitBreakerIsOpen() {
+        // モックの設定：2回連続で失敗すると遮断する
+        circuitBreakerProperties.setFailureThreshold(2);
+        circuitBreakerProperties.setOpenMs(60000);
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getRetryBackoffMs()).thenReturn(1);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(Mono.error(new RuntimeException("API Error")));
+        hulftSquareService = createService();
+
+        // 実行と検証：2回目の失敗で遮断され、残りの再試行は送信せずに終了する
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                .expectNext(List.of(false, false))
+                .expectComplete()
+                .verify();
+        assertEquals(CircuitBreaker.State.OPEN, hulftSquareService.getCircuitBreaker().getState());
+        verify(webClient, times(2)).post();
+        verify(deadLetterService, never()).store(any(), any());
+        assertEquals(1.0, meterRegistry.get("hulft.square.circuit.rejected").counter().count());
+        // 遮断により送信せずに終わった場合もバッファを解放する
+        assertAllocatedBuffersReleased(1);
+    }
+
+    @Test
+    void sendEvents_shouldRetryOnAnotherEndpoint_whenEndpointFails() {
+        // モックの設定：1回の失敗で振り分け対象から外し、障害中のエンドポイントには送信しない
+        URI failing = URI.create("http://hulft-a:9000/api/events");
+        URI healthy = URI.create("http://hulft-b:9000/api/events");
+        loadBalancerProperties.setEjectFailures(1);
+        when(api.getEndpoints()).thenReturn(List.of(failing.toString(), healthy.toString()));
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getRetryBackoffMs()).thenReturn(1);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenAnswer(invocation ->
+                sentUris.get(sentUris.size() - 1).equals(failing)
+                        ? Mono.error(new RuntimeException("API Error"))
+                        : ok());
+        hulftSquareService = createService();
+
+        // 実行と検証：障害中のエンドポイントに振り分けられても、再試行は別のエンドポイントに送信される
+        for (int i = 0; i < 5; i++) {
+            StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                    .expectNext(List.of(true, true))
+                    .expectComplete()
+                    .verify();
+        }
+        long failures = sentUris.stream().filter(failing::equals).count();
+        assertTrue(failures <= 1);
+        assertEquals(5, sentUris.stream().filter(healthy::equals).count());
+        assertEquals(failures, meterRegistry.get("hulft.square.endpoint.errors").tag("endpoint", failing.toString()).counter().count());
+        assertEquals(5, meterRegistry.get("hulft.square.endpoint.latency").tag("endpoint", healthy.toString()).timer().count());
+    }
+
+    @Test
+    void sendEvents_shouldStoreRejectedEventsAsDeadLetters_whenAckModeIsEnabled() {
+        // モックの設定：3件中2件目のみ拒否するACKを分割して返す
+        when(api.getBatchMaxEvents()).thenReturn(3);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getResponseMode()).thenReturn(HulftSquareProperties.ResponseMode.ACK);
+        when(stateManager.isRunning()).thenReturn(true);
+        NettyDataBufferFactory factory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+        List<DataBuffer> chunks = List.of(
+                factory.wrap("[true,{\"id\":\"a\",\"suc".getBytes(StandardCharsets.UTF_8)),
+                factory.wrap("cess\":false,\"error\":{\"success\":true}},{\"success\":true}]".getBytes(StandardCharsets.UTF_8)));
+        when(responseSpec.bodyToFlux(DataBuffer.class)).thenReturn(Flux.fromIterable(chunks));
+        when(deadLetterService.store(any(), any())).thenReturn(true);
+        hulftSquareService = createService();
+        ChangeEvent rejected = createTestEvent();
+
+        // 実行と検証：拒否されたイベントのみデッドレターとして保存し、応答ボディのバッファは解放される
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, rejected, createTestEvent())))
+                .expectNext(List.of(true, true, true))
+                .expectComplete()
+                .verify();
+
+        verify(responseSpec, never()).toBodilessEntity();
+        ArgumentCaptor<List<byte[]>> payloads = ArgumentCaptor.forClass(List.class);
+        verify(deadLetterService).store(payloads.capture(), eq("Rejected by HULFT Square"));
+        assertEquals(1, payloads.getValue().size());
+        assertTrue(new String(payloads.getValue().get(0), StandardCharsets.UTF_8).contains(rejected.getId()));
+        chunks.forEach(chunk -> assertEquals(0, ((NettyDataBuffer) chunk).getNativeBuffer().refCnt()));
+    }
+
+    @Test
+    void sendEvents_shouldStopRetrying_whenRetryBudgetIsExhausted() {
+        // モックの設定：通常のリクエストに対する再試行を許容せず、最低保証も1秒あたり1回のみとする
+        retryBudgetProperties.setPercent(0);
+        retryBudgetProperties.setMinRetriesPerSecond(1);
+        circuitBreakerProperties.setFailureThreshold(1000);
+        when(api.getBatchMaxEvents()).thenReturn(2);
+        when(api.getBatchLingerMs()).thenReturn(60000);
+        when(api.getRetryCount()).thenReturn(100);
+        when(api.getRetryBackoffMs()).thenReturn(1);
+        when(api.getRetryMaxBackoffMs()).thenReturn(1);
+        when(stateManager.isRunning()).thenReturn(true);
+        when(responseSpec.toBodilessEntity()).thenReturn(Mono.error(new RuntimeException("API Error")));
+        hulftSquareService = createService();
+
+        // 実行と検証：積み立て済みの10回分のみ再試行し、再試行回数の上限に達する前に失敗させる
+        StepVerifier.create(hulftSquareService.sendEvents(List.of(testEvent, createTestEvent())))
+                .expectNext(List.of(false, false))
+                .expectComplete()
+                .verify();
+        verify(webClient, atMost(12)).post();
+        assertEquals(1.0, meterRegistry.get("hulft.square.retry.budget.exhausted").counter().count());
+    }
+
+    private HulftSquareService createService() {
+        return createService(new SchemaCache(meterRegistry));
+    }
+
+    private HulftSquareService createService(SchemaCache schemaCache) {
+        return new HulftSquareService(webClient, hulftSquareProperties, stateManager, objectMapper,
+                deadLetterService, meterRegistry, schemaCache, allocator);
+    }
+
+    /**
+     * 確保したバッファをすべて記録するアロケーター
+     */
+    private static final class TrackingAllocator extends AbstractByteBufAllocator {
+
+        private final List<ByteBuf> allocated = new CopyOnWriteArrayList<>();
+
+        private TrackingAllocator() {
+            super(true);
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            return track(new UnpooledDirectByteBuf(this, initialCapacity, maxCapacity));
+        }
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return track(new UnpooledHeapByteBuf(this, initialCapacity, maxCapacity));
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return false;
+        }
+
+        private ByteBuf track(ByteBuf buffer) {
+            allocated.add(buffer);
+            return buffer;
+        }
+    }
+
+    private static Mono<ResponseEntity<Void>> ok() {
+        return Mono.just(ResponseEntity.ok().build());
+    }
+
+    /**
+     * 派生バッファやリーク検出用のラッパーを外し、リクエストボディを組み立てたバッファを取得
+     */
+    private static ByteBuf root(ByteBuf buffer) {
+        ByteBuf root = buffer;
+        while (root.unwrap() != null) {
+            root = root.unwrap();
+        }
+        return root;
+    }
+
+    private ChangeEvent createKeyedEvent(int id) {
+        ChangeEvent event = createTestEvent();
+        event.setKey(Map.of("id", id));
+        return event;
     }
 
     private ChangeEvent createTestEvent() {
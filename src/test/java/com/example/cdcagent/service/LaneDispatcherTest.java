@@ -0,0 +1,143 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaneDispatcherTest {
+
+    @Test
+    void dispatch_shouldProcessSameLaneInOrder() {
+        // テストデータ：1件目は手動で完了させる
+        Map<String, Sinks.One<List<Boolean>>> responses = new ConcurrentHashMap<>();
+        responses.put("a", Sinks.one());
+        List<List<String>> started = new CopyOnWriteArrayList<>();
+        LaneDispatcher<String> dispatcher = new LaneDispatcher<>(2, 1, items -> {
+            started.add(items);
+            Sinks.One<List<Boolean>> response = responses.get(items.get(0));
+            return response != null ? response.asMono() : Mono.just(List.of(true));
+        });
+
+        // 実行
+        Mono<Boolean> first = dispatcher.dispatch(0, "a");
+        Mono<Boolean> second = dispatcher.dispatch(0, "b");
+        Mono<Boolean> otherLane = dispatcher.dispatch(1, "c");
+
+        // 検証：同じレーンの2件目は1件目の完了を待ち、別レーンは先に処理される
+        StepVerifier.create(otherLane).expectNext(true).verifyComplete();
+        assertEquals(List.of(List.of("a"), List.of("c")), started);
+        assertEquals(2, dispatcher.depth(0));
+        assertEquals(0, dispatcher.depth(1));
+
+        // 実行
+        responses.get("a").tryEmitValue(List.of(true));
+
+        // 検証
+        StepVerifier.create(first).expectNext(true).verifyComplete();
+        StepVerifier.create(second).expectNext(true).verifyComplete();
+        assertEquals(List.of(List.of("a"), List.of("c"), List.of("b")), started);
+        assertEquals(0, dispatcher.depth(0));
+    }
+
+    @Test
+    void dispatch_shouldProcessQueuedItemsTogether() {
+        // テストデータ：1件目の処理中に3件を滞留させる
+        Sinks.One<List<Boolean>> firstResponse = Sinks.one();
+        List<List<String>> started = new CopyOnWriteArrayList<>();
+        LaneDispatcher<String> dispatcher = new LaneDispatcher<>(1, 2, items -> {
+            started.add(items);
+            return started.size() == 1
+                    ? firstResponse.asMono()
+                    : Mono.just(Collections.nCopies(items.size(), !items.contains("d")));
+        });
+
+        // 実行
+        Mono<Boolean> first = dispatcher.dispatch(0, "a");
+        Mono<Boolean> second = dispatcher.dispatch(0, "b");
+        Mono<Boolean> third = dispatcher.dispatch(0, "c");
+        Mono<Boolean> fourth = dispatcher.dispatch(0, "d");
+        firstResponse.tryEmitValue(List.of(true));
+
+        // 検証：滞留分は上限件数ずつ投入順にまとめて処理される
+        StepVerifier.create(first).expectNext(true).verifyComplete();
+        StepVerifier.create(second).expectNext(true).verifyComplete();
+        StepVerifier.create(third).expectNext(true).verifyComplete();
+        StepVerifier.create(fourth).expectNext(false).verifyComplete();
+        assertEquals(List.of(List.of("a"), List.of("b", "c"), List.of("d")), started);
+    }
+
+    @Test
+    void dispatch_shouldReturnFalseAndContinue_whenHandlerFails() {
+        // テストデータ
+        LaneDispatcher<String> dispatcher = new LaneDispatcher<>(1, 1, items ->
+                items.contains("bad") ? Mono.error(new IllegalStateException("error")) : Mono.just(List.of(true)));
+
+        // 実行と検証
+        StepVerifier.create(dispatcher.dispatch(0, "bad")).expectNext(false).verifyComplete();
+        StepVerifier.create(dispatcher.dispatch(0, "good")).expectNext(true).verifyComplete();
+        assertEquals(1, dispatcher.laneCount());
+    }
+
+    @Test
+    void dispatch_shouldWaitForAllLanes_whenItemSpansMultipleLanes() {
+        // テストデータ：レーン0の1件目は手動で完了させる
+        Sinks.One<List<Boolean>> firstResponse = Sinks.one();
+        List<List<String>> started = new CopyOnWriteArrayList<>();
+        LaneDispatcher<String> dispatcher = new LaneDispatcher<>(2, 10, items -> {
+            started.add(items);
+            return items.contains("a") ? firstResponse.asMono() : Mono.just(Collections.nCopies(items.size(), true));
+        });
+
+        // 実行
+        Mono<Boolean> first = dispatcher.dispatch(0, "a");
+        Mono<Boolean> spanning = dispatcher.dispatch(new int[]{0, 1, 1}, "tx");
+        Mono<Boolean> later = dispatcher.dispatch(1, "b");
+
+        // 検証：レーン0の完了を待ち、レーン1の後続の要素も先に処理しない
+        assertEquals(List.of(List.of("a")), started);
+        assertEquals(2, dispatcher.depth(1));
+
+        // 実行
+        firstResponse.tryEmitValue(List.of(true));
+
+        // 検証：複数のレーンにまたがる要素は単独で処理される
+        StepVerifier.create(first).expectNext(true).verifyComplete();
+        StepVerifier.create(spanning).expectNext(true).verifyComplete();
+        StepVerifier.create(later).expectNext(true).verifyComplete();
+        assertEquals(List.of(List.of("a"), List.of("tx"), List.of("b")), started);
+        assertEquals(0, dispatcher.depth(0));
+        assertEquals(0, dispatcher.depth(1));
+    }
+
+    @Test
+    void dispatch_shouldLimitChunkByItemWeight() {
+        // テストデータ：文字数を要素の大きさとし、1件目の処理中に滞留させる
+        Sinks.One<List<Boolean>> firstResponse = Sinks.one();
+        List<List<String>> started = new CopyOnWriteArrayList<>();
+        LaneDispatcher<String> dispatcher = new LaneDispatcher<>(1, 4, String::length, items -> {
+            started.add(items);
+            return started.size() == 1 ? firstResponse.asMono() : Mono.just(Collections.nCopies(items.size(), true));
+        });
+
+        // 実行
+        dispatcher.dispatch(0, "x");
+        dispatcher.dispatch(0, "aa");
+        dispatcher.dispatch(0, "bb");
+        dispatcher.dispatch(0, "c");
+        Mono<Boolean> large = dispatcher.dispatch(0, "dddddd");
+        firstResponse.tryEmitValue(List.of(true));
+
+        // 検証：大きさの合計が上限を超えないようにまとめ、上限を超える要素は単独で処理する
+        StepVerifier.create(large).expectNext(true).verifyComplete();
+        assertEquals(List.of(List.of("x"), List.of("aa", "bb"), List.of("c"), List.of("dddddd")), started);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.config.HulftSquareProperties;
+import com.github.luben.zstd.Zstd;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCompressorTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void compress_shouldProduceDecodableBodyForEachAlgorithm() throws IOException {
+        // テストデータ：圧縮が効く繰り返しの多いJSON
+        byte[] body = "{\"before\":{\"name\":\"Alice\",\"status\":\"active\"},\"after\":{\"name\":\"Alice\",\"status\":\"inactive\"}}"
+                .repeat(50).getBytes(StandardCharsets.UTF_8);
+
+        ByteBuf gzipInput = buffer(body);
+        ByteBuf deflateInput = buffer(body);
+
+        // 実行
+        RequestCompressor.Compressed gzip = new RequestCompressor(HulftSquareProperties.Compression.GZIP, 0, meterRegistry).compress(gzipInput);
+        RequestCompressor.Compressed deflate = new RequestCompressor(HulftSquareProperties.Compression.DEFLATE, 0, meterRegistry).compress(deflateInput);
+        RequestCompressor.Compressed zstd = new RequestCompressor(HulftSquareProperties.Compression.ZSTD, 0, meterRegistry).compress(buffer(body));
+
+        // 検証
+        byte[] gzipBytes = ByteBufUtil.getBytes(gzip.body());
+        assertEquals("gzip", gzip.encoding());
+        assertArrayEquals(body, new GZIPInputStream(new ByteArrayInputStream(gzipBytes)).readAllBytes());
+        assertEquals("deflate", deflate.encoding());
+        assertArrayEquals(body, new InflaterInputStream(new ByteArrayInputStream(ByteBufUtil.getBytes(deflate.body()))).readAllBytes());
+        assertEquals("zstd", zstd.encoding());
+        assertArrayEquals(body, Zstd.decompress(ByteBufUtil.getBytes(zstd.body()), body.length));
+
+        assertEquals(body.length, meterRegistry.get("hulft.square.compression.input").tag("algorithm", "gzip").summary().totalAmount());
+        assertEquals(gzipBytes.length, meterRegistry.get("hulft.square.compression.output").tag("algorithm", "gzip").summary().totalAmount());
+        assertEquals(1, meterRegistry.get("hulft.square.compression.time").tag("algorithm", "zstd").timer().count());
+
+        // 圧縮前のバッファは解放され、圧縮後のバッファの所有権は呼び出し元に移る
+        assertEquals(0, gzipInput.refCnt());
+        assertEquals(0, deflateInput.refCnt());
+        assertTrue(gzip.body().release());
+        assertTrue(deflate.body().release());
+        assertTrue(zstd.body().release());
+    }
+
+    @Test
+    void compress_shouldSkipBodyBelowThreshold() {
+        // テストデータ
+        RequestCompressor compressor = new RequestCompressor(HulftSquareProperties.Compression.GZIP, 1024, meterRegistry);
+        ByteBuf body = buffer("{\"id\":1}".getBytes(StandardCharsets.UTF_8));
+
+        // 実行
+        RequestCompressor.Compressed result = compressor.compress(body);
+
+        // 検証
+        assertNull(result.encoding());
+        assertSame(body, result.body());
+        assertTrue(body.release());
+        assertEquals(1.0, meterRegistry.get("hulft.square.compression.skipped").tag("reason", "small").counter().count());
+    }
+
+    @Test
+    void compress_shouldSendOriginal_whenBodyIsIncompressible() {
+        // テストデータ：ランダムなバイト列
+        RequestCompressor compressor = new RequestCompressor(HulftSquareProperties.Compression.GZIP, 0, meterRegistry);
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        ByteBuf body = buffer(random);
+
+        // 実行
+        RequestCompressor.Compressed result = compressor.compress(body);
+
+        // 検証：圧縮結果は破棄され、元のバッファがそのまま返される
+        assertNull(result.encoding());
+        assertSame(body, result.body());
+        assertEquals(1, body.refCnt());
+        assertTrue(body.release());
+        assertEquals(1.0, meterRegistry.get("hulft.square.compression.skipped").tag("reason", "incompressible").counter().count());
+    }
+
+    /**
+     * 解放後の参照カウントを検証できるよう、再利用されないバッファを使用する
+     */
+    private static ByteBuf buffer(byte[] bytes) {
+        return UnpooledByteBufAllocator.DEFAULT.buffer(bytes.length).writeBytes(bytes);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryBudgetTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void tryWithdraw_shouldLimitRetriesToPercentageOfRequests() {
+        // テストデータ：通常のリクエストの20%まで再試行を許容し、最低保証はなし
+        RetryBudget budget = new RetryBudget(20, 0, meterRegistry, clock::get);
+        assertFalse(budget.tryWithdraw());
+
+        // 実行：10件のリクエスト
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+
+        // 検証：2回分のみ再試行できる
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertEquals(2.0, meterRegistry.get("hulft.square.retry.budget.exhausted").counter().count());
+    }
+
+    @Test
+    void tryWithdraw_shouldRefillMinimumRetriesOverTime() {
+        // テストデータ：1秒あたり5回を保証し、上限（10秒分の50回）まで積み立て済み
+        RetryBudget budget = new RetryBudget(0, 5, meterRegistry, clock::get);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(budget.tryWithdraw());
+        }
+        assertFalse(budget.tryWithdraw());
+
+        // 実行と検証：1秒後は5回分が補充される
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(budget.tryWithdraw());
+        }
+        assertFalse(budget.tryWithdraw());
+
+        // 実行と検証：長時間経過しても上限を超えては積み立てない
+        clock.addAndGet(TimeUnit.HOURS.toNanos(1));
+        assertEquals(50.0, budget.available());
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.cdcagent.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchemaCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SchemaCache schemaCache = new SchemaCache(meterRegistry);
+
+    @Test
+    void resolve_shouldReuseSchema_untilColumnLayoutChanges() {
+        // 実行：同じ並びの行を2回、列を追加した行を1回
+        SchemaCache.Schema first = schemaCache.resolve("shop", "orders", row("id", 1, "status", "NEW"));
+        SchemaCache.Schema same = schemaCache.resolve("shop", "orders", row("id", 2, "status", "PAID"));
+        SchemaCache.Schema altered = schemaCache.resolve("shop", "orders", row("id", 3, "status", "NEW", "memo", "x"));
+        SchemaCache.Schema other = schemaCache.resolve("shop", "customers", row("id", 1, "status", "NEW"));
+
+        // 検証
+        assertSame(first, same);
+        assertEquals(List.of("id", "status"), first.columns());
+        assertNotEquals(first.id(), altered.id());
+        assertEquals(first.version() + 1, altered.version());
+        assertEquals(List.of("id", "status", "memo"), altered.columns());
+        assertNotEquals(first.id(), other.id());
+        assertEquals(2.0, meterRegistry.get("cdc.schema.cached").gauge().value());
+    }
+
+    @Test
+    void invalidate_shouldBumpVersion_evenWhenLayoutIsUnchanged() {
+        // テストデータ
+        SchemaCache.Schema before = schemaCache.resolve("shop", "orders", row("id", 1));
+        SchemaCache.Schema customers = schemaCache.resolve("shop", "customers", row("id", 1));
+
+        // 実行：ordersのDDLを受信した後、データベース全体のDDLを受信
+        schemaCache.invalidate("shop", "orders");
+        SchemaCache.Schema after = schemaCache.resolve("shop", "orders", row("id", 1));
+        schemaCache.invalidate("shop", null);
+
+        // 検証
+        assertNotEquals(before.id(), after.id());
+        assertEquals(before.version() + 1, after.version());
+        assertNotSame(customers, schemaCache.resolve("shop", "customers", row("id", 1)));
+        assertEquals(3.0, meterRegistry.get("cdc.schema.invalidations").counter().count());
+    }
+
+    @Test
+    void confirm_shouldBeDiscarded_whenConnectionIsReset() {
+        // テストデータ
+        SchemaCache.Schema schema = schemaCache.resolve("shop", "orders", row("id", 1));
+        long staleEpoch = schemaCache.epoch();
+        schemaCache.reset();
+
+        // 実行と検証：再接続前にシリアライズした定義の到達は記録しない
+        schemaCache.confirm(schema, staleEpoch);
+        assertFalse(schemaCache.isAnnounced(schema));
+
+        schemaCache.confirm(schema, schemaCache.epoch());
+        assertTrue(schemaCache.isAnnounced(schema));
+
+        schemaCache.reset();
+        assertFalse(schemaCache.isAnnounced(schema));
+    }
+
+    @Test
+    void revoke_shouldDiscardOnlyTheRevokedSchema() {
+        // テストデータ：両方のテーブルのスキーマの定義を届けた状態にする
+        SchemaCache.Schema orders = schemaCache.resolve("shop", "orders", row("id", 1));
+        SchemaCache.Schema customers = schemaCache.resolve("shop", "customers", row("id", 1));
+        long sentEpoch = schemaCache.epoch();
+        schemaCache.confirm(orders, sentEpoch);
+        schemaCache.confirm(customers, sentEpoch);
+
+        // 実行
+        schemaCache.revoke(orders.id());
+
+        // 検証：破棄したスキーマのみ送り直し、破棄より前にシリアライズした送信の完了は記録しない
+        assertFalse(schemaCache.isAnnounced(orders));
+        assertTrue(schemaCache.isAnnounced(customers));
+        schemaCache.confirm(orders, sentEpoch);
+        assertFalse(schemaCache.isAnnounced(orders));
+        schemaCache.confirm(orders, schemaCache.epoch());
+        assertTrue(schemaCache.isAnnounced(orders));
+    }
+
+    private static Map<String, Object> row(Object... columnsAndValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        return row;
+    }
+}
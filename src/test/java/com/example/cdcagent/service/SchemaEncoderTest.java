@@ -0,0 +1,76 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchemaEncoderTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final SchemaCache schemaCache = new SchemaCache(new SimpleMeterRegistry());
+    private final SchemaEncoder encoder = new SchemaEncoder(schemaCache);
+
+    @Test
+    void encode_shouldEmbedDefinitionUntilConfirmed() throws Exception {
+        // テストデータ
+        ChangeEvent event = createUpdate(row("id", 1, "status", "NEW"), row("id", 1, "status", "PAID"));
+
+        // 実行
+        SchemaEncoder.Encoded first = encoder.encode(event);
+        schemaCache.confirm(first.announced(), schemaCache.epoch());
+        SchemaEncoder.Encoded second = encoder.encode(event);
+
+        // 検証
+        JsonNode json = objectMapper.valueToTree(first.value());
+        assertEquals("[1,\"NEW\"]", json.get("before").toString());
+        assertEquals("[1,\"PAID\"]", json.get("after").toString());
+        assertEquals("[\"id\",\"status\"]", json.get("schema").get("columns").toString());
+        assertNull(second.announced());
+        assertFalse(objectMapper.valueToTree(second.value()).has("schema"));
+    }
+
+    @Test
+    void describe_shouldAddDefinitionSoThatRowsCanBeRestored() throws Exception {
+        // テストデータ：定義を含めずに送信した配列形式のイベント
+        ChangeEvent event = createUpdate(row("id", 1, "status", "NEW"), row("id", 1, "status", "PAID"));
+        schemaCache.confirm(encoder.encode(event).announced(), schemaCache.epoch());
+        byte[] payload = objectMapper.writeValueAsBytes(encoder.encode(event).value());
+
+        // 実行
+        ObjectNode described = (ObjectNode) objectMapper.readTree(encoder.describe(payload, objectMapper));
+        ObjectNode undescribed = (ObjectNode) objectMapper.readTree(payload);
+
+        // 検証：定義を追加したイベントは列名と値の形式に戻せる
+        assertTrue(SchemaEncoder.restoreRows(described));
+        ChangeEvent restored = objectMapper.treeToValue(described, ChangeEvent.class);
+        assertEquals(event.getBefore(), restored.getBefore());
+        assertEquals(event.getAfter(), restored.getAfter());
+        assertFalse(described.has("schemaId"));
+        assertFalse(SchemaEncoder.restoreRows(undescribed));
+    }
+
+    private static ChangeEvent createUpdate(Map<String, Object> before, Map<String, Object> after) {
+        ChangeEvent event = new ChangeEvent("e1", "mysql", "shop", "orders", ChangeEvent.OperationType.UPDATE,
+                Instant.ofEpochMilli(1700000000000L), before, after);
+        event.setKey(Map.of("id", 1));
+        return event;
+    }
+
+    private static Map<String, Object> row(Object... columnsAndValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillQueueTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void append_shouldReadInOrderAcrossSegments() throws IOException {
+        // テストデータ：1セグメントに2件までしか入らないサイズ
+        try (SpillQueue queue = new SpillQueue(directory, 2 * (8 + 5))) {
+            // 実行
+            queue.append(List.of(bytes("event"), bytes("eve-2"), bytes("eve-3")));
+
+            // 検証
+            assertEquals(3, queue.size());
+            assertEquals(2, segmentFiles().size());
+            assertEquals(List.of("event", "eve-2"), strings(queue.peek(2)));
+            assertEquals(List.of("event", "eve-2", "eve-3"), strings(queue.peek(10)));
+
+            // 実行：先頭のセグメントを読み終えると削除される
+            queue.remove(2);
+
+            // 検証
+            assertEquals(1, queue.size());
+            assertEquals(1, segmentFiles().size());
+            assertEquals(List.of("eve-3"), strings(queue.peek(10)));
+
+            // 実行：空になると追記中のセグメントも削除される
+            queue.remove(1);
+
+            // 検証
+            assertTrue(queue.isEmpty());
+            assertEquals(0, segmentFiles().size());
+        }
+    }
+
+    @Test
+    void peek_shouldSkipRecordsAlreadyRead() throws IOException {
+        // テストデータ：1セグメントに2件までしか入らないサイズ
+        try (SpillQueue queue = new SpillQueue(directory, 2 * (8 + 5))) {
+            queue.append(List.of(bytes("event"), bytes("eve-2"), bytes("eve-3")));
+            queue.remove(1);
+
+            // 実行と検証：取り除いた位置からの件数で読み飛ばす
+            assertEquals(List.of("eve-3"), strings(queue.peek(1, 10)));
+            assertEquals(List.of("eve-2"), strings(queue.peek(0, 1)));
+            assertEquals(List.of(), strings(queue.peek(2, 10)));
+        }
+    }
+
+    @Test
+    void constructor_shouldReloadRemainingRecords() throws IOException {
+        // テストデータ
+        try (SpillQueue queue = new SpillQueue(directory, 1024)) {
+            queue.append(List.of(bytes("a"), bytes("b"), bytes("c")));
+            queue.remove(1);
+        }
+
+        // 実行：再起動後は削除していないレコードを先頭から読み直す
+        try (SpillQueue reopened = new SpillQueue(directory, 1024)) {
+            // 検証：取り除いたがセグメントに残っていたレコードも再送対象になる
+            assertEquals(List.of("a", "b", "c"), strings(reopened.peek(10)));
+
+            // 実行：追記は既存のレコードの後ろに続く
+            reopened.append(List.of(bytes("d")));
+
+            // 検証
+            assertEquals(4, reopened.size());
+            assertEquals(List.of("a", "b", "c", "d"), strings(reopened.peek(10)));
+        }
+    }
+
+    @Test
+    void constructor_shouldDiscardCorruptedRecords() throws IOException {
+        // テストデータ：2件目のペイロードを書き換える
+        try (SpillQueue queue = new SpillQueue(directory, 1024)) {
+            queue.append(List.of(bytes("first"), bytes("second"), bytes("third")));
+        }
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), 8 + 5 + 8);
+        }
+
+        // 実行
+        try (SpillQueue reopened = new SpillQueue(directory, 1024)) {
+            // 検証：壊れたレコード以降は破棄され、新しいレコードは別のセグメントに追記される
+            assertEquals(1, reopened.corruptedRecords());
+            assertEquals(List.of("first"), strings(reopened.peek(10)));
+            reopened.append(List.of(bytes("fourth")));
+            assertEquals(List.of("first", "fourth"), strings(reopened.peek(10)));
+            assertEquals(2, segmentFiles().size());
+        }
+    }
+
+    @Test
+    void append_shouldRejectEmptyRecord() throws IOException {
+        // 実行と検証
+        try (SpillQueue queue = new SpillQueue(directory, 1024)) {
+            assertThrows(IllegalArgumentException.class, () -> queue.append(List.of(new byte[0])));
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.sorted().toList();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(List<byte[]> payloads) {
+        return payloads.stream().map(payload -> new String(payload, StandardCharsets.UTF_8)).toList();
+    }
+}
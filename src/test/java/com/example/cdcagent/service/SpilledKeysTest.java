@@ -0,0 +1,50 @@
+package com.example.cdcagent.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpilledKeysTest {
+
+    @Test
+    void blocks_shouldMatchSameRowOrKeylessEventsOfTheTable() {
+        // テストデータ
+        SpilledKeys keys = new SpilledKeys(0);
+        SpilledKeys.Row order1 = new SpilledKeys.Row("shop.orders", "{\"id\":1}");
+
+        // 実行
+        keys.add(List.of(order1));
+
+        // 検証：同じ行と、主キーの無い同じテーブルのイベントのみ退避の後ろに並べる
+        assertTrue(keys.blocks(List.of(new SpilledKeys.Row("shop.orders", "{\"id\":1}"))));
+        assertTrue(keys.blocks(List.of(new SpilledKeys.Row("shop.orders", null))));
+        assertFalse(keys.blocks(List.of(new SpilledKeys.Row("shop.orders", "{\"id\":2}"))));
+        assertFalse(keys.blocks(List.of(new SpilledKeys.Row("shop.customers", "{\"id\":1}"))));
+
+        // 実行と検証：主キーの無いイベントを退避すると、そのテーブルのすべての行を並べる
+        keys.add(List.of(new SpilledKeys.Row("shop.customers", null)));
+        assertTrue(keys.blocks(List.of(new SpilledKeys.Row("shop.customers", "{\"id\":5}"))));
+
+        // 実行と検証：再送し終えると記録が無くなる
+        keys.remove(List.of(order1, new SpilledKeys.Row("shop.customers", null)));
+        assertTrue(keys.isEmpty());
+        assertFalse(keys.blocks(List.of(new SpilledKeys.Row("shop.orders", "{\"id\":1}"))));
+    }
+
+    @Test
+    void blocks_shouldMatchEverything_untilRestoredEventsAreDrained() {
+        // テストデータ：起動時に行の分からない2件が残っていた
+        SpilledKeys keys = new SpilledKeys(2);
+        SpilledKeys.Row row = new SpilledKeys.Row("shop.orders", "{\"id\":1}");
+
+        // 実行と検証
+        assertTrue(keys.blocks(List.of(row)));
+        keys.remove(List.of(row));
+        assertTrue(keys.blocks(List.of(row)));
+        keys.remove(List.of(row));
+        assertFalse(keys.blocks(List.of(row)));
+        assertTrue(keys.isEmpty());
+    }
+}
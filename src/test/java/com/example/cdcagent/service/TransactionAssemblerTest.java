@@ -0,0 +1,92 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionAssemblerTest {
+
+    @Test
+    void poll_shouldReturnTransactionAsOneUnitInReceiveOrder() {
+        // テストデータ
+        TransactionAssembler assembler = new TransactionAssembler(10);
+        ChangeEvent snapshot = createEvent("snapshot", null);
+        ChangeEvent insert = createEvent("insert", "tx-1");
+        ChangeEvent update = createEvent("update", "tx-1");
+        ChangeEvent other = createEvent("other", "tx-2");
+
+        // 実行：ENDを受け取るまではトランザクションのイベントを保持する
+        assembler.add(snapshot);
+        assembler.begin("tx-1");
+        assembler.add(insert);
+        assembler.add(update);
+        List<TransactionAssembler.Unit> beforeEnd = assembler.poll();
+        assembler.end("tx-1", 2);
+        // BEGINを受け取っていないトランザクションのイベントはまとめない
+        assembler.add(other);
+        List<TransactionAssembler.Unit> afterEnd = assembler.poll();
+
+        // 検証
+        assertEquals(List.of(new TransactionAssembler.Unit(List.of(snapshot), false)), beforeEnd);
+        assertEquals(List.of(
+                new TransactionAssembler.Unit(List.of(insert, update), true),
+                new TransactionAssembler.Unit(List.of(other), false)), afterEnd);
+        assertNull(insert.getTransactionEventCount());
+        assertEquals(2L, update.getTransactionEventCount());
+        assertEquals(0, assembler.pending());
+    }
+
+    @Test
+    void add_shouldSplitLargeTransactionIntoBoundedUnits() {
+        // テストデータ
+        TransactionAssembler assembler = new TransactionAssembler(2);
+        List<ChangeEvent> events = List.of(createEvent("1", "tx-1"), createEvent("2", "tx-1"),
+                createEvent("3", "tx-1"), createEvent("4", "tx-1"));
+
+        // 実行
+        assembler.begin("tx-1");
+        events.forEach(assembler::add);
+        List<TransactionAssembler.Unit> beforeEnd = assembler.poll();
+        assembler.end("tx-1", 4);
+        List<TransactionAssembler.Unit> afterEnd = assembler.poll();
+
+        // 検証：上限ごとに分割し、最後の送信単位はENDを受け取るまで保持する
+        assertEquals(List.of(new TransactionAssembler.Unit(events.subList(0, 2), true)), beforeEnd);
+        assertEquals(List.of(new TransactionAssembler.Unit(events.subList(2, 4), true)), afterEnd);
+        assertEquals(4L, events.get(3).getTransactionEventCount());
+    }
+
+    @Test
+    void begin_shouldCloseTransactionWhoseEndWasNotReceived() {
+        // テストデータ
+        TransactionAssembler assembler = new TransactionAssembler(10);
+        ChangeEvent first = createEvent("1", "tx-1");
+        ChangeEvent second = createEvent("2", "tx-2");
+
+        // 実行
+        assembler.begin("tx-1");
+        assembler.add(first);
+        assembler.begin("tx-2");
+        assembler.add(second);
+
+        // 検証：ENDを受け取っていないトランザクションはイベント数を設定せずに送信単位とする
+        assertEquals(List.of(new TransactionAssembler.Unit(List.of(first), true)), assembler.poll());
+        assertNull(first.getTransactionEventCount());
+        assertEquals(1, assembler.pending());
+
+        // 実行と検証：破棄した後は何も保持しない
+        assembler.clear();
+        assertEquals(0, assembler.pending());
+        assertEquals(List.of(), assembler.poll());
+    }
+
+    private ChangeEvent createEvent(String id, String transactionId) {
+        ChangeEvent event = new ChangeEvent(id, "mysql", "testdb", "users", ChangeEvent.OperationType.INSERT,
+                null, null, null);
+        event.setTransactionId(transactionId);
+        return event;
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.model.ChangeEvent;
+import com.example.cdcagent.model.ChangeEventBatch;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpdateCoalescerTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UpdateCoalescer coalescer = new UpdateCoalescer("counters", meterRegistry);
+
+    @Test
+    void offer_shouldMergeConsecutiveUpdatesOfSameRow() {
+        // テストデータ：同じ行の3回の更新
+        ChangeEvent first = createEvent("e1", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 0), Map.of("n", 1));
+        ChangeEvent second = createEvent("e2", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 1), Map.of("n", 2));
+        ChangeEvent third = createEvent("e3", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 2), Map.of("n", 3));
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second, third));
+
+        // 実行
+        PendingEvent pending = coalescer.offer(batch, first);
+        assertNull(coalescer.offer(batch, second));
+        assertNull(coalescer.offer(batch, third));
+
+        // 検証：最初のbeforeと最後のafterを持つ1件にまとめる
+        assertEquals(ChangeEvent.OperationType.UPDATE, pending.event().getOperation());
+        assertEquals(Map.of("n", 0), pending.event().getBefore());
+        assertEquals(Map.of("n", 3), pending.event().getAfter());
+        assertEquals("e3", pending.event().getId());
+        assertEquals(3, pending.sourceCount());
+        assertEquals(2.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+
+        // 検証：送信結果はまとめた元のイベントすべてに報告される
+        pending.markDelivered(true);
+        assertTrue(batch.isSuccessful());
+    }
+
+    @Test
+    void offer_shouldCancelInsertFollowedByDelete() {
+        // テストデータ：挿入、更新、削除の後に再び挿入
+        ChangeEvent insert = createEvent("e1", ChangeEvent.OperationType.INSERT, 1, null, Map.of("n", 1));
+        ChangeEvent update = createEvent("e2", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 1), Map.of("n", 2));
+        ChangeEvent delete = createEvent("e3", ChangeEvent.OperationType.DELETE, 1, Map.of("n", 2), null);
+        ChangeEvent reinsert = createEvent("e4", ChangeEvent.OperationType.INSERT, 1, null, Map.of("n", 9));
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(insert, update, delete, reinsert));
+
+        // 実行
+        PendingEvent pending = coalescer.offer(batch, insert);
+        assertNull(coalescer.offer(batch, update));
+        assertNull(coalescer.offer(batch, delete));
+        PendingEvent next = coalescer.offer(batch, reinsert);
+
+        // 検証：打ち消し合ったイベントは送信を取り消し、後続の挿入は新たに送信する
+        assertTrue(pending.isCancelled());
+        assertNotNull(next);
+        assertSame(reinsert, next.event());
+        assertEquals(3.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+        assertEquals(1, coalescer.size());
+    }
+
+    @Test
+    void offer_shouldNotMergeEventsWithoutTransactionId() {
+        // テストデータ：トランザクションのメタデータが無い同じ行の更新
+        ChangeEvent first = createEvent("e1", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 0), Map.of("n", 1));
+        ChangeEvent second = createEvent("e2", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 1), Map.of("n", 2));
+        first.setTransactionId(null);
+        second.setTransactionId(null);
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second));
+
+        // 実行と検証：トランザクションの境界が分からないため、それぞれ送信する
+        PendingEvent pending = coalescer.offer(batch, first);
+        assertNotNull(pending);
+        assertNotNull(coalescer.offer(batch, second));
+        assertSame(first, pending.event());
+        assertEquals(0, coalescer.size());
+        assertEquals(0.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+    }
+
+    @Test
+    void offer_shouldNotMergeAcrossTransactionsOrAfterRemoval() {
+        // テストデータ：異なるトランザクションの更新と、別の行の更新
+        ChangeEvent first = createEvent("e1", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 0), Map.of("n", 1));
+        ChangeEvent otherTransaction = createEvent("e2", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 1), Map.of("n", 2));
+        ChangeEvent otherRow = createEvent("e3", ChangeEvent.OperationType.UPDATE, 2, Map.of("n", 0), Map.of("n", 1));
+        ChangeEvent later = createEvent("e4", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 2), Map.of("n", 3));
+        first.setTransactionId("tx-1");
+        otherTransaction.setTransactionId("tx-2");
+        later.setTransactionId("tx-2");
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, otherTransaction, otherRow, later));
+
+        // 実行と検証：トランザクションや行が異なる場合はまとめない
+        assertNotNull(coalescer.offer(batch, first));
+        PendingEvent pending = coalescer.offer(batch, otherTransaction);
+        assertNotNull(pending);
+        assertNotNull(coalescer.offer(batch, otherRow));
+
+        // 実行と検証：送信キューから取り出した後の変更はまとめない
+        coalescer.remove(pending);
+        assertNotNull(coalescer.offer(batch, later));
+        assertEquals(Map.of("n", 2), pending.event().getAfter());
+    }
+
+    @Test
+    void offerTransaction_shouldMergeChangesOfSameRowWithinTransaction() {
+        // テストデータ：2行をそれぞれ繰り返し変更し、一時的な行を挿入して削除するトランザクション
+        ChangeEvent insert = createEvent("e1", ChangeEvent.OperationType.INSERT, 1, null, Map.of("n", 1));
+        ChangeEvent update = createEvent("e2", ChangeEvent.OperationType.UPDATE, 2, Map.of("n", 0), Map.of("n", 1));
+        ChangeEvent temporary = createEvent("e3", ChangeEvent.OperationType.INSERT, 3, null, Map.of("n", 1));
+        ChangeEvent insertUpdate = createEvent("e4", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 1), Map.of("n", 2));
+        ChangeEvent updateUpdate = createEvent("e5", ChangeEvent.OperationType.UPDATE, 2, Map.of("n", 1), Map.of("n", 2));
+        ChangeEvent temporaryDelete = createEvent("e6", ChangeEvent.OperationType.DELETE, 3, Map.of("n", 1), null);
+        temporaryDelete.setTransactionEventCount(6L);
+        ChangeEventBatch batch = new ChangeEventBatch(
+                List.of(insert, update, temporary, insertUpdate, updateUpdate, temporaryDelete), event -> { }, true);
+
+        // 実行
+        PendingEvent pending = coalescer.offerTransaction(batch, event -> true);
+
+        // 検証：行ごとに最初の位置の1件にまとめ、送信するイベントで順序とイベント数を振り直す
+        List<ChangeEvent> sent = pending.events();
+        assertEquals(2, sent.size());
+        assertEquals(ChangeEvent.OperationType.INSERT, sent.get(0).getOperation());
+        assertEquals(Map.of("n", 2), sent.get(0).getAfter());
+        assertEquals(Map.of("n", 0), sent.get(1).getBefore());
+        assertEquals(Map.of("n", 2), sent.get(1).getAfter());
+        assertEquals(1L, sent.get(0).getTransactionOrder());
+        assertNull(sent.get(0).getTransactionEventCount());
+        assertEquals(2L, sent.get(1).getTransactionOrder());
+        assertEquals(2L, sent.get(1).getTransactionEventCount());
+        assertEquals(6L, temporaryDelete.getTransactionEventCount());
+        assertEquals(4.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+
+        // 検証：まとめた元のイベントにはまとめたイベントの結果を、打ち消し合ったイベントには全体の結果を報告する
+        assertFalse(pending.markDelivered(List.of(true, false), 0));
+        assertEquals(List.of(update, temporary, updateUpdate, temporaryDelete), batch.getFailedEvents().stream()
+                .sorted(Comparator.comparing(ChangeEvent::getId)).toList());
+    }
+
+    @Test
+    void offerTransaction_shouldNotMergeSplitTransaction() {
+        // テストデータ：上限で分割されたトランザクションの一部
+        ChangeEvent first = createEvent("e1", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 0), Map.of("n", 1));
+        ChangeEvent second = createEvent("e2", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 1), Map.of("n", 2));
+        second.setTransactionEventCount(10L);
+        ChangeEventBatch batch = new ChangeEventBatch(List.of(first, second), event -> { }, true);
+
+        // 実行
+        PendingEvent pending = coalescer.offerTransaction(batch, event -> true);
+
+        // 検証：受信側がトランザクション全体のイベント数で完了を判断するため、そのまま送信する
+        assertEquals(List.of(first, second), pending.events());
+        assertEquals(0.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+    }
+
+    @Test
+    void offerTransaction_shouldMergeCommittedTransactionsOfSameRow() {
+        // テストデータ：同じ行を更新する3つのトランザクション（1つ目は同じ行を2回更新する）
+        ChangeEvent first = createEvent("e1", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 0), Map.of("n", 1));
+        ChangeEvent second = createEvent("e2", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 1), Map.of("n", 2));
+        second.setTransactionEventCount(2L);
+        ChangeEvent third = createEvent("e3", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 2), Map.of("n", 3));
+        third.setTransactionId("tx-2");
+        third.setTransactionOrder(1L);
+        third.setTransactionEventCount(1L);
+        ChangeEvent loose = createEvent("e4", ChangeEvent.OperationType.UPDATE, 1, Map.of("n", 3), Map.of("n", 4));
+        loose.setTransactionId("tx-2");
+        ChangeEventBatch tx1 = new ChangeEventBatch(List.of(first, second), event -> { }, true);
+        ChangeEventBatch tx2 = new ChangeEventBatch(List.of(third), event -> { }, true);
+        ChangeEventBatch looseBatch = new ChangeEventBatch(List.of(loose));
+
+        // 実行
+        PendingEvent pending = coalescer.offerTransaction(tx1, event -> true);
+        assertNull(coalescer.offerTransaction(tx2, event -> true));
+        // トランザクションの一部のみの可能性があるイベントはコミット済みのトランザクションとまとめない
+        assertNotNull(coalescer.offer(looseBatch, loose));
+
+        // 検証：後のトランザクションのコミット時点の行として1件にまとめる
+        ChangeEvent merged = pending.event();
+        assertEquals(1, pending.events().size());
+        assertEquals(Map.of("n", 0), merged.getBefore());
+        assertEquals(Map.of("n", 3), merged.getAfter());
+        assertEquals("tx-2", merged.getTransactionId());
+        assertEquals(1L, merged.getTransactionEventCount());
+        assertEquals(3, pending.sourceCount());
+        assertEquals(2.0, meterRegistry.get("cdc.coalesce.absorbed").counter().count());
+
+        // 検証：まとめたすべてのトランザクションに結果を報告する
+        pending.markDelivered(List.of(true), 0);
+        assertTrue(tx1.isSuccessful());
+        assertTrue(tx2.isSuccessful());
+    }
+
+    private ChangeEvent createEvent(String id, ChangeEvent.OperationType operation, int key,
+                                    Map<String, Object> before, Map<String, Object> after) {
+        ChangeEvent event = new ChangeEvent();
+        event.setId(id);
+        event.setType("mysql");
+        event.setDatabase("testdb");
+        event.setTable("counters");
+        event.setOperation(operation);
+        event.setKey(Map.of("id", key));
+        event.setBefore(before);
+        event.setAfter(after);
+        event.setTransactionId("tx-1");
+        return event;
+    }
+}
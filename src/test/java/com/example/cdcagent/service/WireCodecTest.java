@@ -0,0 +1,96 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.config.HulftSquareProperties;
+import com.example.cdcagent.model.ChangeEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireCodecTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Test
+    void encodeBatch_shouldConcatenateSmileEventsIntoOneArray() throws Exception {
+        // テストデータ：名前の共有が有効な場合に参照が生じる、同じ列名を持つイベント
+        WireCodec codec = new WireCodec(HulftSquareProperties.WireFormat.SMILE, objectMapper);
+        byte[] first = codec.mapper().writeValueAsBytes(createEvent("e1", 1));
+        byte[] second = codec.mapper().writeValueAsBytes(createEvent("e2", 2));
+
+        // 実行
+        JsonNode batch = decode(codec, codec.encodeBatch(List.of(first, second), null, UnpooledByteBufAllocator.DEFAULT));
+
+        // 検証：イベントはそれぞれ単独で復号でき、連結した配列も復号できる
+        assertEquals(HulftSquareProperties.WireFormat.SMILE, WireCodec.detect(first));
+        assertEquals("e2", codec.readerFor(second).readTree(second).get("id").asText());
+        assertEquals(2, batch.size());
+        assertEquals("e1", batch.get(0).get("id").asText());
+        assertEquals(2, batch.get(1).get("after").get("id").asInt());
+        assertEquals(12.5, batch.get(1).get("after").get("score").asDouble());
+    }
+
+    @Test
+    void encodeBatch_shouldConcatenateCborEventsIntoIndefiniteArray() throws Exception {
+        // テストデータ
+        WireCodec codec = new WireCodec(HulftSquareProperties.WireFormat.CBOR, objectMapper);
+        byte[] first = codec.mapper().writeValueAsBytes(createEvent("e1", 1));
+        byte[] second = codec.mapper().writeValueAsBytes(createEvent("e2", 2));
+
+        // 実行
+        JsonNode batch = decode(codec, codec.encodeBatch(List.of(first, second), null, UnpooledByteBufAllocator.DEFAULT));
+
+        // 検証
+        assertEquals(HulftSquareProperties.WireFormat.CBOR, WireCodec.detect(first));
+        assertEquals(MediaType.APPLICATION_CBOR, codec.batchContentType(HulftSquareProperties.BatchFormat.NDJSON));
+        assertEquals(2, batch.size());
+        assertEquals("e2", batch.get(1).get("id").asText());
+    }
+
+    @Test
+    void encodeBatch_shouldConvertEventsEncodedBeforeFormatChange() throws Exception {
+        // テストデータ：JSONで退避したイベントと、CBORで符号化したイベント
+        WireCodec codec = new WireCodec(HulftSquareProperties.WireFormat.CBOR, objectMapper);
+        byte[] spilled = objectMapper.writeValueAsBytes(createEvent("e1", 1));
+        byte[] current = codec.mapper().writeValueAsBytes(createEvent("e2", 2));
+
+        // 実行
+        JsonNode batch = decode(codec, codec.encodeBatch(List.of(spilled, current), null, UnpooledByteBufAllocator.DEFAULT));
+
+        // 検証
+        assertEquals("e1", batch.get(0).get("id").asText());
+        assertEquals(1, batch.get(0).get("after").get("id").asInt());
+        assertEquals("e2", batch.get(1).get("id").asText());
+        assertEquals(HulftSquareProperties.WireFormat.JSON, WireCodec.detect(spilled));
+    }
+
+    private static JsonNode decode(WireCodec codec, ByteBuf body) throws Exception {
+        try {
+            return codec.mapper().readTree(ByteBufUtil.getBytes(body));
+        } finally {
+            body.release();
+        }
+    }
+
+    private static ChangeEvent createEvent(String id, int rowId) {
+        Map<String, Object> after = new LinkedHashMap<>();
+        after.put("id", rowId);
+        after.put("name", "Test Name");
+        after.put("score", 12.5);
+        ChangeEvent event = new ChangeEvent(id, "mysql", "testdb", "testtable", ChangeEvent.OperationType.INSERT,
+                Instant.ofEpochMilli(1700000000000L), null, after);
+        event.setKey(Map.of("id", rowId));
+        return event;
+    }
+}
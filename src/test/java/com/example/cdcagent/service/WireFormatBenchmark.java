@@ -0,0 +1,78 @@
+package com.example.cdcagent.service;
+
+import com.example.cdcagent.config.HulftSquareProperties;
+import com.example.cdcagent.model.ChangeEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 符号化方式（JSON / Smile / CBOR）ごとのイベントの符号化・復号の比較ベンチマーク
+ * 行はデコーダーが出力するCompactRow（整数・文字列・浮動小数点数の列が1/3ずつのUPDATEイベント）を使用する
+ * 実行: テストクラスパスで main を実行する（符号化後のバイト数を表示してからベンチマークを実行する）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    private HulftSquareProperties.WireFormat format;
+
+    @Param({"10", "80"})
+    private int columns;
+
+    private ChangeEvent event;
+    private byte[] encoded;
+    private ObjectMapper mapper;
+
+    @Setup
+    public void setUp() throws IOException {
+        event = createEvent(columns);
+        mapper = new WireCodec(format, Jackson2ObjectMapperBuilder.json().build()).mapper();
+        encoded = mapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return mapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public ChangeEvent decode() throws IOException {
+        return mapper.readValue(encoded, ChangeEvent.class);
+    }
+
+    private static ChangeEvent createEvent(int columns) throws IOException {
+        ChangeEvent event = new ChangeEventDecoder().decode(ChangeEventDecoderBenchmark.createRecord(columns));
+        event.setKey(Map.of("col0", 2000000L));
+        return event;
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        for (int columns : new int[]{10, 80}) {
+            ChangeEvent event = createEvent(columns);
+            for (HulftSquareProperties.WireFormat format : HulftSquareProperties.WireFormat.values()) {
+                int size = new WireCodec(format, objectMapper).mapper().writeValueAsBytes(event).length;
+                System.out.printf("columns=%d format=%s bytes=%d%n", columns, format, size);
+            }
+        }
+
+        Options options = new OptionsBuilder()
+                .include(WireFormatBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}